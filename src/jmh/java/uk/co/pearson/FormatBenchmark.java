@@ -0,0 +1,58 @@
+package uk.co.pearson;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the whole store list in each of the formats /stores/all can be asked for, to an output stream that only
+ * counts the bytes. The setup prints the payload size of the format next to the size of the JSON.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx12g")
+public class FormatBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    int rows;
+
+    @Param({"JSON", "SMILE", "RECORDS", "CSV"})
+    StoreFormat format;
+
+    private List<Store> stores;
+
+    @Setup
+    public void loadStores() throws IOException {
+        stores = new StoreConverter().convertAll(new StoreDataGenerator(42).lines(rows));
+        long json = size(StoreFormat.JSON);
+        long size = size(format);
+        System.out.printf("%n%s payload for %d stores: %d bytes, %.1f%% of JSON%n",
+                format, rows, size, 100.0 * size / json);
+    }
+
+    @Benchmark
+    public long write() throws IOException {
+        return size(format);
+    }
+
+    private long size(StoreFormat format) throws IOException {
+        SerializationBenchmark.CountingOutputStream outputStream = new SerializationBenchmark.CountingOutputStream();
+        format.write(stores, outputStream);
+        return outputStream.count;
+    }
+}
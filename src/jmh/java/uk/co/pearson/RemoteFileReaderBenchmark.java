@@ -0,0 +1,75 @@
+package uk.co.pearson;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading the store file without the network: the file is served from memory through the
+ * {@link RemoteFileReader#getBufferedReader()} hook.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx12g")
+public class RemoteFileReaderBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    int rows;
+
+    private RemoteFileReader remoteFileReader;
+    private String lastId;
+    private String middleId;
+
+    @Setup
+    public void generateFile() {
+        String file = new StoreDataGenerator(42).file(rows);
+        remoteFileReader = new InMemoryFileReader(file);
+        lastId = String.valueOf(rows);
+        middleId = String.valueOf(rows / 2);
+    }
+
+    @Benchmark
+    public List<String> readAll() throws IOException {
+        return remoteFileReader.readAll();
+    }
+
+    @Benchmark
+    public String readOneLineByIdInTheMiddle() throws IOException {
+        return remoteFileReader.readOneLineById(middleId);
+    }
+
+    @Benchmark
+    public String readOneLineByIdAtTheEnd() throws IOException {
+        return remoteFileReader.readOneLineById(lastId);
+    }
+
+    private static class InMemoryFileReader extends RemoteFileReader {
+        private final String file;
+
+        InMemoryFileReader(String file) {
+            this.file = file;
+        }
+
+        @Override
+        protected BufferedReader getBufferedReader() {
+            return new BufferedReader(new StringReader(file));
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package uk.co.pearson;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes the whole store list to an output stream that throws the bytes away, once the way Spring MVC does it
+ * for the default response and once the way the streaming response does it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx12g")
+public class SerializationBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    int rows;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final StoreJsonWriter storeJsonWriter = new StoreJsonWriter();
+    private List<Store> stores;
+
+    @Setup
+    public void loadStores() {
+        stores = new StoreConverter().convertAll(new StoreDataGenerator(42).lines(rows));
+    }
+
+    @Benchmark
+    public long objectMapper() throws IOException {
+        CountingOutputStream outputStream = new CountingOutputStream();
+        objectMapper.writeValue(outputStream, stores);
+        return outputStream.count;
+    }
+
+    @Benchmark
+    public long storeJsonWriter() throws IOException {
+        CountingOutputStream outputStream = new CountingOutputStream();
+        storeJsonWriter.writeArray(stores, outputStream);
+        return outputStream.count;
+    }
+
+    static class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            count += length;
+        }
+    }
+}
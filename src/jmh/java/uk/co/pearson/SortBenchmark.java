@@ -0,0 +1,92 @@
+package uk.co.pearson;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorting now happens in two places: once per data load, when {@link SortIndex} ranks every field, and once per
+ * request, when the stores are read in the requested order. Both are measured for every sort mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx12g")
+public class SortBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    int rows;
+
+    @Param({"", "id", "city", "postcode", "opendate", "daysSinceOpen", "city,-opendate"})
+    String sort;
+
+    private StoreTable table;
+    private StoreSnapshot snapshot;
+    private SortSpec sortSpec;
+
+    @Setup
+    public void loadStores() {
+        List<Store> stores = new StoreConverter().convertAll(new StoreDataGenerator(42).lines(rows));
+        snapshot = new StoreSnapshot(stores, 1, System.currentTimeMillis());
+        table = StoreTable.of(stores);
+        sortSpec = SortSpec.parse(sort);
+    }
+
+    /**
+     * The cost paid once per data load, for all sort modes together.
+     */
+    @Benchmark
+    public SortIndex buildSortIndex() {
+        return new SortIndex(table);
+    }
+
+    /**
+     * The cost of a composite sort the first time it is asked for after a data load. Only the sort is timed: every
+     * call gets a sort index of its own, built beforehand, that has not cached any order yet. With 1000 rows the sort
+     * is short enough for the timing of each call to weigh on the score.
+     */
+    @Benchmark
+    public int[] sortUncached(UncachedSortIndex uncached) {
+        return uncached.sortIndex.order(sortSpec);
+    }
+
+    /**
+     * The cost paid by every request: walking the stores in the requested order.
+     */
+    @Benchmark
+    public void readSorted(Blackhole blackhole) {
+        for (Store store : snapshot.getStores(sortSpec)) {
+            blackhole.consume(store);
+        }
+    }
+
+    /**
+     * A sort index built again before every call of {@link #sortUncached(UncachedSortIndex)}, outside the time
+     * measured.
+     */
+    @State(Scope.Thread)
+    public static class UncachedSortIndex {
+
+        SortIndex sortIndex;
+
+        @Setup(Level.Invocation)
+        public void build(SortBenchmark benchmark) {
+            sortIndex = new SortIndex(benchmark.table);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package uk.co.pearson;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx12g")
+public class StoreConverterBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    int rows;
+
+    private final StoreConverter storeConverter = new StoreConverter();
+    private List<String> lines;
+    private int next;
+
+    @Setup
+    public void generateLines() {
+        lines = new StoreDataGenerator(42).lines(rows);
+    }
+
+    /**
+     * One line per invocation, cycling through the generated lines; the score is lines per second.
+     */
+    @Benchmark
+    public Store convertStringToStore() {
+        String line = lines.get(next);
+        next = next + 1 == rows ? 0 : next + 1;
+        return storeConverter.convertStringToStore(line);
+    }
+
+    /**
+     * Every line per invocation; multiply the score by the number of rows for lines per second.
+     */
+    @Benchmark
+    public List<Store> convertAll() {
+        return storeConverter.convertAll(lines);
+    }
+}
@@ -0,0 +1,68 @@
+package uk.co.pearson;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates store file lines that look like the real ones: numeric ids, UK style postcodes, a few hundred cities
+ * (some of them quoted), quoted addresses containing commas and dd/MM/yyyy open dates, plus the odd bad row.
+ * The same seed always gives the same lines.
+ */
+public class StoreDataGenerator {
+
+    public static final String HEADER = "storeId,postCode,city,address,openedDate";
+
+    private static final String[] CITIES = {"London", "Manchester", "Birmingham", "Leeds", "Glasgow", "Edinburgh",
+            "Bristol", "Cardiff", "Belfast", "Newcastle upon Tyne", "Sheffield", "Liverpool", "Nottingham", "Leicester"};
+    private static final String[] STREETS = {"High Street", "Station Road", "Church Lane", "Victoria Road",
+            "Green Lane", "Manor Road", "Park Avenue", "Queens Road", "New Street", "Mill Lane"};
+    private static final String[] AREAS = {"WC", "EC", "SW", "NW", "M", "B", "LS", "G", "EH", "BS", "CF", "BT"};
+
+    private final Random random;
+
+    public StoreDataGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    public List<String> lines(int count) {
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            lines.add(line(i));
+        }
+        return lines;
+    }
+
+    /**
+     * @return the lines with the header in front, joined with new lines, as they would be downloaded
+     */
+    public String file(int count) {
+        StringBuilder file = new StringBuilder(count * 80).append(HEADER);
+        for (int i = 0; i < count; i++) {
+            file.append('\n').append(line(i));
+        }
+        return file.toString();
+    }
+
+    public String line(int index) {
+        StringBuilder line = new StringBuilder(96);
+        line.append(index + 1).append(',');
+        line.append(AREAS[random.nextInt(AREAS.length)]).append(1 + random.nextInt(20)).append(' ')
+                .append(random.nextInt(10)).append((char) ('A' + random.nextInt(26))).append((char) ('A' + random.nextInt(26)))
+                .append(',');
+        String city = CITIES[random.nextInt(CITIES.length)] + (random.nextInt(4) == 0 ? "" : " " + random.nextInt(50));
+        if (random.nextInt(10) == 0) {
+            line.append('"').append(city).append('"');
+        } else {
+            line.append(city);
+        }
+        line.append(",\"Unit ").append(1 + random.nextInt(200)).append(", ").append(1 + random.nextInt(300)).append(' ')
+                .append(STREETS[random.nextInt(STREETS.length)]).append('"').append(',');
+        if (random.nextInt(1000) == 0) {
+            line.append("unknown");
+        } else {
+            line.append(String.format("%02d/%02d/%d", 1 + random.nextInt(28), 1 + random.nextInt(12), 1980 + random.nextInt(40)));
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,103 @@
+package uk.co.pearson;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Whole-file ingestion: reading every line and then converting it, as the service used to, against parsing chunks
+ * on a fork-join pool of {@code parallelism} threads. Compare the scores across parallelism on a machine with at
+ * least that many cores.
+ * <p>
+ * Local files are parsed from a memory-mapped buffer straight into a {@link StoreTable} on one thread, whatever the
+ * parallelism; compare it with parsing in chunks and then building the table, and look at the allocation per
+ * operation the GC profiler reports next to the time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx12g")
+public class StoreFileParserBenchmark {
+
+    @Param({"100000", "1000000"})
+    int rows;
+
+    @Param({"1", "2", "4", "8"})
+    int parallelism;
+
+    private byte[] file;
+    private Path mappedFile;
+    private MappedByteBuffer mapped;
+    private ForkJoinPool pool;
+    private StoreFileParser storeFileParser;
+    private final StoreConverter storeConverter = new StoreConverter();
+    private final StoreBufferParser storeBufferParser = new StoreBufferParser();
+
+    @Setup
+    public void generateFile() throws IOException {
+        file = new StoreDataGenerator(42).file(rows).getBytes(StandardCharsets.UTF_8);
+        pool = new ForkJoinPool(parallelism);
+        storeFileParser = new StoreFileParser(pool, StoreFileParser.DEFAULT_CHUNK_BYTES);
+        mappedFile = Files.createTempFile("stores", ".csv");
+        Files.write(mappedFile, file);
+        try (FileChannel channel = FileChannel.open(mappedFile, StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    @TearDown
+    public void shutDownPool() throws IOException {
+        pool.shutdown();
+        mapped = null;
+        Files.deleteIfExists(mappedFile);
+    }
+
+    @Benchmark
+    public List<Store> readLinesThenConvert() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(file),
+                StandardCharsets.UTF_8));
+        List<String> lines = reader.lines().skip(1).collect(Collectors.toList());
+        return storeConverter.convertAll(lines, RemoteFileReader.FIRST_DATA_LINE);
+    }
+
+    @Benchmark
+    public List<Store> parseInChunks() throws IOException {
+        return storeFileParser.parse(new ByteArrayInputStream(file)).getStores();
+    }
+
+    @Benchmark
+    public StoreTable parseInChunksThenBuildTable() throws IOException {
+        return StoreTable.of(storeFileParser.parse(new ByteArrayInputStream(file)).getStores());
+    }
+
+    @Benchmark
+    public List<Store> parseMappedFile() {
+        return storeBufferParser.parse(mapped).getStores();
+    }
+}
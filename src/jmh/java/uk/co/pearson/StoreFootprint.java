@@ -0,0 +1,49 @@
+package uk.co.pearson;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reports the heap retained by the stores of a snapshot, one object per store with an id map as snapshots used to
+ * hold them, against a {@link StoreTable}. Run with "gradlew footprint", optionally with -Prows=...
+ * The numbers are the used heap after a full collection, so run it with nothing else going on in the JVM.
+ */
+public class StoreFootprint {
+
+    private static Object retained;
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        long before = usedHeapAfterGc();
+        List<Store> stores = new StoreConverter().convertAll(new StoreDataGenerator(42).lines(rows));
+        Map<String, Store> storesById = new HashMap<>();
+        for (Store store : stores) {
+            storesById.putIfAbsent(store.getId(), store);
+        }
+        retained = new Object[]{stores, storesById};
+        long objectBytes = usedHeapAfterGc() - before;
+
+        StoreTable table = StoreTable.of(stores);
+        retained = table;
+        stores = null;
+        storesById = null;
+        long tableBytes = usedHeapAfterGc() - before;
+
+        System.out.printf("%,d stores%n", table.size());
+        System.out.printf("Store objects and id map: %,d bytes, %d per store%n", objectBytes, objectBytes / rows);
+        System.out.printf("StoreTable:               %,d bytes, %d per store%n", tableBytes, tableBytes / rows);
+        System.out.printf("Reduction:                %.1f%%%n", 100.0 * (objectBytes - tableBytes) / objectBytes);
+    }
+
+    private static long usedHeapAfterGc() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,96 @@
+package uk.co.pearson;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records every garbage collection pause of this JVM from the notifications of its collector MXBeans, while recording
+ * is on, to the millisecond the JVM reports them in. Collectors that mostly run next to the application, such as the
+ * concurrent cycles of CMS, G1 and ZGC, report whole cycles rather than pauses and are only counted.
+ */
+public class GcPauses implements AutoCloseable {
+
+    private final LatencyHistogram pauses = new LatencyHistogram();
+    private final AtomicLong totalPauseMillis = new AtomicLong();
+    private final Map<String, AtomicLong> collections = new TreeMap<>();
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+    private final NotificationListener listener = (notification, handback) -> {
+        if (notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+            record(GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData()));
+        }
+    };
+    private volatile boolean recording;
+
+    public GcPauses() {
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collections.put(collector.getName(), new AtomicLong());
+            if (collector instanceof NotificationEmitter) {
+                NotificationEmitter emitter = (NotificationEmitter) collector;
+                emitter.addNotificationListener(listener, null, null);
+                emitters.add(emitter);
+            }
+        }
+    }
+
+    public void start() {
+        recording = true;
+    }
+
+    public void stop() {
+        recording = false;
+    }
+
+    public LatencyHistogram getPauses() {
+        return pauses;
+    }
+
+    public long getTotalPauseMillis() {
+        return totalPauseMillis.get();
+    }
+
+    /**
+     * @return the number of collections recorded by collector name
+     */
+    public Map<String, Long> getCollections() {
+        Map<String, Long> counts = new TreeMap<>();
+        collections.forEach((name, count) -> counts.put(name, count.get()));
+        return counts;
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (NotificationEmitter emitter : emitters) {
+            emitter.removeNotificationListener(listener);
+        }
+    }
+
+    private void record(GarbageCollectionNotificationInfo info) {
+        if (!recording) {
+            return;
+        }
+        AtomicLong count = collections.get(info.getGcName());
+        if (count != null) {
+            count.incrementAndGet();
+        }
+        if (!isConcurrent(info.getGcName())) {
+            long duration = info.getGcInfo().getDuration();
+            pauses.record(TimeUnit.MILLISECONDS.toNanos(duration));
+            totalPauseMillis.addAndGet(duration);
+        }
+    }
+
+    private static boolean isConcurrent(String gcName) {
+        return gcName.contains("Concurrent") || gcName.contains("Cycles");
+    }
+}
@@ -0,0 +1,321 @@
+package uk.co.pearson;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Loads the whole service, offline: starts a {@link StubStoreServer} with generated stores, starts the application
+ * pointed at it, and sends requests to {@code /stores/all}, with every sort, and {@code /stores/{storeId}}, reads and
+ * writes, at a fixed rate. Run it with "gradlew loadTest"; the settings are system properties, all optional:
+ * <ul>
+ * <li>loadtest.rows: stores in the stub file, 1000000</li>
+ * <li>loadtest.rate: requests sent per second, 200</li>
+ * <li>loadtest.warmup-seconds and loadtest.duration-seconds: how long to send requests before and while measuring,
+ * 15 and 60</li>
+ * <li>loadtest.all-percent: share of the requests going to /stores/all, spread evenly over the sorts, 2</li>
+ * <li>loadtest.write-percent: share of the requests that are a PUT to /stores/{storeId} of a random store, 0; each
+ * waits for the fsync of the write log, and the stores written are published in new versions while the reads go
+ * on</li>
+ * <li>loadtest.stub-latency-ms and loadtest.stub-failure-rate: see {@link StubStoreServer}, 0 and 0</li>
+ * <li>loadtest.refresh-seconds: stores.refresh.interval-seconds of the application, so refreshes happen under load,
+ * 30</li>
+ * <li>loadtest.connections: most requests in flight at once, 256</li>
+ * </ul>
+ * Requests are sent when they are due whether or not the earlier ones have been answered, and latency is counted
+ * from when a request was due, so a stall shows in the percentiles instead of slowing the load down. A request that
+ * cannot be sent because every connection is busy waits, and the wait counts too.
+ * <p>
+ * The report has, for each kind of request, the throughput, the errors and the p50/p99/p999/max latency, then the
+ * garbage collection pauses of the JVM, which the application and the load share.
+ */
+public class LoadTest {
+
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private final int rate;
+    private final int warmupSeconds;
+    private final int durationSeconds;
+    private final int connections;
+    private final String baseUrl;
+    private final List<Target> targets;
+    private final Target[] mix;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[BUFFER_BYTES]);
+
+    LoadTest(String baseUrl, int rows, int rate, int warmupSeconds, int durationSeconds, int allPercent,
+             int writePercent, int connections) {
+        this.baseUrl = baseUrl;
+        this.rate = rate;
+        this.warmupSeconds = warmupSeconds;
+        this.durationSeconds = durationSeconds;
+        this.connections = connections;
+        this.targets = new ArrayList<>();
+        targets.add(new Target("/stores/all", "/stores/all", 0, false));
+        for (SortField field : SortField.values()) {
+            targets.add(new Target("/stores/all?sort=" + field.getName(), "/stores/all?sort=" + field.getName(), 0,
+                    false));
+        }
+        int allTargets = targets.size();
+        Target byId = new Target("/stores/{storeId}", "/stores/", rows, false);
+        targets.add(byId);
+        Target write = new Target("PUT /stores/{storeId}", "/stores/", rows, true);
+        targets.add(write);
+
+        // One slot per percent of the requests: allPercent of them for /stores/all, spread over its sorts, then
+        // writePercent of them for writes.
+        this.mix = new Target[100];
+        for (int i = 0; i < mix.length; i++) {
+            mix[i] = i < allPercent ? targets.get(i % allTargets) : i < allPercent + writePercent ? write : byId;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = Integer.getInteger("loadtest.rows", 1000000);
+        int rate = Integer.getInteger("loadtest.rate", 200);
+        int warmupSeconds = Integer.getInteger("loadtest.warmup-seconds", 15);
+        int durationSeconds = Integer.getInteger("loadtest.duration-seconds", 60);
+        int allPercent = Integer.getInteger("loadtest.all-percent", 2);
+        int writePercent = Integer.getInteger("loadtest.write-percent", 0);
+        long stubLatencyMillis = Long.getLong("loadtest.stub-latency-ms", 0);
+        double stubFailureRate = Double.parseDouble(System.getProperty("loadtest.stub-failure-rate", "0"));
+        int refreshSeconds = Integer.getInteger("loadtest.refresh-seconds", 30);
+        int connections = Integer.getInteger("loadtest.connections", 256);
+        System.setProperty("http.maxConnections", String.valueOf(connections));
+
+        Path dataDirectory = Files.createTempDirectory("store-load-test");
+        long generateStart = System.nanoTime();
+        try (StubStoreServer stub = new StubStoreServer(rows, stubLatencyMillis, stubFailureRate);
+             GcPauses gcPauses = new GcPauses()) {
+            System.out.printf("Stub serving %,d stores (%,d bytes) at %s, generated in %d ms%n", rows,
+                    stub.getFileBytes(), stub.getUrl(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - generateStart));
+
+            ConfigurableApplicationContext context = SpringApplication.run(Application.class,
+                    "--server.port=0",
+                    "--stores.source-url=" + stub.getUrl(),
+                    "--stores.refresh.interval-seconds=" + refreshSeconds,
+                    "--stores.snapshot-file=" + dataDirectory.resolve("store-snapshot.bin"),
+                    "--stores.write-log.file=" + dataDirectory.resolve("store-writes.log"));
+            try {
+                String baseUrl = "http://127.0.0.1:" + context.getEnvironment().getProperty("local.server.port");
+                LoadTest loadTest = new LoadTest(baseUrl, rows, rate, warmupSeconds, durationSeconds, allPercent,
+                        writePercent, connections);
+                loadTest.awaitStores();
+                loadTest.run(gcPauses);
+                System.out.printf("Stub downloads: %d, failed on purpose: %d%n", stub.getDownloads(), stub.getFailures());
+            } finally {
+                context.close();
+            }
+        }
+    }
+
+    /**
+     * Waits until the application has loaded the stores, so the first download is not part of the measurements.
+     */
+    void awaitStores() throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        while (!isLoaded()) {
+            if (System.nanoTime() - start > TimeUnit.MINUTES.toNanos(10)) {
+                throw new IOException("The stores were not loaded within 10 minutes");
+            }
+            TimeUnit.MILLISECONDS.sleep(200);
+        }
+        System.out.printf("Stores loaded in %d ms%n", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private boolean isLoaded() {
+        try {
+            return send("/stores/snapshot") == HttpURLConnection.HTTP_OK;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    void run(GcPauses gcPauses) throws InterruptedException {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(connections, connections, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "load-test-client");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Random random = new Random(42);
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+        int maxInFlight = 0;
+        boolean measuring = false;
+        System.out.printf("Sending %d requests per second for %d s of warm-up and %d s measured%n", rate,
+                warmupSeconds, durationSeconds);
+        for (long i = 0; ; i++) {
+            long due = start + i * intervalNanos;
+            if (due >= end) {
+                break;
+            }
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            if (!measuring && due >= measureFrom) {
+                measuring = true;
+                gcPauses.start();
+            }
+            Target target = mix[random.nextInt(mix.length)];
+            String path = target.path(random);
+            boolean measured = measuring;
+            maxInFlight = Math.max(maxInFlight, inFlight.incrementAndGet());
+            executor.execute(() -> request(target, path, due, measured));
+        }
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.MINUTES);
+        gcPauses.stop();
+        report(gcPauses, maxInFlight);
+    }
+
+    private void request(Target target, String path, long due, boolean measured) {
+        int status;
+        try {
+            status = target.write ? send(path, body(path)) : send(path);
+        } catch (IOException e) {
+            status = -1;
+        } finally {
+            inFlight.decrementAndGet();
+        }
+        if (!measured) {
+            return;
+        }
+        if (status == HttpURLConnection.HTTP_OK || status == HttpURLConnection.HTTP_NO_CONTENT) {
+            target.latencies.recordSince(due);
+        } else {
+            target.errors.increment();
+        }
+    }
+
+    /**
+     * Sends a GET and reads the whole answer, throwing the body away.
+     *
+     * @return the status
+     */
+    private int send(String path) throws IOException {
+        return send(path, null);
+    }
+
+    /**
+     * Sends a PUT of the given JSON body, or a GET if it is null, and reads the whole answer, throwing it away.
+     *
+     * @return the status
+     */
+    private int send(String path, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(60000);
+        if (body != null) {
+            connection.setRequestMethod("PUT");
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+        }
+        int status = connection.getResponseCode();
+        InputStream answer = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (answer != null) {
+            byte[] buffer = buffers.get();
+            try (InputStream in = answer) {
+                while (in.read(buffer) >= 0) {
+                    // the body is only read so the connection can be used again
+                }
+            }
+        }
+        return status;
+    }
+
+    /**
+     * A store to write to the given path: the store with the id at its end, moved to a new address.
+     */
+    private static byte[] body(String path) {
+        String id = path.substring(path.lastIndexOf('/') + 1);
+        return ("{\"postCode\":\"LT1 " + id.length() + "AA\",\"city\":\"Loadtown\",\"address\":\"" + id
+                + " Load Street\",\"openDate\":\"01/01/2020\"}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void report(GcPauses gcPauses, int maxInFlight) {
+        System.out.println();
+        System.out.printf("%-28s %9s %8s %7s %9s %9s %9s %9s%n", "request", "count", "req/s", "errors",
+                "p50 ms", "p99 ms", "p999 ms", "max ms");
+        long count = 0;
+        long errors = 0;
+        for (Target target : targets) {
+            printRow(target.name, target.latencies, target.errors.sum());
+            count += target.latencies.getCount();
+            errors += target.errors.sum();
+        }
+        System.out.printf("%-28s %9d %8.1f %7d%n", "total", count, (double) count / durationSeconds, errors);
+        System.out.printf("Most requests in flight: %d of %d connections%n", maxInFlight, connections);
+
+        LatencyHistogram pauses = gcPauses.getPauses();
+        System.out.println();
+        long pauseMillis = gcPauses.getTotalPauseMillis();
+        System.out.printf("GC pauses: %d, %d ms in total (%.2f%% of the time), p50 %s ms, p99 %s ms, max %s ms%n",
+                pauses.getCount(), pauseMillis, 100.0 * pauseMillis / TimeUnit.SECONDS.toMillis(durationSeconds),
+                millis(pauses.getPercentileNanos(50)), millis(pauses.getPercentileNanos(99)),
+                millis(pauses.getMaxNanos()));
+        System.out.printf("Collections by collector: %s%n", gcPauses.getCollections());
+    }
+
+    private void printRow(String name, LatencyHistogram latencies, long errors) {
+        System.out.printf("%-28s %9d %8.1f %7d %9s %9s %9s %9s%n", name, latencies.getCount(),
+                (double) latencies.getCount() / durationSeconds, errors,
+                millis(latencies.getPercentileNanos(50)), millis(latencies.getPercentileNanos(99)),
+                millis(latencies.getPercentileNanos(99.9)), millis(latencies.getMaxNanos()));
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1f", nanos / 1e6);
+    }
+
+    /**
+     * One kind of request and what was measured for it.
+     */
+    private static class Target {
+        final String name;
+        final String path;
+        final int ids;
+        final boolean write;
+        final LatencyHistogram latencies = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+
+        /**
+         * @param ids when above 0, a random store id from 1 to ids is appended to the path of every request
+         * @param write whether the requests are PUTs of a store rather than GETs
+         */
+        Target(String name, String path, int ids, boolean write) {
+            this.name = name;
+            this.path = path;
+            this.ids = ids;
+            this.write = write;
+        }
+
+        String path(Random random) {
+            return ids > 0 ? path + (1 + random.nextInt(ids)) : path;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package uk.co.pearson;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves a generated store file over HTTP on the loopback interface, standing in for the real one so the service can
+ * be loaded without a network. The file is made by {@link StoreDataGenerator} once, when the server starts, so every
+ * download is the same bytes.
+ * <p>
+ * Downloads can be made slower and made to fail: every download waits {@code latencyMillis} before the first byte,
+ * and a share of them, {@code failureRate}, fails, half with a 500 and half by closing the connection halfway through
+ * the file.
+ */
+public class StubStoreServer implements AutoCloseable {
+
+    public static final String PATH = "/stores.csv";
+
+    private static final int CHUNK_BYTES = 1 << 16;
+
+    private final byte[] file;
+    private final long latencyMillis;
+    private final double failureRate;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicLong downloads = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public StubStoreServer(int rows, long latencyMillis, double failureRate) throws IOException {
+        this(0, rows, latencyMillis, failureRate);
+    }
+
+    public StubStoreServer(int port, int rows, long latencyMillis, double failureRate) throws IOException {
+        this.file = generate(rows);
+        this.latencyMillis = latencyMillis;
+        this.failureRate = failureRate;
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "stub-store-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(PATH, this::serve);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Runs the stub on its own, e.g. to point a separately started service at it with --stores.source-url.
+     * Arguments: port, rows, latency in milliseconds, failure rate.
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8081;
+        int rows = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        long latencyMillis = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        double failureRate = args.length > 3 ? Double.parseDouble(args[3]) : 0;
+        StubStoreServer stub = new StubStoreServer(port, rows, latencyMillis, failureRate);
+        System.out.printf("Serving %,d stores (%,d bytes) at %s%n", rows, stub.getFileBytes(), stub.getUrl());
+        Thread.currentThread().join();
+    }
+
+    public String getUrl() {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getHostString() + ":" + address.getPort() + PATH;
+    }
+
+    public long getFileBytes() {
+        return file.length;
+    }
+
+    public long getDownloads() {
+        return downloads.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        try {
+            downloads.incrementAndGet();
+            if (latencyMillis > 0) {
+                TimeUnit.MILLISECONDS.sleep(latencyMillis);
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            boolean fail = random.nextDouble() < failureRate;
+            if (fail) {
+                failures.incrementAndGet();
+            }
+            if (fail && random.nextBoolean()) {
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+            exchange.getResponseHeaders().add("Content-Type", "text/csv; charset=utf-8");
+            exchange.sendResponseHeaders(200, file.length);
+            int length = fail ? file.length / 2 : file.length;
+            OutputStream body = exchange.getResponseBody();
+            for (int offset = 0; offset < length; offset += CHUNK_BYTES) {
+                body.write(file, offset, Math.min(CHUNK_BYTES, length - offset));
+            }
+            if (!fail) {
+                body.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static byte[] generate(int rows) {
+        StoreDataGenerator generator = new StoreDataGenerator(42);
+        ByteArrayOutputStream file = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE - 8, rows * 80L + 64));
+        byte[] header = StoreDataGenerator.HEADER.getBytes(StandardCharsets.UTF_8);
+        file.write(header, 0, header.length);
+        for (int i = 0; i < rows; i++) {
+            byte[] line = ('\n' + generator.line(i)).getBytes(StandardCharsets.UTF_8);
+            file.write(line, 0, line.length);
+        }
+        return file.toByteArray();
+    }
+}
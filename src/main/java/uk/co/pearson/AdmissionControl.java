@@ -0,0 +1,189 @@
+package uk.co.pearson;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.function.Supplier;
+
+/**
+ * Decides which store requests are served now, which wait and which are answered 503 straight away, with one
+ * {@link ConcurrencyLimiter} per endpoint so that a slow endpoint cannot take the places of the others.
+ * <p>
+ * Bulk endpoints, {@code /stores/all} in every format, are shed first: they get a shorter queue, and they are refused
+ * without queueing at all while any of the other endpoints is saturated, so the cheap lookups keep answering while
+ * the service is loaded.
+ * <p>
+ * The limits, the requests in flight and queued, and the requests refused are published at {@code /metrics} under
+ * {@code stores.admission.*}, with the state of the circuit breaker of the store source.
+ */
+@Component
+public class AdmissionControl implements PublicMetrics {
+
+    public enum Endpoint {
+        ALL("all", true),
+        STORE("store", false),
+        SEARCH("search", false),
+        BATCH("batch", false),
+        STATS("stats", false),
+        SNAPSHOT("snapshot", false),
+        INGEST_REPORT("ingest-report", false),
+        WRITE("write", false);
+
+        private final String name;
+        private final boolean bulk;
+
+        Endpoint(String name, boolean bulk) {
+            this.name = name;
+            this.bulk = bulk;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isBulk() {
+            return bulk;
+        }
+    }
+
+    @Autowired(required = false)
+    CircuitBreaker sourceCircuitBreaker;
+
+    @Value("${stores.admission.enabled:true}")
+    boolean enabled = true;
+
+    @Value("${stores.admission.initial-limit:20}")
+    int initialLimit = 20;
+
+    @Value("${stores.admission.min-limit:2}")
+    int minLimit = 2;
+
+    @Value("${stores.admission.max-limit:200}")
+    int maxLimit = 200;
+
+    @Value("${stores.admission.latency-tolerance:2.0}")
+    double latencyTolerance = 2.0;
+
+    @Value("${stores.admission.queue-capacity:100}")
+    int queueCapacity = 100;
+
+    @Value("${stores.admission.bulk-queue-capacity:10}")
+    int bulkQueueCapacity = 10;
+
+    @Value("${stores.admission.queue-timeout-millis:1000}")
+    long queueTimeoutMillis = 1000;
+
+    @Value("${stores.admission.retry-after-seconds:1}")
+    long retryAfterSeconds = 1;
+
+    private final Map<Endpoint, ConcurrencyLimiter> limiters = new EnumMap<>(Endpoint.class);
+    private ScheduledExecutorService timer;
+
+    @PostConstruct
+    public void start() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+            thread.setName("store-admission-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        timer = executor;
+        for (Endpoint endpoint : Endpoint.values()) {
+            limiters.put(endpoint, new ConcurrencyLimiter("/stores " + endpoint.getName(), initialLimit, minLimit,
+                    maxLimit, latencyTolerance, endpoint.isBulk() ? bulkQueueCapacity : queueCapacity,
+                    queueTimeoutMillis, retryAfterSeconds, timer));
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs the handler of a request once the endpoint has room for it, and gives the room back when the future of the
+     * handler completes. A handler that fails on the server's side counts as a slow answer; one that fails because of
+     * the request, with an {@link InvalidRequestException} or a {@link StoreConflictException}, does not, as that
+     * says nothing about the load.
+     *
+     * @return the future of the handler, or a future failed with a {@link ServiceUnavailableException} if the request
+     * was refused
+     */
+    public <T> CompletableFuture<T> run(Endpoint endpoint, Supplier<CompletableFuture<T>> handler) {
+        if (!enabled) {
+            return handler.get();
+        }
+        ConcurrencyLimiter limiter = limiters.get(endpoint);
+        if (endpoint.isBulk() && isAnyInteractiveSaturated()) {
+            return limiter.reject("shed while the other endpoints are saturated");
+        }
+        return limiter.acquire().thenCompose(permit ->
+        {
+            CompletableFuture<T> handled;
+            try {
+                handled = handler.get();
+            } catch (RuntimeException | Error e) {
+                permit.release(isServerFailure(e));
+                throw e;
+            }
+            return handled.whenComplete((result, e) -> permit.release(isServerFailure(e)));
+        });
+    }
+
+    ConcurrencyLimiter limiter(Endpoint endpoint) {
+        return limiters.get(endpoint);
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+        limiters.forEach((endpoint, limiter) -> {
+            String prefix = "stores.admission." + endpoint.getName() + ".";
+            metrics.add(new Metric<>(prefix + "limit", limiter.getLimit()));
+            metrics.add(new Metric<>(prefix + "in-flight", limiter.getInFlight()));
+            metrics.add(new Metric<>(prefix + "queued", limiter.getQueued()));
+            metrics.add(new Metric<>(prefix + "rejected", limiter.getRejected()));
+        });
+        if (sourceCircuitBreaker != null) {
+            metrics.add(new Metric<>("stores.source.circuit.open",
+                    sourceCircuitBreaker.getState() == CircuitBreaker.State.CLOSED ? 0 : 1));
+            metrics.add(new Metric<>("stores.source.circuit.failures", sourceCircuitBreaker.getFailures()));
+        }
+        return metrics;
+    }
+
+    private static boolean isServerFailure(Throwable e) {
+        if (e == null) {
+            return false;
+        }
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        return !(cause instanceof InvalidRequestException || cause instanceof StoreConflictException);
+    }
+
+    private boolean isAnyInteractiveSaturated() {
+        for (Map.Entry<Endpoint, ConcurrencyLimiter> entry : limiters.entrySet()) {
+            if (!entry.getKey().isBulk() && entry.getValue().isSaturated()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,85 @@
+package uk.co.pearson;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops calling something that keeps failing, so callers fail straight away instead of each waiting for its timeouts.
+ * <ul>
+ * <li>closed: calls go through; {@code failureThreshold} failures in a row open the circuit</li>
+ * <li>open: calls are refused with a {@link ServiceUnavailableException} for {@code openMillis}</li>
+ * <li>half open: after that, one call is let through to try again; it closes the circuit if it succeeds and opens it
+ * again if it fails, while the calls arriving meanwhile are refused</li>
+ * </ul>
+ * Every call let through by {@link #acquire()} has to end with {@link #succeeded()} or {@link #failed()}.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongSupplier nanoClock;
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        this(name, failureThreshold, openMillis, System::nanoTime);
+    }
+
+    CircuitBreaker(String name, int failureThreshold, long openMillis, LongSupplier nanoClock) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * @throws ServiceUnavailableException if the circuit is open, or half open and already being tried
+     */
+    public synchronized void acquire() {
+        if (state == State.HALF_OPEN) {
+            throw new ServiceUnavailableException(name + " is being tried again", 1);
+        }
+        if (state == State.OPEN) {
+            long remaining = openedAt + openNanos - nanoClock.getAsLong();
+            if (remaining > 0) {
+                throw new ServiceUnavailableException(name + " failed " + failures + " times, not trying it again for "
+                        + TimeUnit.NANOSECONDS.toMillis(remaining) + " ms", toSeconds(remaining));
+            }
+            state = State.HALF_OPEN;
+        }
+    }
+
+    public synchronized void succeeded() {
+        state = State.CLOSED;
+        failures = 0;
+    }
+
+    public synchronized void failed() {
+        failures++;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = nanoClock.getAsLong();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return the failures in a row so far
+     */
+    public synchronized int getFailures() {
+        return failures;
+    }
+
+    private static long toSeconds(long nanos) {
+        return Math.max(1, (nanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+    }
+}
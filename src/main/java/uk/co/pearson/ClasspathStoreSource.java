@@ -0,0 +1,43 @@
+package uk.co.pearson;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reads the store file from the classpath, e.g. a file packaged for tests or demos. Resources do not change while the
+ * application runs, so once a download has been committed the file is never read again.
+ */
+public class ClasspathStoreSource implements StoreSource {
+
+    private final String resource;
+    private final LongAdder bytesRead = new LongAdder();
+    private volatile boolean committed;
+
+    public ClasspathStoreSource(String resource) {
+        this.resource = resource.startsWith("/") ? resource.substring(1) : resource;
+    }
+
+    @Override
+    public StoreDownload open() throws IOException {
+        if (committed) {
+            return null;
+        }
+        InputStream stream = ClasspathStoreSource.class.getClassLoader().getResourceAsStream(resource);
+        if (stream == null) {
+            throw new FileNotFoundException("No " + resource + " on the classpath");
+        }
+        return new StoreDownload(new CountingInputStream(stream, bytesRead), () -> committed = true);
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "classpath:" + resource;
+    }
+}
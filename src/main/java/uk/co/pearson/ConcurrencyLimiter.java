@@ -0,0 +1,195 @@
+package uk.co.pearson;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lets a limited number of requests run at once, queues a limited number more for a limited time, and refuses the
+ * rest with a {@link ServiceUnavailableException}, so a slow service answers some requests quickly and the others
+ * straight away instead of all of them ever more slowly.
+ * <p>
+ * The limit adapts to the latency of the requests, additive increase, multiplicative decrease: the lowest latency
+ * seen is taken as the latency without load, and a request taking more than {@code tolerance} times that, or
+ * failing, lowers the limit by a tenth, at most once per such latency; otherwise, while the requests running use at
+ * least half of it, the limit grows by one every limit requests. Latencies under a millisecond never lower it, as they
+ * say more about the scheduler than about the load. The latency without load drifts slowly towards the latencies
+ * seen, so a service that has become slower for good is learnt again.
+ * <p>
+ * A queued request is started by the thread of the request whose place it takes, or refused by the timer thread
+ * when its time is up.
+ */
+public class ConcurrencyLimiter {
+
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final long BASELINE_DRIFT = 1000;
+    private static final long MIN_CONGESTED_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final int queueCapacity;
+    private final long queueTimeoutMillis;
+    private final long retryAfterSeconds;
+    private final ScheduledExecutorService timer;
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+    private final LongAdder rejected = new LongAdder();
+    private double limit;
+    private int inFlight;
+    private long noLoadNanos = Long.MAX_VALUE;
+    private long lastDecreaseNanos;
+
+    /**
+     * @param timer refuses the queued requests whose time is up
+     */
+    public ConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, double tolerance,
+                              int queueCapacity, long queueTimeoutMillis, long retryAfterSeconds,
+                              ScheduledExecutorService timer) {
+        this.name = name;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.tolerance = tolerance;
+        this.queueCapacity = queueCapacity;
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.timer = timer;
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.lastDecreaseNanos = System.nanoTime();
+    }
+
+    /**
+     * @return a permit, completed straight away when there is room, later when the request waited in the queue, or
+     * failed with a {@link ServiceUnavailableException} when the queue is full or the wait took too long
+     */
+    public CompletableFuture<Permit> acquire() {
+        Waiter waiter;
+        synchronized (this) {
+            if (inFlight < (int) limit && waiters.isEmpty()) {
+                inFlight++;
+                return CompletableFuture.completedFuture(new Permit());
+            }
+            if (waiters.size() >= queueCapacity) {
+                return reject("the queue is full");
+            }
+            waiter = new Waiter();
+            waiter.timeout = timer.schedule(() -> expire(waiter), queueTimeoutMillis, TimeUnit.MILLISECONDS);
+            waiters.add(waiter);
+        }
+        return waiter.permit;
+    }
+
+    /**
+     * Refuses a request without queueing it, counting it with the others refused.
+     */
+    public <T> CompletableFuture<T> reject(String reason) {
+        rejected.increment();
+        CompletableFuture<T> refused = new CompletableFuture<>();
+        refused.completeExceptionally(new ServiceUnavailableException(name + " is saturated: " + reason,
+                retryAfterSeconds));
+        return refused;
+    }
+
+    /**
+     * @return whether a new request would have to wait
+     */
+    public synchronized boolean isSaturated() {
+        return inFlight >= (int) limit || !waiters.isEmpty();
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueued() {
+        return waiters.size();
+    }
+
+    /**
+     * @return the requests refused since the limiter was created
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    private void expire(Waiter waiter) {
+        synchronized (this) {
+            if (!waiters.remove(waiter)) {
+                return;
+            }
+        }
+        rejected.increment();
+        waiter.permit.completeExceptionally(new ServiceUnavailableException(name + " is saturated: waited "
+                + queueTimeoutMillis + " ms", retryAfterSeconds));
+    }
+
+    private void release(long latencyNanos, boolean failed) {
+        List<Waiter> started = new ArrayList<>();
+        synchronized (this) {
+            int running = inFlight;
+            inFlight--;
+            adjust(latencyNanos, failed, running);
+            while (inFlight < (int) limit && !waiters.isEmpty()) {
+                started.add(waiters.poll());
+                inFlight++;
+            }
+        }
+        for (Waiter waiter : started) {
+            waiter.timeout.cancel(false);
+            waiter.permit.complete(new Permit());
+        }
+    }
+
+    private void adjust(long latencyNanos, boolean failed, int running) {
+        long now = System.nanoTime();
+        if (latencyNanos < noLoadNanos) {
+            noLoadNanos = latencyNanos;
+        } else {
+            noLoadNanos += (latencyNanos - noLoadNanos) / BASELINE_DRIFT;
+        }
+        boolean congested = failed
+                || latencyNanos > MIN_CONGESTED_NANOS && latencyNanos > tolerance * noLoadNanos;
+        if (congested) {
+            if (now - lastDecreaseNanos >= latencyNanos) {
+                limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                lastDecreaseNanos = now;
+            }
+        } else if (running * 2 >= limit) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    /**
+     * A place taken by a request, to give back with {@link #release(boolean)} once it has been answered.
+     */
+    public class Permit {
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        /**
+         * Gives the place back, and the latency from when the request got it to the limit. Only the first call counts.
+         *
+         * @param failed whether the request failed, which lowers the limit like a slow answer does
+         */
+        public void release(boolean failed) {
+            if (released.compareAndSet(false, true)) {
+                ConcurrencyLimiter.this.release(System.nanoTime() - startNanos, failed);
+            }
+        }
+    }
+
+    private class Waiter {
+        final CompletableFuture<Permit> permit = new CompletableFuture<>();
+        ScheduledFuture<?> timeout;
+    }
+}
@@ -0,0 +1,37 @@
+package uk.co.pearson;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adds the number of bytes read through it to a counter, which can be shared by many streams.
+ */
+class CountingInputStream extends FilterInputStream {
+
+    private final LongAdder bytesRead;
+
+    CountingInputStream(InputStream inputStream, LongAdder bytesRead) {
+        super(inputStream);
+        this.bytesRead = bytesRead;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int read = super.read();
+        if (read >= 0) {
+            bytesRead.increment();
+        }
+        return read;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int read = super.read(buffer, offset, length);
+        if (read > 0) {
+            bytesRead.add(read);
+        }
+        return read;
+    }
+}
@@ -0,0 +1,67 @@
+package uk.co.pearson;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a CSV line into fields in a single pass.
+ * A field may be wrapped in double quotes so that it can contain commas; inside such a field a doubled quote
+ * stands for one quote character. The surrounding quotes are not part of the returned value.
+ */
+public class CsvTokenizer {
+
+    private static final char SEPARATOR = ',';
+    private static final char QUOTE = '"';
+
+    public List<String> tokenize(String line, int lineNumber) {
+        List<String> fields = new ArrayList<>(8);
+        int length = line.length();
+        int position = 0;
+        while (true) {
+            if (position < length && line.charAt(position) == QUOTE) {
+                position = readQuotedField(line, position + 1, lineNumber, fields);
+            } else {
+                int end = line.indexOf(SEPARATOR, position);
+                if (end < 0) {
+                    end = length;
+                }
+                fields.add(line.substring(position, end));
+                position = end;
+            }
+            if (position >= length) {
+                return fields;
+            }
+            position++;
+        }
+    }
+
+    /**
+     * Reads a quoted field whose content starts at {@code start} and returns the position just after its closing quote.
+     */
+    private int readQuotedField(String line, int start, int lineNumber, List<String> fields) {
+        int length = line.length();
+        StringBuilder unescaped = null;
+        int chunkStart = start;
+        int position = start;
+        while (true) {
+            int quote = line.indexOf(QUOTE, position);
+            if (quote < 0) {
+                throw new MalformedRowException(lineNumber, "quoted field starting at column " + start + " is never closed");
+            }
+            if (quote + 1 < length && line.charAt(quote + 1) == QUOTE) {
+                if (unescaped == null) {
+                    unescaped = new StringBuilder(quote - start + 16);
+                }
+                unescaped.append(line, chunkStart, quote + 1);
+                position = quote + 2;
+                chunkStart = position;
+                continue;
+            }
+            if (quote + 1 < length && line.charAt(quote + 1) != SEPARATOR) {
+                throw new MalformedRowException(lineNumber, "unexpected character after closing quote at column " + (quote + 2));
+            }
+            fields.add(unescaped == null ? line.substring(start, quote) : unescaped.append(line, chunkStart, quote).toString());
+            return quote + 1;
+        }
+    }
+}
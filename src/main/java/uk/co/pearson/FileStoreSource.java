@@ -0,0 +1,45 @@
+package uk.co.pearson;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reads the store file from the local file system. The file counts as unchanged while its size and modification time
+ * are those of the last committed download. Downloads name the file, so that it can be memory-mapped rather than
+ * read through the stream; bytes read that way are not counted by {@link #getBytesRead()}.
+ */
+public class FileStoreSource implements StoreSource {
+
+    private final Path path;
+    private final LongAdder bytesRead = new LongAdder();
+    private volatile String committedVersion;
+
+    public FileStoreSource(Path path) {
+        this.path = path;
+    }
+
+    @Override
+    public StoreDownload open() throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        String version = attributes.size() + "@" + attributes.lastModifiedTime().toMillis();
+        if (Objects.equals(version, committedVersion)) {
+            return null;
+        }
+        return new StoreDownload(new CountingInputStream(Files.newInputStream(path), bytesRead),
+                () -> committedVersion = version, path);
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public String toString() {
+        return path.toString();
+    }
+}
@@ -0,0 +1,184 @@
+package uk.co.pearson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Finds the rows of one snapshot that match a {@link StoreFilter} without looking at every row.
+ * <p>
+ * It keeps no data of its own: the ascending orderings of the {@link SortIndex} already hold the rows sorted by city,
+ * postcode and open date, so the rows of a city, of a postcode prefix or of a date range are one contiguous slice of
+ * one of them, found with a binary search. When several filters are given, only the rows of the smallest slice are
+ * read, and each is checked against the other filters in constant time. The cost of a query depends on the number of
+ * rows it matches rather than on the number of stores.
+ */
+public class FilterIndex {
+
+    private final StoreTable stores;
+    private final SortIndex sortIndex;
+
+    public FilterIndex(StoreTable stores, SortIndex sortIndex) {
+        this.stores = stores;
+        this.sortIndex = sortIndex;
+    }
+
+    /**
+     * @return the rows matching every filter, in the requested order; callers must not modify the array
+     */
+    public int[] select(StoreFilter filter, SortSpec spec) {
+        if (filter.isEmpty()) {
+            return sortIndex.order(spec);
+        }
+        List<Candidates> filters = new ArrayList<>(3);
+        if (filter.getCity() != null || filter.getCityPrefix() != null) {
+            filters.add(byCity(filter.getCity(), filter.getCityPrefix()));
+        }
+        if (filter.getPostCodePrefix() != null) {
+            filters.add(byPostCodePrefix(filter.getPostCodePrefix()));
+        }
+        if (filter.hasOpenDateRange()) {
+            int today = OpenDates.today();
+            filters.add(byOpenDate(filter.getFirstOpenEpochDay(today), filter.getLastOpenEpochDay(today)));
+        }
+
+        Candidates smallest = filters.get(0);
+        for (Candidates candidates : filters) {
+            if (candidates.size < smallest.size) {
+                smallest = candidates;
+            }
+        }
+        int[] rows = new int[smallest.size];
+        int count = 0;
+        for (int slice = 0; slice < smallest.starts.length; slice++) {
+            for (int i = smallest.starts[slice]; i < smallest.ends[slice]; i++) {
+                int row = smallest.order[i];
+                if (matchesAll(filters, smallest, row)) {
+                    rows[count++] = row;
+                }
+            }
+        }
+        return sortIndex.order(spec, Arrays.copyOf(rows, count));
+    }
+
+    /**
+     * Every city matching the filters, ignoring case, is a slice of the city ordering; the cities are looked up in
+     * the dictionary of distinct cities, which is small next to the rows.
+     */
+    private Candidates byCity(String city, String prefix) {
+        int[] order = sortIndex.order(SortSpec.of(SortField.CITY, false));
+        String[] cities = stores.getCities();
+        boolean[] matches = new boolean[cities.length];
+        int[] starts = new int[cities.length];
+        int[] ends = new int[cities.length];
+        int slices = 0;
+        for (int code = 0; code < cities.length; code++) {
+            String value = cities[code];
+            if (value == null || (city != null && !value.equalsIgnoreCase(city))
+                    || (prefix != null && !value.regionMatches(true, 0, prefix, 0, prefix.length()))) {
+                continue;
+            }
+            matches[code] = true;
+            starts[slices] = firstNotBefore(order, row -> compareCity(stores.getCity(row), value) < 0);
+            ends[slices] = firstNotBefore(order, row -> compareCity(stores.getCity(row), value) <= 0);
+            slices++;
+        }
+        return new Candidates(order, Arrays.copyOf(starts, slices), Arrays.copyOf(ends, slices),
+                row -> matches[stores.getCityCode(row)]);
+    }
+
+    /**
+     * In the postcode ordering the postcodes starting with the prefix come right after the ones before it; being in
+     * the slice is the same as having a postcode rank between the ranks of its first and last rows.
+     */
+    private Candidates byPostCodePrefix(String prefix) {
+        int[] order = sortIndex.order(SortSpec.of(SortField.POSTCODE, false));
+        int start = firstNotBefore(order, row -> isBefore(stores.getPostCode(row), prefix));
+        int end = firstNotBefore(order, row -> {
+            String postCode = stores.getPostCode(row);
+            return isBefore(postCode, prefix) || postCode.startsWith(prefix);
+        });
+        if (start == end) {
+            return new Candidates(order, start, end, row -> false);
+        }
+        int lowest = sortIndex.rank(SortField.POSTCODE, order[start]);
+        int highest = sortIndex.rank(SortField.POSTCODE, order[end - 1]);
+        return new Candidates(order, start, end, row -> {
+            int rank = sortIndex.rank(SortField.POSTCODE, row);
+            return rank >= lowest && rank <= highest;
+        });
+    }
+
+    private Candidates byOpenDate(int first, int last) {
+        int[] order = sortIndex.order(SortSpec.of(SortField.OPENDATE, false));
+        int start = firstNotBefore(order, row -> stores.getOpenEpochDay(row) < first);
+        int end = firstNotBefore(order, row -> stores.getOpenEpochDay(row) <= last);
+        return new Candidates(order, start, Math.max(start, end), row -> {
+            int openEpochDay = stores.getOpenEpochDay(row);
+            return openEpochDay >= first && openEpochDay <= last;
+        });
+    }
+
+    private static boolean matchesAll(List<Candidates> filters, Candidates checked, int row) {
+        for (Candidates candidates : filters) {
+            if (candidates != checked && !candidates.contains.test(row)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the first position in the ordering whose row is not before the searched value; rows before it must
+     * all come first
+     */
+    private static int firstNotBefore(int[] order, IntPredicate before) {
+        int low = 0;
+        int high = order.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (before.test(order[middle])) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static int compareCity(String city, String value) {
+        return city == null ? -1 : city.compareTo(value);
+    }
+
+    private static boolean isBefore(String postCode, String prefix) {
+        return postCode == null || postCode.compareTo(prefix) < 0;
+    }
+
+    /**
+     * The rows one filter lets through: slices of an ordering, and a quick check for any other row.
+     */
+    private static class Candidates {
+        final int[] order;
+        final int[] starts;
+        final int[] ends;
+        final int size;
+        final IntPredicate contains;
+
+        Candidates(int[] order, int start, int end, IntPredicate contains) {
+            this(order, new int[]{start}, new int[]{end}, contains);
+        }
+
+        Candidates(int[] order, int[] starts, int[] ends, IntPredicate contains) {
+            this.order = order;
+            this.starts = starts;
+            this.ends = ends;
+            this.contains = contains;
+            int total = 0;
+            for (int i = 0; i < starts.length; i++) {
+                total += ends[i] - starts[i];
+            }
+            this.size = total;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package uk.co.pearson;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Downloads the store file over HTTP with a pooled client, so the connection is kept alive between refreshes.
+ * <ul>
+ * <li>connecting, waiting for a pooled connection and every read are bounded by timeouts</li>
+ * <li>the file is asked for gzip compressed and uncompressed while it is parsed</li>
+ * <li>once a download is committed, the next request carries its ETag and Last-Modified in If-None-Match and
+ * If-Modified-Since; a 304 Not Modified is returned as null, and nothing is downloaded or parsed</li>
+ * <li>connection failures, timeouts, 5xx and 429 answers are tried again up to {@code maxAttempts} times, waiting
+ * twice as long before each attempt, with some jitter; other answers fail straight away</li>
+ * </ul>
+ * Only getting the answer is tried again: a download that breaks off while the file is being read fails the refresh,
+ * and the next refresh starts it again.
+ */
+public class HttpStoreSource implements StoreSource {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HttpStoreSource.class);
+    private static final int MAX_CONNECTIONS = 2;
+    private static final int GZIP_BUFFER_BYTES = 1 << 16;
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final String url;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final CloseableHttpClient client;
+    private final LongAdder bytesRead = new LongAdder();
+    private volatile Validators committed;
+
+    public HttpStoreSource(String url, int connectTimeoutMillis, int readTimeoutMillis, int maxAttempts, long backoffMillis) {
+        this.url = url;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMillis = backoffMillis;
+        PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager();
+        connections.setMaxTotal(MAX_CONNECTIONS);
+        connections.setDefaultMaxPerRoute(MAX_CONNECTIONS);
+        // Refreshes are far apart and servers often close a connection after a failed answer, so every pooled
+        // connection is checked before it is used again rather than spending an attempt finding out it is closed.
+        connections.setValidateAfterInactivity(1);
+        this.client = HttpClients.custom()
+                .setConnectionManager(connections)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(connectTimeoutMillis)
+                        .setConnectionRequestTimeout(connectTimeoutMillis)
+                        .setSocketTimeout(readTimeoutMillis)
+                        .build())
+                .disableContentCompression()
+                .disableAutomaticRetries()
+                .build();
+    }
+
+    @Override
+    public StoreDownload open() throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return request();
+            } catch (IOException e) {
+                if (attempt >= maxAttempts || e instanceof NotRetryableException) {
+                    throw e;
+                }
+                long backoff = backoffMillis << (attempt - 1);
+                long wait = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+                LOGGER.warn("Download of {} failed, attempt {} of {}, trying again in {} ms: {}", url, attempt,
+                        maxAttempts, wait, e.toString());
+                sleep(wait);
+            }
+        }
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        client.close();
+    }
+
+    @Override
+    public String toString() {
+        return url;
+    }
+
+    private StoreDownload request() throws IOException {
+        HttpGet get = new HttpGet(url);
+        get.setHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+        Validators known = committed;
+        if (known != null && known.entityTag != null) {
+            get.setHeader(HttpHeaders.IF_NONE_MATCH, known.entityTag);
+        }
+        if (known != null && known.lastModified != null) {
+            get.setHeader(HttpHeaders.IF_MODIFIED_SINCE, known.lastModified);
+        }
+        CloseableHttpResponse response = client.execute(get);
+        try {
+            int status = response.getStatusLine().getStatusCode();
+            if (status == HttpStatus.SC_NOT_MODIFIED) {
+                release(response);
+                return null;
+            }
+            HttpEntity entity = response.getEntity();
+            if (status != HttpStatus.SC_OK || entity == null) {
+                release(response);
+                String message = url + " answered " + response.getStatusLine();
+                throw status >= 500 || status == TOO_MANY_REQUESTS ? new IOException(message)
+                        : new NotRetryableException(message);
+            }
+            InputStream body = new CountingInputStream(entity.getContent(), bytesRead);
+            Header encoding = entity.getContentEncoding();
+            if (encoding != null && "gzip".equalsIgnoreCase(encoding.getValue().trim())) {
+                body = new GZIPInputStream(body, GZIP_BUFFER_BYTES);
+            }
+            Validators received = new Validators(response.getFirstHeader(HttpHeaders.ETAG),
+                    response.getFirstHeader(HttpHeaders.LAST_MODIFIED));
+            return new StoreDownload(new ResponseStream(body, response), () -> committed = received.orNull());
+        } catch (IOException | RuntimeException e) {
+            response.close();
+            throw e;
+        }
+    }
+
+    private static void release(CloseableHttpResponse response) throws IOException {
+        EntityUtils.consumeQuietly(response.getEntity());
+        response.close();
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to download the store file again");
+        }
+    }
+
+    /**
+     * The body of the answer. Closing it after reading it to the end gives the connection back to the pool; closing
+     * it before drops the connection rather than reading the rest of the file.
+     */
+    private static class ResponseStream extends FilterInputStream {
+        private final CloseableHttpResponse response;
+        private boolean ended;
+
+        ResponseStream(InputStream body, CloseableHttpResponse response) {
+            super(body);
+            this.response = response;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            ended |= read < 0;
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            ended |= read < 0;
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!ended) {
+                response.close();
+            }
+            try {
+                super.close();
+            } finally {
+                response.close();
+            }
+        }
+    }
+
+    private static class Validators {
+        final String entityTag;
+        final String lastModified;
+
+        Validators(Header entityTag, Header lastModified) {
+            this.entityTag = entityTag == null ? null : entityTag.getValue();
+            this.lastModified = lastModified == null ? null : lastModified.getValue();
+        }
+
+        Validators orNull() {
+            return entityTag == null && lastModified == null ? null : this;
+        }
+    }
+
+    private static class NotRetryableException extends IOException {
+        NotRetryableException(String message) {
+            super(message);
+        }
+    }
+}
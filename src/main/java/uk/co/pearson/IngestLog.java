@@ -0,0 +1,96 @@
+package uk.co.pearson;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Logs one summary of the quarantined lines per load of the store file, instead of one line of log per bad line, on
+ * a thread of its own so the load never waits for the log. At most one summary is written every
+ * {@code stores.ingest.log-interval-seconds}: loads in between are folded into the next one, which reports the
+ * latest load and how many were folded, so a dirty file loaded often still costs one line of log per interval.
+ */
+@Component
+public class IngestLog {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IngestLog.class);
+
+    @Value("${stores.ingest.log-interval-seconds:60}")
+    long intervalSeconds = 60;
+
+    private final Consumer<String> sink;
+    private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+        thread.setName("store-ingest-log");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private IngestReport pending;
+    private int folded;
+    private boolean scheduled;
+    private long lastLoggedNanos;
+    private boolean logged;
+
+    public IngestLog() {
+        this(LOGGER::warn);
+    }
+
+    /**
+     * @param sink writes a summary; called on the thread of the log
+     */
+    IngestLog(Consumer<String> sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Schedules a summary of the report, if anything was quarantined, and returns straight away.
+     */
+    public void log(IngestReport report) {
+        if (report.isClean()) {
+            return;
+        }
+        synchronized (this) {
+            if (pending != null) {
+                folded++;
+            }
+            pending = report;
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+            long delayNanos = logged
+                    ? Math.max(0, lastLoggedNanos + TimeUnit.SECONDS.toNanos(intervalSeconds) - System.nanoTime()) : 0;
+            executor.schedule(this::flush, delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    private void flush() {
+        IngestReport report;
+        int foldedLoads;
+        synchronized (this) {
+            report = pending;
+            foldedLoads = folded;
+            pending = null;
+            folded = 0;
+            scheduled = false;
+            logged = true;
+            lastLoggedNanos = System.nanoTime();
+        }
+        sink.accept(String.format("Store file version %d from %s: %d of %d lines dropped, quarantined %s%s; "
+                        + "see /stores/ingest-report", report.getVersion(), report.getSource(), report.getDropped(),
+                report.getLines(), report.summarizeReasons(),
+                foldedLoads == 0 ? "" : " (" + foldedLoads + " earlier loads not logged)"));
+    }
+}
@@ -0,0 +1,106 @@
+package uk.co.pearson;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What the last load of the store file made of its lines: how many there were, how many became stores, and the
+ * {@link Quarantine} counts and samples of the ones that were rejected or kept with a problem. Served at
+ * {@code /stores/ingest-report}.
+ */
+public class IngestReport {
+
+    private final long version;
+    private final long loadedAt;
+    private final String source;
+    private final int lines;
+    private final int parsed;
+    private final long dropped;
+    private final Map<String, Long> reasons = new LinkedHashMap<>();
+    private final List<Quarantine.QuarantinedLine> samples;
+
+    /**
+     * @param version the version of the snapshot the stores were published as
+     * @param lines the lines after the header
+     * @param parsed the lines that became stores, including those whose id was repeated
+     */
+    public IngestReport(long version, long loadedAt, String source, int lines, int parsed, Quarantine quarantine) {
+        this.version = version;
+        this.loadedAt = loadedAt;
+        this.source = source;
+        this.lines = lines;
+        this.parsed = parsed;
+        this.dropped = quarantine.getDropped();
+        for (RejectReason reason : RejectReason.values()) {
+            reasons.put(reason.getName(), quarantine.getCount(reason));
+        }
+        this.samples = quarantine.getSamples();
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getLoadedAt() {
+        return loadedAt;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public int getLines() {
+        return lines;
+    }
+
+    public int getParsed() {
+        return parsed;
+    }
+
+    /**
+     * @return the lines left out of the stores
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return the number of lines with each {@link RejectReason}, by name, zeros included
+     */
+    public Map<String, Long> getReasons() {
+        return reasons;
+    }
+
+    /**
+     * @return the lines kept by the quarantine, ordered by line number
+     */
+    public List<Quarantine.QuarantinedLine> getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return whether no line was quarantined
+     */
+    boolean isClean() {
+        for (long count : reasons.values()) {
+            if (count > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the reasons with at least one line, as "name count" pairs, for the log
+     */
+    String summarizeReasons() {
+        StringBuilder summary = new StringBuilder();
+        reasons.forEach((reason, count) -> {
+            if (count > 0) {
+                summary.append(summary.length() == 0 ? "" : ", ").append(reason).append(' ').append(count);
+            }
+        });
+        return summary.toString();
+    }
+}
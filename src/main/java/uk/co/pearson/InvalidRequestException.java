@@ -0,0 +1,12 @@
+package uk.co.pearson;
+
+/**
+ * Thrown when the parameters of a request cannot be used, for example a cursor that was not issued for the
+ * requested sort. The message is returned to the client.
+ */
+public class InvalidRequestException extends RuntimeException {
+
+    public InvalidRequestException(String message) {
+        super(message);
+    }
+}
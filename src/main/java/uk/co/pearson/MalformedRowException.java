@@ -0,0 +1,30 @@
+package uk.co.pearson;
+
+/**
+ * Thrown when a line of the store file cannot be split into fields, for example because a quote is never closed.
+ */
+public class MalformedRowException extends RuntimeException {
+
+    private final int lineNumber;
+    private final String detail;
+
+    public MalformedRowException(int lineNumber, String message) {
+        super(lineNumber > 0 ? "Line " + lineNumber + ": " + message : message);
+        this.lineNumber = lineNumber;
+        this.detail = message;
+    }
+
+    /**
+     * @return what is wrong with the line, without its line number
+     */
+    public String getDetail() {
+        return detail;
+    }
+
+    /**
+     * @return the line number in the store file, or 0 when it is not known
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+}
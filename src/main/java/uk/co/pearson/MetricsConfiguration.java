@@ -0,0 +1,14 @@
+package uk.co.pearson;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class MetricsConfiguration {
+
+    @Bean
+    public TimedJsonHttpMessageConverter timedJsonHttpMessageConverter(ObjectMapper objectMapper, StoreMetrics storeMetrics) {
+        return new TimedJsonHttpMessageConverter(objectMapper, storeMetrics);
+    }
+}
@@ -0,0 +1,217 @@
+package uk.co.pearson;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+/**
+ * Converts the dd/MM/yyyy open dates of the store file to epoch days without creating any objects,
+ * so that dates can be parsed once per row and compared as plain ints afterwards.
+ */
+public final class OpenDates {
+
+    /**
+     * Returned for dates that are missing or cannot be parsed; it sorts before every real date.
+     */
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+
+    private static final int DAYS_0000_TO_1970 = 719528;
+
+    private static volatile Today today = new Today(System.currentTimeMillis());
+
+    private OpenDates() {
+    }
+
+    /**
+     * Parses a date written as day/month/year, where day and month have one or two digits and the year has four.
+     *
+     * @return the number of days since 1970-01-01, or {@link #UNKNOWN}
+     */
+    public static int parseEpochDay(String date) {
+        if (date == null) {
+            return UNKNOWN;
+        }
+        int length = date.length();
+        int firstSlash = date.indexOf('/');
+        int secondSlash = firstSlash < 0 ? -1 : date.indexOf('/', firstSlash + 1);
+        if (firstSlash < 1 || firstSlash > 2 || secondSlash - firstSlash < 2 || secondSlash - firstSlash > 3
+                || length - secondSlash != 5) {
+            return UNKNOWN;
+        }
+        int day = parseDigits(date, 0, firstSlash);
+        int month = parseDigits(date, firstSlash + 1, secondSlash);
+        int year = parseDigits(date, secondSlash + 1, length);
+        return toEpochDay(year, month, day);
+    }
+
+    /**
+     * Parses a date like {@link #parseEpochDay(String)} does, straight from the ASCII bytes of the store file.
+     *
+     * @return the number of days since 1970-01-01, or {@link #UNKNOWN}
+     */
+    public static int parseEpochDay(ByteBuffer bytes, int start, int end) {
+        int firstSlash = indexOfSlash(bytes, start, end);
+        int secondSlash = firstSlash < 0 ? -1 : indexOfSlash(bytes, firstSlash + 1, end);
+        if (firstSlash - start < 1 || firstSlash - start > 2 || secondSlash - firstSlash < 2
+                || secondSlash - firstSlash > 3 || end - secondSlash != 5) {
+            return UNKNOWN;
+        }
+        int day = parseDigits(bytes, start, firstSlash);
+        int month = parseDigits(bytes, firstSlash + 1, secondSlash);
+        int year = parseDigits(bytes, secondSlash + 1, end);
+        return toEpochDay(year, month, day);
+    }
+
+    /**
+     * @return the number of days since 1970-01-01, or {@link #UNKNOWN} if the date does not exist
+     */
+    public static int toEpochDay(int year, int month, int day) {
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)) {
+            return UNKNOWN;
+        }
+        long total = 365L * year + (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+        total += (367 * month - 362) / 12;
+        total += day - 1;
+        if (month > 2) {
+            total -= isLeapYear(year) ? 1 : 2;
+        }
+        return (int) (total - DAYS_0000_TO_1970);
+    }
+
+    /**
+     * @return today as days since 1970-01-01 in the default time zone; cheap enough to call for every store written
+     */
+    public static int today() {
+        Today current = today;
+        long now = System.currentTimeMillis();
+        if (now < current.startMillis || now >= current.endMillis) {
+            current = new Today(now);
+            today = current;
+        }
+        return current.epochDay;
+    }
+
+    /**
+     * @return the date as dd/MM/yyyy, the way the store file writes it, or null when it is {@link #UNKNOWN}
+     */
+    public static String format(int epochDay) {
+        if (epochDay == UNKNOWN) {
+            return null;
+        }
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        int year = date.getYear();
+        if (year < 0 || year > 9999) {
+            return null;
+        }
+        char[] text = new char[10];
+        writeDigits(text, 0, date.getDayOfMonth(), 2);
+        text[2] = '/';
+        writeDigits(text, 3, date.getMonthValue(), 2);
+        text[5] = '/';
+        writeDigits(text, 6, year, 4);
+        return new String(text);
+    }
+
+    /**
+     * Works out the year and month of an epoch day without creating a {@link LocalDate}, for counting many dates.
+     *
+     * @return the months since January of year 0, i.e. {@code year * 12 + month - 1}, or {@link #UNKNOWN}
+     */
+    public static int toMonthIndex(int epochDay) {
+        if (epochDay == UNKNOWN) {
+            return UNKNOWN;
+        }
+        long days = epochDay + DAYS_0000_TO_1970 - 60;
+        long era = Math.floorDiv(days, 146097);
+        long dayOfEra = days - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long monthFromMarch = (5 * dayOfYear + 2) / 153;
+        long month = monthFromMarch < 10 ? monthFromMarch + 3 : monthFromMarch - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return (int) (year * 12 + month - 1);
+    }
+
+    /**
+     * @return the number of whole days between the open date and today, or null when the open date is unknown
+     */
+    public static String daysSince(int openEpochDay, int todayEpochDay) {
+        return openEpochDay == UNKNOWN ? null : String.valueOf(todayEpochDay - openEpochDay);
+    }
+
+    private static int parseDigits(String text, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static int parseDigits(ByteBuffer bytes, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = bytes.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static int indexOfSlash(ByteBuffer bytes, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (bytes.get(i) == '/') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void writeDigits(char[] text, int start, int value, int count) {
+        for (int i = start + count - 1; i >= start; i--) {
+            text[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Today's epoch day and the time span it is valid for, so the date is only worked out again at midnight.
+     */
+    private static final class Today {
+        final int epochDay;
+        final long startMillis;
+        final long endMillis;
+
+        Today(long now) {
+            ZoneId zone = ZoneId.systemDefault();
+            LocalDate date = Instant.ofEpochMilli(now).atZone(zone).toLocalDate();
+            epochDay = (int) date.toEpochDay();
+            startMillis = date.atStartOfDay(zone).toInstant().toEpochMilli();
+            endMillis = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package uk.co.pearson;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+
+/**
+ * An opaque position in a sorted list of stores: the sort it belongs to and the sort key values of the last store
+ * of the previous page. Because it holds key values rather than a row number, the next page starts at the right
+ * place even after the data has been refreshed and rows have moved, been added or been removed.
+ */
+public class PageCursor {
+
+    private static final byte FORMAT = 1;
+
+    private final String sort;
+    private final Store lastStore;
+
+    PageCursor(SortSpec sortSpec, Store lastStore) {
+        this.sort = sortSpec.toString();
+        this.lastStore = lastStore;
+    }
+
+    private PageCursor(String sort, Store lastStore) {
+        this.sort = sort;
+        this.lastStore = lastStore;
+    }
+
+    /**
+     * @throws InvalidRequestException if the cursor is malformed, was issued by an incompatible version of the
+     *                                 service, or belongs to another sort
+     */
+    public static PageCursor decode(String cursor, SortSpec expectedSortSpec) {
+        DataInputStream input;
+        try {
+            input = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(cursor)));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidRequestException("The cursor is not valid");
+        }
+        try {
+            if (input.readByte() != FORMAT) {
+                throw new InvalidRequestException("The cursor has expired, please start again from the first page");
+            }
+            String sort = input.readUTF();
+            if (!sort.equals(expectedSortSpec.withIdTieBreak().toString())) {
+                throw new InvalidRequestException("The cursor was issued for sort=" + sort
+                        + " and cannot be used with sort=" + expectedSortSpec);
+            }
+            String id = readNullableString(input);
+            String postCode = readNullableString(input);
+            String city = readNullableString(input);
+            int openEpochDay = input.readInt();
+            return new PageCursor(sort, new Store(id, postCode, city, null, null, null, openEpochDay));
+        } catch (IOException e) {
+            throw new InvalidRequestException("The cursor is not valid");
+        }
+    }
+
+    public String encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeByte(FORMAT);
+            output.writeUTF(sort);
+            writeNullableString(output, lastStore.getId());
+            writeNullableString(output, lastStore.getPostCode());
+            writeNullableString(output, lastStore.getCity());
+            output.writeInt(lastStore.getOpenEpochDay());
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write to memory", e);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * @return a store holding only the sort key values of the last store of the previous page
+     */
+    public Store getLastStore() {
+        return lastStore;
+    }
+
+    private static void writeNullableString(DataOutputStream output, String value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+}
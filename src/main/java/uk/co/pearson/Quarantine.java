@@ -0,0 +1,130 @@
+package uk.co.pearson;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The lines of one store file that were rejected, or kept with a problem, counted by {@link RejectReason}, with the
+ * first few of each reason kept as samples. Only {@code samplesPerReason} lines of each reason are kept, cut to
+ * {@link #MAX_LINE_LENGTH} characters, so a file that is dirty throughout costs a bounded amount of memory.
+ * <p>
+ * Chunks of a file are parsed in parallel, so lines can be added from several threads at once, and the samples are
+ * the first lines found rather than the first lines of the file.
+ */
+public class Quarantine {
+
+    public static final int DEFAULT_SAMPLES_PER_REASON = 20;
+    static final int MAX_LINE_LENGTH = 256;
+
+    private final int samplesPerReason;
+    private final Map<RejectReason, LongAdder> counts = new EnumMap<>(RejectReason.class);
+    private final Map<RejectReason, List<QuarantinedLine>> samples = new EnumMap<>(RejectReason.class);
+
+    public Quarantine(int samplesPerReason) {
+        this.samplesPerReason = samplesPerReason;
+        for (RejectReason reason : RejectReason.values()) {
+            counts.put(reason, new LongAdder());
+            samples.put(reason, new ArrayList<>());
+        }
+    }
+
+    /**
+     * Counts the line, and keeps it if fewer than {@code samplesPerReason} lines have been kept for the reason.
+     *
+     * @param lineNumber the line number in the store file, or 0 when it is not known
+     * @param message what is wrong with the line
+     */
+    public void add(RejectReason reason, int lineNumber, String line, String message) {
+        counts.get(reason).increment();
+        List<QuarantinedLine> kept = samples.get(reason);
+        synchronized (kept) {
+            if (kept.size() < samplesPerReason) {
+                kept.add(new QuarantinedLine(lineNumber, reason, truncate(line), message));
+            }
+        }
+    }
+
+    public long getCount(RejectReason reason) {
+        return counts.get(reason).sum();
+    }
+
+    /**
+     * @return the number of lines left out of the stores
+     */
+    public long getDropped() {
+        long dropped = 0;
+        for (RejectReason reason : RejectReason.values()) {
+            if (reason.isDropped()) {
+                dropped += getCount(reason);
+            }
+        }
+        return dropped;
+    }
+
+    public boolean isEmpty() {
+        for (LongAdder count : counts.values()) {
+            if (count.sum() > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return a copy of the lines kept, ordered by line number
+     */
+    public List<QuarantinedLine> getSamples() {
+        List<QuarantinedLine> copy = new ArrayList<>();
+        for (List<QuarantinedLine> kept : samples.values()) {
+            synchronized (kept) {
+                copy.addAll(kept);
+            }
+        }
+        copy.sort(Comparator.comparingInt(QuarantinedLine::getLineNumber));
+        return copy;
+    }
+
+    private static String truncate(String line) {
+        return line == null || line.length() <= MAX_LINE_LENGTH ? line : line.substring(0, MAX_LINE_LENGTH);
+    }
+
+    /**
+     * One line kept in the quarantine.
+     */
+    public static class QuarantinedLine {
+        private final int lineNumber;
+        private final RejectReason reason;
+        private final String line;
+        private final String message;
+
+        QuarantinedLine(int lineNumber, RejectReason reason, String line, String message) {
+            this.lineNumber = lineNumber;
+            this.reason = reason;
+            this.line = line;
+            this.message = message;
+        }
+
+        public int getLineNumber() {
+            return lineNumber;
+        }
+
+        public String getReason() {
+            return reason.getName();
+        }
+
+        /**
+         * @return the line as it was in the file, cut to {@link #MAX_LINE_LENGTH} characters
+         */
+        public String getLine() {
+            return line;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+}
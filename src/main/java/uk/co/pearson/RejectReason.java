@@ -0,0 +1,32 @@
+package uk.co.pearson;
+
+/**
+ * Why a line of the store file was put in {@link Quarantine}. Every reason but {@link #INVALID_OPEN_DATE} drops the
+ * line; a store with an open date that cannot be parsed is kept, with an unknown open date.
+ */
+public enum RejectReason {
+
+    EMPTY_LINE("empty-line", true),
+    MALFORMED_QUOTES("malformed-quotes", true),
+    WRONG_FIELD_COUNT("wrong-field-count", true),
+    INVALID_OPEN_DATE("invalid-open-date", false);
+
+    private final String name;
+    private final boolean dropped;
+
+    RejectReason(String name, boolean dropped) {
+        this.name = name;
+        this.dropped = dropped;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return whether lines with this problem are left out of the stores
+     */
+    public boolean isDropped() {
+        return dropped;
+    }
+}
@@ -2,14 +2,26 @@ package uk.co.pearson;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URL;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class RemoteFileReader {
 
+    /**
+     * The line number, in the remote file, of the first line returned by {@link #readAll()}; line 1 is the header.
+     */
+    public static final int FIRST_DATA_LINE = 2;
+
+    public static final String DEFAULT_URL = "https://raw.githubusercontent.com/pearsonpmcuk/codingchallenge/master/stores.csv";
+
+    private final LongAdder bytesRead = new LongAdder();
+    private volatile String url = DEFAULT_URL;
+
     public List<String> readAll() throws IOException {
         return getLines().collect(Collectors.toList());
     }
@@ -24,9 +36,37 @@ public class RemoteFileReader {
         return "";
     }
 
+    /**
+     * @return the raw bytes of the store file, header included; the caller closes it
+     */
+    public InputStream openStream() throws IOException {
+        return new CountingInputStream(getInputStream(), bytesRead);
+    }
+
     protected BufferedReader getBufferedReader() throws IOException {
-        URL url = new URL("https://raw.githubusercontent.com/pearsonpmcuk/codingchallenge/master/stores.csv");
-        return new BufferedReader(new InputStreamReader(url.openStream()));
+        return new BufferedReader(new InputStreamReader(openStream()));
+    }
+
+    protected InputStream getInputStream() throws IOException {
+        return new URL(url).openStream();
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @param url where to download the store file from, e.g. a local copy or a stub server
+     */
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    /**
+     * @return the number of bytes downloaded by this reader since it was created
+     */
+    public long getBytesRead() {
+        return bytesRead.sum();
     }
 
     private Stream<String> getLines() throws IOException {
@@ -0,0 +1,467 @@
+package uk.co.pearson;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * An inverted index of the words in the address and city of every store of one snapshot, built with the snapshot.
+ * <p>
+ * Words are runs of letters and digits, lower-cased and without accents; apostrophes inside a word are dropped, so
+ * {@code St. John's} gives {@code st} and {@code johns}. The distinct words are kept sorted, so the words starting
+ * with a prefix are a range of them, and the rows of every word are kept in ascending order, all in one int array.
+ * <p>
+ * A query matches the stores that have every word of it, the last word being matched as a prefix so that results
+ * come while the user is still typing. Stores with the last word as a whole word come first, then the ones that only
+ * have a longer word starting with it, each in file order. The posting lists are intersected starting from the
+ * shortest one, with a galloping search in the others, and the search stops as soon as it has enough stores.
+ */
+public class SearchIndex {
+
+    private static final int[] NO_ROWS = new int[0];
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+    private final StoreTable stores;
+    private final String[] terms;
+    private final int[] postingStarts;
+    private final int[] postings;
+
+    public SearchIndex(StoreTable stores) {
+        this.stores = stores;
+        int size = stores.size();
+
+        Map<String, Integer> termIds = new HashMap<>();
+        List<String> termList = new ArrayList<>();
+        String[] cities = stores.getCities();
+        int[][] cityTerms = new int[cities.length][];
+        for (int code = 0; code < cities.length; code++) {
+            cityTerms[code] = termIds(tokens(cities[code]), termIds, termList);
+        }
+
+        // Every row's distinct terms, one row after the other, and how many rows every term is in
+        int[] rowTermStarts = new int[size + 1];
+        int[] rowTerms = new int[Math.max(16, size * 4)];
+        int[] counts = new int[Math.max(16, termList.size())];
+        int[] lastRow = new int[counts.length];
+        Arrays.fill(lastRow, -1);
+        int length = 0;
+        for (int row = 0; row < size; row++) {
+            int[] addressTerms = termIds(tokens(stores.getAddress(row)), termIds, termList);
+            if (termList.size() > counts.length) {
+                counts = Arrays.copyOf(counts, Math.max(counts.length * 2, termList.size()));
+                int previousLength = lastRow.length;
+                lastRow = Arrays.copyOf(lastRow, counts.length);
+                Arrays.fill(lastRow, previousLength, lastRow.length, -1);
+            }
+            int[] cityTermIds = cityTerms[stores.getCityCode(row)];
+            if (length + addressTerms.length + cityTermIds.length > rowTerms.length) {
+                rowTerms = Arrays.copyOf(rowTerms, Math.max(rowTerms.length * 2, length + addressTerms.length + cityTermIds.length));
+            }
+            for (int[] ids : new int[][]{addressTerms, cityTermIds}) {
+                for (int id : ids) {
+                    if (lastRow[id] != row) {
+                        lastRow[id] = row;
+                        counts[id]++;
+                        rowTerms[length++] = id;
+                    }
+                }
+            }
+            rowTermStarts[row + 1] = length;
+        }
+
+        // Number the terms in sorted order, then lay the rows of every term out one term after the other
+        terms = termList.toArray(new String[0]);
+        Integer[] sorted = new Integer[terms.length];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, (first, second) -> terms[first].compareTo(terms[second]));
+        int[] sortedIds = new int[terms.length];
+        postingStarts = new int[terms.length + 1];
+        for (int i = 0; i < sorted.length; i++) {
+            sortedIds[sorted[i]] = i;
+            postingStarts[i + 1] = postingStarts[i] + counts[sorted[i]];
+        }
+        Arrays.sort(terms);
+        int[] next = Arrays.copyOf(postingStarts, terms.length);
+        postings = new int[length];
+        for (int row = 0; row < size; row++) {
+            for (int i = rowTermStarts[row]; i < rowTermStarts[row + 1]; i++) {
+                postings[next[sortedIds[rowTerms[i]]]++] = row;
+            }
+        }
+    }
+
+    private SearchIndex(SearchIndex previous, StoreTable.Changes changes) {
+        this.stores = changes.table;
+
+        // The rows of every term of the changed rows, in ascending order, and the terms not indexed yet, sorted
+        Map<String, List<Integer>> changedPostings = new HashMap<>();
+        BitSet changedRows = changes.changedRows;
+        for (int row = changedRows.nextSetBit(0); row >= 0; row = changedRows.nextSetBit(row + 1)) {
+            Set<String> rowTerms = new LinkedHashSet<>(tokens(stores.getAddress(row)));
+            rowTerms.addAll(tokens(stores.getCity(row)));
+            for (String term : rowTerms) {
+                changedPostings.computeIfAbsent(term, key -> new ArrayList<>()).add(row);
+            }
+        }
+        List<String> addedTerms = new ArrayList<>();
+        for (String term : changedPostings.keySet()) {
+            if (Arrays.binarySearch(previous.terms, term) < 0) {
+                addedTerms.add(term);
+            }
+        }
+        Collections.sort(addedTerms);
+
+        // Merge both sorted lists of terms; the rows of a term are its previous rows still there, moved to their new
+        // row, merged with its changed rows. Terms left without rows are dropped.
+        List<String> termList = new ArrayList<>(previous.terms.length + addedTerms.size());
+        int[] starts = new int[previous.terms.length + addedTerms.size() + 1];
+        int[] rows = new int[previous.postings.length + changedRows.cardinality() * 4];
+        int length = 0;
+        for (int i = 0, j = 0; i < previous.terms.length || j < addedTerms.size(); ) {
+            boolean fromPrevious = j == addedTerms.size()
+                    || (i < previous.terms.length && previous.terms[i].compareTo(addedTerms.get(j)) < 0);
+            String term = fromPrevious ? previous.terms[i] : addedTerms.get(j);
+            List<Integer> changed = changedPostings.getOrDefault(term, Collections.emptyList());
+            int position = fromPrevious ? previous.postingStarts[i] : 0;
+            int end = fromPrevious ? previous.postingStarts[i + 1] : 0;
+            if (length + (end - position) + changed.size() > rows.length) {
+                rows = Arrays.copyOf(rows, Math.max(rows.length * 2, length + (end - position) + changed.size()));
+            }
+            int start = length;
+            int next = 0;
+            for (; position < end; position++) {
+                int row = changes.rows[previous.postings[position]];
+                if (row < 0 || changedRows.get(row)) {
+                    continue;
+                }
+                for (; next < changed.size() && changed.get(next) < row; next++) {
+                    rows[length++] = changed.get(next);
+                }
+                rows[length++] = row;
+            }
+            for (; next < changed.size(); next++) {
+                rows[length++] = changed.get(next);
+            }
+            if (length > start) {
+                termList.add(term);
+                starts[termList.size()] = length;
+            }
+            if (fromPrevious) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        terms = termList.toArray(new String[0]);
+        postingStarts = Arrays.copyOf(starts, terms.length + 1);
+        postings = Arrays.copyOf(rows, length);
+    }
+
+    /**
+     * @return the index of the table the changes were applied to, worked out from this one: only the words of the
+     * changed rows are read, and the rows of every word are moved to their new rows and merged with the changed ones,
+     * so nothing is sorted but the words not seen before
+     */
+    SearchIndex withChanges(StoreTable.Changes changes) {
+        return new SearchIndex(this, changes);
+    }
+
+    /**
+     * @return up to {@code limit} rows matching the query, most relevant first, or none if the query has no words
+     */
+    public int[] search(String query, int limit) {
+        List<String> words = tokens(query);
+        if (words.isEmpty()) {
+            return NO_ROWS;
+        }
+        String prefix = words.get(words.size() - 1);
+        int[] wholeWords = new int[words.size() - 1];
+        for (int i = 0; i < wholeWords.length; i++) {
+            wholeWords[i] = Arrays.binarySearch(terms, words.get(i));
+            if (wholeWords[i] < 0) {
+                return NO_ROWS;
+            }
+        }
+        int firstTerm = firstTerm(term -> term.compareTo(prefix) < 0);
+        int endTerm = firstTerm(term -> term.compareTo(prefix) < 0 || term.startsWith(prefix));
+        if (firstTerm == endTerm) {
+            return NO_ROWS;
+        }
+
+        int[] rows = new int[limit];
+        int count = 0;
+        if (terms[firstTerm].equals(prefix)) {
+            List<Cursor> allWhole = cursors(wholeWords);
+            allWhole.add(new Cursor(firstTerm));
+            count = intersect(allWhole, null, rows, 0, null);
+            firstTerm++;
+        }
+        if (count < limit && firstTerm < endTerm) {
+            int[] wholeWordRows = Arrays.copyOf(rows, count);
+            int prefixPostings = postingStarts[endTerm] - postingStarts[firstTerm];
+            List<Cursor> cursors = cursors(wholeWords);
+            Cursor shortest = shortest(cursors);
+            if (shortest == null || prefixPostings <= shortest.end - shortest.position) {
+                count = intersect(cursors, new MergedTerms(firstTerm, endTerm), rows, count, wholeWordRows);
+            } else {
+                count = intersectCheckingPrefix(cursors, prefix, rows, count, wholeWordRows);
+            }
+        }
+        return count == limit ? rows : Arrays.copyOf(rows, count);
+    }
+
+    /**
+     * @return the number of distinct words indexed
+     */
+    public int getTermCount() {
+        return terms.length;
+    }
+
+    /**
+     * Splits the text into lower-cased words without accents.
+     */
+    static List<String> tokens(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        StringBuilder token = new StringBuilder();
+        boolean ascii = true;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c) || Character.getType(c) == Character.NON_SPACING_MARK) {
+                token.append(Character.toLowerCase(c));
+                ascii &= c < 0x80;
+            } else if ((c == '\'' || c == '\u2019') && token.length() > 0) {
+                continue;
+            } else if (token.length() > 0) {
+                tokens.add(ascii ? token.toString() : withoutAccents(token.toString()));
+                token.setLength(0);
+                ascii = true;
+            }
+        }
+        return tokens;
+    }
+
+    private static String withoutAccents(String token) {
+        return COMBINING_MARKS.matcher(Normalizer.normalize(token, Normalizer.Form.NFD)).replaceAll("");
+    }
+
+    private static int[] termIds(List<String> tokens, Map<String, Integer> termIds, List<String> termList) {
+        int[] ids = new int[tokens.size()];
+        for (int i = 0; i < ids.length; i++) {
+            String token = tokens.get(i);
+            Integer id = termIds.get(token);
+            if (id == null) {
+                id = termList.size();
+                termIds.put(token, id);
+                termList.add(token);
+            }
+            ids[i] = id;
+        }
+        return ids;
+    }
+
+    /**
+     * Reads the rows of the driving list, the shortest whole word or else the merged prefix terms, and keeps the ones
+     * every other whole word has, until {@code rows} is full.
+     *
+     * @param skipped sorted rows not to add again, or null
+     * @return the number of rows in {@code rows}
+     */
+    private int intersect(List<Cursor> wholeWords, MergedTerms prefixTerms, int[] rows, int count, int[] skipped) {
+        Cursor shortest = prefixTerms == null ? shortest(wholeWords) : null;
+        for (int row = prefixTerms == null ? shortest.next() : prefixTerms.next(); row >= 0 && count < rows.length;
+             row = prefixTerms == null ? shortest.next() : prefixTerms.next()) {
+            if (containedInAll(wholeWords, shortest, row) && (skipped == null || Arrays.binarySearch(skipped, row) < 0)) {
+                rows[count++] = row;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reads the rows having every whole word and keeps the ones with a longer word starting with the prefix, checked
+     * on the words of the row itself; cheaper than merging the rows of every term starting with a short prefix.
+     */
+    private int intersectCheckingPrefix(List<Cursor> wholeWords, String prefix, int[] rows, int count, int[] skipped) {
+        Cursor shortest = shortest(wholeWords);
+        for (int row = shortest.next(); row >= 0 && count < rows.length; row = shortest.next()) {
+            if (containedInAll(wholeWords, shortest, row) && Arrays.binarySearch(skipped, row) < 0
+                    && hasWordStartingWith(row, prefix)) {
+                rows[count++] = row;
+            }
+        }
+        return count;
+    }
+
+    private boolean hasWordStartingWith(int row, String prefix) {
+        for (String text : new String[]{stores.getAddress(row), stores.getCity(row)}) {
+            for (String token : tokens(text)) {
+                if (token.startsWith(prefix) && !token.equals(prefix)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private List<Cursor> cursors(int[] terms) {
+        List<Cursor> cursors = new ArrayList<>(terms.length + 1);
+        for (int term : terms) {
+            cursors.add(new Cursor(term));
+        }
+        return cursors;
+    }
+
+    private static boolean containedInAll(List<Cursor> cursors, Cursor driving, int row) {
+        for (Cursor cursor : cursors) {
+            if (cursor != driving && !cursor.skipTo(row)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Cursor shortest(List<Cursor> cursors) {
+        Cursor shortest = null;
+        for (Cursor cursor : cursors) {
+            if (shortest == null || cursor.end - cursor.position < shortest.end - shortest.position) {
+                shortest = cursor;
+            }
+        }
+        return shortest;
+    }
+
+    /**
+     * @return the first term not before the searched one; terms before it must all come first
+     */
+    private int firstTerm(Predicate<String> before) {
+        int low = 0;
+        int high = terms.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (before.test(terms[middle])) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Walks the rows of one term in ascending order.
+     */
+    private class Cursor {
+        int position;
+        final int end;
+
+        Cursor(int term) {
+            position = postingStarts[term];
+            end = postingStarts[term + 1];
+        }
+
+        int next() {
+            return position < end ? postings[position++] : -1;
+        }
+
+        /**
+         * Moves to the first row not before the given one, galloping then searching, and tells whether it is that
+         * row; rows must be asked for in ascending order.
+         */
+        boolean skipTo(int row) {
+            int low = position;
+            int high = position;
+            for (int step = 1; high < end && postings[high] < row; step <<= 1) {
+                low = high + 1;
+                high = Math.min(end, high + step);
+            }
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (postings[middle] < row) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            position = low;
+            return position < end && postings[position] == row;
+        }
+    }
+
+    /**
+     * Walks the rows of a range of terms, the terms starting with a prefix, in ascending order and without
+     * repeating a row, by merging their lists through a heap.
+     */
+    private class MergedTerms {
+        private final int[] positions;
+        private final int[] ends;
+        private int heapSize;
+        private int lastRow = -1;
+
+        MergedTerms(int firstTerm, int endTerm) {
+            positions = new int[endTerm - firstTerm];
+            ends = new int[positions.length];
+            for (int term = firstTerm; term < endTerm; term++) {
+                if (postingStarts[term] < postingStarts[term + 1]) {
+                    positions[heapSize] = postingStarts[term];
+                    ends[heapSize] = postingStarts[term + 1];
+                    heapSize++;
+                }
+            }
+            for (int i = heapSize / 2 - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+        }
+
+        int next() {
+            while (heapSize > 0) {
+                int row = postings[positions[0]];
+                if (++positions[0] == ends[0]) {
+                    heapSize--;
+                    positions[0] = positions[heapSize];
+                    ends[0] = ends[heapSize];
+                }
+                siftDown(0);
+                if (row != lastRow) {
+                    lastRow = row;
+                    return row;
+                }
+            }
+            return -1;
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int smallest = i;
+                for (int child = 2 * i + 1; child <= 2 * i + 2 && child < heapSize; child++) {
+                    if (postings[positions[child]] < postings[positions[smallest]]) {
+                        smallest = child;
+                    }
+                }
+                if (smallest == i) {
+                    return;
+                }
+                int position = positions[i];
+                int end = ends[i];
+                positions[i] = positions[smallest];
+                ends[i] = ends[smallest];
+                positions[smallest] = position;
+                ends[smallest] = end;
+                i = smallest;
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package uk.co.pearson;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown instead of starting work the service cannot take now: a request arriving while its endpoint is saturated, or
+ * a download while the store source is failing. Answered 503 with the seconds to wait in a Retry-After header.
+ */
+public class ServiceUnavailableException extends RejectedExecutionException {
+
+    private final long retryAfterSeconds;
+
+    public ServiceUnavailableException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
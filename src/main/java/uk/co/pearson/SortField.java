@@ -0,0 +1,128 @@
+package uk.co.pearson;
+
+import java.util.Comparator;
+
+/**
+ * The store properties that {@code /stores/all} can be sorted by.
+ */
+public enum SortField {
+
+    ID("id", false, Comparator.comparing(Store::getId, SortField::compareIds)),
+    CITY("city", false, Comparator.comparing(Store::getCity, Comparator.nullsFirst(Comparator.naturalOrder()))),
+    POSTCODE("postcode", false, Comparator.comparing(Store::getPostCode, Comparator.nullsFirst(Comparator.naturalOrder()))),
+    OPENDATE("opendate", true, Comparator.comparingInt(Store::getOpenEpochDay)),
+    DAYS_SINCE_OPEN("dayssinceopen", false, SortField::compareDaysSinceOpen);
+
+    private final String name;
+    private final boolean descendingByDefault;
+    private final Comparator<Store> comparator;
+
+    SortField(String name, boolean descendingByDefault, Comparator<Store> comparator) {
+        this.name = name;
+        this.descendingByDefault = descendingByDefault;
+        this.comparator = comparator;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return whether the field is sorted in descending order when the request does not say; open dates are
+     * newest first, as they have always been
+     */
+    public boolean isDescendingByDefault() {
+        return descendingByDefault;
+    }
+
+    /**
+     * @return the ascending order of the field
+     */
+    public Comparator<Store> getComparator() {
+        return comparator;
+    }
+
+    /**
+     * @return the field with the given name, ignoring case, or null if there is none
+     */
+    public static SortField fromName(String name) {
+        for (SortField field : values()) {
+            if (field.name.equalsIgnoreCase(name)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Numeric ids come first in numeric order, then every other id in text order.
+     */
+    static int compareIds(String first, String second) {
+        if (first == null || second == null) {
+            return first == null ? (second == null ? 0 : -1) : 1;
+        }
+        boolean firstIsNumber = isNumber(first);
+        boolean secondIsNumber = isNumber(second);
+        if (firstIsNumber != secondIsNumber) {
+            return firstIsNumber ? -1 : 1;
+        }
+        if (firstIsNumber) {
+            int result = compareNumbers(first, second);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return first.compareTo(second);
+    }
+
+    /**
+     * Fewest days first, which is the newest store first; stores without a valid open date come last.
+     */
+    private static int compareDaysSinceOpen(Store first, Store second) {
+        int firstDay = first.getOpenEpochDay();
+        int secondDay = second.getOpenEpochDay();
+        if (firstDay == OpenDates.UNKNOWN || secondDay == OpenDates.UNKNOWN) {
+            return Boolean.compare(firstDay == OpenDates.UNKNOWN, secondDay == OpenDates.UNKNOWN);
+        }
+        return Integer.compare(secondDay, firstDay);
+    }
+
+    private static boolean isNumber(String text) {
+        if (text.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares two strings of digits by value, whatever their length.
+     */
+    private static int compareNumbers(String first, String second) {
+        int firstStart = skipLeadingZeros(first);
+        int secondStart = skipLeadingZeros(second);
+        int lengthDifference = (first.length() - firstStart) - (second.length() - secondStart);
+        if (lengthDifference != 0) {
+            return lengthDifference < 0 ? -1 : 1;
+        }
+        for (int i = firstStart, j = secondStart; i < first.length(); i++, j++) {
+            if (first.charAt(i) != second.charAt(j)) {
+                return first.charAt(i) < second.charAt(j) ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    private static int skipLeadingZeros(String digits) {
+        int start = 0;
+        while (start < digits.length() - 1 && digits.charAt(start) == '0') {
+            start++;
+        }
+        return start;
+    }
+}
@@ -0,0 +1,397 @@
+package uk.co.pearson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Precomputed orderings of the rows of one snapshot.
+ * <p>
+ * Every {@link SortField} is sorted once, when the snapshot is built, into a dense rank per row (equal values share
+ * a rank). Fields held as ints in the {@link StoreTable} are ranked without creating any objects, and cities by
+ * sorting their dictionary only. The single field orderings in both directions are then derived from the ranks with
+ * a counting sort, and so are composite orderings such as {@code city,-opendate}: one stable counting sort per key,
+ * last key first.
+ * Composite orderings are cached the first time they are asked for, so a request never sorts stores itself.
+ * The index of a snapshot made by applying changes to another is worked out from the index of that one instead, see
+ * {@link #withChanges(StoreTable.Changes)}.
+ * Rows that compare equal on every key stay in file order.
+ */
+public class SortIndex {
+
+    private static final int MAX_CACHED_ORDERS = 64;
+    private static final int SCAN_FRACTION = 16;
+    private static final Comparator<String> NULLS_FIRST = Comparator.nullsFirst(Comparator.naturalOrder());
+
+    private final int size;
+    private final int[][] ranks = new int[SortField.values().length][];
+    private final int[] rankCounts = new int[SortField.values().length];
+    private final int[] fileOrder;
+    private final Map<SortSpec, int[]> orders = new ConcurrentHashMap<>();
+
+    public SortIndex(StoreTable stores) {
+        size = stores.size();
+        fileOrder = fileOrder(size);
+        for (SortField field : SortField.values()) {
+            rank(stores, field);
+            orders.put(SortSpec.of(field, false), sortByRank(fileOrder, field, false));
+            orders.put(SortSpec.of(field, true), sortByRank(fileOrder, field, true));
+        }
+    }
+
+    private SortIndex(SortIndex previous, StoreTable.Changes changes) {
+        StoreTable stores = changes.table;
+        size = stores.size();
+        fileOrder = fileOrder(size);
+        int[] previousRows = new int[size];
+        Arrays.fill(previousRows, -1);
+        int[] keptRows = changes.rows.clone();
+        for (int previousRow = 0; previousRow < keptRows.length; previousRow++) {
+            int row = keptRows[previousRow];
+            if (row >= 0 && changes.changedRows.get(row)) {
+                keptRows[previousRow] = -1;
+            } else if (row >= 0) {
+                previousRows[row] = previousRow;
+            }
+        }
+        Integer[] changedRows = new Integer[changes.changedRows.cardinality()];
+        for (int i = 0, row = changes.changedRows.nextSetBit(0); row >= 0; i++, row = changes.changedRows.nextSetBit(row + 1)) {
+            changedRows[i] = row;
+        }
+        for (SortField field : SortField.values()) {
+            merge(previous, stores, field, keptRows, previousRows, changedRows);
+            orders.put(SortSpec.of(field, true), sortByRank(fileOrder, field, true));
+        }
+    }
+
+    /**
+     * @return the index of the table the changes were applied to, worked out from this one without sorting the rows
+     * again: the rows that did not change keep their order and ranks, and only the changed rows are sorted and merged
+     * in, so it costs a pass over the rows plus the changed rows sorted. Composite orderings are not carried over.
+     */
+    SortIndex withChanges(StoreTable.Changes changes) {
+        return new SortIndex(this, changes);
+    }
+
+    /**
+     * @return the rows of the snapshot in the requested order; callers must not modify the array
+     */
+    public int[] order(SortSpec spec) {
+        if (spec.isUnsorted()) {
+            return fileOrder;
+        }
+        int[] order = orders.get(spec);
+        if (order == null) {
+            order = sort(spec);
+            if (orders.size() < MAX_CACHED_ORDERS) {
+                int[] existing = orders.putIfAbsent(spec, order);
+                order = existing != null ? existing : order;
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Puts some of the rows in the requested order, with rows equal on every key in file order. When they are a large
+     * share of the snapshot they are picked out of the full ordering; otherwise only they are sorted, one stable sort
+     * per key, last key first, so the cost depends on the number of rows rather than on the size of the snapshot.
+     *
+     * @param rows distinct rows, in any order; the array is not modified
+     */
+    public int[] order(SortSpec spec, int[] rows) {
+        if (rows.length > size / SCAN_FRACTION) {
+            BitSet selected = new BitSet(size);
+            for (int row : rows) {
+                selected.set(row);
+            }
+            int[] ordered = new int[rows.length];
+            int count = 0;
+            for (int row : order(spec)) {
+                if (selected.get(row)) {
+                    ordered[count++] = row;
+                }
+            }
+            return ordered;
+        }
+        int[] sorted = rows.clone();
+        Arrays.sort(sorted);
+        long[] keyedPositions = new long[sorted.length];
+        List<SortSpec.Key> keys = spec.getKeys();
+        for (int k = keys.size() - 1; k >= 0; k--) {
+            int[] rank = ranks[keys.get(k).getField().ordinal()];
+            boolean descending = keys.get(k).isDescending();
+            for (int i = 0; i < sorted.length; i++) {
+                int key = descending ? -rank[sorted[i]] : rank[sorted[i]];
+                keyedPositions[i] = ((long) key << 32) | i;
+            }
+            Arrays.sort(keyedPositions);
+            int[] next = new int[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                next[i] = sorted[(int) keyedPositions[i]];
+            }
+            sorted = next;
+        }
+        return sorted;
+    }
+
+    /**
+     * @return the rank of the row for the field; rows with the same value have the same rank
+     */
+    public int rank(SortField field, int row) {
+        return ranks[field.ordinal()][row];
+    }
+
+    private int[] sort(SortSpec spec) {
+        int[] rows = fileOrder;
+        List<SortSpec.Key> keys = spec.getKeys();
+        for (int i = keys.size() - 1; i >= 0; i--) {
+            rows = sortByRank(rows, keys.get(i).getField(), keys.get(i).isDescending());
+        }
+        return rows;
+    }
+
+    /**
+     * Builds the ascending ordering of the field from the previous one: the rows that did not change, in their
+     * previous order, with every changed row put where a binary search finds its place among them. Neighbours that
+     * both come from the previous ordering share a rank if they shared one before; only the changed rows are compared.
+     *
+     * @param keptRows the row of every previous row that did not change, -1 for the others
+     * @param previousRows the previous row of every row that did not change, -1 for the others
+     * @param changedRows the rows that were updated or inserted, in ascending order
+     */
+    private void merge(SortIndex previous, StoreTable stores, SortField field, int[] keptRows, int[] previousRows,
+                       Integer[] changedRows) {
+        int[] previousRank = previous.ranks[field.ordinal()];
+        int[] kept = new int[size - changedRows.length];
+        int keptCount = 0;
+        for (int previousRow : previous.orders.get(SortSpec.of(field, false))) {
+            int row = keptRows[previousRow];
+            if (row >= 0) {
+                kept[keptCount++] = row;
+            }
+        }
+
+        Integer[] changed = changedRows.clone();
+        Arrays.sort(changed, (first, second) -> compareRows(stores, field, first, second));
+        int[] order = new int[size];
+        int count = 0;
+        int position = 0;
+        for (int row : changed) {
+            int end = firstAfter(kept, position, stores, field, row);
+            System.arraycopy(kept, position, order, count, end - position);
+            count += end - position;
+            position = end;
+            order[count++] = row;
+        }
+        System.arraycopy(kept, position, order, count, kept.length - position);
+
+        int[] rank = new int[size];
+        int current = -1;
+        for (int i = 0; i < size; i++) {
+            int row = order[i];
+            if (i == 0) {
+                current++;
+            } else {
+                int before = order[i - 1];
+                boolean same = previousRows[before] >= 0 && previousRows[row] >= 0
+                        ? previousRank[previousRows[before]] == previousRank[previousRows[row]]
+                        : compareValues(stores, field, before, row) == 0;
+                if (!same) {
+                    current++;
+                }
+            }
+            rank[row] = current;
+        }
+        ranks[field.ordinal()] = rank;
+        rankCounts[field.ordinal()] = current + 1;
+        orders.put(SortSpec.of(field, false), order);
+    }
+
+    /**
+     * @return the first position from {@code from} in the ascending ordering whose row comes after the given one,
+     * rows with equal values coming in row order
+     */
+    private static int firstAfter(int[] order, int from, StoreTable stores, SortField field, int row) {
+        int low = from;
+        int high = order.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareRows(stores, field, order[middle], row) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compares two rows by the field, with rows with equal values in row order.
+     */
+    private static int compareRows(StoreTable stores, SortField field, int first, int second) {
+        int result = compareValues(stores, field, first, second);
+        return result != 0 ? result : Integer.compare(first, second);
+    }
+
+    /**
+     * Compares the values of two rows for the field, the same way they are ranked.
+     */
+    private static int compareValues(StoreTable stores, SortField field, int first, int second) {
+        switch (field) {
+            case ID:
+                return stores.hasOnlyNumericIds()
+                        ? Integer.compare(stores.getNumericId(first), stores.getNumericId(second))
+                        : SortField.compareIds(stores.getId(first), stores.getId(second));
+            case CITY:
+                return NULLS_FIRST.compare(stores.getCity(first), stores.getCity(second));
+            case POSTCODE:
+                return NULLS_FIRST.compare(stores.getPostCode(first), stores.getPostCode(second));
+            case OPENDATE:
+                return Integer.compare(stores.getOpenEpochDay(first), stores.getOpenEpochDay(second));
+            case DAYS_SINCE_OPEN:
+                return Integer.compare(daysSinceOpenKey(stores, first), daysSinceOpenKey(stores, second));
+            default:
+                throw new IllegalArgumentException("No ranking for " + field);
+        }
+    }
+
+    private void rank(StoreTable stores, SortField field) {
+        switch (field) {
+            case ID:
+                if (stores.hasOnlyNumericIds()) {
+                    rankInts(field, stores::getNumericId);
+                } else {
+                    rankObjects(field, stores::getId, SortField::compareIds);
+                }
+                break;
+            case CITY:
+                rankCities(stores);
+                break;
+            case POSTCODE:
+                rankObjects(field, stores::getPostCode, NULLS_FIRST);
+                break;
+            case OPENDATE:
+                rankInts(field, stores::getOpenEpochDay);
+                break;
+            case DAYS_SINCE_OPEN:
+                rankInts(field, row -> daysSinceOpenKey(stores, row));
+                break;
+            default:
+                throw new IllegalArgumentException("No ranking for " + field);
+        }
+    }
+
+    /**
+     * @return a key that sorts the stores open the fewest days first and the ones without an open date last
+     */
+    private static int daysSinceOpenKey(StoreTable stores, int row) {
+        int openEpochDay = stores.getOpenEpochDay(row);
+        return openEpochDay == OpenDates.UNKNOWN ? Integer.MAX_VALUE : -openEpochDay;
+    }
+
+    private static int[] fileOrder(int size) {
+        int[] fileOrder = new int[size];
+        for (int row = 0; row < size; row++) {
+            fileOrder[row] = row;
+        }
+        return fileOrder;
+    }
+
+    /**
+     * Ranks by an int key: key and row are packed into a long, so one primitive sort orders the rows.
+     */
+    private void rankInts(SortField field, IntUnaryOperator key) {
+        long[] keyedRows = new long[size];
+        for (int row = 0; row < size; row++) {
+            keyedRows[row] = ((long) key.applyAsInt(row) << 32) | row;
+        }
+        Arrays.sort(keyedRows);
+        int[] rank = new int[size];
+        int current = -1;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || (keyedRows[i - 1] >> 32) != (keyedRows[i] >> 32)) {
+                current++;
+            }
+            rank[(int) keyedRows[i]] = current;
+        }
+        ranks[field.ordinal()] = rank;
+        rankCounts[field.ordinal()] = current + 1;
+    }
+
+    /**
+     * Ranks the distinct cities, then gives every row the rank of its city.
+     */
+    private void rankCities(StoreTable stores) {
+        String[] cities = stores.getCities();
+        int[] cityRanks = rankValues(Arrays.asList(cities), NULLS_FIRST);
+        int[] rank = new int[size];
+        int highestRank = -1;
+        for (int row = 0; row < size; row++) {
+            rank[row] = cityRanks[stores.getCityCode(row)];
+            highestRank = Math.max(highestRank, rank[row]);
+        }
+        ranks[SortField.CITY.ordinal()] = rank;
+        rankCounts[SortField.CITY.ordinal()] = highestRank + 1;
+    }
+
+    private <T> void rankObjects(SortField field, IntFunction<T> key, Comparator<? super T> comparator) {
+        List<T> keys = new ArrayList<>(size);
+        for (int row = 0; row < size; row++) {
+            keys.add(key.apply(row));
+        }
+        int[] rank = rankValues(keys, comparator);
+        int highestRank = -1;
+        for (int value : rank) {
+            highestRank = Math.max(highestRank, value);
+        }
+        ranks[field.ordinal()] = rank;
+        rankCounts[field.ordinal()] = highestRank + 1;
+    }
+
+    /**
+     * @return the dense rank of every value in the list
+     */
+    private static <T> int[] rankValues(List<T> values, Comparator<? super T> comparator) {
+        Integer[] positions = new Integer[values.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = i;
+        }
+        Arrays.sort(positions, (first, second) -> comparator.compare(values.get(first), values.get(second)));
+
+        int[] rank = new int[positions.length];
+        int current = -1;
+        for (int i = 0; i < positions.length; i++) {
+            if (i == 0 || comparator.compare(values.get(positions[i - 1]), values.get(positions[i])) != 0) {
+                current++;
+            }
+            rank[positions[i]] = current;
+        }
+        return rank;
+    }
+
+    /**
+     * Stable counting sort of the given rows by their rank for the field.
+     */
+    private int[] sortByRank(int[] rows, SortField field, boolean descending) {
+        int[] rank = ranks[field.ordinal()];
+        int highestRank = rankCounts[field.ordinal()] - 1;
+        int[] starts = new int[highestRank + 2];
+        for (int row : rows) {
+            starts[(descending ? highestRank - rank[row] : rank[row]) + 1]++;
+        }
+        for (int i = 1; i < starts.length; i++) {
+            starts[i] += starts[i - 1];
+        }
+        int[] sorted = new int[rows.length];
+        for (int row : rows) {
+            sorted[starts[descending ? highestRank - rank[row] : rank[row]]++] = row;
+        }
+        return sorted;
+    }
+}
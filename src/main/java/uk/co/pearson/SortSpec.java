@@ -0,0 +1,153 @@
+package uk.co.pearson;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A parsed {@code sort} request parameter such as {@code city,-opendate}: a comma separated list of fields,
+ * each optionally prefixed with {@code -} or suffixed with {@code :desc} for descending order, or suffixed with
+ * {@code :asc} for ascending order. Unknown fields are ignored, as they always have been.
+ * <p>
+ * There is no {@code +} prefix: in a query string it is decoded to a space, so a field starting with either and
+ * without a direction is refused rather than silently sorted in its default order.
+ */
+public class SortSpec {
+
+    public static final SortSpec UNSORTED = new SortSpec(Collections.emptyList());
+
+    private static final String ASCENDING = ":asc";
+    private static final String DESCENDING = ":desc";
+
+    private final List<Key> keys;
+    private final String canonical;
+
+    private SortSpec(List<Key> keys) {
+        this.keys = Collections.unmodifiableList(keys);
+        StringBuilder builder = new StringBuilder();
+        for (Key key : keys) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(key.getField().getName()).append(key.isDescending() ? DESCENDING : ASCENDING);
+        }
+        this.canonical = builder.toString();
+    }
+
+    /**
+     * @throws InvalidRequestException if a field without a direction starts with {@code +} or a space
+     */
+    public static SortSpec parse(String sort) {
+        if (sort == null || sort.trim().isEmpty()) {
+            return UNSORTED;
+        }
+        List<Key> keys = new ArrayList<>();
+        for (String part : sort.split(",")) {
+            String name = part.trim();
+            Boolean descending = null;
+            if (name.startsWith("-")) {
+                descending = true;
+                name = name.substring(1);
+            } else if (name.endsWith(DESCENDING)) {
+                descending = true;
+                name = name.substring(0, name.length() - DESCENDING.length());
+            } else if (name.endsWith(ASCENDING)) {
+                descending = false;
+                name = name.substring(0, name.length() - ASCENDING.length());
+            }
+            if (name.startsWith("+") || descending == null && part.startsWith(" ")) {
+                throw new InvalidRequestException("sort=" + sort + " has a field starting with '+' or a space, which "
+                        + "is what a '+' in a URL decodes to; use " + name.replace("+", "") + ASCENDING
+                        + " for ascending order");
+            }
+            SortField field = SortField.fromName(name);
+            if (field != null && !containsField(keys, field)) {
+                keys.add(new Key(field, descending != null ? descending : field.isDescendingByDefault()));
+            }
+        }
+        return keys.isEmpty() ? UNSORTED : new SortSpec(keys);
+    }
+
+    public static SortSpec of(SortField field, boolean descending) {
+        return new SortSpec(Collections.singletonList(new Key(field, descending)));
+    }
+
+    /**
+     * @return this spec with the id appended as a last key unless it already has one, so that no two stores are
+     * ever equal; used for pagination, where the position of a store must not depend on the file order
+     */
+    public SortSpec withIdTieBreak() {
+        if (containsField(keys, SortField.ID)) {
+            return this;
+        }
+        List<Key> withId = new ArrayList<>(keys);
+        withId.add(new Key(SortField.ID, false));
+        return new SortSpec(withId);
+    }
+
+    /**
+     * @return the order described by this spec as a comparator; stores equal on every key compare as equal
+     */
+    public Comparator<Store> comparator() {
+        Comparator<Store> comparator = (first, second) -> 0;
+        for (Key key : keys) {
+            Comparator<Store> fieldComparator = key.getField().getComparator();
+            comparator = comparator.thenComparing(key.isDescending() ? fieldComparator.reversed() : fieldComparator);
+        }
+        return comparator;
+    }
+
+    public List<Key> getKeys() {
+        return keys;
+    }
+
+    public boolean isUnsorted() {
+        return keys.isEmpty();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof SortSpec && canonical.equals(((SortSpec) other).canonical);
+    }
+
+    @Override
+    public int hashCode() {
+        return canonical.hashCode();
+    }
+
+    /**
+     * @return the spec with every direction spelled out, e.g. {@code city:asc,opendate:desc}
+     */
+    @Override
+    public String toString() {
+        return canonical;
+    }
+
+    private static boolean containsField(List<Key> keys, SortField field) {
+        for (Key key : keys) {
+            if (key.getField() == field) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static class Key {
+        private final SortField field;
+        private final boolean descending;
+
+        Key(SortField field, boolean descending) {
+            this.field = field;
+            this.descending = descending;
+        }
+
+        public SortField getField() {
+            return field;
+        }
+
+        public boolean isDescending() {
+            return descending;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package uk.co.pearson;
+
+/**
+ * What {@code /stores/stats} can group the stores by.
+ */
+public enum StatsGroup {
+
+    CITY("city"),
+    POSTCODE_AREA("postcodeArea"),
+    OPEN_YEAR("openYear"),
+    OPEN_MONTH("openMonth");
+
+    private final String name;
+
+    StatsGroup(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the group with the given name, ignoring case, or null when there is no name
+     * @throws InvalidRequestException if there is no group with that name
+     */
+    public static StatsGroup parse(String name) {
+        if (name == null || name.trim().isEmpty()) {
+            return null;
+        }
+        for (StatsGroup group : values()) {
+            if (group.name.equalsIgnoreCase(name.trim())) {
+                return group;
+            }
+        }
+        throw new InvalidRequestException("Cannot group stores by " + name + "; use city, postcodeArea, openYear or openMonth");
+    }
+}
@@ -1,58 +1,89 @@
 package uk.co.pearson;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Objects;
+
 public class Store {
-    private String id;
-    private String postCode;
-    private String city;
-    private String address;
-    private String openDate;
-    private String daysSinceOpen;
+    private final String id;
+    private final String postCode;
+    private final String city;
+    private final String address;
+    private final String openDate;
+    private final String daysSinceOpen;
+    private final int openEpochDay;
 
-    public String getId() {
-        return id;
+    @JsonCreator
+    public Store(@JsonProperty("id") String id, @JsonProperty("postCode") String postCode, @JsonProperty("city") String city,
+                 @JsonProperty("address") String address, @JsonProperty("openDate") String openDate,
+                 @JsonProperty("daysSinceOpen") String daysSinceOpen) {
+        this(id, postCode, city, address, openDate, daysSinceOpen, OpenDates.parseEpochDay(openDate));
     }
 
-    public void setId(String id) {
+    public Store(String id, String postCode, String city, String address, String openDate, String daysSinceOpen,
+                 int openEpochDay) {
         this.id = id;
+        this.postCode = postCode;
+        this.city = city;
+        this.address = address;
+        this.openDate = openDate;
+        this.daysSinceOpen = daysSinceOpen;
+        this.openEpochDay = openEpochDay;
     }
 
-    public String getPostCode() {
-        return postCode;
+    public String getId() {
+        return id;
     }
 
-    public void setPostCode(String postCode) {
-        this.postCode = postCode;
+    public String getPostCode() {
+        return postCode;
     }
 
     public String getCity() {
         return city;
     }
 
-    public void setCity(String city) {
-        this.city = city;
-    }
-
     public String getAddress() {
         return address;
     }
 
-    public void setAddress(String address) {
-        this.address = address;
-    }
-
     public String getOpenDate() {
         return openDate;
     }
 
-    public void setOpenDate(String openDate) {
-        this.openDate = openDate;
-    }
-
     public String getDaysSinceOpen() {
         return daysSinceOpen;
     }
 
-    public void setDaysSinceOpen(String daysSinceOpen) {
-        this.daysSinceOpen = daysSinceOpen;
+    /**
+     * @return the open date as days since 1970-01-01, or {@link OpenDates#UNKNOWN}
+     */
+    @JsonIgnore
+    public int getOpenEpochDay() {
+        return openEpochDay;
+    }
+
+    /**
+     * Stores are equal when they hold the same data; the days since open are left out, as they only depend on the
+     * open date and the day they were worked out.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof Store)) {
+            return false;
+        }
+        Store store = (Store) other;
+        return Objects.equals(id, store.id) && Objects.equals(postCode, store.postCode) && Objects.equals(city, store.city)
+                && Objects.equals(address, store.address) && Objects.equals(openDate, store.openDate);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, postCode, city, address, openDate);
     }
 }
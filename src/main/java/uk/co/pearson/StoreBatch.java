@@ -0,0 +1,40 @@
+package uk.co.pearson;
+
+import java.util.List;
+
+/**
+ * The answer to a batch lookup: the stores found and the ids that were not, all read from the same snapshot.
+ */
+public class StoreBatch {
+
+    private final long version;
+    private final List<Store> found;
+    private final List<String> missing;
+
+    public StoreBatch(long version, List<Store> found, List<String> missing) {
+        this.version = version;
+        this.found = found;
+        this.missing = missing;
+    }
+
+    /**
+     * @return the version of the snapshot every id was looked up in
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the stores found, in the order their ids were asked for
+     */
+    public List<Store> getFound() {
+        return found;
+    }
+
+    /**
+     * @return the ids asked for without a store, in the order they were asked for
+     */
+    public List<String> getMissing() {
+        return missing;
+    }
+}
@@ -0,0 +1,188 @@
+package uk.co.pearson;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parses a whole store file held in a {@link ByteBuffer}, typically a memory-mapped local file, straight into a
+ * {@link StoreTable}, without decoding it to text.
+ * <p>
+ * Line and field boundaries are found on the bytes, and every row is handed to
+ * {@link StoreTable.Builder#add(ByteBuffer, int[], int)} as the bounds of its five fields: ids and open dates are
+ * parsed from the bytes and addresses copied as they are, so a row costs no objects at all unless it holds something
+ * the table keeps as text. The rows that need more than that go through {@link StoreConverter} like every row of
+ * {@link StoreFileParser} does, and end up in the same {@link Quarantine} when they are rejected: empty lines, rows
+ * without exactly five fields, quoted fields with a doubled quote in them or anything after their closing quote,
+ * open dates that cannot be parsed, and bytes that are not well-formed UTF-8.
+ * <p>
+ * Lines end like they do for {@link StoreFileParser}, and the first one is the header. The file is parsed on the
+ * calling thread, from the position of the buffer to its limit, which are left as they are.
+ */
+public class StoreBufferParser {
+
+    private static final int HEADER_LINE = 1;
+    private static final int FIELD_COUNT = 5;
+    private static final int ESTIMATED_ROW_BYTES = 64;
+    private static final byte LINE_FEED = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+    private static final byte SEPARATOR = ',';
+    private static final byte QUOTE = '"';
+
+    private final StoreConverter storeConverter = new StoreConverter();
+
+    /**
+     * Parses the file, with a quarantine of {@link Quarantine#DEFAULT_SAMPLES_PER_REASON} samples per reason.
+     */
+    public StoreFileParser.ParsedStores parse(ByteBuffer file) {
+        return parse(file, new Quarantine(Quarantine.DEFAULT_SAMPLES_PER_REASON));
+    }
+
+    /**
+     * @return the stores as a {@link StoreTable}, where only the first row of every id is kept; as the file is all
+     * there before parsing starts, all of the parsing time counts as parsing after the input
+     */
+    public StoreFileParser.ParsedStores parse(ByteBuffer file, Quarantine quarantine) {
+        long start = System.nanoTime();
+        int end = file.limit();
+        StoreTable.Builder table = new StoreTable.Builder((end - file.position()) / ESTIMATED_ROW_BYTES);
+        int[] fields = new int[2 * FIELD_COUNT];
+        int lineCount = 0;
+        int rowCount = 0;
+        int lineNumber = HEADER_LINE;
+        int position = file.position();
+        while (position < end) {
+            int lineEnd = indexOfLineFeed(file, position, end);
+            int next = lineEnd + 1;
+            if (lineEnd > position && file.get(lineEnd - 1) == CARRIAGE_RETURN) {
+                lineEnd--;
+            }
+            if (lineNumber != HEADER_LINE) {
+                if (parseRow(file, position, lineEnd, lineNumber, fields, table, quarantine)) {
+                    rowCount++;
+                }
+                lineCount++;
+            }
+            lineNumber++;
+            position = next;
+        }
+        StoreTable stores = table.build();
+        return new StoreFileParser.ParsedStores(stores, lineCount, rowCount, System.nanoTime() - start, quarantine);
+    }
+
+    /**
+     * @return whether the line was parsed into a store, whether or not its id had been seen before
+     */
+    private boolean parseRow(ByteBuffer file, int start, int end, int lineNumber, int[] fields,
+                             StoreTable.Builder table, Quarantine quarantine) {
+        if (splitFields(file, start, end, fields)) {
+            int openEpochDay = OpenDates.parseEpochDay(file, fields[8], fields[9]);
+            if (openEpochDay != OpenDates.UNKNOWN) {
+                table.add(file, fields, openEpochDay);
+                return true;
+            }
+        }
+        Store store = storeConverter.convertStringToStore(StoreTable.decode(file, start, end), lineNumber,
+                quarantine);
+        if (store == null) {
+            return false;
+        }
+        table.add(store);
+        return true;
+    }
+
+    /**
+     * Finds the fields of a line the way {@link CsvTokenizer} does, as long as no field needs unescaping.
+     *
+     * @param fields receives the start and end of every field, without its quotes
+     * @return whether the line is five well-formed UTF-8 fields that can be read without unescaping
+     */
+    private static boolean splitFields(ByteBuffer file, int start, int end, int[] fields) {
+        if (start == end) {
+            return false;
+        }
+        int count = 0;
+        int highBits = 0;
+        int position = start;
+        while (true) {
+            if (count == FIELD_COUNT) {
+                return false;
+            }
+            int fieldStart;
+            int fieldEnd;
+            if (position < end && file.get(position) == QUOTE) {
+                fieldStart = position + 1;
+                fieldEnd = fieldStart;
+                while (fieldEnd < end && file.get(fieldEnd) != QUOTE) {
+                    highBits |= file.get(fieldEnd++);
+                }
+                position = fieldEnd + 1;
+                if (fieldEnd == end || position < end && file.get(position) != SEPARATOR) {
+                    return false;
+                }
+            } else {
+                fieldStart = position;
+                while (position < end && file.get(position) != SEPARATOR) {
+                    highBits |= file.get(position++);
+                }
+                fieldEnd = position;
+            }
+            fields[2 * count] = fieldStart;
+            fields[2 * count + 1] = fieldEnd;
+            count++;
+            if (position >= end) {
+                return count == FIELD_COUNT && (highBits >= 0 || isWellFormedUtf8(file, start, end));
+            }
+            position++;
+        }
+    }
+
+    /**
+     * @return whether the bytes decode to the same characters with {@link java.nio.charset.StandardCharsets#UTF_8}
+     * as they would be hashed and stored byte by byte: no overlong forms, surrogates or code points past U+10FFFF
+     */
+    static boolean isWellFormedUtf8(ByteBuffer bytes, int start, int end) {
+        int i = start;
+        while (i < end) {
+            int first = bytes.get(i) & 0xff;
+            int length;
+            if (first < 0x80) {
+                i++;
+                continue;
+            } else if (first >= 0xc2 && first <= 0xdf) {
+                length = 2;
+            } else if (first >= 0xe0 && first <= 0xef) {
+                length = 3;
+            } else if (first >= 0xf0 && first <= 0xf4) {
+                length = 4;
+            } else {
+                return false;
+            }
+            if (i + length > end) {
+                return false;
+            }
+            int second = bytes.get(i + 1) & 0xff;
+            if (first == 0xe0 && second < 0xa0 || first == 0xed && second > 0x9f
+                    || first == 0xf0 && second < 0x90 || first == 0xf4 && second > 0x8f) {
+                return false;
+            }
+            for (int k = 1; k < length; k++) {
+                if ((bytes.get(i + k) & 0xc0) != 0x80) {
+                    return false;
+                }
+            }
+            i += length;
+        }
+        return true;
+    }
+
+    /**
+     * @return the index of the next line feed, or the end if there is none
+     */
+    private static int indexOfLineFeed(ByteBuffer file, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (file.get(i) == LINE_FEED) {
+                return i;
+            }
+        }
+        return end;
+    }
+}
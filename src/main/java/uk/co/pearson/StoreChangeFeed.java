@@ -0,0 +1,261 @@
+package uk.co.pearson;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The changes published by {@link StoreSnapshotHolder}, one change set per snapshot version. The latest ones are kept
+ * so that a client can catch up from the version it has ({@link #since(long)}), and they are sent to the clients
+ * subscribed as Server-Sent Events as soon as they are published ({@link #subscribe(Long)}); in both cases the cost
+ * depends on the size of the changes, not on the number of stores.
+ * <p>
+ * Up to {@code stores.changes.max-versions} change sets are kept, holding up to {@code stores.changes.max-stores}
+ * stores and ids between them. A client further behind is told to read all the stores again, which is cheaper than
+ * going through that many changes. Events are sent from a thread of the feed, in version order, so slow clients never
+ * hold up the publishing of a snapshot.
+ */
+@Component
+public class StoreChangeFeed {
+
+    static final int DEFAULT_MAX_VERSIONS = 1000;
+    static final int DEFAULT_MAX_STORES = 100000;
+    static final long DEFAULT_SSE_TIMEOUT_MILLIS = 30L * 60 * 1000;
+    static final String CHANGES_EVENT = "changes";
+    static final String RESET_EVENT = "reset";
+
+    @Value("${stores.changes.max-versions:" + DEFAULT_MAX_VERSIONS + "}")
+    int maxVersions = DEFAULT_MAX_VERSIONS;
+
+    @Value("${stores.changes.max-stores:" + DEFAULT_MAX_STORES + "}")
+    int maxStores = DEFAULT_MAX_STORES;
+
+    @Value("${stores.changes.sse-timeout-millis:" + DEFAULT_SSE_TIMEOUT_MILLIS + "}")
+    long sseTimeoutMillis = DEFAULT_SSE_TIMEOUT_MILLIS;
+
+    private final Deque<StoreChanges> changes = new ArrayDeque<>();
+    private long retainedStores;
+    private long latestVersion;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final ExecutorService sender = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "store-changes");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PreDestroy
+    public void stop() {
+        sender.shutdownNow();
+        for (Subscriber subscriber : subscribers) {
+            subscriber.emitter.complete();
+        }
+    }
+
+    /**
+     * Starts again from a snapshot that was not compared with a previous one: there are no changes leading to it,
+     * so clients of any other version have to read all the stores again.
+     */
+    public synchronized void reset(long version) {
+        changes.clear();
+        retainedStores = 0;
+        latestVersion = version;
+        send(this::sendReset);
+    }
+
+    /**
+     * Keeps the change set, dropping the oldest ones over the limits, and sends it to every subscriber.
+     */
+    public synchronized void publish(StoreChanges published) {
+        latestVersion = published.getVersion();
+        changes.addLast(published);
+        retainedStores += published.size();
+        while (!changes.isEmpty() && (changes.size() > maxVersions || retainedStores > maxStores)) {
+            retainedStores -= changes.removeFirst().size();
+        }
+        if (published.size() > maxStores) {
+            send(this::sendReset);
+        } else {
+            send(() -> {
+                for (Subscriber subscriber : subscribers) {
+                    sendChanges(subscriber, published);
+                }
+            });
+        }
+    }
+
+    public synchronized long getLatestVersion() {
+        return latestVersion;
+    }
+
+    /**
+     * @return the changes from the version to the latest one, merged into one change set, or null when some of them
+     * are not kept anymore
+     * @throws InvalidRequestException if the version is newer than the latest one
+     */
+    public StoreChanges since(long version) {
+        List<StoreChanges> newer = new ArrayList<>();
+        long latest;
+        synchronized (this) {
+            latest = latestVersion;
+            if (version > latest) {
+                throw new InvalidRequestException("There is no version " + version + " yet, the latest is " + latest);
+            }
+            if (version < latest && (changes.isEmpty() || changes.getFirst().getSince() > version)) {
+                return null;
+            }
+            for (StoreChanges changeSet : changes) {
+                if (changeSet.getSince() >= version) {
+                    newer.add(changeSet);
+                }
+            }
+        }
+        if (newer.isEmpty()) {
+            return new StoreChanges(version, latest, Collections.emptyList(), Collections.emptyList(),
+                    Collections.emptyList());
+        }
+        return newer.size() == 1 ? newer.get(0) : merge(version, newer);
+    }
+
+    /**
+     * Sends the changes since the version given, if any, and then every change set as it is published. When the
+     * changes since that version are not kept, or a change set is too large to keep, a {@code reset} event with the
+     * latest version is sent instead, and the client should read all the stores again.
+     *
+     * @throws InvalidRequestException if the version is newer than the latest one
+     */
+    public SseEmitter subscribe(Long since) {
+        if (since != null) {
+            since(since);
+        }
+        SseEmitter emitter = new SseEmitter(sseTimeoutMillis);
+        Subscriber subscriber = new Subscriber(emitter);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        send(() -> {
+            long latest = getLatestVersion();
+            subscriber.version = since == null ? latest : since;
+            subscribers.add(subscriber);
+            if (subscriber.version < latest) {
+                StoreChanges backlog = since(subscriber.version);
+                if (backlog == null) {
+                    sendReset(subscriber, latest);
+                } else {
+                    sendChanges(subscriber, backlog);
+                }
+            }
+        });
+        return emitter;
+    }
+
+    /**
+     * Merges consecutive change sets: a store counts as inserted or updated depending on whether it existed at the
+     * first version, with its latest fields, and stores inserted and deleted in between are left out.
+     */
+    private static StoreChanges merge(long since, List<StoreChanges> changeSets) {
+        Map<String, Store> latest = new LinkedHashMap<>();
+        Set<String> existing = new HashSet<>();
+        for (StoreChanges changeSet : changeSets) {
+            for (Store store : changeSet.getInserted()) {
+                latest.put(store.getId(), store);
+            }
+            for (Store store : changeSet.getUpdated()) {
+                if (!latest.containsKey(store.getId())) {
+                    existing.add(store.getId());
+                }
+                latest.put(store.getId(), store);
+            }
+            for (String id : changeSet.getDeleted()) {
+                if (!latest.containsKey(id)) {
+                    existing.add(id);
+                }
+                latest.put(id, null);
+            }
+        }
+        List<Store> inserted = new ArrayList<>();
+        List<Store> updated = new ArrayList<>();
+        List<String> deleted = new ArrayList<>();
+        for (Map.Entry<String, Store> entry : latest.entrySet()) {
+            if (entry.getValue() == null) {
+                if (existing.contains(entry.getKey())) {
+                    deleted.add(entry.getKey());
+                }
+            } else if (existing.contains(entry.getKey())) {
+                updated.add(entry.getValue());
+            } else {
+                inserted.add(entry.getValue());
+            }
+        }
+        return new StoreChanges(since, changeSets.get(changeSets.size() - 1).getVersion(), inserted, updated, deleted);
+    }
+
+    private void send(Runnable task) {
+        try {
+            sender.execute(task);
+        } catch (RejectedExecutionException e) {
+            // shutting down, the subscribers are completed by stop()
+        }
+    }
+
+    private void sendReset() {
+        long latest = getLatestVersion();
+        for (Subscriber subscriber : subscribers) {
+            sendReset(subscriber, latest);
+        }
+    }
+
+    /**
+     * Sends the changes unless the subscriber has them already, which happens to change sets published between
+     * its subscription and the sending of its backlog.
+     */
+    private void sendChanges(Subscriber subscriber, StoreChanges changeSet) {
+        if (changeSet.getVersion() <= subscriber.version) {
+            return;
+        }
+        subscriber.version = changeSet.getVersion();
+        sendEvent(subscriber, SseEmitter.event().id(String.valueOf(changeSet.getVersion())).name(CHANGES_EVENT)
+                .data(changeSet));
+    }
+
+    private void sendReset(Subscriber subscriber, long version) {
+        subscriber.version = version;
+        sendEvent(subscriber, SseEmitter.event().id(String.valueOf(version)).name(RESET_EVENT)
+                .data(Collections.singletonMap("version", version)));
+    }
+
+    private void sendEvent(Subscriber subscriber, SseEmitter.SseEventBuilder event) {
+        try {
+            subscriber.emitter.send(event);
+        } catch (IOException | RuntimeException e) {
+            subscribers.remove(subscriber);
+            subscriber.emitter.completeWithError(e);
+        }
+    }
+
+    /**
+     * An open event stream and the version its client has; only touched by the sending thread.
+     */
+    private static class Subscriber {
+        final SseEmitter emitter;
+        long version;
+
+        Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+    }
+}
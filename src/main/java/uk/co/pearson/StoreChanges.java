@@ -0,0 +1,55 @@
+package uk.co.pearson;
+
+import java.util.List;
+
+/**
+ * The changes that take a client from the stores of version {@code since} to the stores of {@code version}: insert
+ * the inserted stores, replace the updated ones by id and remove the deleted ids.
+ */
+public class StoreChanges {
+
+    private final long since;
+    private final long version;
+    private final List<Store> inserted;
+    private final List<Store> updated;
+    private final List<String> deleted;
+
+    public StoreChanges(long since, long version, StoreDiff diff) {
+        this(since, version, diff.getInserted(), diff.getUpdated(), diff.getDeleted());
+    }
+
+    public StoreChanges(long since, long version, List<Store> inserted, List<Store> updated, List<String> deleted) {
+        this.since = since;
+        this.version = version;
+        this.inserted = inserted;
+        this.updated = updated;
+        this.deleted = deleted;
+    }
+
+    public long getSince() {
+        return since;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<Store> getInserted() {
+        return inserted;
+    }
+
+    public List<Store> getUpdated() {
+        return updated;
+    }
+
+    public List<String> getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * @return the number of stores inserted, updated or deleted
+     */
+    public int size() {
+        return inserted.size() + updated.size() + deleted.size();
+    }
+}
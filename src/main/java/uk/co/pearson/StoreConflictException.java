@@ -0,0 +1,12 @@
+package uk.co.pearson;
+
+/**
+ * Thrown when a store is created with the id of a store that already exists, either loaded from the store file or
+ * written before it, including earlier in the same commit. Answered 409.
+ */
+public class StoreConflictException extends RuntimeException {
+
+    public StoreConflictException(String message) {
+        super(message);
+    }
+}
@@ -1,93 +1,606 @@
 package uk.co.pearson;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/stores")
 public class StoreController {
 
+    static final String SNAPSHOT_VERSION_HEADER = "X-Snapshot-Version";
+    static final String SNAPSHOT_AGE_HEADER = "X-Snapshot-Age";
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    static final String SERVER_TIMING_HEADER = "Server-Timing";
+    static final int DEFAULT_PAGE_LIMIT = 100;
+    static final int MAX_PAGE_LIMIT = 10000;
+    static final int DEFAULT_SEARCH_LIMIT = 20;
+    static final int DEFAULT_MAX_BATCH_IDS = 1000;
+    static final String EXPORT_FILE_NAME = "store-snapshot.bin";
+    static final long DEFAULT_RETRY_AFTER_SECONDS = 1;
+
+    @Autowired
+    StoreSnapshotHolder storeSnapshotHolder;
+
+    @Autowired
+    StoreMetrics storeMetrics;
+
+    @Autowired
+    StoreWriteLog storeWriteLog;
+
+    @Autowired
+    StoreResponseCache storeResponseCache;
+
+    @Autowired
+    StoreChangeFeed storeChangeFeed;
+
+    @Autowired
+    StoreSnapshotFile storeSnapshotFile;
+
+    @Autowired
+    AdmissionControl admissionControl;
+
+    @Value("${stores.metrics.server-timing:false}")
+    boolean serverTimingEnabled;
+
+    @Value("${stores.batch.max-ids:" + DEFAULT_MAX_BATCH_IDS + "}")
+    int maxBatchIds = DEFAULT_MAX_BATCH_IDS;
+
     StoreConverter storeConverter = new StoreConverter();
-    RemoteFileReader remoteFileReader = new RemoteFileReader();
 
+    /**
+     * Answers as soon as the stores are available. When they are still being downloaded the request thread is
+     * released straight away, and every request waiting shares the same download.
+     * The stores can be filtered with the query parameters described in {@link StoreFilter}.
+     * All the stores in one order, the most common request, are served from {@link StoreResponseCache}: the body is
+     * sent gzip compressed to clients accepting it, and not at all to clients that already have it.
+     * Requests to every endpoint go through {@link AdmissionControl}, which answers 503 with Retry-After when the
+     * endpoint is saturated; these ones are the first to be refused.
+     */
     @RequestMapping(value = "/all", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
-    public ResponseEntity<List<Store>> getAllStores(
-            @RequestParam(value = "sort", required = false) final String sort) {
-        try
+    public CompletableFuture<ResponseEntity<?>> getAllStores(
+            @RequestParam(value = "sort", required = false) final String sort,
+            @RequestParam(value = "limit", required = false) final Integer limit,
+            @RequestParam(value = "cursor", required = false) final String cursor,
+            final StoreFilter filter,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) final String acceptEncoding) {
+        filter.validate();
+        SortSpec sortSpec = SortSpec.parse(sort);
+        Integer pageLimit = pageLimit(limit, cursor);
+        PageCursor after = cursor == null ? null : PageCursor.decode(cursor, sortSpec);
+        long start = System.nanoTime();
+        return admissionControl.run(AdmissionControl.Endpoint.ALL, () -> storeSnapshotHolder.getSnapshotAsync().<ResponseEntity<?>>thenApply(snapshot ->
         {
-            List<String> storeLines = remoteFileReader.readAll();
-            if(storeLines.isEmpty())
+            long snapshotNanos = System.nanoTime() - start;
+            storeMetrics.record(StoreMetrics.Stage.SNAPSHOT, snapshotNanos);
+            if(snapshot.getStores().isEmpty())
             {
-                return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+                return new ResponseEntity<List<Store>>(HttpStatus.NO_CONTENT);
+            }
+            if (pageLimit == null && filter.isEmpty()) {
+                return renderedStores(snapshot, sortSpec, ifNoneMatch, acceptsGzip(acceptEncoding), snapshotNanos);
+            }
+            HttpHeaders headers = snapshotHeaders(snapshot);
+            long sortStart = System.nanoTime();
+            List<Store> stores = selectStores(snapshot, sortSpec, filter, pageLimit, after, headers);
+            long sortNanos = System.nanoTime() - sortStart;
+            storeMetrics.record(StoreMetrics.Stage.SORT, sortNanos);
+            addServerTiming(headers, snapshotNanos, sortNanos);
+            return new ResponseEntity<>(stores, headers, HttpStatus.OK);
+        })).exceptionally(StoreController::failed);
+    }
+
+    /**
+     * Same as {@link #getAllStores(String, Integer, String, StoreFilter, String, String)}, but the stores are written
+     * to the response one by one as it is sent, in chunks, instead of being turned into one JSON document first.
+     */
+    @RequestMapping(value = "/all", params = "stream=true", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> streamAllStores(
+            @RequestParam(value = "sort", required = false) final String sort,
+            @RequestParam(value = "limit", required = false) final Integer limit,
+            @RequestParam(value = "cursor", required = false) final String cursor,
+            final StoreFilter filter) {
+        return streamStores(sort, limit, cursor, filter, StoreFormat.JSON);
+    }
+
+    /**
+     * The stores of {@link #getAllStores(String, Integer, String, StoreFilter, String, String)} in one of the compact
+     * formats of {@link StoreFormat}, the one the Accept header prefers; they are streamed like with stream=true.
+     */
+    @RequestMapping(value = "/all", method = RequestMethod.GET,
+            produces = {StoreFormat.SMILE_VALUE, StoreFormat.RECORDS_VALUE, StoreFormat.CSV_VALUE})
+    public CompletableFuture<ResponseEntity<StreamingResponseBody>> getAllStoresInFormat(
+            @RequestParam(value = "sort", required = false) final String sort,
+            @RequestParam(value = "limit", required = false) final Integer limit,
+            @RequestParam(value = "cursor", required = false) final String cursor,
+            final StoreFilter filter,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) final String accept) {
+        return streamStores(sort, limit, cursor, filter, StoreFormat.forAccept(accept));
+    }
+
+    /**
+     * Sends the local copy of the last downloaded store file as it is; see {@link StoreSnapshotFile} for its format.
+     * The file is handed to the response with {@link FileChannel#transferTo(long, long, WritableByteChannel)}, which
+     * reads it from the page cache in large blocks instead of through a buffer of ours; the servlet response is not a
+     * socket channel, so the JDK still passes the blocks through a small buffer rather than using sendfile. The file
+     * is only opened once the response is being written, so nothing is left open when the body never runs; if a
+     * refresh has replaced it with one of another size by then, the response fails rather than sending a length
+     * that does not match.
+     */
+    @RequestMapping(value = "/export", method = RequestMethod.GET, produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportSnapshotFile() throws IOException {
+        long size = storeSnapshotFile.size();
+        if (size < 0) {
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        headers.setContentLength(size);
+        headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + EXPORT_FILE_NAME + "\"");
+        StreamingResponseBody body = outputStream -> {
+            try (FileChannel channel = storeSnapshotFile.open()) {
+                if (channel == null || channel.size() != size) {
+                    throw new IOException("The snapshot file was replaced while being exported");
+                }
+                WritableByteChannel target = Channels.newChannel(outputStream);
+                for (long position = 0; position < size; ) {
+                    long transferred = channel.transferTo(position, size - position, target);
+                    if (transferred <= 0) {
+                        throw new IOException("The snapshot file ended after " + position + " of " + size + " bytes");
+                    }
+                    position += transferred;
+                }
             }
-            List<Store> stores = storeConverter.convertAll(storeLines);
-            if(stores.isEmpty())
+        };
+        return new ResponseEntity<>(body, headers, HttpStatus.OK);
+    }
+
+    @RequestMapping(value = "/{storeId}", method = RequestMethod.GET, produces = "application/json")
+    public CompletableFuture<ResponseEntity<Store>> getStoreById(@PathVariable String storeId) {
+        long start = System.nanoTime();
+        return admissionControl.run(AdmissionControl.Endpoint.STORE, () -> storeSnapshotHolder.getSnapshotAsync().thenApply(snapshot ->
+        {
+            long snapshotNanos = System.nanoTime() - start;
+            storeMetrics.record(StoreMetrics.Stage.SNAPSHOT, snapshotNanos);
+            Store store = snapshot.findById(storeId);
+            if(store == null)
             {
-                return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+                return new ResponseEntity<Store>(HttpStatus.NO_CONTENT);
             }
-            sortResult(stores, sort);
-            return new ResponseEntity<>(stores, HttpStatus.OK);
+            HttpHeaders headers = snapshotHeaders(snapshot);
+            addServerTiming(headers, snapshotNanos, -1);
+            return new ResponseEntity<>(store, headers, HttpStatus.OK);
+        })).exceptionally(StoreController::failed);
+    }
+
+    /**
+     * Finds stores by words of their address or city; the last word can be unfinished. The best matches come first.
+     */
+    @RequestMapping(value = "/search", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    public CompletableFuture<ResponseEntity<List<Store>>> searchStores(
+            @RequestParam(value = "q") final String query,
+            @RequestParam(value = "limit", required = false) final Integer limit) {
+        if (SearchIndex.tokens(query).isEmpty()) {
+            throw new InvalidRequestException("q must contain at least one word");
+        }
+        int searchLimit = limit == null ? DEFAULT_SEARCH_LIMIT : limit;
+        if (searchLimit < 1 || searchLimit > MAX_PAGE_LIMIT) {
+            throw new InvalidRequestException("limit must be between 1 and " + MAX_PAGE_LIMIT);
         }
-        catch (IOException e)
+        long start = System.nanoTime();
+        return admissionControl.run(AdmissionControl.Endpoint.SEARCH, () -> storeSnapshotHolder.getSnapshotAsync().thenApply(snapshot ->
         {
-            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+            long snapshotNanos = System.nanoTime() - start;
+            storeMetrics.record(StoreMetrics.Stage.SNAPSHOT, snapshotNanos);
+            HttpHeaders headers = snapshotHeaders(snapshot);
+            long searchStart = System.nanoTime();
+            List<Store> stores = snapshot.search(query, searchLimit);
+            storeMetrics.recordSince(StoreMetrics.Stage.SEARCH, searchStart);
+            addServerTiming(headers, snapshotNanos, -1);
+            return new ResponseEntity<>(stores, headers, HttpStatus.OK);
+        })).exceptionally(StoreController::failed);
+    }
+
+    /**
+     * Looks up many stores at once, e.g. {@code /stores/batch?ids=1234,5678}; see {@link #postStoresByIds(List)}.
+     */
+    @RequestMapping(value = "/batch", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    public CompletableFuture<ResponseEntity<StoreBatch>> getStoresByIds(@RequestParam(value = "ids") final List<String> ids) {
+        return findStores(ids);
+    }
+
+    /**
+     * Looks up the stores with the ids of the JSON array posted, all in the same snapshot, and answers with the stores
+     * found and the ids missing. Up to {@code stores.batch.max-ids} ids can be asked for at once.
+     */
+    @RequestMapping(value = "/batch", method = RequestMethod.POST, consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    public CompletableFuture<ResponseEntity<StoreBatch>> postStoresByIds(@RequestBody final List<String> ids) {
+        return findStores(ids);
+    }
+
+    /**
+     * Answers with what changed from the version given, as read from the {@value #SNAPSHOT_VERSION_HEADER} header,
+     * to the latest one: the stores inserted and updated and the ids deleted. Answers 410 Gone when those changes are
+     * not kept anymore; the stores then have to be read again.
+     */
+    @RequestMapping(value = "/changes", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    public ResponseEntity<StoreChanges> getChanges(@RequestParam(value = "since") final long since) {
+        StoreChanges changes = storeChangeFeed.since(since);
+        if (changes == null) {
+            return new ResponseEntity<>(HttpStatus.GONE);
         }
+        return new ResponseEntity<>(changes, HttpStatus.OK);
     }
 
-    private void sortResult(List<Store> stores, String sort) {
-        if("city".equalsIgnoreCase(sort))
+    /**
+     * Sends the changes as Server-Sent Events, starting from the version given or, when a client reconnects, from the
+     * last event it received; see {@link StoreChangeFeed#subscribe(Long)}.
+     */
+    @RequestMapping(value = "/changes/stream", method = RequestMethod.GET, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamChanges(@RequestParam(value = "since", required = false) final Long since,
+                                    @RequestHeader(value = "Last-Event-ID", required = false) final Long lastEventId) {
+        return storeChangeFeed.subscribe(since != null ? since : lastEventId);
+    }
+
+    /**
+     * Answers with the number of stores and their average days open, in total and, with {@code groupBy}, by city,
+     * postcodeArea, openYear or openMonth. The counts are worked out when the stores change, not per request; see
+     * {@link StoreStats}.
+     */
+    @RequestMapping(value = "/stats", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    public CompletableFuture<ResponseEntity<StoreStatsReport>> getStats(
+            @RequestParam(value = "groupBy", required = false) final String groupBy) {
+        StatsGroup group = StatsGroup.parse(groupBy);
+        return admissionControl.run(AdmissionControl.Endpoint.STATS, () -> storeSnapshotHolder.getSnapshotAsync().thenApply(snapshot ->
         {
-            Collections.sort(stores, (Store s1, Store s2) -> s1.getCity().compareTo(s2.getCity()));
+            StoreStatsReport report = snapshot.getStats().report(snapshot.getVersion(), group, OpenDates.today());
+            return new ResponseEntity<>(report, snapshotHeaders(snapshot), HttpStatus.OK);
+        })).exceptionally(StoreController::failed);
+    }
+
+    @RequestMapping(value = "/snapshot", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> getSnapshotInfo() {
+        return admissionControl.run(AdmissionControl.Endpoint.SNAPSHOT, () -> storeSnapshotHolder.getSnapshotAsync().thenApply(snapshot ->
+        {
+            Map<String, Object> info = new LinkedHashMap<>();
+            info.put("version", snapshot.getVersion());
+            info.put("loadedAt", snapshot.getLoadedAt());
+            info.put("checkedAt", snapshot.getCheckedAt());
+            info.put("ageMillis", snapshot.getAgeMillis());
+            info.put("stores", snapshot.getStores().size());
+            info.put("duplicateIds", snapshot.getDuplicateIds());
+            return new ResponseEntity<>(info, HttpStatus.OK);
+        })).exceptionally(StoreController::failed);
+    }
+
+    /**
+     * Answers with what the last store file loaded made of its lines: the lines rejected or kept with a problem,
+     * counted by reason, and the first few of each; see {@link IngestReport}. Answers 404 until a store file has
+     * been downloaded since start-up.
+     */
+    @RequestMapping(value = "/ingest-report", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    public CompletableFuture<ResponseEntity<IngestReport>> getIngestReport() {
+        return admissionControl.run(AdmissionControl.Endpoint.INGEST_REPORT, () -> storeSnapshotHolder.getSnapshotAsync().thenApply(snapshot ->
+        {
+            IngestReport report = storeSnapshotHolder.getIngestReport();
+            return report == null ? new ResponseEntity<IngestReport>(HttpStatus.NOT_FOUND)
+                    : new ResponseEntity<>(report, HttpStatus.OK);
+        })).exceptionally(StoreController::failed);
+    }
+
+    /**
+     * Creates a store. It is written to the local write log and can be read back as soon as this returns. Answers 409
+     * if a store with its id exists by the time the write is committed, which the write log checks on its commit
+     * thread so that only one of concurrent creates with the same id succeeds. Waits for the first snapshot so that
+     * the stores of the store file are checked too.
+     */
+    @RequestMapping(value = "/create", method = RequestMethod.POST, consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    public CompletableFuture<ResponseEntity<Store>> createStore(@RequestBody Store store) {
+        Store toWrite = validate(store);
+        return admissionControl.run(AdmissionControl.Endpoint.WRITE, () -> storeSnapshotHolder.getSnapshotAsync().thenCompose(snapshot ->
+                write(storeWriteLog.appendIfAbsent(toWrite), HttpStatus.CREATED)))
+                .exceptionally(StoreController::failed);
+    }
+
+    /**
+     * Replaces the store with the given id, or creates it if there is none.
+     */
+    @RequestMapping(value = "/{storeId}", method = RequestMethod.PUT, consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    public CompletableFuture<ResponseEntity<Store>> updateStore(@PathVariable String storeId, @RequestBody Store store) {
+        if (store.getId() != null && !store.getId().equals(storeId)) {
+            throw new InvalidRequestException("The id in the body does not match the id in the path");
         }
+        Store toWrite = validate(new Store(storeId, store.getPostCode(), store.getCity(), store.getAddress(),
+                store.getOpenDate(), null));
+        return admissionControl.run(AdmissionControl.Endpoint.WRITE, () -> write(storeWriteLog.append(toWrite), HttpStatus.OK))
+                .exceptionally(StoreController::failed);
+    }
+
+    @ExceptionHandler(InvalidRequestException.class)
+    public ResponseEntity<Map<String, String>> handleInvalidRequest(InvalidRequestException e) {
+        return new ResponseEntity<>(Collections.singletonMap("error", e.getMessage()), HttpStatus.BAD_REQUEST);
+    }
 
-        if("opendate".equalsIgnoreCase(sort))
+    private CompletableFuture<ResponseEntity<Store>> write(CompletableFuture<Store> appended, HttpStatus status) {
+        long start = System.nanoTime();
+        return appended.thenApply(written ->
         {
-            Collections.sort(stores, (Store s1, Store s2) -> stringToDate(s2.getOpenDate()).compareTo(stringToDate(s1.getOpenDate())));
+            storeMetrics.recordSince(StoreMetrics.Stage.WRITE, start);
+            return new ResponseEntity<>(written, status);
+        }).exceptionally(StoreController::failed);
+    }
+
+    private CompletableFuture<ResponseEntity<StoreBatch>> findStores(List<String> ids) {
+        Set<String> distinctIds = new LinkedHashSet<>();
+        for (String id : ids) {
+            if (id != null && !id.trim().isEmpty()) {
+                distinctIds.add(id.trim());
+            }
+        }
+        if (distinctIds.isEmpty()) {
+            throw new InvalidRequestException("ids must contain at least one id");
+        }
+        if (distinctIds.size() > maxBatchIds) {
+            throw new InvalidRequestException("At most " + maxBatchIds + " ids can be looked up at once");
         }
+        long start = System.nanoTime();
+        return admissionControl.run(AdmissionControl.Endpoint.BATCH, () -> storeSnapshotHolder.getSnapshotAsync().thenApply(snapshot ->
+        {
+            long snapshotNanos = System.nanoTime() - start;
+            storeMetrics.record(StoreMetrics.Stage.SNAPSHOT, snapshotNanos);
+            long batchStart = System.nanoTime();
+            List<Store> found = new ArrayList<>(distinctIds.size());
+            List<String> missing = new ArrayList<>();
+            for (String id : distinctIds) {
+                Store store = snapshot.findById(id);
+                if (store == null) {
+                    missing.add(id);
+                } else {
+                    found.add(store);
+                }
+            }
+            storeMetrics.recordSince(StoreMetrics.Stage.BATCH, batchStart);
+            storeMetrics.batchLookedUp(distinctIds.size(), missing.size());
+            HttpHeaders headers = snapshotHeaders(snapshot);
+            addServerTiming(headers, snapshotNanos, -1);
+            return new ResponseEntity<>(new StoreBatch(snapshot.getVersion(), found, missing), headers, HttpStatus.OK);
+        })).exceptionally(StoreController::failed);
     }
 
-    private Date stringToDate(String stringToConvert)
-    {
-        DateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
-        try {
-            return dateFormat.parse(stringToConvert);
-        } catch (ParseException e) {
-            return new Date(Long.MIN_VALUE);
+    /**
+     * The answer when the stores could not be loaded or written: 503 when the request was refused, there was no
+     * thread to do it on or the store source is left alone for a while, with a Retry-After header; 409 when a store
+     * being created already exists; 500 otherwise.
+     */
+    private static <T> ResponseEntity<T> failed(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof RejectedExecutionException) {
+            HttpHeaders headers = new HttpHeaders();
+            headers.add(HttpHeaders.RETRY_AFTER, String.valueOf(cause instanceof ServiceUnavailableException
+                    ? ((ServiceUnavailableException) cause).getRetryAfterSeconds() : DEFAULT_RETRY_AFTER_SECONDS));
+            return new ResponseEntity<>(headers, HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        if (cause instanceof StoreConflictException) {
+            return new ResponseEntity<>(HttpStatus.CONFLICT);
         }
+        return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
     }
 
-    @RequestMapping(value = "/{storeId}", method = RequestMethod.GET, produces = "application/json")
-    public ResponseEntity<Store> getStoreById(@PathVariable String storeId) {
-        try {
-            String lineFound = remoteFileReader.readOneLineById(storeId);
-            if(lineFound.isEmpty())
-            {
-                return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    /**
+     * @return the store as it will be stored, with the days since opening worked out here
+     * @throws InvalidRequestException if the store has no id or open date, or cannot be written to a line of the log
+     */
+    private Store validate(Store store) {
+        if (store.getId() == null || store.getId().trim().isEmpty()) {
+            throw new InvalidRequestException("A store needs an id");
+        }
+        if (OpenDates.parseEpochDay(store.getOpenDate()) == OpenDates.UNKNOWN) {
+            throw new InvalidRequestException("openDate must be a date in the format dd/MM/yyyy");
+        }
+        for (String field : new String[]{store.getId(), store.getPostCode(), store.getCity(), store.getAddress()}) {
+            if (field != null && (field.indexOf('\n') >= 0 || field.indexOf('\r') >= 0)) {
+                throw new InvalidRequestException("Store fields cannot contain line breaks");
             }
-            Store store = storeConverter.convertStringToStore(remoteFileReader.readOneLineById(storeId));
-            if(store == null)
+        }
+        return storeConverter.createStore(store.getId(), store.getPostCode(), store.getCity(), store.getAddress(),
+                store.getOpenDate());
+    }
+
+    /**
+     * @return the size of the page asked for, or null when the request is not paginated
+     * @throws InvalidRequestException if the limit is out of range
+     */
+    private Integer pageLimit(Integer limit, String cursor) {
+        if (limit == null && cursor == null) {
+            return null;
+        }
+        int pageLimit = limit == null ? DEFAULT_PAGE_LIMIT : limit;
+        if (pageLimit < 1 || pageLimit > MAX_PAGE_LIMIT) {
+            throw new InvalidRequestException("limit must be between 1 and " + MAX_PAGE_LIMIT);
+        }
+        return pageLimit;
+    }
+
+    private CompletableFuture<ResponseEntity<StreamingResponseBody>> streamStores(String sort, Integer limit,
+                                                                                String cursor, StoreFilter filter,
+                                                                                StoreFormat format) {
+        filter.validate();
+        SortSpec sortSpec = SortSpec.parse(sort);
+        Integer pageLimit = pageLimit(limit, cursor);
+        PageCursor after = cursor == null ? null : PageCursor.decode(cursor, sortSpec);
+        long start = System.nanoTime();
+        return admissionControl.run(AdmissionControl.Endpoint.ALL, () -> storeSnapshotHolder.getSnapshotAsync().thenApply(snapshot ->
+        {
+            long snapshotNanos = System.nanoTime() - start;
+            storeMetrics.record(StoreMetrics.Stage.SNAPSHOT, snapshotNanos);
+            if(snapshot.getStores().isEmpty())
             {
-                return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+                return new ResponseEntity<StreamingResponseBody>(HttpStatus.NO_CONTENT);
             }
-            return new ResponseEntity<>(store, HttpStatus.OK);
+            HttpHeaders headers = snapshotHeaders(snapshot);
+            headers.setContentType(format.getMediaType());
+            long sortStart = System.nanoTime();
+            List<Store> stores = selectStores(snapshot, sortSpec, filter, pageLimit, after, headers);
+            long sortNanos = System.nanoTime() - sortStart;
+            storeMetrics.record(StoreMetrics.Stage.SORT, sortNanos);
+            addServerTiming(headers, snapshotNanos, sortNanos);
+            StreamingResponseBody body = outputStream -> {
+                long serializeStart = System.nanoTime();
+                format.write(stores, outputStream);
+                storeMetrics.recordSince(StoreMetrics.Stage.SERIALIZE, serializeStart);
+            };
+            return new ResponseEntity<>(body, headers, HttpStatus.OK);
+        })).exceptionally(StoreController::failed);
+    }
+
+    /**
+     * Returns every store matching the filter in the requested order or, when there is a page limit, one page of them.
+     * The cursor of the next page, if there is one, is added to the headers.
+     */
+    private List<Store> selectStores(StoreSnapshot snapshot, SortSpec sortSpec, StoreFilter filter, Integer pageLimit,
+                                     PageCursor after, HttpHeaders headers) {
+        if (pageLimit == null) {
+            return snapshot.getStores(sortSpec, filter);
         }
-        catch (IOException e){
-            return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+        StorePage page = snapshot.getPage(sortSpec, filter, pageLimit, after);
+        if (page.getNextCursor() != null) {
+            headers.add(NEXT_CURSOR_HEADER, page.getNextCursor().encode());
+        }
+        return page.getStores();
+    }
+
+    /**
+     * Answers with the stores rendered for the snapshot and order, or with 304 Not Modified when the entity tag
+     * sent in {@code If-None-Match} is still the one of that body; the check needs no rendering. The sort time
+     * reported is the time taken to get the body, which is only long when it had to be rendered.
+     */
+    private ResponseEntity<byte[]> renderedStores(StoreSnapshot snapshot, SortSpec sortSpec, String ifNoneMatch,
+                                                  boolean gzip, long snapshotNanos) {
+        HttpHeaders headers = snapshotHeaders(snapshot);
+        headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        String entityTag = storeResponseCache.entityTag(snapshot, sortSpec, gzip);
+        if (matchesAny(ifNoneMatch, entityTag)) {
+            headers.setETag(entityTag);
+            addServerTiming(headers, snapshotNanos, -1);
+            return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
+        }
+        long renderStart = System.nanoTime();
+        StoreResponseCache.RenderedStores rendered = storeResponseCache.get(snapshot, sortSpec);
+        addServerTiming(headers, snapshotNanos, System.nanoTime() - renderStart);
+        if (gzip) {
+            headers.add(HttpHeaders.CONTENT_ENCODING, "gzip");
+            headers.setETag(rendered.getGzipEntityTag());
+            return new ResponseEntity<>(rendered.getGzip(), headers, HttpStatus.OK);
+        }
+        headers.setETag(rendered.getEntityTag());
+        return new ResponseEntity<>(rendered.getJson(), headers, HttpStatus.OK);
+    }
+
+    /**
+     * @return whether the {@code If-None-Match} header lists the entity tag, or is {@code *}; tags sent back as weak
+     * still match, as the comparison for {@code If-None-Match} is the weak one
+     */
+    private static boolean matchesAny(String ifNoneMatch, String entityTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            String candidate = tag.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(entityTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether the {@code Accept-Encoding} header accepts gzip with a quality above zero
+     */
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parameters = coding.split(";");
+            String name = parameters[0].trim();
+            if (!name.equalsIgnoreCase("gzip") && !name.equalsIgnoreCase("x-gzip")) {
+                continue;
+            }
+            for (int i = 1; i < parameters.length; i++) {
+                String parameter = parameters[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(parameter.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds a Server-Timing header with the time spent getting the snapshot and putting the stores in order,
+     * when enabled with {@code stores.metrics.server-timing}; a negative sort time means there was no sort.
+     * Serialization happens after the headers are sent, so it is only reported through {@link StoreMetrics}.
+     */
+    private void addServerTiming(HttpHeaders headers, long snapshotNanos, long sortNanos) {
+        if (!serverTimingEnabled) {
+            return;
+        }
+        StringBuilder timing = new StringBuilder(40).append("snapshot;dur=");
+        appendMillis(timing, snapshotNanos);
+        if (sortNanos >= 0) {
+            appendMillis(timing.append(", sort;dur="), sortNanos);
+        }
+        headers.add(SERVER_TIMING_HEADER, timing.toString());
+    }
+
+    /**
+     * Appends the time in milliseconds with three decimals, rounded to the nearest microsecond, without going through
+     * a formatter.
+     */
+    static StringBuilder appendMillis(StringBuilder builder, long nanos) {
+        long micros = (Math.max(nanos, 0) + 500) / 1000;
+        long fraction = micros % 1000;
+        builder.append(micros / 1000).append('.');
+        if (fraction < 100) {
+            builder.append(fraction < 10 ? "00" : "0");
         }
+        return builder.append(fraction);
     }
 
-    @RequestMapping(value = "/create", method = RequestMethod.POST)
-    public ResponseEntity<Store> createStore() {
-        return new ResponseEntity<>(HttpStatus.CREATED);
+    private HttpHeaders snapshotHeaders(StoreSnapshot snapshot) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.add(SNAPSHOT_VERSION_HEADER, String.valueOf(snapshot.getVersion()));
+        headers.add(SNAPSHOT_AGE_HEADER, String.valueOf(snapshot.getAgeMillis()));
+        return headers;
     }
 }
@@ -1,8 +1,5 @@
 package uk.co.pearson;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -10,57 +7,140 @@ import java.util.concurrent.TimeUnit;
 
 public class StoreConverter {
 
-    private static final String DELIMITER = ",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)";
+    private static final int FIELD_COUNT = 5;
+    private static final int UNKNOWN_LINE = 0;
+
+    private final CsvTokenizer csvTokenizer = new CsvTokenizer();
 
     public Store convertStringToStore(String storeString)
+    {
+        return convertStringToStore(storeString, UNKNOWN_LINE);
+    }
+
+    /**
+     * @return the store, or null when the line cannot be converted; pass a {@link Quarantine} to know why
+     */
+    public Store convertStringToStore(String storeString, int lineNumber)
+    {
+        return convertStringToStore(storeString, lineNumber, null);
+    }
+
+    /**
+     * Converts a line of the store file. A line that cannot be converted is added to the quarantine with its
+     * {@link RejectReason}, and so is a line whose open date cannot be parsed, though its store is still returned,
+     * with an unknown open date. Nothing is logged: the quarantine is summarized once the whole file is loaded.
+     *
+     * @param quarantine where the problems are recorded, or null to ignore them
+     * @return the store, or null when the line cannot be converted
+     */
+    public Store convertStringToStore(String storeString, int lineNumber, Quarantine quarantine)
     {
         if (storeString == null || "".equals(storeString))
         {
-            System.out.println("Cannot convert an empty or null string");
+            reject(quarantine, RejectReason.EMPTY_LINE, lineNumber, storeString, "Cannot convert an empty or null string");
             return null;
         }
 
-        String[] splitString = storeString.split(DELIMITER, -1);
-
-        Store store = new Store();
-        if(splitString.length == 5) {
-            store.setId(splitString[0]);
-            store.setPostCode(splitString[1]);
-            store.setCity(splitString[2]);
-            store.setAddress(splitString[3]);
-            store.setOpenDate(splitString[4]);
-            store.setDaysSinceOpen(calculateDaysSinceOpening(splitString[4]));
+        List<String> fields;
+        try {
+            fields = csvTokenizer.tokenize(storeString, lineNumber);
+        } catch (MalformedRowException e) {
+            reject(quarantine, RejectReason.MALFORMED_QUOTES, lineNumber, storeString, e.getDetail());
+            return null;
         }
-        else
+
+        if(fields.size() != FIELD_COUNT)
         {
-            System.out.println("The string has been split in " + splitString.length + " substring. Is should be 5. Check yur data.");
+            reject(quarantine, RejectReason.WRONG_FIELD_COUNT, lineNumber, storeString,
+                    "The line has " + fields.size() + " fields instead of " + FIELD_COUNT);
             return null;
         }
 
+        Store store = createStore(fields.get(0), fields.get(1), fields.get(2), fields.get(3), fields.get(4));
+        if(store.getOpenEpochDay() == OpenDates.UNKNOWN)
+        {
+            reject(quarantine, RejectReason.INVALID_OPEN_DATE, lineNumber, storeString,
+                    "The open date " + store.getOpenDate() + " is not of the format dd/MM/yyyy");
+        }
         return store;
     }
 
+    /**
+     * Creates a store from its fields, working out the days since opening from the open date.
+     */
+    public Store createStore(String id, String postCode, String city, String address, String openDate)
+    {
+        int openEpochDay = OpenDates.parseEpochDay(openDate);
+        return new Store(id, postCode, city, address, openDate, OpenDates.daysSince(openEpochDay, OpenDates.today()), openEpochDay);
+    }
+
+    /**
+     * Converts a store back to a line of the store file; {@link #convertStringToStore(String)} reads it back.
+     * Fields with a comma or a quote in them are quoted.
+     */
+    public String convertStoreToString(Store store)
+    {
+        StringBuilder line = new StringBuilder(96);
+        appendField(line, store.getId()).append(',');
+        appendField(line, store.getPostCode()).append(',');
+        appendField(line, store.getCity()).append(',');
+        appendField(line, store.getAddress()).append(',');
+        return appendField(line, store.getOpenDate()).toString();
+    }
+
     public List<Store> convertAll(List<String> strings)
     {
-        List<Store> stores = new ArrayList<>();
+        return convertAll(strings, 1);
+    }
+
+    /**
+     * Converts every line that can be converted.
+     *
+     * @param firstLineNumber the line number of the first string in the file it came from, used when reporting bad rows
+     */
+    public List<Store> convertAll(List<String> strings, int firstLineNumber)
+    {
+        return convertAll(strings, firstLineNumber, null);
+    }
+
+    /**
+     * Converts every line that can be converted, adding the others to the quarantine.
+     *
+     * @param firstLineNumber the line number of the first string in the file it came from
+     * @param quarantine where the problems are recorded, or null to ignore them
+     */
+    public List<Store> convertAll(List<String> strings, int firstLineNumber, Quarantine quarantine)
+    {
+        List<Store> stores = new ArrayList<>(strings.size());
+        int lineNumber = firstLineNumber;
         for (String string : strings) {
-            if(convertStringToStore(string) != null)
+            Store store = convertStringToStore(string, lineNumber++, quarantine);
+            if(store != null)
             {
-                stores.add(convertStringToStore(string));
+                stores.add(store);
             }
         }
         return stores;
     }
 
-    private String calculateDaysSinceOpening(String stringOpenDate)
+    private static StringBuilder appendField(StringBuilder line, String field)
     {
-        DateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
-        try {
-            Date openDate = dateFormat.parse(stringOpenDate);
-            return String.valueOf(getDifferenceBetweenDateAndTodayInDays(openDate));
-        } catch (ParseException e) {
-            System.out.println("The passed date: " + stringOpenDate + " is not of the format dd/MM/yyyy");
-            return null;
+        if (field == null)
+        {
+            return line;
+        }
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0)
+        {
+            return line.append(field);
+        }
+        return line.append('"').append(field.replace("\"", "\"\"")).append('"');
+    }
+
+    private static void reject(Quarantine quarantine, RejectReason reason, int lineNumber, String line, String message)
+    {
+        if (quarantine != null)
+        {
+            quarantine.add(reason, lineNumber, line, message);
         }
     }
 
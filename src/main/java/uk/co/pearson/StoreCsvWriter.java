@@ -0,0 +1,70 @@
+package uk.co.pearson;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes stores as UTF-8 CSV with a header line, in the same layout as the store file plus the days since opening,
+ * so the output can be read back with {@link CsvTokenizer}. Fields holding a comma, a quote or a line break are
+ * wrapped in quotes, with quotes inside doubled; null fields are left empty.
+ */
+public class StoreCsvWriter {
+
+    static final String HEADER = "id,postCode,city,address,openDate,daysSinceOpen";
+
+    private static final int BUFFER_CHARS = 1 << 16;
+
+    public void writeCsv(Iterable<Store> stores, OutputStream outputStream) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), BUFFER_CHARS);
+        out.write(HEADER);
+        out.write('\n');
+        for (Store store : stores) {
+            writeField(out, store.getId());
+            out.write(',');
+            writeField(out, store.getPostCode());
+            out.write(',');
+            writeField(out, store.getCity());
+            out.write(',');
+            writeField(out, store.getAddress());
+            out.write(',');
+            writeField(out, store.getOpenDate());
+            out.write(',');
+            writeField(out, store.getDaysSinceOpen());
+            out.write('\n');
+        }
+        out.flush();
+    }
+
+    private static void writeField(Writer out, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (!needsQuotes(value)) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.write('"');
+            }
+            out.write(c);
+        }
+        out.write('"');
+    }
+
+    private static boolean needsQuotes(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,251 @@
+package uk.co.pearson;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What changed between a snapshot and a new list of stores, matched by id: the stores that are new, the ones whose
+ * fields changed and the ids that are gone. Rows are compared by a 64-bit hash of their fields, which the
+ * {@link StoreTable} of a snapshot keeps for every row, so nothing is read from the old snapshot but the hashes of the
+ * rows with the same ids; when the new stores are a table too, only the stores that changed are created.
+ * As in the snapshot, only the first store with a given id counts.
+ */
+public class StoreDiff {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final List<Store> inserted;
+    private final List<Store> updated;
+    private final List<String> deleted;
+
+    StoreDiff(List<Store> inserted, List<Store> updated, List<String> deleted) {
+        this.inserted = Collections.unmodifiableList(inserted);
+        this.updated = Collections.unmodifiableList(updated);
+        this.deleted = Collections.unmodifiableList(deleted);
+    }
+
+    public static StoreDiff between(StoreSnapshot previous, List<Store> stores) {
+        StoreTable table = previous.getTable();
+        if (stores instanceof StoreTable) {
+            return between(table, (StoreTable) stores);
+        }
+        BitSet seen = new BitSet(table.size());
+        Set<String> insertedIds = new HashSet<>();
+        List<Store> inserted = new ArrayList<>();
+        List<Store> updated = new ArrayList<>();
+        for (Store store : stores) {
+            int row = table.findRow(store.getId());
+            if (row < 0) {
+                if (insertedIds.add(store.getId())) {
+                    inserted.add(store);
+                }
+            } else if (!seen.get(row)) {
+                seen.set(row);
+                if (table.getRowHash(row) != hash(store)) {
+                    updated.add(store);
+                }
+            }
+        }
+        return new StoreDiff(inserted, updated, deleted(table, seen));
+    }
+
+    /**
+     * What writing the stores over the snapshot changes, worked out from the stores written alone: a store whose id
+     * is in the snapshot is updated if its fields are different, any other is inserted, and nothing is deleted.
+     * When an id is written more than once the last store counts, in the place of the first.
+     */
+    public static StoreDiff upserting(StoreSnapshot previous, Collection<Store> writes) {
+        return upserting(previous.getTable(), writes);
+    }
+
+    static StoreDiff upserting(StoreTable table, Collection<Store> writes) {
+        Map<String, Store> latest = latest(writes);
+        List<Store> inserted = new ArrayList<>();
+        List<Store> updated = new ArrayList<>();
+        for (Store store : latest.values()) {
+            int row = table.findRow(store.getId());
+            if (row < 0) {
+                inserted.add(store);
+            } else if (table.getRowHash(row) != hash(store)) {
+                updated.add(store);
+            }
+        }
+        return new StoreDiff(inserted, updated, new ArrayList<>());
+    }
+
+    /**
+     * Compares two tables by the ids and hashes they already hold, so only the stores that changed are created.
+     */
+    private static StoreDiff between(StoreTable table, StoreTable stores) {
+        return between(table, stores, Collections.emptyList());
+    }
+
+    /**
+     * Compares a table with the stores of another one with written stores laid over it: a written store takes the
+     * place of the row with its id, or comes after the rows if there is none. Only the rows and written stores that
+     * changed are created, as when comparing two tables.
+     */
+    static StoreDiff between(StoreTable table, StoreTable stores, Collection<Store> writes) {
+        Map<String, Store> latest = latest(writes);
+        BitSet written = new BitSet(stores.size());
+        for (String id : latest.keySet()) {
+            int row = stores.findRow(id);
+            if (row >= 0) {
+                written.set(row);
+            }
+        }
+        BitSet seen = new BitSet(table.size());
+        List<Store> inserted = new ArrayList<>();
+        List<Store> updated = new ArrayList<>();
+        for (int row = 0; row < stores.size(); row++) {
+            if (written.get(row)) {
+                compare(table, latest.remove(stores.getId(row)), seen, inserted, updated);
+                continue;
+            }
+            int previousRow = table.findRow(stores, row);
+            if (previousRow < 0) {
+                inserted.add(stores.get(row));
+            } else {
+                seen.set(previousRow);
+                if (table.getRowHash(previousRow) != stores.getRowHash(row)) {
+                    updated.add(stores.get(row));
+                }
+            }
+        }
+        for (Store store : latest.values()) {
+            compare(table, store, seen, inserted, updated);
+        }
+        return new StoreDiff(inserted, updated, deleted(table, seen));
+    }
+
+    private static void compare(StoreTable table, Store store, BitSet seen, List<Store> inserted, List<Store> updated) {
+        int row = table.findRow(store.getId());
+        if (row < 0) {
+            inserted.add(store);
+        } else {
+            seen.set(row);
+            if (table.getRowHash(row) != hash(store)) {
+                updated.add(store);
+            }
+        }
+    }
+
+    /**
+     * @return the last store written with every id, in the order the ids were first written
+     */
+    private static Map<String, Store> latest(Collection<Store> writes) {
+        Map<String, Store> latest = new LinkedHashMap<>();
+        for (Store store : writes) {
+            latest.put(store.getId(), store);
+        }
+        return latest;
+    }
+
+    private static List<String> deleted(StoreTable table, BitSet seen) {
+        List<String> deleted = new ArrayList<>();
+        for (int row = seen.nextClearBit(0); row < table.size(); row = seen.nextClearBit(row + 1)) {
+            deleted.add(table.getId(row));
+        }
+        return deleted;
+    }
+
+    /**
+     * FNV-1a over the characters of every field read from the store file, with a marker between fields and for
+     * missing ones, so moving text from one field to the next changes the hash too. The days since opening are
+     * worked out from the open date and are left out.
+     */
+    public static long hash(Store store) {
+        long hash = FNV_OFFSET_BASIS;
+        hash = hash(hash, store.getId());
+        hash = hash(hash, store.getPostCode());
+        hash = hash(hash, store.getCity());
+        hash = hash(hash, store.getAddress());
+        return hash(hash, store.getOpenDate());
+    }
+
+    private static long hash(long hash, String field) {
+        if (field == null) {
+            return (hash ^ 0xffff) * FNV_PRIME;
+        }
+        for (int i = 0; i < field.length(); i++) {
+            hash = (hash ^ field.charAt(i)) * FNV_PRIME;
+        }
+        return (hash ^ 0xfffe) * FNV_PRIME;
+    }
+
+    /**
+     * The {@link #hash(Store)} of a row of the store file worked out from the UTF-8 bytes of its fields, decoding the
+     * characters on the way, so the row does not have to become a {@link Store} first.
+     *
+     * @param fields the start and end of the id, postcode, city, address and open date, in that order; the bytes
+     * between them must be well-formed UTF-8
+     */
+    static long hash(ByteBuffer bytes, int[] fields) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < fields.length; i += 2) {
+            hash = hash(hash, bytes, fields[i], fields[i + 1]);
+        }
+        return hash;
+    }
+
+    private static long hash(long hash, ByteBuffer bytes, int start, int end) {
+        int i = start;
+        while (i < end) {
+            int first = bytes.get(i) & 0xff;
+            if (first < 0x80) {
+                hash = (hash ^ first) * FNV_PRIME;
+                i++;
+            } else if (first < 0xe0) {
+                hash = (hash ^ ((first & 0x1f) << 6 | continuation(bytes, i + 1))) * FNV_PRIME;
+                i += 2;
+            } else if (first < 0xf0) {
+                hash = (hash ^ ((first & 0x0f) << 12 | continuation(bytes, i + 1) << 6 | continuation(bytes, i + 2)))
+                        * FNV_PRIME;
+                i += 3;
+            } else {
+                int codePoint = (first & 0x07) << 18 | continuation(bytes, i + 1) << 12
+                        | continuation(bytes, i + 2) << 6 | continuation(bytes, i + 3);
+                hash = (hash ^ Character.highSurrogate(codePoint)) * FNV_PRIME;
+                hash = (hash ^ Character.lowSurrogate(codePoint)) * FNV_PRIME;
+                i += 4;
+            }
+        }
+        return (hash ^ 0xfffe) * FNV_PRIME;
+    }
+
+    private static int continuation(ByteBuffer bytes, int index) {
+        return bytes.get(index) & 0x3f;
+    }
+
+    public boolean isEmpty() {
+        return inserted.isEmpty() && updated.isEmpty() && deleted.isEmpty();
+    }
+
+    /**
+     * @return the number of stores inserted, updated or deleted
+     */
+    public int size() {
+        return inserted.size() + updated.size() + deleted.size();
+    }
+
+    public List<Store> getInserted() {
+        return inserted;
+    }
+
+    public List<Store> getUpdated() {
+        return updated;
+    }
+
+    public List<String> getDeleted() {
+        return deleted;
+    }
+}
@@ -0,0 +1,61 @@
+package uk.co.pearson;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * One download of the store file from a {@link StoreSource}.
+ */
+public class StoreDownload implements Closeable {
+
+    private final InputStream stream;
+    private final Runnable commit;
+    private final Path file;
+
+    public StoreDownload(InputStream stream) {
+        this(stream, () -> {
+        });
+    }
+
+    /**
+     * @param commit remembers the file as the one held, so that the source can skip it next time if it has not changed
+     */
+    public StoreDownload(InputStream stream, Runnable commit) {
+        this(stream, commit, null);
+    }
+
+    /**
+     * @param file the local file the stream reads, so that it can be mapped and parsed in place instead
+     */
+    public StoreDownload(InputStream stream, Runnable commit, Path file) {
+        this.stream = stream;
+        this.commit = commit;
+        this.file = file;
+    }
+
+    public InputStream getStream() {
+        return stream;
+    }
+
+    /**
+     * @return the local file the stream reads, or null when the stream is all there is
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Tells the source the file has been loaded and published. Only then does the source consider it held: a download
+     * that fails halfway or whose stores are never published is downloaded again in full next time.
+     */
+    public void commit() {
+        commit.run();
+    }
+
+    @Override
+    public void close() throws IOException {
+        stream.close();
+    }
+}
@@ -0,0 +1,219 @@
+package uk.co.pearson;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Parses a whole store file on a fork-join pool while it is still being read.
+ * <p>
+ * The calling thread reads the file into chunks of about {@code chunkBytes}, each cut after its last line break, and
+ * hands every chunk to the pool as soon as it is full. The chunks are parsed in parallel and their stores are
+ * collected in file order. Only a few chunks are in flight at any time: when too many are waiting, the reader first
+ * collects the oldest one. So memory holds the parsed stores and a few raw chunks, never every line of the file.
+ * <p>
+ * Lines are read the way {@link java.io.BufferedReader#readLine()} reads them, so a quoted field cannot contain a line
+ * break. The first line of the file is the header and is skipped.
+ */
+public class StoreFileParser {
+
+    static final int DEFAULT_CHUNK_BYTES = 1 << 20;
+
+    private static final int HEADER_LINE = 1;
+    private static final byte LINE_FEED = '\n';
+
+    private final ForkJoinPool pool;
+    private final int chunkBytes;
+    private final StoreConverter storeConverter = new StoreConverter();
+
+    public StoreFileParser() {
+        this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_BYTES);
+    }
+
+    public StoreFileParser(ForkJoinPool pool, int chunkBytes) {
+        this.pool = pool;
+        this.chunkBytes = chunkBytes;
+    }
+
+    /**
+     * Reads the file to its end and parses it; rows that cannot be parsed are skipped and put in a quarantine with
+     * {@link Quarantine#DEFAULT_SAMPLES_PER_REASON} samples per reason. The stream is not closed.
+     */
+    public ParsedStores parse(InputStream file) throws IOException {
+        return parse(file, new Quarantine(Quarantine.DEFAULT_SAMPLES_PER_REASON));
+    }
+
+    /**
+     * Reads the file to its end and parses it; rows that cannot be parsed are skipped and added to the quarantine,
+     * like {@link StoreConverter#convertAll(List, int, Quarantine)} does. The stream is not closed.
+     */
+    public ParsedStores parse(InputStream file, Quarantine quarantine) throws IOException {
+        int maxInFlight = 2 * pool.getParallelism() + 1;
+        Deque<ForkJoinTask<ParsedChunk>> inFlight = new ArrayDeque<>();
+        List<Store> stores = new ArrayList<>();
+        int[] lineCount = new int[1];
+
+        byte[] chunk = new byte[chunkBytes];
+        int length = 0;
+        int nextLineNumber = HEADER_LINE;
+        boolean endOfFile = false;
+        while (!endOfFile) {
+            int read = file.read(chunk, length, chunk.length - length);
+            if (read < 0) {
+                endOfFile = true;
+            } else {
+                length += read;
+                if (length < chunk.length) {
+                    continue;
+                }
+            }
+            int end = endOfFile ? length : lastLineFeed(chunk, length) + 1;
+            if (end == 0 && !endOfFile) {
+                chunk = Arrays.copyOf(chunk, chunk.length * 2);
+                continue;
+            }
+            if (end > 0) {
+                byte[] bytes = chunk;
+                int firstLineNumber = nextLineNumber;
+                inFlight.add(pool.submit(() -> parseChunk(bytes, end, firstLineNumber, quarantine)));
+                nextLineNumber += countLineFeeds(chunk, end);
+            }
+            byte[] next = new byte[Math.max(chunkBytes, length - end)];
+            System.arraycopy(chunk, end, next, 0, length - end);
+            chunk = next;
+            length -= end;
+            while (inFlight.size() > maxInFlight) {
+                collect(inFlight.poll(), stores, lineCount);
+            }
+        }
+        long endOfInput = System.nanoTime();
+        while (!inFlight.isEmpty()) {
+            collect(inFlight.poll(), stores, lineCount);
+        }
+        return new ParsedStores(stores, lineCount[0], stores.size(), System.nanoTime() - endOfInput, quarantine);
+    }
+
+    private static void collect(ForkJoinTask<ParsedChunk> task, List<Store> stores, int[] lineCount) {
+        ParsedChunk parsed = task.join();
+        stores.addAll(parsed.stores);
+        lineCount[0] += parsed.lineCount;
+    }
+
+    private ParsedChunk parseChunk(byte[] bytes, int length, int firstLineNumber, Quarantine quarantine) {
+        String text = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        List<Store> stores = new ArrayList<>();
+        int lineCount = 0;
+        int lineNumber = firstLineNumber;
+        int start = 0;
+        while (start < text.length()) {
+            int lineFeed = text.indexOf(LINE_FEED, start);
+            int end = lineFeed < 0 ? text.length() : lineFeed;
+            int next = end + 1;
+            if (end > start && text.charAt(end - 1) == '\r') {
+                end--;
+            }
+            if (lineNumber != HEADER_LINE) {
+                Store store = storeConverter.convertStringToStore(text.substring(start, end), lineNumber, quarantine);
+                if (store != null) {
+                    stores.add(store);
+                }
+                lineCount++;
+            }
+            lineNumber++;
+            start = next;
+        }
+        return new ParsedChunk(stores, lineCount);
+    }
+
+    private static int lastLineFeed(byte[] bytes, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (bytes[i] == LINE_FEED) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int countLineFeeds(byte[] bytes, int length) {
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] == LINE_FEED) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static class ParsedChunk {
+        final List<Store> stores;
+        final int lineCount;
+
+        ParsedChunk(List<Store> stores, int lineCount) {
+            this.stores = stores;
+            this.lineCount = lineCount;
+        }
+    }
+
+    /**
+     * The stores of a file, in file order, with the number of data lines they came from and the quarantine of the
+     * lines that were rejected.
+     */
+    public static class ParsedStores {
+
+        private final List<Store> stores;
+        private final int lineCount;
+        private final int rowCount;
+        private final long parseNanosAfterInput;
+        private final Quarantine quarantine;
+
+        /**
+         * @param rowCount the lines parsed into stores, which is more than the stores when they are already a
+         * {@link StoreTable} and some ids were repeated
+         */
+        public ParsedStores(List<Store> stores, int lineCount, int rowCount, long parseNanosAfterInput,
+                            Quarantine quarantine) {
+            this.stores = stores;
+            this.lineCount = lineCount;
+            this.rowCount = rowCount;
+            this.parseNanosAfterInput = parseNanosAfterInput;
+            this.quarantine = quarantine;
+        }
+
+        public List<Store> getStores() {
+            return stores;
+        }
+
+        /**
+         * @return the number of lines after the header, including the ones that could not be parsed
+         */
+        public int getLineCount() {
+            return lineCount;
+        }
+
+        /**
+         * @return the number of lines that could be parsed into a store
+         */
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * @return the time spent parsing after the last byte of the file was read, the part of the parsing that
+         * could not overlap with reading
+         */
+        public long getParseNanosAfterInput() {
+            return parseNanosAfterInput;
+        }
+
+        public Quarantine getQuarantine() {
+            return quarantine;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package uk.co.pearson;
+
+import java.util.Locale;
+
+/**
+ * The filter parameters of {@code /stores/all}, bound from the query string. Every parameter is optional, and a store
+ * is returned only if it matches all of the ones given:
+ * <ul>
+ * <li>{@code city}: the city, ignoring case</li>
+ * <li>{@code cityPrefix}: the start of the city, ignoring case</li>
+ * <li>{@code postCodePrefix}: the start of the postcode, typically its outward code such as {@code WC3}</li>
+ * <li>{@code openedAfter} and {@code openedBefore}: dd/MM/yyyy dates the store opened strictly after or before</li>
+ * <li>{@code minDaysOpen} and {@code maxDaysOpen}: bounds, both included, on the days since the store opened</li>
+ * </ul>
+ * Stores without a valid open date never match a date or days filter.
+ */
+public class StoreFilter {
+
+    private String city;
+    private String cityPrefix;
+    private String postCodePrefix;
+    private String openedAfter;
+    private String openedBefore;
+    private Integer minDaysOpen;
+    private Integer maxDaysOpen;
+
+    /**
+     * @throws InvalidRequestException if a date is not a valid dd/MM/yyyy date or the days are out of range
+     */
+    public void validate() {
+        checkDate("openedAfter", openedAfter);
+        checkDate("openedBefore", openedBefore);
+        if ((minDaysOpen != null && minDaysOpen < 0) || (maxDaysOpen != null && maxDaysOpen < 0)) {
+            throw new InvalidRequestException("minDaysOpen and maxDaysOpen cannot be negative");
+        }
+        if (minDaysOpen != null && maxDaysOpen != null && minDaysOpen > maxDaysOpen) {
+            throw new InvalidRequestException("minDaysOpen cannot be more than maxDaysOpen");
+        }
+    }
+
+    /**
+     * @return whether no filter is set, so every store matches
+     */
+    public boolean isEmpty() {
+        return city == null && cityPrefix == null && postCodePrefix == null && !hasOpenDateRange();
+    }
+
+    /**
+     * @return whether the open date is filtered, by dates or by days open
+     */
+    public boolean hasOpenDateRange() {
+        return openedAfter != null || openedBefore != null || minDaysOpen != null || maxDaysOpen != null;
+    }
+
+    /**
+     * @return the first open date, as an epoch day, that the date and days filters let through on the given day
+     */
+    public int getFirstOpenEpochDay(int today) {
+        long first = OpenDates.UNKNOWN + 1L;
+        if (openedAfter != null) {
+            first = Math.max(first, OpenDates.parseEpochDay(openedAfter) + 1L);
+        }
+        if (maxDaysOpen != null) {
+            first = Math.max(first, (long) today - maxDaysOpen);
+        }
+        return (int) first;
+    }
+
+    /**
+     * @return the last open date, as an epoch day, that the date and days filters let through on the given day
+     */
+    public int getLastOpenEpochDay(int today) {
+        long last = Integer.MAX_VALUE;
+        if (openedBefore != null) {
+            last = Math.min(last, OpenDates.parseEpochDay(openedBefore) - 1L);
+        }
+        if (minDaysOpen != null) {
+            last = Math.min(last, (long) today - minDaysOpen);
+        }
+        return (int) Math.max(last, OpenDates.UNKNOWN);
+    }
+
+    public String getCity() {
+        return city;
+    }
+
+    public void setCity(String city) {
+        this.city = blankToNull(city);
+    }
+
+    public String getCityPrefix() {
+        return cityPrefix;
+    }
+
+    public void setCityPrefix(String cityPrefix) {
+        this.cityPrefix = blankToNull(cityPrefix);
+    }
+
+    public String getPostCodePrefix() {
+        return postCodePrefix;
+    }
+
+    /**
+     * Postcodes are written in capitals, so the prefix is matched in capitals too.
+     */
+    public void setPostCodePrefix(String postCodePrefix) {
+        String prefix = blankToNull(postCodePrefix);
+        this.postCodePrefix = prefix == null ? null : prefix.toUpperCase(Locale.ROOT);
+    }
+
+    public String getOpenedAfter() {
+        return openedAfter;
+    }
+
+    public void setOpenedAfter(String openedAfter) {
+        this.openedAfter = blankToNull(openedAfter);
+    }
+
+    public String getOpenedBefore() {
+        return openedBefore;
+    }
+
+    public void setOpenedBefore(String openedBefore) {
+        this.openedBefore = blankToNull(openedBefore);
+    }
+
+    public Integer getMinDaysOpen() {
+        return minDaysOpen;
+    }
+
+    public void setMinDaysOpen(Integer minDaysOpen) {
+        this.minDaysOpen = minDaysOpen;
+    }
+
+    public Integer getMaxDaysOpen() {
+        return maxDaysOpen;
+    }
+
+    public void setMaxDaysOpen(Integer maxDaysOpen) {
+        this.maxDaysOpen = maxDaysOpen;
+    }
+
+    private static void checkDate(String name, String date) {
+        if (date != null && OpenDates.parseEpochDay(date) == OpenDates.UNKNOWN) {
+            throw new InvalidRequestException(name + " must be a date in the format dd/MM/yyyy");
+        }
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+}
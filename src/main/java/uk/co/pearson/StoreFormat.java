@@ -0,0 +1,75 @@
+package uk.co.pearson;
+
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import org.springframework.http.MediaType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * The formats the stores can be sent in, chosen with the Accept header. JSON is the default; the others are meant
+ * for services moving many stores at once:
+ * <ul>
+ * <li>{@code application/x-jackson-smile}: Smile, Jackson's binary JSON, with city names and dates written once and
+ * referred back to afterwards</li>
+ * <li>{@code application/x-store-records}: length-prefixed binary records, see {@link StoreRecordWriter}</li>
+ * <li>{@code text/csv}: CSV with a header line, see {@link StoreCsvWriter}</li>
+ * </ul>
+ */
+public enum StoreFormat {
+
+    JSON(MediaType.APPLICATION_JSON_UTF8_VALUE, new StoreJsonWriter()::writeArray),
+    SMILE(StoreFormat.SMILE_VALUE, new StoreJsonWriter(new SmileFactory()
+            .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES))::writeArray),
+    RECORDS(StoreFormat.RECORDS_VALUE, new StoreRecordWriter()::writeRecords),
+    CSV(StoreFormat.CSV_VALUE, new StoreCsvWriter()::writeCsv);
+
+    public static final String SMILE_VALUE = "application/x-jackson-smile";
+    public static final String RECORDS_VALUE = "application/x-store-records";
+    public static final String CSV_VALUE = "text/csv;charset=UTF-8";
+
+    private final MediaType mediaType;
+    private final Writer writer;
+
+    StoreFormat(String mediaType, Writer writer) {
+        this.mediaType = MediaType.valueOf(mediaType);
+        this.writer = writer;
+    }
+
+    /**
+     * @return the format the Accept header prefers, JSON when it accepts none of them
+     */
+    public static StoreFormat forAccept(String accept) {
+        if (accept == null || accept.trim().isEmpty()) {
+            return JSON;
+        }
+        List<MediaType> accepted = MediaType.parseMediaTypes(accept);
+        MediaType.sortBySpecificityAndQuality(accepted);
+        for (MediaType type : accepted) {
+            if (type.getQualityValue() == 0) {
+                continue;
+            }
+            for (StoreFormat format : values()) {
+                if (type.includes(format.mediaType)) {
+                    return format;
+                }
+            }
+        }
+        return JSON;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    public void write(Iterable<Store> stores, OutputStream outputStream) throws IOException {
+        writer.write(stores, outputStream);
+    }
+
+    @FunctionalInterface
+    private interface Writer {
+        void write(Iterable<Store> stores, OutputStream outputStream) throws IOException;
+    }
+}
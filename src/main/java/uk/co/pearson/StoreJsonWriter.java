@@ -0,0 +1,50 @@
+package uk.co.pearson;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes stores as a JSON array straight to an output stream, one store at a time, with the same property names
+ * Jackson uses for {@link Store}. Nothing but the generator's own buffer is held per call, and Jackson recycles
+ * that buffer per thread, so the memory needed does not grow with the number of stores.
+ * Given another Jackson factory, such as Smile's, it writes the same stores in that format.
+ */
+public class StoreJsonWriter {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final JsonFactory factory;
+
+    public StoreJsonWriter() {
+        this(JSON_FACTORY);
+    }
+
+    public StoreJsonWriter(JsonFactory factory) {
+        this.factory = factory;
+    }
+
+    public void writeArray(Iterable<Store> stores, OutputStream outputStream) throws IOException {
+        try (JsonGenerator generator = factory.createGenerator(outputStream, JsonEncoding.UTF8)) {
+            generator.writeStartArray();
+            for (Store store : stores) {
+                write(store, generator);
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    public void write(Store store, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("id", store.getId());
+        generator.writeStringField("postCode", store.getPostCode());
+        generator.writeStringField("city", store.getCity());
+        generator.writeStringField("address", store.getAddress());
+        generator.writeStringField("openDate", store.getOpenDate());
+        generator.writeStringField("daysSinceOpen", store.getDaysSinceOpen());
+        generator.writeEndObject();
+    }
+}
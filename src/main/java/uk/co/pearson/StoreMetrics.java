@@ -0,0 +1,162 @@
+package uk.co.pearson;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and counters for every stage a store goes through, from download to response.
+ * They are published with the other actuator metrics at {@code /metrics}: for each stage the count and the p50, p99,
+ * p999 and maximum latency in milliseconds, plus the row, byte and refresh counters.
+ * Recording never allocates, so it can be done on every request.
+ */
+@Component
+public class StoreMetrics implements PublicMetrics {
+
+    public enum Stage {
+        FETCH("fetch"),
+        PARSE("parse"),
+        DIFF("diff"),
+        INDEX("index"),
+        SNAPSHOT("snapshot"),
+        SORT("sort"),
+        SEARCH("search"),
+        BATCH("batch"),
+        SERIALIZE("serialize"),
+        WRITE("write"),
+        FSYNC("fsync"),
+        SAVE("save"),
+        RESTORE("restore");
+
+        private final String name;
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    private final Map<Stage, LatencyHistogram> latencies = new EnumMap<>(Stage.class);
+    private final LongAdder rowsParsed = new LongAdder();
+    private final LongAdder rowsRejected = new LongAdder();
+    private final LongAdder bytesDownloaded = new LongAdder();
+    private final LongAdder refreshSucceeded = new LongAdder();
+    private final LongAdder refreshFailed = new LongAdder();
+    private final LongAdder refreshNotModified = new LongAdder();
+    private final LongAdder writesCommitted = new LongAdder();
+    private final LongAdder writeBatches = new LongAdder();
+    private final LongAdder batchIds = new LongAdder();
+    private final LongAdder batchMissing = new LongAdder();
+    private final LongAdder changeSets = new LongAdder();
+    private final LongAdder storesChanged = new LongAdder();
+
+    public StoreMetrics() {
+        for (Stage stage : Stage.values()) {
+            latencies.put(stage, new LatencyHistogram());
+        }
+    }
+
+    public void record(Stage stage, long nanos) {
+        latencies.get(stage).record(nanos);
+    }
+
+    /**
+     * Records the time elapsed since {@code startNanos}, a value returned by {@link System#nanoTime()}.
+     */
+    public void recordSince(Stage stage, long startNanos) {
+        latencies.get(stage).recordSince(startNanos);
+    }
+
+    public LatencyHistogram latency(Stage stage) {
+        return latencies.get(stage);
+    }
+
+    public void rowsParsed(int parsed, int rejected) {
+        rowsParsed.add(parsed);
+        rowsRejected.add(rejected);
+    }
+
+    public void bytesDownloaded(long bytes) {
+        bytesDownloaded.add(bytes);
+    }
+
+    public void refreshSucceeded() {
+        refreshSucceeded.increment();
+    }
+
+    public void refreshFailed() {
+        refreshFailed.increment();
+    }
+
+    /**
+     * Counts a refresh that succeeded without parsing anything, because the source answered that the store file had
+     * not changed; it is counted as succeeded too.
+     */
+    public void refreshNotModified() {
+        refreshNotModified.increment();
+    }
+
+    /**
+     * Counts a group commit of the write log; writes divided by batches gives the average batch size.
+     */
+    public void writesCommitted(int writes) {
+        writesCommitted.add(writes);
+        writeBatches.increment();
+    }
+
+    /**
+     * Counts the ids of a batch lookup and how many of them had no store; ids divided by the batch stage count gives
+     * the average batch size.
+     */
+    public void batchLookedUp(int ids, int missing) {
+        batchIds.add(ids);
+        batchMissing.add(missing);
+    }
+
+    /**
+     * Counts a change set published to the change feed and the stores inserted, updated or deleted in it.
+     */
+    public void changesPublished(int stores) {
+        changeSets.increment();
+        storesChanged.add(stores);
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = latencies.get(stage);
+            String prefix = "stores." + stage.getName() + ".";
+            metrics.add(new Metric<>(prefix + "count", histogram.getCount()));
+            metrics.add(new Metric<>(prefix + "p50", histogram.getPercentileNanos(50) / NANOS_PER_MILLI));
+            metrics.add(new Metric<>(prefix + "p99", histogram.getPercentileNanos(99) / NANOS_PER_MILLI));
+            metrics.add(new Metric<>(prefix + "p999", histogram.getPercentileNanos(99.9) / NANOS_PER_MILLI));
+            metrics.add(new Metric<>(prefix + "max", histogram.getMaxNanos() / NANOS_PER_MILLI));
+        }
+        metrics.add(new Metric<>("stores.rows.parsed", rowsParsed.sum()));
+        metrics.add(new Metric<>("stores.rows.rejected", rowsRejected.sum()));
+        metrics.add(new Metric<>("stores.bytes.downloaded", bytesDownloaded.sum()));
+        metrics.add(new Metric<>("stores.refresh.succeeded", refreshSucceeded.sum()));
+        metrics.add(new Metric<>("stores.refresh.failed", refreshFailed.sum()));
+        metrics.add(new Metric<>("stores.refresh.not-modified", refreshNotModified.sum()));
+        metrics.add(new Metric<>("stores.writes.committed", writesCommitted.sum()));
+        metrics.add(new Metric<>("stores.writes.batches", writeBatches.sum()));
+        metrics.add(new Metric<>("stores.batch.ids", batchIds.sum()));
+        metrics.add(new Metric<>("stores.batch.missing", batchMissing.sum()));
+        metrics.add(new Metric<>("stores.changes.sets", changeSets.sum()));
+        metrics.add(new Metric<>("stores.changes.stores", storesChanged.sum()));
+        return metrics;
+    }
+}
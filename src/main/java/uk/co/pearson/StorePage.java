@@ -0,0 +1,28 @@
+package uk.co.pearson;
+
+import java.util.List;
+
+/**
+ * One page of a sorted list of stores, and the cursor of the page after it if there is one.
+ */
+public class StorePage {
+
+    private final List<Store> stores;
+    private final PageCursor nextCursor;
+
+    StorePage(List<Store> stores, PageCursor nextCursor) {
+        this.stores = stores;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Store> getStores() {
+        return stores;
+    }
+
+    /**
+     * @return the cursor of the next page, or null if this is the last page
+     */
+    public PageCursor getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,138 @@
+package uk.co.pearson;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes stores as length-prefixed binary records, for clients that read many stores at once and want neither
+ * a JSON parser nor field names repeated in every store.
+ * <p>
+ * Every record is its length in bytes followed by the six fields of the store (id, postCode, city, address, openDate
+ * and daysSinceOpen), each as its length in bytes plus one, 0 standing for null, followed by its UTF-8 bytes.
+ * Lengths are unsigned variable length ints, seven bits per byte with the lowest bits first and the top bit set on
+ * every byte but the last, like in the {@link StoreSnapshotFile}. The stream simply ends after the last record.
+ */
+public class StoreRecordWriter {
+
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    public void writeRecords(Iterable<Store> stores, OutputStream outputStream) throws IOException {
+        OutputStream out = new BufferedOutputStream(outputStream, BUFFER_BYTES);
+        ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+        for (Store store : stores) {
+            record.reset();
+            writeField(record, store.getId());
+            writeField(record, store.getPostCode());
+            writeField(record, store.getCity());
+            writeField(record, store.getAddress());
+            writeField(record, store.getOpenDate());
+            writeField(record, store.getDaysSinceOpen());
+            writeLength(out, record.size());
+            record.writeTo(out);
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads back what {@link #writeRecords(Iterable, OutputStream)} wrote, up to the end of the stream.
+     *
+     * @throws IOException if the stream ends in the middle of a record or a record is malformed
+     */
+    public List<Store> readRecords(InputStream inputStream) throws IOException {
+        List<Store> stores = new ArrayList<>();
+        while (true) {
+            int first = inputStream.read();
+            if (first < 0) {
+                return stores;
+            }
+            byte[] record = readFully(inputStream, readLength(inputStream, first));
+            int[] position = {0};
+            String[] fields = new String[6];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = readField(record, position);
+            }
+            if (position[0] != record.length) {
+                throw new IOException("Store record has " + (record.length - position[0]) + " bytes after its fields");
+            }
+            stores.add(new Store(fields[0], fields[1], fields[2], fields[3], fields[4], fields[5]));
+        }
+    }
+
+    private static void writeField(OutputStream record, String value) throws IOException {
+        if (value == null) {
+            record.write(0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeLength(record, bytes.length + 1);
+        record.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeLength(OutputStream out, int length) throws IOException {
+        while ((length & ~0x7f) != 0) {
+            out.write((length & 0x7f) | 0x80);
+            length >>>= 7;
+        }
+        out.write(length);
+    }
+
+    private static int readLength(InputStream in, int first) throws IOException {
+        int length = 0;
+        int b = first;
+        for (int shift = 0; ; shift += 7) {
+            if (b < 0) {
+                throw new IOException("Store records end in the middle of a length");
+            }
+            if (shift > 28) {
+                throw new IOException("Malformed length in store records");
+            }
+            length |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return length;
+            }
+            b = in.read();
+        }
+    }
+
+    private static String readField(byte[] record, int[] position) throws IOException {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (shift > 28 || position[0] >= record.length) {
+                throw new IOException("Malformed field length in store record");
+            }
+            byte b = record[position[0]++];
+            length |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        if (length == 0) {
+            return null;
+        }
+        if (length - 1 > record.length - position[0]) {
+            throw new IOException("Store record field is longer than the record");
+        }
+        String value = new String(record, position[0], length - 1, StandardCharsets.UTF_8);
+        position[0] += length - 1;
+        return value;
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int count = in.read(bytes, read, length - read);
+            if (count < 0) {
+                throw new IOException("Store records end in the middle of a record");
+            }
+            read += count;
+        }
+        return bytes;
+    }
+}
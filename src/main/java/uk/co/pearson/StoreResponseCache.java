@@ -0,0 +1,201 @@
+package uk.co.pearson;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The JSON bodies of {@code /stores/all}, rendered once per order and kept as UTF-8 bytes along with their gzip
+ * compression, so answering a request is writing a buffer.
+ * <p>
+ * The bodies depend on the snapshot and, through the days since opening, on the day: they are kept for one snapshot
+ * version and one day, and dropped together as soon as either changes. An order is rendered by the first request
+ * asking for it; requests for the same order arriving meanwhile wait for that rendering instead of starting their own.
+ * Bodies that would take the cache over {@code stores.response-cache.max-bytes} are served but not kept.
+ */
+@Component
+public class StoreResponseCache {
+
+    static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    @Autowired
+    StoreMetrics storeMetrics;
+
+    @Value("${stores.response-cache.max-bytes:" + DEFAULT_MAX_BYTES + "}")
+    long maxBytes = DEFAULT_MAX_BYTES;
+
+    StoreJsonWriter storeJsonWriter = new StoreJsonWriter();
+
+    private final String instance = Long.toString(System.currentTimeMillis(), 36);
+
+    private final AtomicReference<Generation> generation = new AtomicReference<>(new Generation(-1, OpenDates.UNKNOWN));
+
+    /**
+     * @return the stores of the snapshot in the requested order, rendered as JSON on the current day
+     * @throws UncheckedIOException if the stores cannot be rendered
+     */
+    public RenderedStores get(StoreSnapshot snapshot, SortSpec sortSpec) {
+        int today = OpenDates.today();
+        Generation current = currentGeneration(snapshot, today);
+        if (current == null) {
+            return render(snapshot, sortSpec, today);
+        }
+        CompletableFuture<RenderedStores> rendered = current.rendered.get(sortSpec);
+        if (rendered == null) {
+            CompletableFuture<RenderedStores> rendering = new CompletableFuture<>();
+            rendered = current.rendered.putIfAbsent(sortSpec, rendering);
+            if (rendered == null) {
+                return renderInto(current, snapshot, sortSpec, rendering);
+            }
+        }
+        try {
+            return rendered.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof UncheckedIOException ? (UncheckedIOException) e.getCause() : e;
+        }
+    }
+
+    /**
+     * @return the strong entity tag of the stores of the snapshot in the requested order, rendered on the current
+     * day, without rendering them
+     */
+    public String entityTag(StoreSnapshot snapshot, SortSpec sortSpec, boolean gzip) {
+        return entityTag(snapshot, sortSpec, OpenDates.today(), gzip);
+    }
+
+    /**
+     * @return the number of bytes of the bodies currently kept, compressed or not
+     */
+    public long getCachedBytes() {
+        return generation.get().bytes.get();
+    }
+
+    /**
+     * @return the generation for the snapshot and the day, replacing an older one, or null when the snapshot is older
+     * than the one already cached and its bodies should not be kept
+     */
+    private Generation currentGeneration(StoreSnapshot snapshot, int today) {
+        while (true) {
+            Generation current = generation.get();
+            if (current.version == snapshot.getVersion() && current.day == today) {
+                return current;
+            }
+            if (current.version > snapshot.getVersion() || current.day > today) {
+                return null;
+            }
+            Generation next = new Generation(snapshot.getVersion(), today);
+            if (generation.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    private RenderedStores renderInto(Generation current, StoreSnapshot snapshot, SortSpec sortSpec,
+                                      CompletableFuture<RenderedStores> rendering) {
+        RenderedStores rendered;
+        try {
+            rendered = render(snapshot, sortSpec, current.day);
+        } catch (RuntimeException e) {
+            current.rendered.remove(sortSpec, rendering);
+            rendering.completeExceptionally(e);
+            throw e;
+        }
+        if (current.bytes.addAndGet(rendered.size()) > maxBytes) {
+            current.bytes.addAndGet(-rendered.size());
+            current.rendered.remove(sortSpec, rendering);
+        }
+        rendering.complete(rendered);
+        return rendered;
+    }
+
+    private RenderedStores render(StoreSnapshot snapshot, SortSpec sortSpec, int today) {
+        long start = System.nanoTime();
+        try {
+            ByteArrayOutputStream json = new ByteArrayOutputStream();
+            storeJsonWriter.writeArray(snapshot.getStores(sortSpec), json);
+            byte[] jsonBytes = json.toByteArray();
+            ByteArrayOutputStream gzip = new ByteArrayOutputStream(jsonBytes.length / 4 + 64);
+            try (GZIPOutputStream compressor = new GZIPOutputStream(gzip)) {
+                compressor.write(jsonBytes);
+            }
+            return new RenderedStores(jsonBytes, gzip.toByteArray(), entityTag(snapshot, sortSpec, today, false),
+                    entityTag(snapshot, sortSpec, today, true));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            storeMetrics.recordSince(StoreMetrics.Stage.SERIALIZE, start);
+        }
+    }
+
+    /**
+     * The tag changes with the snapshot version, the time this cache was created, which tells apart versions with the
+     * same number before and after a restart, the day and the order; compressed bodies have their own tag.
+     */
+    private String entityTag(StoreSnapshot snapshot, SortSpec sortSpec, int today, boolean gzip) {
+        return "\"" + snapshot.getVersion() + "-" + instance + "-" + today
+                + (sortSpec.isUnsorted() ? "" : "-" + sortSpec) + (gzip ? "-gzip" : "") + "\"";
+    }
+
+    /**
+     * The bodies rendered for one snapshot version on one day.
+     */
+    private static class Generation {
+        final long version;
+        final int day;
+        final ConcurrentMap<SortSpec, CompletableFuture<RenderedStores>> rendered = new ConcurrentHashMap<>();
+        final AtomicLong bytes = new AtomicLong();
+
+        Generation(long version, int day) {
+            this.version = version;
+            this.day = day;
+        }
+    }
+
+    /**
+     * One body, as JSON and gzip compressed JSON, with the entity tag of each; the arrays must not be modified.
+     */
+    public static class RenderedStores {
+        private final byte[] json;
+        private final byte[] gzip;
+        private final String entityTag;
+        private final String gzipEntityTag;
+
+        RenderedStores(byte[] json, byte[] gzip, String entityTag, String gzipEntityTag) {
+            this.json = json;
+            this.gzip = gzip;
+            this.entityTag = entityTag;
+            this.gzipEntityTag = gzipEntityTag;
+        }
+
+        public byte[] getJson() {
+            return json;
+        }
+
+        public byte[] getGzip() {
+            return gzip;
+        }
+
+        public String getEntityTag() {
+            return entityTag;
+        }
+
+        public String getGzipEntityTag() {
+            return gzipEntityTag;
+        }
+
+        long size() {
+            return json.length + (long) gzip.length;
+        }
+    }
+}
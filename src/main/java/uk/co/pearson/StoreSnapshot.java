@@ -0,0 +1,257 @@
+package uk.co.pearson;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * An immutable, fully parsed copy of the store file as it was at one point in time, held as a {@link StoreTable}.
+ * Readers can hold on to a snapshot for as long as they like; refreshes never touch it.
+ * <p>
+ * Stores written through the API are first laid over a snapshot as {@link #getPendingWrites() pending writes}, which
+ * only {@link #findById(String)} sees, and applied to its table and indexes as a new version a little later.
+ */
+public class StoreSnapshot {
+
+    private final StoreTable stores;
+    private final SortIndex sortIndex;
+    private final FilterIndex filterIndex;
+    private final SearchIndex searchIndex;
+    private final StoreStats stats;
+    private final long version;
+    private final long loadedAt;
+    private final long checkedAt;
+    private final Map<String, Store> pendingWrites;
+
+    /**
+     * Builds the snapshot, its id index and its {@link StoreStats stats}. When the same id appears more than once the
+     * first row wins, like it always has for lookups, and the id is recorded in {@link #getDuplicateIds()}.
+     * The {@link StoreDiff#hash(Store) hash} of every row is kept to compare the next stores with.
+     * A {@link StoreTable}, such as the one {@link StoreBufferParser} parses a file into, is used as it is.
+     */
+    public StoreSnapshot(List<Store> stores, long version, long loadedAt) {
+        this.stores = stores instanceof StoreTable ? (StoreTable) stores : StoreTable.of(stores);
+        this.sortIndex = new SortIndex(this.stores);
+        this.filterIndex = new FilterIndex(this.stores, this.sortIndex);
+        this.searchIndex = new SearchIndex(this.stores);
+        this.stats = new StoreStats(this.stores);
+        this.version = version;
+        this.loadedAt = loadedAt;
+        this.checkedAt = loadedAt;
+        this.pendingWrites = Collections.emptyMap();
+    }
+
+    private StoreSnapshot(StoreTable stores, SortIndex sortIndex, SearchIndex searchIndex, long version,
+                          long loadedAt, long checkedAt) {
+        this.stores = stores;
+        this.sortIndex = sortIndex;
+        this.filterIndex = new FilterIndex(stores, sortIndex);
+        this.searchIndex = searchIndex;
+        this.stats = new StoreStats(stores);
+        this.version = version;
+        this.loadedAt = loadedAt;
+        this.checkedAt = checkedAt;
+        this.pendingWrites = Collections.emptyMap();
+    }
+
+    private StoreSnapshot(StoreSnapshot snapshot, long loadedAt, long checkedAt, Map<String, Store> pendingWrites) {
+        this.stores = snapshot.stores;
+        this.sortIndex = snapshot.sortIndex;
+        this.filterIndex = snapshot.filterIndex;
+        this.searchIndex = snapshot.searchIndex;
+        this.stats = snapshot.stats;
+        this.version = snapshot.version;
+        this.loadedAt = loadedAt;
+        this.checkedAt = checkedAt;
+        this.pendingWrites = pendingWrites;
+    }
+
+    /**
+     * @return the same stores and version, loaded at another time, sharing every index with this snapshot; used when
+     * the stores downloaded again have not changed
+     */
+    public StoreSnapshot withLoadedAt(long loadedAt) {
+        return new StoreSnapshot(this, loadedAt, Math.max(checkedAt, loadedAt), pendingWrites);
+    }
+
+    /**
+     * @return the same snapshot, load time included, last checked against the store source at the given time; used
+     * when the source answers that the store file has not changed
+     */
+    StoreSnapshot withCheckedAt(long checkedAt) {
+        return new StoreSnapshot(this, loadedAt, checkedAt, pendingWrites);
+    }
+
+    /**
+     * @param pendingWrites the stores written, by id, replacing the pending writes of this snapshot
+     * @return the same stores, version and indexes with other stores written over them, found by
+     * {@link #findById(String)} before the stores of the snapshot; lists, filters and searches see them once they are
+     * applied with {@link #withChanges(StoreDiff, Set, long, long)}
+     */
+    StoreSnapshot withPendingWrites(Map<String, Store> pendingWrites) {
+        return new StoreSnapshot(this, loadedAt, checkedAt, Collections.unmodifiableMap(pendingWrites));
+    }
+
+    /**
+     * @return the stores written over this snapshot and not yet applied to it, by id
+     */
+    Map<String, Store> getPendingWrites() {
+        return pendingWrites;
+    }
+
+    /**
+     * @return a new version of the snapshot with the changes applied: updated stores keep their place, deleted ones
+     * are removed and inserted ones are added at the end. The table and the sort and search indexes are worked out
+     * from the ones of this snapshot, copying what did not change, rather than built again; the {@link StoreStats
+     * stats} are counted again, which takes one pass over the rows.
+     *
+     * @param duplicateIds the ids repeated in the stores the changes were worked out from
+     */
+    StoreSnapshot withChanges(StoreDiff diff, Set<String> duplicateIds, long version, long loadedAt) {
+        StoreTable.Changes changes = stores.withChanges(diff, duplicateIds);
+        return new StoreSnapshot(changes.table, sortIndex.withChanges(changes), searchIndex.withChanges(changes),
+                version, loadedAt, Math.max(checkedAt, loadedAt));
+    }
+
+    /**
+     * @return a read-only view of the stores in file order; every store is created when it is read
+     */
+    public List<Store> getStores() {
+        return stores;
+    }
+
+    /**
+     * @return a read-only view of the stores in the requested order, backed by a precomputed ordering
+     */
+    public List<Store> getStores(SortSpec sortSpec) {
+        return sortSpec.isUnsorted() ? stores : new OrderedStores(stores, sortIndex.order(sortSpec));
+    }
+
+    /**
+     * @return a read-only view of the stores matching the filter, in the requested order
+     */
+    public List<Store> getStores(SortSpec sortSpec, StoreFilter filter) {
+        return filter.isEmpty() ? getStores(sortSpec) : new OrderedStores(stores, filterIndex.select(filter, sortSpec));
+    }
+
+    public StorePage getPage(SortSpec sortSpec, int limit, PageCursor after) {
+        return getPage(sortSpec, new StoreFilter(), limit, after);
+    }
+
+    /**
+     * Returns up to {@code limit} stores matching the filter following the cursor, or from the start if there is no
+     * cursor. Pages are always ordered with the id as a final key, so every store has exactly one position.
+     * The start of the page is found with a binary search on the sort keys held by the cursor,
+     * so a page deep in the list costs the same as the first one.
+     */
+    public StorePage getPage(SortSpec sortSpec, StoreFilter filter, int limit, PageCursor after) {
+        SortSpec pageSpec = sortSpec.withIdTieBreak();
+        int[] order = filterIndex.select(filter, pageSpec);
+        int start = after == null ? 0 : firstAfter(order, pageSpec.comparator(), after.getLastStore());
+        int end = (int) Math.min((long) start + limit, order.length);
+        List<Store> page = new OrderedStores(stores, Arrays.copyOfRange(order, start, end));
+        PageCursor next = end < order.length && end > start ? new PageCursor(pageSpec, page.get(page.size() - 1)) : null;
+        return new StorePage(page, next);
+    }
+
+    /**
+     * @return up to {@code limit} stores whose address and city have every word of the query, the last one possibly
+     * unfinished; see {@link SearchIndex}
+     */
+    public List<Store> search(String query, int limit) {
+        return new OrderedStores(stores, searchIndex.search(query, limit));
+    }
+
+    /**
+     * @return the counts of the stores worked out when the snapshot was built; see {@link StoreStats}
+     */
+    public StoreStats getStats() {
+        return stats;
+    }
+
+    StoreTable getTable() {
+        return stores;
+    }
+
+    public SortIndex getSortIndex() {
+        return sortIndex;
+    }
+
+    /**
+     * @return the store with the given id, the one written last if it is a pending write, or null if there is none
+     */
+    public Store findById(String id) {
+        Store written = pendingWrites.isEmpty() ? null : pendingWrites.get(id);
+        if (written != null) {
+            return written;
+        }
+        int row = stores.findRow(id);
+        return row < 0 ? null : stores.get(row);
+    }
+
+    public Set<String> getDuplicateIds() {
+        return stores.getDuplicateIds();
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getLoadedAt() {
+        return loadedAt;
+    }
+
+    /**
+     * @return when the store source was last asked for the store file and answered with these stores or with not
+     * modified; kept in memory only, so after a restart it is the load time again
+     */
+    public long getCheckedAt() {
+        return checkedAt;
+    }
+
+    /**
+     * @return how long ago the store source was last checked, see {@link #getCheckedAt()}
+     */
+    public long getAgeMillis() {
+        return System.currentTimeMillis() - checkedAt;
+    }
+
+    private int firstAfter(int[] order, Comparator<Store> comparator, Store key) {
+        int low = 0;
+        int high = order.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (comparator.compare(stores.get(order[middle]), key) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static class OrderedStores extends AbstractList<Store> implements RandomAccess {
+        private final List<Store> stores;
+        private final int[] order;
+
+        OrderedStores(List<Store> stores, int[] order) {
+            this.stores = stores;
+            this.order = order;
+        }
+
+        @Override
+        public Store get(int index) {
+            return stores.get(order[index]);
+        }
+
+        @Override
+        public int size() {
+            return order.length;
+        }
+    }
+}
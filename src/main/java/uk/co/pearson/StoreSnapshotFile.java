@@ -0,0 +1,215 @@
+package uk.co.pearson;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A local binary copy of the last downloaded store file, so the service can serve stores as soon as it starts and
+ * keep serving them when the remote file cannot be downloaded.
+ * <p>
+ * The file is a header (magic number, format version, time the stores were downloaded and number of stores),
+ * the five fields of every store as length-prefixed UTF-8, and a CRC32 of everything before it. It is read through a
+ * memory mapping, and files with another format version or a wrong checksum are rejected.
+ */
+@Component
+public class StoreSnapshotFile {
+
+    static final int MAGIC = 0x53544f52;
+    static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4;
+    private static final int CHECKSUM_BYTES = 8;
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    @Value("${stores.snapshot-file:data/store-snapshot.bin}")
+    String file;
+
+    StoreConverter storeConverter = new StoreConverter();
+
+    /**
+     * Replaces the file with the given stores. The new file is written and flushed to disk next to the old one
+     * and then moved over it, so a crash never leaves a half written file behind.
+     */
+    public void write(List<Store> stores, long loadedAt) throws IOException {
+        Path path = Paths.get(file).toAbsolutePath();
+        Files.createDirectories(path.getParent());
+        Path saving = path.resolveSibling(path.getFileName() + ".saving");
+        try (FileChannel channel = FileChannel.open(saving, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            CRC32 checksum = new CRC32();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new CheckedOutputStream(Channels.newOutputStream(channel), checksum), BUFFER_BYTES));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(loadedAt);
+            out.writeInt(stores.size());
+            for (Store store : stores) {
+                writeString(out, store.getId());
+                writeString(out, store.getPostCode());
+                writeString(out, store.getCity());
+                writeString(out, store.getAddress());
+                writeString(out, store.getOpenDate());
+            }
+            out.flush();
+            out.writeLong(checksum.getValue());
+            out.flush();
+            channel.force(false);
+        }
+        Files.move(saving, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the size of the file in bytes, or -1 when there is no file
+     */
+    public long size() throws IOException {
+        try {
+            return Files.size(Paths.get(file).toAbsolutePath());
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Opens the file as it is now for reading; it stays readable through the channel even if it is replaced.
+     *
+     * @return the channel, which the caller has to close, or null when there is no file
+     */
+    public FileChannel open() throws IOException {
+        try {
+            return FileChannel.open(Paths.get(file).toAbsolutePath(), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the stores in the file, or null when there is no file
+     * @throws IOException if the file cannot be read, is not a store snapshot, has another format version or is corrupt
+     */
+    public SavedStores read() throws IOException {
+        Path path = Paths.get(file).toAbsolutePath();
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES + CHECKSUM_BYTES || size > Integer.MAX_VALUE) {
+                throw new IOException(path + " is not a store snapshot");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException(path + " is not a store snapshot");
+            }
+            int formatVersion = buffer.getInt(4);
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException(path + " has format version " + formatVersion + ", expected " + FORMAT_VERSION);
+            }
+            int checksumPosition = (int) size - CHECKSUM_BYTES;
+            ByteBuffer content = buffer.duplicate();
+            content.limit(checksumPosition);
+            CRC32 checksum = new CRC32();
+            checksum.update(content);
+            if (checksum.getValue() != buffer.getLong(checksumPosition)) {
+                throw new IOException(path + " is corrupt, its checksum does not match");
+            }
+            buffer.position(8);
+            long loadedAt = buffer.getLong();
+            int count = buffer.getInt();
+            List<Store> stores = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String id = readString(buffer);
+                String postCode = readString(buffer);
+                String city = readString(buffer);
+                String address = readString(buffer);
+                String openDate = readString(buffer);
+                stores.add(storeConverter.createStore(id, postCode, city, address, openDate));
+            }
+            if (buffer.position() != checksumPosition) {
+                throw new IOException(path + " is corrupt, it does not end after the last store");
+            }
+            return new SavedStores(stores, loadedAt);
+        } catch (BufferUnderflowException e) {
+            throw new IOException(path + " is corrupt, it ends in the middle of a store", e);
+        }
+    }
+
+    /**
+     * Writes the length plus one as a variable length int, so null can be told apart from an empty string.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.write(0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = bytes.length + 1;
+        while ((length & ~0x7f) != 0) {
+            out.write((length & 0x7f) | 0x80);
+            length >>>= 7;
+        }
+        out.write(length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (shift > 28) {
+                throw new IOException("Malformed string length in store snapshot");
+            }
+            byte b = buffer.get();
+            length |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The stores read back from the file and the time they were downloaded.
+     */
+    public static class SavedStores {
+
+        private final List<Store> stores;
+        private final long loadedAt;
+
+        public SavedStores(List<Store> stores, long loadedAt) {
+            this.stores = stores;
+            this.loadedAt = loadedAt;
+        }
+
+        public List<Store> getStores() {
+            return stores;
+        }
+
+        public long getLoadedAt() {
+            return loadedAt;
+        }
+    }
+}
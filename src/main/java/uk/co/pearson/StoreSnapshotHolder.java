@@ -0,0 +1,548 @@
+package uk.co.pearson;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps the last successfully loaded {@link StoreSnapshot} and replaces it in the background.
+ * Readers only ever do a volatile read, so a slow or failing refresh never blocks them.
+ * On start-up the stores saved locally by the last successful refresh are served until the first download completes.
+ * <p>
+ * Downloads run on a small dedicated pool, never on a request thread, and only one runs at a time: everyone who asks
+ * for a snapshot while a download is in flight waits for the same one ({@link #refreshAsync()}), and is called back on
+ * a pool of its own so that the download thread is free as soon as the snapshot is published.
+ * <p>
+ * Stores written through the API are laid over the current snapshot as soon as they are committed, so they can be
+ * read back by id, and applied to it as a new version shortly after on a thread of their own ({@link #applyWrites}).
+ */
+@Component
+public class StoreSnapshotHolder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StoreSnapshotHolder.class);
+    private static final int IO_THREADS = 2;
+    private static final int IO_QUEUE_CAPACITY = 16;
+    private static final int CALLBACK_THREADS = Runtime.getRuntime().availableProcessors();
+
+    StoreFileParser storeFileParser = new StoreFileParser();
+
+    StoreBufferParser storeBufferParser = new StoreBufferParser();
+
+    @Autowired
+    StoreSource storeSource;
+
+    @Autowired
+    CircuitBreaker sourceCircuitBreaker = new CircuitBreaker("The store source",
+            StoreSourceConfiguration.DEFAULT_CIRCUIT_FAILURES, StoreSourceConfiguration.DEFAULT_CIRCUIT_OPEN_MILLIS);
+
+    @Autowired
+    StoreMetrics storeMetrics;
+
+    @Autowired
+    StoreWriteLog storeWriteLog;
+
+    @Autowired
+    StoreSnapshotFile storeSnapshotFile;
+
+    @Autowired
+    StoreChangeFeed storeChangeFeed;
+
+    @Autowired
+    IngestLog ingestLog = new IngestLog();
+
+    @Value("${stores.refresh.interval-seconds:300}")
+    long refreshIntervalSeconds;
+
+    @Value("${stores.source.map-local-files:true}")
+    boolean mapLocalFiles = true;
+
+    @Value("${stores.write-log.publish-delay-millis:100}")
+    long writePublishDelayMillis = 100;
+
+    @Value("${stores.ingest.quarantine-samples-per-reason:" + Quarantine.DEFAULT_SAMPLES_PER_REASON + "}")
+    int quarantineSamplesPerReason = Quarantine.DEFAULT_SAMPLES_PER_REASON;
+
+    private final AtomicReference<StoreSnapshot> current = new AtomicReference<>();
+    private volatile IngestReport ingestReport;
+    private final AtomicLong versions = new AtomicLong();
+    private final Object publishLock = new Object();
+    private final AtomicReference<CompletableFuture<StoreSnapshot>> inFlight = new AtomicReference<>();
+    private final ThreadPoolExecutor ioExecutor = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(IO_QUEUE_CAPACITY), daemonThreads("store-io"));
+    private final ThreadPoolExecutor callbackExecutor = new ThreadPoolExecutor(CALLBACK_THREADS, CALLBACK_THREADS, 60,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<>(), daemonThreads("store-snapshot-callbacks"));
+    private final ScheduledExecutorService writePublisher =
+            Executors.newSingleThreadScheduledExecutor(daemonThreads("store-write-publisher"));
+    private final AtomicBoolean writesScheduled = new AtomicBoolean();
+    private ScheduledExecutorService scheduler;
+
+    public StoreSnapshotHolder() {
+        ioExecutor.allowCoreThreadTimeOut(true);
+        callbackExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @PostConstruct
+    public void start() {
+        storeWriteLog.setCommitListener(this::applyWrites);
+        storeWriteLog.setExistingStores(this::exists);
+        restore();
+        scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("store-snapshot-refresh"));
+        if (refreshIntervalSeconds > 0) {
+            scheduler.scheduleWithFixedDelay(this::refreshQuietly, 0, refreshIntervalSeconds, TimeUnit.SECONDS);
+        } else {
+            scheduler.execute(this::refreshQuietly);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        ioExecutor.shutdownNow();
+        callbackExecutor.shutdownNow();
+        writePublisher.shutdownNow();
+    }
+
+    /**
+     * Returns the current snapshot, waiting for it if nothing has been loaded yet.
+     */
+    public StoreSnapshot getSnapshot() throws IOException {
+        try {
+            return getSnapshotAsync().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the stores to load");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * @return what the last store file loaded since start-up made of its lines, or null if none has been loaded;
+     * a file that has not changed keeps the report of its last load
+     */
+    public IngestReport getIngestReport() {
+        return ingestReport;
+    }
+
+    /**
+     * @return the current snapshot, already completed, or when nothing has been loaded yet the download in flight;
+     * it fails with the exception of the download if that fails
+     */
+    public CompletableFuture<StoreSnapshot> getSnapshotAsync() {
+        StoreSnapshot snapshot = current.get();
+        return snapshot != null ? CompletableFuture.completedFuture(snapshot) : refreshAsync();
+    }
+
+    /**
+     * Starts a {@link #refresh()} on the download pool, or joins the one already running.
+     * Callbacks added to the future run on a pool of their own, not on the download thread: the requests that waited
+     * for the first load can then render their answers side by side, while the download thread is free to take the
+     * next refresh.
+     *
+     * @return the refresh; it fails with a {@link RejectedExecutionException} if the pool is shut down or full
+     */
+    public CompletableFuture<StoreSnapshot> refreshAsync() {
+        return sharedRefresh().thenApplyAsync(snapshot -> snapshot, callbackExecutor);
+    }
+
+    /**
+     * @return the refresh in flight, which every caller shares and which completes on the download thread
+     */
+    private CompletableFuture<StoreSnapshot> sharedRefresh() {
+        while (true) {
+            CompletableFuture<StoreSnapshot> running = inFlight.get();
+            if (running != null) {
+                return running;
+            }
+            CompletableFuture<StoreSnapshot> started = new CompletableFuture<>();
+            if (!inFlight.compareAndSet(null, started)) {
+                continue;
+            }
+            try {
+                ioExecutor.execute(() -> {
+                    try {
+                        started.complete(refresh());
+                    } catch (IOException | RuntimeException | Error e) {
+                        started.completeExceptionally(e);
+                    } finally {
+                        inFlight.compareAndSet(started, null);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                inFlight.compareAndSet(started, null);
+                started.completeExceptionally(e);
+            }
+            return started;
+        }
+    }
+
+    /**
+     * Downloads and parses the store file and, only if that worked, publishes it as the new snapshot,
+     * with the stores written through the API laid over it, and saves it locally for the next start-up.
+     * When the source answers that the file has not changed, nothing is parsed or saved and the current snapshot is
+     * kept as it is, load time included, so that its age is the same after a restart. When the file has changed but
+     * none of its stores has, the snapshot is kept with a new load time and saved again with it.
+     * The source is called through a {@link CircuitBreaker}: after failing a few times in a row it is left alone for a
+     * while, and refreshes fail straight away with a {@link ServiceUnavailableException}.
+     * The lines that could not be parsed are kept in the {@link #getIngestReport() ingest report} and summarized in
+     * the {@link IngestLog}.
+     * Runs on the calling thread; see {@link #refreshAsync()} to share one download between callers.
+     */
+    public StoreSnapshot refresh() throws IOException {
+        StoreSnapshot snapshot;
+        StoreFileParser.ParsedStores parsed;
+        try {
+            sourceCircuitBreaker.acquire();
+            StoreDownload download;
+            try {
+                download = storeSource.open();
+                parsed = download == null ? null : load(download);
+            } catch (IOException | RuntimeException | Error e) {
+                sourceCircuitBreaker.failed();
+                throw e;
+            }
+            sourceCircuitBreaker.succeeded();
+            if (download == null) {
+                snapshot = keepCurrent();
+                storeMetrics.refreshSucceeded();
+                storeMetrics.refreshNotModified();
+                LOGGER.info("Store file not modified, still serving version {}", snapshot.getVersion());
+                return snapshot;
+            }
+            synchronized (publishLock) {
+                snapshot = publish(parsed.getStores(), storeWriteLog.getWrites().values(), System.currentTimeMillis());
+            }
+            download.commit();
+            ingestReport = new IngestReport(snapshot.getVersion(), snapshot.getLoadedAt(), storeSource.toString(),
+                    parsed.getLineCount(), parsed.getRowCount(), parsed.getQuarantine());
+            ingestLog.log(ingestReport);
+        } catch (IOException | RuntimeException e) {
+            storeMetrics.refreshFailed();
+            throw e;
+        }
+        storeMetrics.refreshSucceeded();
+        LOGGER.info("Loaded store snapshot version {} with {} stores", snapshot.getVersion(), snapshot.getStores().size());
+        if (!snapshot.getDuplicateIds().isEmpty()) {
+            LOGGER.warn("Store snapshot version {} has {} duplicated ids, only the first row of each is served: {}",
+                    snapshot.getVersion(), snapshot.getDuplicateIds().size(), snapshot.getDuplicateIds());
+        }
+        save(parsed.getStores(), snapshot.getLoadedAt());
+        return snapshot;
+    }
+
+    /**
+     * Publishes the stores saved by the last successful refresh, unless something has been published already.
+     * A missing, outdated or corrupt file is logged and ignored.
+     */
+    void restore() {
+        long start = System.nanoTime();
+        StoreSnapshotFile.SavedStores saved;
+        try {
+            saved = storeSnapshotFile.read();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Ignoring the saved store snapshot: {}", e.toString());
+            return;
+        }
+        if (saved == null) {
+            return;
+        }
+        StoreSnapshot snapshot;
+        synchronized (publishLock) {
+            if (current.get() != null) {
+                return;
+            }
+            snapshot = publish(saved.getStores(), storeWriteLog.getWrites().values(), saved.getLoadedAt());
+        }
+        storeMetrics.recordSince(StoreMetrics.Stage.RESTORE, start);
+        LOGGER.info("Restored store snapshot version {} with {} stores downloaded {} ms ago",
+                snapshot.getVersion(), snapshot.getStores().size(), snapshot.getAgeMillis());
+    }
+
+    /**
+     * Lays a batch of stores committed by the write log over the current snapshot as pending writes, so that they can
+     * be read back by id straight away, and schedules {@link #publishWrites()} to apply them to it as a new version
+     * {@code stores.write-log.publish-delay-millis} later, together with whatever else is written meanwhile.
+     * Called on the commit thread of the write log, which it holds up only to copy the pending writes: the snapshot
+     * is swapped with a compare-and-set, without the publish lock. When nothing has been loaded yet the writes are
+     * picked up by the first load instead.
+     */
+    void applyWrites(List<Store> writes) {
+        while (true) {
+            StoreSnapshot snapshot = current.get();
+            if (snapshot == null) {
+                // The first load reads the writes and publishes its snapshot holding the lock, so once it is free
+                // either the snapshot is there or the load has still to read these writes
+                synchronized (publishLock) {
+                    if (current.get() == null) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            Map<String, Store> pendingWrites = new LinkedHashMap<>(snapshot.getPendingWrites());
+            for (Store store : writes) {
+                pendingWrites.put(store.getId(), store);
+            }
+            if (current.compareAndSet(snapshot, snapshot.withPendingWrites(pendingWrites))) {
+                break;
+            }
+        }
+        if (writesScheduled.compareAndSet(false, true)) {
+            try {
+                writePublisher.schedule(this::publishWritesQuietly, writePublishDelayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                writesScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Applies the pending writes of the current snapshot to it as a new version, publishing the changes, with one
+     * diff of the stores written rather than of every store. Stores written while it runs stay pending for the next
+     * time.
+     */
+    void publishWrites() {
+        writesScheduled.set(false);
+        synchronized (publishLock) {
+            StoreSnapshot snapshot = current.get();
+            if (snapshot == null || snapshot.getPendingWrites().isEmpty()) {
+                return;
+            }
+            Map<String, Store> pendingWrites = snapshot.getPendingWrites();
+            long start = System.nanoTime();
+            StoreDiff diff = StoreDiff.upserting(snapshot, pendingWrites.values());
+            storeMetrics.recordSince(StoreMetrics.Stage.DIFF, start);
+            install(apply(snapshot, diff, snapshot.getDuplicateIds(), snapshot.getLoadedAt()), pendingWrites);
+        }
+    }
+
+    /**
+     * @return whether the current snapshot has a store with the given id; false while nothing has been loaded
+     */
+    boolean exists(String id) {
+        StoreSnapshot snapshot = current.get();
+        return snapshot != null && snapshot.findById(id) != null;
+    }
+
+    /**
+     * Parses the store file while it is being downloaded: chunks are parsed while the rest is still coming in.
+     * The fetch stage is recorded up to the end of the download, plus the parsing still waited for after it
+     * as the parse stage. A local file is memory-mapped and parsed in place instead, see {@link #loadMapped(Path)}.
+     */
+    private StoreFileParser.ParsedStores load(StoreDownload download) throws IOException {
+        long start = System.nanoTime();
+        Quarantine quarantine = new Quarantine(quarantineSamplesPerReason);
+        StoreFileParser.ParsedStores parsed;
+        try (InputStream file = download.getStream()) {
+            Path path = download.getFile();
+            if (mapLocalFiles && path != null && Files.size(path) <= Integer.MAX_VALUE) {
+                parsed = loadMapped(path, quarantine);
+            } else {
+                long bytesBefore = storeSource.getBytesRead();
+                try {
+                    parsed = storeFileParser.parse(file, quarantine);
+                } finally {
+                    storeMetrics.bytesDownloaded(storeSource.getBytesRead() - bytesBefore);
+                }
+            }
+        }
+        long parseNanos = parsed.getParseNanosAfterInput();
+        storeMetrics.record(StoreMetrics.Stage.FETCH, System.nanoTime() - start - parseNanos);
+        storeMetrics.record(StoreMetrics.Stage.PARSE, parseNanos);
+        int rows = parsed.getRowCount();
+        storeMetrics.rowsParsed(rows, parsed.getLineCount() - rows);
+        return parsed;
+    }
+
+    /**
+     * Maps the file read-only and parses it with the {@link StoreBufferParser}, so its bytes go from the page cache
+     * straight into the {@link StoreTable} the snapshot is built on, or compared with it; stores written through the
+     * API are applied to that table without turning its rows into {@link Store}s. The parser copies everything it
+     * keeps, so the mapping is released once the buffer is collected. Files too large for one buffer are read as a
+     * stream.
+     */
+    private StoreFileParser.ParsedStores loadMapped(Path path, Quarantine quarantine) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            storeMetrics.bytesDownloaded(size);
+            return storeBufferParser.parse(buffer, quarantine);
+        }
+    }
+
+    /**
+     * Keeps the current snapshot when the store file has not changed, recording the time it was checked. Its load
+     * time stays the time the stores were last downloaded, which is also the one saved with them.
+     */
+    private StoreSnapshot keepCurrent() throws IOException {
+        synchronized (publishLock) {
+            StoreSnapshot snapshot = current.get();
+            if (snapshot == null) {
+                throw new IOException("The store source answered not modified before any store file was loaded");
+            }
+            return install(snapshot.withCheckedAt(System.currentTimeMillis()), Collections.emptyMap());
+        }
+    }
+
+    private void save(List<Store> stores, long loadedAt) {
+        long start = System.nanoTime();
+        try {
+            storeSnapshotFile.write(stores, loadedAt);
+            storeMetrics.recordSince(StoreMetrics.Stage.SAVE, start);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Could not save the store snapshot locally: {}", e.toString());
+        }
+    }
+
+    /**
+     * Compares the stores, with the written stores laid over them, with the current snapshot and, if any was
+     * inserted, updated or deleted, applies them to it as a new snapshot and publishes the changes to the
+     * {@link StoreChangeFeed}. The written stores are applied to the table of the stores rather than merged with
+     * them one store at a time: a written store replaces the row with its id, or is added at the end.
+     * Must be called holding the publish lock.
+     *
+     * @param stores the stores downloaded or restored; a {@link StoreTable} is used as it is
+     * @return the snapshot now current
+     */
+    private StoreSnapshot publish(List<Store> stores, Collection<Store> writes, long loadedAt) {
+        StoreSnapshot previous = current.get();
+        StoreTable table = stores instanceof StoreTable ? (StoreTable) stores : StoreTable.of(stores);
+        StoreSnapshot snapshot;
+        if (previous == null) {
+            if (!writes.isEmpty()) {
+                table = table.withChanges(StoreDiff.upserting(table, writes), table.getDuplicateIds()).table;
+            }
+            snapshot = index(table, loadedAt);
+            storeChangeFeed.reset(snapshot.getVersion());
+        } else {
+            long start = System.nanoTime();
+            StoreDiff diff = StoreDiff.between(previous.getTable(), table, writes);
+            storeMetrics.recordSince(StoreMetrics.Stage.DIFF, start);
+            snapshot = apply(previous, diff, table.getDuplicateIds(), loadedAt);
+        }
+        return install(snapshot, Collections.emptyMap());
+    }
+
+    /**
+     * Makes the snapshot current, with the pending writes of the current one laid over it but for the ones it was
+     * built with. The write log may lay writes over the current snapshot meanwhile, without the publish lock, so it
+     * is swapped with a compare-and-set. Must be called holding the publish lock.
+     *
+     * @param applied the pending writes applied to the snapshot; a later write of the same id stays pending
+     * @return the snapshot now current
+     */
+    private StoreSnapshot install(StoreSnapshot snapshot, Map<String, Store> applied) {
+        while (true) {
+            StoreSnapshot previous = current.get();
+            Map<String, Store> pendingWrites = new LinkedHashMap<>();
+            if (previous != null) {
+                for (Map.Entry<String, Store> write : previous.getPendingWrites().entrySet()) {
+                    if (applied.get(write.getKey()) != write.getValue()) {
+                        pendingWrites.put(write.getKey(), write.getValue());
+                    }
+                }
+            }
+            StoreSnapshot installed = pendingWrites.isEmpty() && snapshot.getPendingWrites().isEmpty() ? snapshot
+                    : snapshot.withPendingWrites(pendingWrites);
+            if (current.compareAndSet(previous, installed)) {
+                return installed;
+            }
+        }
+    }
+
+    /**
+     * Applies the changes to the snapshot and publishes them to the {@link StoreChangeFeed}, or keeps the snapshot
+     * with the new load time if there are none.
+     *
+     * @return the snapshot with the changes
+     */
+    private StoreSnapshot apply(StoreSnapshot previous, StoreDiff diff, Set<String> duplicateIds, long loadedAt) {
+        if (diff.isEmpty()) {
+            return previous.withLoadedAt(loadedAt);
+        }
+        long start = System.nanoTime();
+        StoreSnapshot snapshot = previous.withChanges(diff, duplicateIds, versions.incrementAndGet(), loadedAt);
+        storeMetrics.recordSince(StoreMetrics.Stage.INDEX, start);
+        storeChangeFeed.publish(new StoreChanges(previous.getVersion(), snapshot.getVersion(), diff));
+        storeMetrics.changesPublished(diff.size());
+        return snapshot;
+    }
+
+    private StoreSnapshot index(StoreTable stores, long loadedAt) {
+        long start = System.nanoTime();
+        StoreSnapshot snapshot = new StoreSnapshot(stores, versions.incrementAndGet(), loadedAt);
+        storeMetrics.recordSince(StoreMetrics.Stage.INDEX, start);
+        return snapshot;
+    }
+
+    private void publishWritesQuietly() {
+        try {
+            publishWrites();
+        } catch (RuntimeException e) {
+            LOGGER.error("Could not publish the stores written, they stay pending until the next write", e);
+        }
+    }
+
+    private void refreshQuietly() {
+        try {
+            sharedRefresh().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            StoreSnapshot snapshot = current.get();
+            LOGGER.warn("Store refresh failed, still serving version {}: {}",
+                    snapshot == null ? "none" : snapshot.getVersion(), e.getCause().toString());
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, count.getAndIncrement() == 0 ? name : name + "-" + count.get());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,29 @@
+package uk.co.pearson;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Where the store file comes from: a web server ({@link HttpStoreSource}), a local file ({@link FileStoreSource}) or
+ * the classpath ({@link ClasspathStoreSource}), chosen by {@code stores.source-url}.
+ * <p>
+ * Sources remember what they last handed out once the download is {@link StoreDownload#commit() committed}, and
+ * answer null instead of the same file again, so an unchanged file is neither downloaded nor parsed.
+ */
+public interface StoreSource extends Closeable {
+
+    /**
+     * @return the store file, header included, or null when it has not changed since the last committed download;
+     * the caller closes it
+     */
+    StoreDownload open() throws IOException;
+
+    /**
+     * @return the number of bytes read from the source since it was created, as transferred, i.e. compressed
+     */
+    long getBytesRead();
+
+    @Override
+    default void close() throws IOException {
+    }
+}
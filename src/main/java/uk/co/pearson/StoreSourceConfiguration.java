@@ -0,0 +1,58 @@
+package uk.co.pearson;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.net.URI;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+@Configuration
+public class StoreSourceConfiguration {
+
+    static final int DEFAULT_CIRCUIT_FAILURES = 3;
+    static final long DEFAULT_CIRCUIT_OPEN_MILLIS = 30000;
+
+    /**
+     * The source of the store file for {@code stores.source-url}: http and https URLs are downloaded with
+     * {@link HttpStoreSource}, {@code classpath:} URLs read with {@link ClasspathStoreSource}, and {@code file:} URLs
+     * or plain paths read with {@link FileStoreSource}.
+     */
+    @Bean
+    public StoreSource storeSource(
+            @Value("${stores.source-url:" + RemoteFileReader.DEFAULT_URL + "}") String url,
+            @Value("${stores.source.connect-timeout-millis:5000}") int connectTimeoutMillis,
+            @Value("${stores.source.read-timeout-millis:30000}") int readTimeoutMillis,
+            @Value("${stores.source.max-attempts:3}") int maxAttempts,
+            @Value("${stores.source.retry-backoff-millis:1000}") long retryBackoffMillis) {
+        return createStoreSource(url, connectTimeoutMillis, readTimeoutMillis, maxAttempts, retryBackoffMillis);
+    }
+
+    /**
+     * The circuit breaker the store source is called through by {@link StoreSnapshotHolder}: after
+     * {@code stores.source.circuit.failures} failed refreshes in a row, the source is not called for
+     * {@code stores.source.circuit.open-millis}.
+     */
+    @Bean
+    public CircuitBreaker storeSourceCircuitBreaker(
+            @Value("${stores.source.circuit.failures:" + DEFAULT_CIRCUIT_FAILURES + "}") int failures,
+            @Value("${stores.source.circuit.open-millis:" + DEFAULT_CIRCUIT_OPEN_MILLIS + "}") long openMillis) {
+        return new CircuitBreaker("The store source", failures, openMillis);
+    }
+
+    static StoreSource createStoreSource(String url, int connectTimeoutMillis, int readTimeoutMillis, int maxAttempts,
+                                         long retryBackoffMillis) {
+        String lowerCaseUrl = url.toLowerCase(Locale.ROOT);
+        if (lowerCaseUrl.startsWith("http:") || lowerCaseUrl.startsWith("https:")) {
+            return new HttpStoreSource(url, connectTimeoutMillis, readTimeoutMillis, maxAttempts, retryBackoffMillis);
+        }
+        if (lowerCaseUrl.startsWith("classpath:")) {
+            return new ClasspathStoreSource(url.substring("classpath:".length()));
+        }
+        if (lowerCaseUrl.startsWith("file:")) {
+            return new FileStoreSource(Paths.get(URI.create(url)));
+        }
+        return new FileStoreSource(Paths.get(url));
+    }
+}
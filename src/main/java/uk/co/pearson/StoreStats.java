@@ -0,0 +1,204 @@
+package uk.co.pearson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Counts of the stores of a snapshot, in total and grouped by each {@link StatsGroup}, worked out once when the
+ * snapshot is built so that {@code /stores/stats} only has to copy them out.
+ * <p>
+ * Days since opening change every day while the stores do not, so instead of an average of days the sum of the open
+ * dates, as epoch days, is kept with the number of stores that have one; the average number of days open is then
+ * today minus their mean, and is right whatever the day the stats are asked for.
+ */
+public class StoreStats {
+
+    private final Counter total;
+    private final Map<StatsGroup, Groups> groups = new EnumMap<>(StatsGroup.class);
+
+    public StoreStats(StoreTable table) {
+        int rows = table.size();
+        Counter all = new Counter(1);
+        Counter byCity = new Counter(table.getCities().length);
+        String[] prefixes = table.getPostCodePrefixes();
+        List<String> areas = new ArrayList<>();
+        int[] areaOfPrefix = encodeAreas(prefixes, areas);
+        Counter byArea = new Counter(areas.size());
+
+        int firstDay = Integer.MAX_VALUE;
+        int lastDay = Integer.MIN_VALUE;
+        for (int row = 0; row < rows; row++) {
+            int openEpochDay = table.getOpenEpochDay(row);
+            all.add(0, openEpochDay);
+            byCity.add(table.getCityCode(row), openEpochDay);
+            byArea.add(areaOfPrefix[table.getPostCodePrefixCode(row)], openEpochDay);
+            if (openEpochDay != OpenDates.UNKNOWN) {
+                firstDay = Math.min(firstDay, openEpochDay);
+                lastDay = Math.max(lastDay, openEpochDay);
+            }
+        }
+
+        boolean dated = all.dated[0] > 0;
+        int firstMonth = dated ? OpenDates.toMonthIndex(firstDay) : 0;
+        int lastMonth = dated ? OpenDates.toMonthIndex(lastDay) : 0;
+        Counter byMonth = new Counter(dated ? lastMonth - firstMonth + 2 : 1);
+        Counter byYear = new Counter(dated ? lastMonth / 12 - firstMonth / 12 + 2 : 1);
+        for (int row = 0; row < rows; row++) {
+            int openEpochDay = table.getOpenEpochDay(row);
+            if (openEpochDay == OpenDates.UNKNOWN) {
+                byMonth.add(0, openEpochDay);
+                byYear.add(0, openEpochDay);
+            } else {
+                int month = OpenDates.toMonthIndex(openEpochDay);
+                byMonth.add(month - firstMonth + 1, openEpochDay);
+                byYear.add(month / 12 - firstMonth / 12 + 1, openEpochDay);
+            }
+        }
+
+        total = all;
+        groups.put(StatsGroup.CITY, new Groups(table.getCities(), byCity));
+        groups.put(StatsGroup.POSTCODE_AREA, new Groups(areas.toArray(new String[0]), byArea));
+        groups.put(StatsGroup.OPEN_MONTH, new Groups(dateKeys(byMonth.size(), firstMonth, true), byMonth));
+        groups.put(StatsGroup.OPEN_YEAR, new Groups(dateKeys(byYear.size(), firstMonth / 12, false), byYear));
+    }
+
+    /**
+     * @param version the version of the snapshot the stats belong to
+     * @param group what to group the stores by, or null for the totals only
+     * @param today today as an epoch day, to turn open dates into days open
+     */
+    public StoreStatsReport report(long version, StatsGroup group, int today) {
+        List<StoreStatsReport.Group> reported = null;
+        if (group != null) {
+            Groups grouped = groups.get(group);
+            reported = new ArrayList<>(grouped.size());
+            for (int i = 0; i < grouped.size(); i++) {
+                reported.add(new StoreStatsReport.Group(grouped.keys[i], grouped.stores[i],
+                        grouped.averageDaysOpen(i, today)));
+            }
+        }
+        return new StoreStatsReport(version, total.stores[0], total.averageDaysOpen(0, today),
+                group == null ? null : group.getName(), reported);
+    }
+
+    /**
+     * Gives every postcode prefix the code of its area, the letters it starts with, e.g. WC for WC33.
+     */
+    private static int[] encodeAreas(String[] prefixes, List<String> areas) {
+        Map<String, Integer> codes = new HashMap<>();
+        int[] areaOfPrefix = new int[prefixes.length];
+        for (int i = 0; i < prefixes.length; i++) {
+            String area = area(prefixes[i]);
+            Integer code = codes.get(area);
+            if (code == null) {
+                code = areas.size();
+                codes.put(area, code);
+                areas.add(area);
+            }
+            areaOfPrefix[i] = code;
+        }
+        return areaOfPrefix;
+    }
+
+    private static String area(String postCode) {
+        if (postCode == null) {
+            return null;
+        }
+        int end = 0;
+        while (end < postCode.length() && Character.isLetter(postCode.charAt(end))) {
+            end++;
+        }
+        return end == 0 ? null : postCode.substring(0, end).toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * @return the keys of the date counters: null for the unknown dates at 0, then yyyy-MM or yyyy from the first
+     */
+    private static String[] dateKeys(int size, int first, boolean months) {
+        String[] keys = new String[size];
+        for (int i = 1; i < size; i++) {
+            int index = first + i - 1;
+            keys[i] = months ? String.format("%04d-%02d", index / 12, index % 12 + 1)
+                    : String.format("%04d", index);
+        }
+        return keys;
+    }
+
+    private static class Counter {
+        final int[] stores;
+        final int[] dated;
+        final long[] epochDaySums;
+
+        Counter(int size) {
+            stores = new int[size];
+            dated = new int[size];
+            epochDaySums = new long[size];
+        }
+
+        void add(int code, int openEpochDay) {
+            stores[code]++;
+            if (openEpochDay != OpenDates.UNKNOWN) {
+                dated[code]++;
+                epochDaySums[code] += openEpochDay;
+            }
+        }
+
+        int size() {
+            return stores.length;
+        }
+
+        /**
+         * @return the average days open of the stores counted under the code that have an open date, to one
+         * decimal, or null when none has one
+         */
+        Double averageDaysOpen(int code, int today) {
+            if (dated[code] == 0) {
+                return null;
+            }
+            double averageDaysOpen = today - (double) epochDaySums[code] / dated[code];
+            return Math.round(averageDaysOpen * 10) / 10.0;
+        }
+    }
+
+    /**
+     * The counters of the keys with at least one store, ordered by key with null first.
+     */
+    private static class Groups extends Counter {
+        final String[] keys;
+
+        Groups(String[] keys, Counter counter) {
+            super(countKeys(counter));
+            Integer[] order = new Integer[keys.length];
+            int size = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (counter.stores[i] > 0) {
+                    order[size++] = i;
+                }
+            }
+            Arrays.sort(order, 0, size, Comparator.comparing(i -> keys[i], Comparator.nullsFirst(Comparator.naturalOrder())));
+            this.keys = new String[size];
+            for (int i = 0; i < size; i++) {
+                this.keys[i] = keys[order[i]];
+                stores[i] = counter.stores[order[i]];
+                dated[i] = counter.dated[order[i]];
+                epochDaySums[i] = counter.epochDaySums[order[i]];
+            }
+        }
+
+        private static int countKeys(Counter counter) {
+            int count = 0;
+            for (int stores : counter.stores) {
+                if (stores > 0) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package uk.co.pearson;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * The answer of {@code /stores/stats}: how many stores there are and for how many days on average they have been open,
+ * in total and, when asked for, by group.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class StoreStatsReport {
+
+    private final long version;
+    private final int stores;
+    private final Double averageDaysOpen;
+    private final String groupBy;
+    private final List<Group> groups;
+
+    public StoreStatsReport(long version, int stores, Double averageDaysOpen, String groupBy, List<Group> groups) {
+        this.version = version;
+        this.stores = stores;
+        this.averageDaysOpen = averageDaysOpen;
+        this.groupBy = groupBy;
+        this.groups = groups;
+    }
+
+    /**
+     * @return the version of the snapshot the stats were counted in
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public int getStores() {
+        return stores;
+    }
+
+    /**
+     * @return the average days open of the stores with a valid open date, or null when none has one
+     */
+    public Double getAverageDaysOpen() {
+        return averageDaysOpen;
+    }
+
+    /**
+     * @return the name of the {@link StatsGroup} the stores were grouped by, or null when they were not
+     */
+    public String getGroupBy() {
+        return groupBy;
+    }
+
+    /**
+     * @return the groups with at least one store, ordered by key, or null when the stores were not grouped
+     */
+    public List<Group> getGroups() {
+        return groups;
+    }
+
+    @JsonInclude(JsonInclude.Include.ALWAYS)
+    public static class Group {
+
+        private final String key;
+        private final int stores;
+        private final Double averageDaysOpen;
+
+        public Group(String key, int stores, Double averageDaysOpen) {
+            this.key = key;
+            this.stores = stores;
+            this.averageDaysOpen = averageDaysOpen;
+        }
+
+        /**
+         * @return the city, postcode area, year (yyyy) or month (yyyy-MM) of the group; null for the stores without
+         * one
+         */
+        public String getKey() {
+            return key;
+        }
+
+        public int getStores() {
+            return stores;
+        }
+
+        public Double getAverageDaysOpen() {
+            return averageDaysOpen;
+        }
+    }
+}
@@ -0,0 +1,758 @@
+package uk.co.pearson;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * The stores of a snapshot kept column by column instead of as one object per store, which takes a fraction of the
+ * heap for large files:
+ * <ul>
+ * <li>ids that are plain numbers are kept in an {@code int[]}, the few others in a map by row</li>
+ * <li>open dates are kept as epoch days in an {@code int[]}; only dates not written as dd/MM/yyyy keep their text</li>
+ * <li>cities and the postcode outward codes are dictionary encoded; the last three characters of a postcode are
+ * packed into an int</li>
+ * <li>addresses are packed as UTF-8 into one shared byte array</li>
+ * </ul>
+ * {@link #get(int)} creates the {@link Store} for a row when it is needed, typically while it is being serialized,
+ * with the days since open worked out from today's date, so they never go stale.
+ * Every id is in the table once; {@link Builder#add(Store)} refuses a second store with the same id and records it in
+ * {@link #getDuplicateIds()}. The {@link StoreDiff#hash(Store) hash} of every row is kept to compare the next stores
+ * with.
+ */
+public class StoreTable extends AbstractList<Store> implements RandomAccess {
+
+    private static final int NOT_NUMERIC = -1;
+    private static final int NO_SUFFIX = -1;
+    private static final int POSTCODE_SUFFIX_LENGTH = 3;
+    private static final int MAX_NUMERIC_ID_DIGITS = 9;
+    private static final int OPEN_DATE_LENGTH = 10;
+
+    private final int size;
+    private final int[] numericIds;
+    private final Map<Integer, String> otherIds;
+    private final int[] idSlots;
+    private final int[] cityCodes;
+    private final String[] cities;
+    private final int[] postCodePrefixCodes;
+    private final String[] postCodePrefixes;
+    private final int[] postCodeSuffixes;
+    private final byte[] addressBytes;
+    private final int[] addressOffsets;
+    private final BitSet nullAddresses;
+    private final int[] openEpochDays;
+    private final Map<Integer, String> otherOpenDates;
+    private final long[] rowHashes;
+    private final Set<String> duplicateIds;
+
+    private StoreTable(Builder builder) {
+        size = builder.size;
+        numericIds = Arrays.copyOf(builder.numericIds, size);
+        otherIds = builder.otherIds;
+        idSlots = builder.idSlots;
+        cityCodes = Arrays.copyOf(builder.cityCodes, size);
+        cities = builder.cities.toArray();
+        postCodePrefixCodes = Arrays.copyOf(builder.postCodePrefixCodes, size);
+        postCodePrefixes = builder.postCodePrefixes.toArray();
+        postCodeSuffixes = Arrays.copyOf(builder.postCodeSuffixes, size);
+        addressBytes = Arrays.copyOf(builder.addressBytes, builder.addressOffsets[size]);
+        addressOffsets = Arrays.copyOf(builder.addressOffsets, size + 1);
+        nullAddresses = builder.nullAddresses;
+        openEpochDays = Arrays.copyOf(builder.openEpochDays, size);
+        otherOpenDates = builder.otherOpenDates;
+        rowHashes = Arrays.copyOf(builder.rowHashes, size);
+        duplicateIds = Collections.unmodifiableSet(builder.duplicateIds);
+    }
+
+    /**
+     * @return a table of the stores, skipping every store whose id is already in it
+     */
+    public static StoreTable of(List<Store> stores) {
+        Builder builder = new Builder(stores.size());
+        for (Store store : stores) {
+            builder.add(store);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Applies the changes to a copy of the table. The rows that stay as they are have their columns copied across
+     * without becoming {@link Store}s; updated rows keep their place, deleted ones are left out and inserted ones are
+     * added at the end. The table is the same as one built from its stores in that order.
+     *
+     * @param duplicateIds the ids repeated in the stores the changes were worked out from
+     */
+    Changes withChanges(StoreDiff diff, Set<String> duplicateIds) {
+        BitSet deleted = new BitSet(size);
+        for (String id : diff.getDeleted()) {
+            int row = findRow(id);
+            if (row >= 0) {
+                deleted.set(row);
+            }
+        }
+        Map<Integer, Store> updated = new HashMap<>();
+        for (Store store : diff.getUpdated()) {
+            int row = findRow(store.getId());
+            if (row >= 0) {
+                updated.put(row, store);
+            }
+        }
+
+        Builder builder = new Builder(size - deleted.cardinality() + diff.getInserted().size());
+        int[] cityCodes = codes(cities.length);
+        int[] postCodePrefixCodes = codes(postCodePrefixes.length);
+        int[] rows = new int[size];
+        BitSet changedRows = new BitSet();
+        for (int row = 0; row < size; row++) {
+            Store store = updated.get(row);
+            rows[row] = deleted.get(row) ? -1 : builder.size;
+            if (store != null) {
+                changedRows.set(builder.size);
+                builder.add(store);
+            } else if (!deleted.get(row)) {
+                builder.add(this, row, cityCodes, postCodePrefixCodes);
+            }
+        }
+        for (Store store : diff.getInserted()) {
+            int row = builder.size;
+            if (builder.add(store)) {
+                changedRows.set(row);
+            }
+        }
+        builder.duplicateIds.clear();
+        builder.duplicateIds.addAll(duplicateIds);
+        return new Changes(builder.build(), rows, changedRows);
+    }
+
+    /**
+     * Creates the store of the row.
+     */
+    @Override
+    public Store get(int row) {
+        checkRow(row);
+        int openEpochDay = openEpochDays[row];
+        return new Store(getId(row), getPostCode(row), getCity(row), getAddress(row), getOpenDate(row),
+                OpenDates.daysSince(openEpochDay, OpenDates.today()), openEpochDay);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the row of the store with the given id, or -1 if there is none
+     */
+    public int findRow(String id) {
+        return findRow(id, parseNumericId(id));
+    }
+
+    /**
+     * @return the row of the store with the id of a row of another table, or -1 if there is none; plain number ids
+     * are compared without turning them into text
+     */
+    int findRow(StoreTable other, int otherRow) {
+        int numericId = other.numericIds[otherRow];
+        return findRow(numericId == NOT_NUMERIC ? other.otherIds.get(otherRow) : null, numericId);
+    }
+
+    private int findRow(String id, int numericId) {
+        int mask = idSlots.length - 1;
+        for (int slot = mix(idHash(id, numericId)) & mask; idSlots[slot] != 0; slot = (slot + 1) & mask) {
+            int row = idSlots[slot] - 1;
+            if (hasId(numericIds, otherIds, row, id, numericId)) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    public String getId(int row) {
+        int numericId = numericIds[row];
+        return numericId == NOT_NUMERIC ? otherIds.get(row) : Integer.toString(numericId);
+    }
+
+    public String getCity(int row) {
+        return cities[cityCodes[row]];
+    }
+
+    public String getPostCode(int row) {
+        String prefix = postCodePrefixes[postCodePrefixCodes[row]];
+        int suffix = postCodeSuffixes[row];
+        if (suffix == NO_SUFFIX) {
+            return prefix;
+        }
+        char[] postCode = new char[prefix.length() + POSTCODE_SUFFIX_LENGTH];
+        prefix.getChars(0, prefix.length(), postCode, 0);
+        for (int i = 0; i < POSTCODE_SUFFIX_LENGTH; i++) {
+            postCode[postCode.length - 1 - i] = (char) ((suffix >>> (8 * i)) & 0xff);
+        }
+        return new String(postCode);
+    }
+
+    public String getAddress(int row) {
+        if (nullAddresses.get(row)) {
+            return null;
+        }
+        int start = addressOffsets[row];
+        return new String(addressBytes, start, addressOffsets[row + 1] - start, StandardCharsets.UTF_8);
+    }
+
+    public String getOpenDate(int row) {
+        if (!otherOpenDates.isEmpty() && otherOpenDates.containsKey(row)) {
+            return otherOpenDates.get(row);
+        }
+        return OpenDates.format(openEpochDays[row]);
+    }
+
+    /**
+     * @return the open date as days since 1970-01-01, or {@link OpenDates#UNKNOWN}
+     */
+    public int getOpenEpochDay(int row) {
+        return openEpochDays[row];
+    }
+
+    /**
+     * @return the {@link StoreDiff#hash(Store) hash} of the fields of the row
+     */
+    long getRowHash(int row) {
+        return rowHashes[row];
+    }
+
+    /**
+     * @return the ids that were added more than once, in the order they were first repeated
+     */
+    public Set<String> getDuplicateIds() {
+        return duplicateIds;
+    }
+
+    /**
+     * @return whether every id is a plain number, so that {@link #getNumericId(int)} gives the id of every row
+     */
+    boolean hasOnlyNumericIds() {
+        return otherIds.isEmpty();
+    }
+
+    /**
+     * @return the id of the row if it is a plain number, -1 otherwise
+     */
+    int getNumericId(int row) {
+        return numericIds[row];
+    }
+
+    /**
+     * @return the code of the city of the row, an index into {@link #getCities()}
+     */
+    int getCityCode(int row) {
+        return cityCodes[row];
+    }
+
+    /**
+     * @return every distinct city, by code; callers must not modify the array
+     */
+    String[] getCities() {
+        return cities;
+    }
+
+    /**
+     * @return the code of the postcode of the row without its last three characters, an index into
+     * {@link #getPostCodePrefixes()}
+     */
+    int getPostCodePrefixCode(int row) {
+        return postCodePrefixCodes[row];
+    }
+
+    /**
+     * @return every distinct postcode without its last three characters, by code; callers must not modify the array
+     */
+    String[] getPostCodePrefixes() {
+        return postCodePrefixes;
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+    }
+
+    private static boolean hasId(int[] numericIds, Map<Integer, String> otherIds, int row, String id, int numericId) {
+        int rowNumericId = numericIds[row];
+        if (rowNumericId != NOT_NUMERIC || numericId != NOT_NUMERIC) {
+            return rowNumericId == numericId;
+        }
+        return Objects.equals(otherIds.get(row), id);
+    }
+
+    /**
+     * @return the id as an int if it is written the way {@link Integer#toString(int)} would write it, so it can be
+     * turned back into the same text, or -1 otherwise
+     */
+    private static int parseNumericId(String id) {
+        if (id == null || id.isEmpty() || id.length() > MAX_NUMERIC_ID_DIGITS || (id.charAt(0) == '0' && id.length() > 1)) {
+            return NOT_NUMERIC;
+        }
+        int value = 0;
+        for (int i = 0; i < id.length(); i++) {
+            int digit = id.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return NOT_NUMERIC;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * @return the id written in ASCII between start and end as an int, like {@link #parseNumericId(String)}
+     */
+    private static int parseNumericId(ByteBuffer bytes, int start, int end) {
+        int length = end - start;
+        if (length == 0 || length > MAX_NUMERIC_ID_DIGITS || (bytes.get(start) == '0' && length > 1)) {
+            return NOT_NUMERIC;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = bytes.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return NOT_NUMERIC;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Packs the last three characters of the postcode, its inward code, into an int when they are ASCII.
+     */
+    private static int packSuffix(String postCode) {
+        if (postCode == null || postCode.length() <= POSTCODE_SUFFIX_LENGTH) {
+            return NO_SUFFIX;
+        }
+        int packed = 0;
+        for (int i = postCode.length() - POSTCODE_SUFFIX_LENGTH; i < postCode.length(); i++) {
+            char c = postCode.charAt(i);
+            if (c > 0x7f) {
+                return NO_SUFFIX;
+            }
+            packed = (packed << 8) | c;
+        }
+        return packed;
+    }
+
+    /**
+     * @return the {@link String#hashCode()} of the id, worked out without its text when it is a plain number
+     */
+    private static int idHash(String id, int numericId) {
+        if (numericId == NOT_NUMERIC) {
+            return Objects.hashCode(id);
+        }
+        int divisor = 1;
+        while (divisor <= numericId / 10) {
+            divisor *= 10;
+        }
+        int hash = 0;
+        for (; divisor > 0; divisor /= 10) {
+            hash = 31 * hash + '0' + numericId / divisor % 10;
+        }
+        return hash;
+    }
+
+    /**
+     * Packs the last three bytes of the postcode written in UTF-8 between start and end, like
+     * {@link #packSuffix(String)}: when they are ASCII they are its last three characters.
+     */
+    private static int packSuffix(ByteBuffer bytes, int start, int end) {
+        if (end - start <= POSTCODE_SUFFIX_LENGTH) {
+            return NO_SUFFIX;
+        }
+        int packed = 0;
+        for (int i = end - POSTCODE_SUFFIX_LENGTH; i < end; i++) {
+            byte b = bytes.get(i);
+            if (b < 0) {
+                return NO_SUFFIX;
+            }
+            packed = (packed << 8) | b;
+        }
+        return packed;
+    }
+
+    /**
+     * @return the text written in UTF-8 between start and end
+     */
+    static String decode(ByteBuffer bytes, int start, int end) {
+        return new String(copy(bytes, start, end), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] copy(ByteBuffer bytes, int start, int end) {
+        byte[] copy = new byte[end - start];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = bytes.get(start + i);
+        }
+        return copy;
+    }
+
+    /**
+     * @return the new codes of the values of a dictionary, none given yet
+     */
+    private static int[] codes(int values) {
+        int[] codes = new int[values];
+        Arrays.fill(codes, -1);
+        return codes;
+    }
+
+    private static int mix(int hash) {
+        return (hash ^ (hash >>> 16)) * 0x9e3779b9;
+    }
+
+    /**
+     * Adds stores one at a time, either as {@link Store}s or straight from the bytes of the store file; the arrays
+     * grow as needed and are trimmed by {@link #build()}.
+     */
+    public static class Builder {
+
+        private int size;
+        private int[] numericIds;
+        private final Map<Integer, String> otherIds = new HashMap<>();
+        private int[] idSlots;
+        private int[] cityCodes;
+        private final Dictionary cities = new Dictionary();
+        private int[] postCodePrefixCodes;
+        private final Dictionary postCodePrefixes = new Dictionary();
+        private int[] postCodeSuffixes;
+        private byte[] addressBytes;
+        private int[] addressOffsets;
+        private final BitSet nullAddresses = new BitSet();
+        private int[] openEpochDays;
+        private final Map<Integer, String> otherOpenDates = new HashMap<>();
+        private long[] rowHashes;
+        private final Set<String> duplicateIds = new LinkedHashSet<>();
+
+        public Builder(int expectedSize) {
+            int capacity = Math.max(16, expectedSize);
+            numericIds = new int[capacity];
+            idSlots = new int[slotsFor(capacity)];
+            cityCodes = new int[capacity];
+            postCodePrefixCodes = new int[capacity];
+            postCodeSuffixes = new int[capacity];
+            addressBytes = new byte[capacity * 16];
+            addressOffsets = new int[capacity + 1];
+            openEpochDays = new int[capacity];
+            rowHashes = new long[capacity];
+        }
+
+        /**
+         * Adds the store, unless a store with the same id has been added already.
+         *
+         * @return whether the store was added
+         */
+        public boolean add(Store store) {
+            String id = store.getId();
+            int row = addId(id, parseNumericId(id));
+            if (row < 0) {
+                return false;
+            }
+
+            cityCodes[row] = cities.encode(store.getCity());
+
+            String postCode = store.getPostCode();
+            int suffix = packSuffix(postCode);
+            postCodeSuffixes[row] = suffix;
+            postCodePrefixCodes[row] = postCodePrefixes.encode(suffix == NO_SUFFIX ? postCode
+                    : postCode.substring(0, postCode.length() - POSTCODE_SUFFIX_LENGTH));
+
+            String address = store.getAddress();
+            int start = addressOffsets[row];
+            if (address == null) {
+                nullAddresses.set(row);
+                addressOffsets[row + 1] = start;
+            } else {
+                byte[] bytes = address.getBytes(StandardCharsets.UTF_8);
+                ensureAddressCapacity(start + bytes.length);
+                System.arraycopy(bytes, 0, addressBytes, start, bytes.length);
+                addressOffsets[row + 1] = start + bytes.length;
+            }
+
+            int openEpochDay = store.getOpenEpochDay();
+            openEpochDays[row] = openEpochDay;
+            String openDate = store.getOpenDate();
+            if (!Objects.equals(openDate, OpenDates.format(openEpochDay))) {
+                otherOpenDates.put(row, openDate);
+            }
+            rowHashes[row] = StoreDiff.hash(store);
+            return true;
+        }
+
+        /**
+         * Adds a row of the store file straight from its bytes, like {@link #add(Store)} adds the store it would be
+         * parsed into. Text is only created for what the table keeps as text: ids that are not plain numbers, cities
+         * and postcodes not seen before, and open dates not written as dd/MM/yyyy.
+         *
+         * @param fields the start and end of the id, postcode, city, address and open date, in that order, without
+         * quotes; the bytes between them must be well-formed UTF-8
+         * @param openEpochDay the open date parsed with {@link OpenDates#parseEpochDay(ByteBuffer, int, int)}
+         * @return whether the row was added
+         */
+        boolean add(ByteBuffer bytes, int[] fields, int openEpochDay) {
+            int numericId = parseNumericId(bytes, fields[0], fields[1]);
+            int row = addId(numericId == NOT_NUMERIC ? decode(bytes, fields[0], fields[1]) : null, numericId);
+            if (row < 0) {
+                return false;
+            }
+
+            cityCodes[row] = cities.encode(bytes, fields[4], fields[5]);
+
+            int suffix = packSuffix(bytes, fields[2], fields[3]);
+            postCodeSuffixes[row] = suffix;
+            postCodePrefixCodes[row] = postCodePrefixes.encode(bytes, fields[2],
+                    suffix == NO_SUFFIX ? fields[3] : fields[3] - POSTCODE_SUFFIX_LENGTH);
+
+            int start = addressOffsets[row];
+            int end = start + fields[7] - fields[6];
+            ensureAddressCapacity(end);
+            for (int i = fields[6], offset = start; offset < end; i++, offset++) {
+                addressBytes[offset] = bytes.get(i);
+            }
+            addressOffsets[row + 1] = end;
+
+            openEpochDays[row] = openEpochDay;
+            if (openEpochDay == OpenDates.UNKNOWN || fields[9] - fields[8] != OPEN_DATE_LENGTH) {
+                otherOpenDates.put(row, decode(bytes, fields[8], fields[9]));
+            }
+            rowHashes[row] = StoreDiff.hash(bytes, fields);
+            return true;
+        }
+
+        /**
+         * Adds a row of another table, copying its columns across, like {@link #add(Store)} adds its store.
+         *
+         * @param cityCodes the code given in this table to every city code of the other one, -1 until it is used
+         * @param postCodePrefixCodes the same for the postcode prefixes
+         * @return whether the row was added
+         */
+        private boolean add(StoreTable source, int sourceRow, int[] cityCodes, int[] postCodePrefixCodes) {
+            int numericId = source.numericIds[sourceRow];
+            int row = addId(numericId == NOT_NUMERIC ? source.otherIds.get(sourceRow) : null, numericId);
+            if (row < 0) {
+                return false;
+            }
+
+            this.cityCodes[row] = recode(cities, source.cities, source.cityCodes[sourceRow], cityCodes);
+            this.postCodePrefixCodes[row] = recode(postCodePrefixes, source.postCodePrefixes,
+                    source.postCodePrefixCodes[sourceRow], postCodePrefixCodes);
+            postCodeSuffixes[row] = source.postCodeSuffixes[sourceRow];
+
+            int sourceStart = source.addressOffsets[sourceRow];
+            int length = source.addressOffsets[sourceRow + 1] - sourceStart;
+            int start = addressOffsets[row];
+            ensureAddressCapacity(start + length);
+            System.arraycopy(source.addressBytes, sourceStart, addressBytes, start, length);
+            addressOffsets[row + 1] = start + length;
+            if (source.nullAddresses.get(sourceRow)) {
+                nullAddresses.set(row);
+            }
+
+            openEpochDays[row] = source.openEpochDays[sourceRow];
+            if (!source.otherOpenDates.isEmpty() && source.otherOpenDates.containsKey(sourceRow)) {
+                otherOpenDates.put(row, source.otherOpenDates.get(sourceRow));
+            }
+            rowHashes[row] = source.rowHashes[sourceRow];
+            return true;
+        }
+
+        public StoreTable build() {
+            return new StoreTable(this);
+        }
+
+        /**
+         * Gives the id a row, unless a row has it already.
+         *
+         * @param id the id, or null when it is the plain number {@code numericId}
+         * @return the new row, or -1 if the id is a duplicate
+         */
+        private int addId(String id, int numericId) {
+            int hash = mix(idHash(id, numericId));
+            int mask = idSlots.length - 1;
+            int slot = hash & mask;
+            for (; idSlots[slot] != 0; slot = (slot + 1) & mask) {
+                if (hasId(numericIds, otherIds, idSlots[slot] - 1, id, numericId)) {
+                    duplicateIds.add(numericId == NOT_NUMERIC ? id : Integer.toString(numericId));
+                    return -1;
+                }
+            }
+            if (size == numericIds.length) {
+                grow();
+                slot = hash & (idSlots.length - 1);
+                while (idSlots[slot] != 0) {
+                    slot = (slot + 1) & (idSlots.length - 1);
+                }
+            }
+            int row = size++;
+            idSlots[slot] = row + 1;
+            numericIds[row] = numericId;
+            if (numericId == NOT_NUMERIC) {
+                otherIds.put(row, id);
+            }
+            return row;
+        }
+
+        private void ensureAddressCapacity(int length) {
+            if (length > addressBytes.length) {
+                addressBytes = Arrays.copyOf(addressBytes, Math.max(addressBytes.length * 2, length));
+            }
+        }
+
+        private void grow() {
+            int capacity = numericIds.length * 2;
+            numericIds = Arrays.copyOf(numericIds, capacity);
+            cityCodes = Arrays.copyOf(cityCodes, capacity);
+            postCodePrefixCodes = Arrays.copyOf(postCodePrefixCodes, capacity);
+            postCodeSuffixes = Arrays.copyOf(postCodeSuffixes, capacity);
+            addressOffsets = Arrays.copyOf(addressOffsets, capacity + 1);
+            openEpochDays = Arrays.copyOf(openEpochDays, capacity);
+            rowHashes = Arrays.copyOf(rowHashes, capacity);
+            idSlots = new int[slotsFor(capacity)];
+            int mask = idSlots.length - 1;
+            for (int row = 0; row < size; row++) {
+                int numericId = numericIds[row];
+                String id = numericId == NOT_NUMERIC ? otherIds.get(row) : null;
+                int slot = mix(idHash(id, numericId)) & mask;
+                while (idSlots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                idSlots[slot] = row + 1;
+            }
+        }
+
+        private static int recode(Dictionary dictionary, String[] values, int code, int[] codes) {
+            if (codes[code] < 0) {
+                codes[code] = dictionary.encode(values[code]);
+            }
+            return codes[code];
+        }
+
+        /**
+         * @return a power of two at least twice the number of rows, so probe sequences stay short
+         */
+        private static int slotsFor(int capacity) {
+            return Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1) << 1;
+        }
+    }
+
+    /**
+     * Gives every distinct value a code, in the order they are first seen; null is a value like any other.
+     * Values can also be looked up by their UTF-8 bytes, in a hash table of their own, so that a value seen before
+     * costs no text at all.
+     */
+    private static class Dictionary {
+
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+        private byte[][] slotBytes = new byte[16][];
+        private int[] slotCodes = new int[16];
+        private int slotsUsed;
+
+        int encode(String value) {
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = values.size();
+                codes.put(value, code);
+                values.add(value);
+            }
+            return code;
+        }
+
+        /**
+         * Encodes the value written in UTF-8 between start and end; its text is only created the first time.
+         */
+        int encode(ByteBuffer bytes, int start, int end) {
+            int mask = slotCodes.length - 1;
+            int slot = hash(bytes, start, end) & mask;
+            for (; slotBytes[slot] != null; slot = (slot + 1) & mask) {
+                if (equals(slotBytes[slot], bytes, start, end)) {
+                    return slotCodes[slot];
+                }
+            }
+            byte[] key = copy(bytes, start, end);
+            int code = encode(new String(key, StandardCharsets.UTF_8));
+            slotBytes[slot] = key;
+            slotCodes[slot] = code;
+            if (++slotsUsed * 2 > slotCodes.length) {
+                growSlots();
+            }
+            return code;
+        }
+
+        String[] toArray() {
+            return values.toArray(new String[0]);
+        }
+
+        private void growSlots() {
+            byte[][] oldBytes = slotBytes;
+            int[] oldCodes = slotCodes;
+            slotBytes = new byte[oldBytes.length * 2][];
+            slotCodes = new int[oldCodes.length * 2];
+            int mask = slotCodes.length - 1;
+            for (int i = 0; i < oldBytes.length; i++) {
+                byte[] key = oldBytes[i];
+                if (key != null) {
+                    int slot = hash(ByteBuffer.wrap(key), 0, key.length) & mask;
+                    while (slotBytes[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    slotBytes[slot] = key;
+                    slotCodes[slot] = oldCodes[i];
+                }
+            }
+        }
+
+        private static int hash(ByteBuffer bytes, int start, int end) {
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + bytes.get(i);
+            }
+            return mix(hash);
+        }
+
+        private static boolean equals(byte[] key, ByteBuffer bytes, int start, int end) {
+            if (key.length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != bytes.get(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A table with changes applied, and where the rows of the table it was made from went.
+     */
+    static class Changes {
+        final StoreTable table;
+        final int[] rows;
+        final BitSet changedRows;
+
+        /**
+         * @param rows the row in the new table of every row of the old one, -1 for the deleted ones
+         * @param changedRows the rows of the new table that were updated or inserted
+         */
+        Changes(StoreTable table, int[] rows, BitSet changedRows) {
+            this.table = table;
+            this.rows = rows;
+            this.changedRows = changedRows;
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package uk.co.pearson;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Stores created or updated through the API, kept in a local append-only file in the same format as the store file.
+ * <p>
+ * Writes are queued and a single thread commits them: it takes everything waiting in the queue, appends it to the
+ * file and calls fsync once for the whole batch (group commit), so concurrent clients share the cost of the fsync.
+ * A write is acknowledged only after its batch is on disk and has been handed to the commit listener. A create,
+ * {@link #appendIfAbsent(Store)}, is checked for an existing store on that same thread, so that of two creates with
+ * the same id only one can succeed, whichever batch they are in.
+ * <p>
+ * On start-up the file is replayed into {@link #getWrites()}, the latest version of every store written, which is
+ * laid over every store file downloaded. The commit thread updates it in place, so a batch costs the same however
+ * many stores have been written. Once the file holds many more records than stores it is compacted: the latest
+ * versions are written to a new file that atomically replaces the old one. That leaves one record per store written,
+ * which is as small as the file can get: the stores written are not in the store file, so they have to be laid over
+ * every download and cannot be dropped once saved with one.
+ */
+@Component
+public class StoreWriteLog {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StoreWriteLog.class);
+    private static final int MAX_BATCH = 1000;
+
+    @Value("${stores.write-log.file:data/store-writes.log}")
+    String file;
+
+    @Value("${stores.write-log.compact-after-records:10000}")
+    int compactAfterRecords;
+
+    @Autowired
+    StoreMetrics storeMetrics;
+
+    StoreConverter storeConverter = new StoreConverter();
+
+    private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+    private final Map<String, Store> writes = new ConcurrentHashMap<>();
+    private final Map<String, Store> writesView = Collections.unmodifiableMap(writes);
+    private volatile Consumer<List<Store>> commitListener = stores -> { };
+    private volatile Predicate<String> existingStores = id -> false;
+    private volatile boolean running;
+    private Path path;
+    private FileChannel channel;
+    private int records;
+    private Thread committer;
+
+    @PostConstruct
+    public void open() throws IOException {
+        path = Paths.get(file).toAbsolutePath();
+        Files.createDirectories(path.getParent());
+        if (Files.exists(path)) {
+            List<String> lines = readCompleteLines();
+            Quarantine quarantine = new Quarantine(Quarantine.DEFAULT_SAMPLES_PER_REASON);
+            for (Store store : storeConverter.convertAll(lines, 1, quarantine)) {
+                writes.put(store.getId(), store);
+            }
+            if (quarantine.getDropped() > 0) {
+                LOGGER.warn("Skipped {} records of {} that could not be read", quarantine.getDropped(), path);
+            }
+            records = lines.size();
+            LOGGER.info("Replayed {} records for {} stores from {}", records, writes.size(), path);
+        }
+        channel = openForAppend();
+        running = true;
+        committer = new Thread(this::commitLoop, "store-write-log");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * Reads the records of the file, first cutting off a last line without its newline: the tail of a write that
+     * never completed, which was not acknowledged and which the next append must not be joined onto.
+     */
+    private List<String> readCompleteLines() throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        int end = bytes.length;
+        while (end > 0 && bytes[end - 1] != '\n') {
+            end--;
+        }
+        if (end < bytes.length) {
+            try (FileChannel truncating = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                truncating.truncate(end);
+                truncating.force(false);
+            }
+            LOGGER.warn("Dropped {} bytes of an incomplete last record from {}", bytes.length - end, path);
+        }
+        List<String> lines = Arrays.asList(new String(bytes, 0, end, StandardCharsets.UTF_8).split("\r?\n", -1));
+        return lines.subList(0, lines.size() - 1);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        running = false;
+        if (committer != null) {
+            committer.interrupt();
+            try {
+                committer.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Queues the store to be written.
+     *
+     * @return completed with the store once it is on disk, or exceptionally if it could not be written
+     */
+    public CompletableFuture<Store> append(Store store) {
+        return enqueue(new PendingWrite(store, false));
+    }
+
+    /**
+     * Queues the store to be written unless a store with its id exists when its batch is committed: one found by the
+     * existing stores check, one already written, or one written earlier in the same batch.
+     *
+     * @return completed with the store once it is on disk, or exceptionally with a {@link StoreConflictException} if
+     * the store exists or with an {@link IOException} if it could not be written
+     */
+    public CompletableFuture<Store> appendIfAbsent(Store store) {
+        return enqueue(new PendingWrite(store, true));
+    }
+
+    private CompletableFuture<Store> enqueue(PendingWrite write) {
+        if (!running) {
+            write.future.completeExceptionally(new IOException("The store write log is closed"));
+            return write.future;
+        }
+        queue.add(write);
+        return write.future;
+    }
+
+    /**
+     * @return the latest version of every store written, by id, in no particular order. It is a live view, updated
+     * as batches are committed; iterating it sees every store committed before and maybe some committed meanwhile.
+     */
+    public Map<String, Store> getWrites() {
+        return writesView;
+    }
+
+    /**
+     * Sets the code called, on the commit thread, with every batch of stores once it is on disk and before the
+     * writers are told. It should publish the stores so that a client can read back what it has just written.
+     */
+    public void setCommitListener(Consumer<List<Store>> commitListener) {
+        this.commitListener = commitListener;
+    }
+
+    /**
+     * Sets the check, run on the commit thread, of whether a store with the given id exists apart from the stores
+     * written here; {@link #appendIfAbsent(Store)} fails for those ids.
+     */
+    public void setExistingStores(Predicate<String> existingStores) {
+        this.existingStores = existingStores;
+    }
+
+    private void commitLoop() {
+        List<PendingWrite> batch = new ArrayList<>();
+        while (running) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            try {
+                commit(batch);
+            } catch (RuntimeException e) {
+                LOGGER.error("Could not commit {} stores", batch.size(), e);
+                for (PendingWrite write : batch) {
+                    write.future.completeExceptionally(e);
+                }
+            }
+            batch.clear();
+        }
+        queue.drainTo(batch);
+        for (PendingWrite write : batch) {
+            write.future.completeExceptionally(new IOException("The store write log is closed"));
+        }
+    }
+
+    private void commit(List<PendingWrite> pending) {
+        List<PendingWrite> batch = withoutConflicts(pending);
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Store> stores = new ArrayList<>(batch.size());
+        StringBuilder lines = new StringBuilder(batch.size() * 96);
+        for (PendingWrite write : batch) {
+            stores.add(write.store);
+            lines.append(storeConverter.convertStoreToString(write.store)).append('\n');
+        }
+        long end = -1;
+        try {
+            end = channel.size();
+            ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            long start = System.nanoTime();
+            channel.force(false);
+            storeMetrics.recordSince(StoreMetrics.Stage.FSYNC, start);
+        } catch (IOException e) {
+            LOGGER.error("Could not write {} stores to {}", batch.size(), path, e);
+            if (end >= 0) {
+                discardFrom(end);
+            }
+            for (PendingWrite write : batch) {
+                write.future.completeExceptionally(e);
+            }
+            return;
+        }
+
+        for (Store store : stores) {
+            writes.put(store.getId(), store);
+        }
+        records += batch.size();
+        try {
+            commitListener.accept(stores);
+        } catch (RuntimeException e) {
+            LOGGER.error("Could not publish {} written stores", stores.size(), e);
+        }
+        for (PendingWrite write : batch) {
+            write.future.complete(write.store);
+        }
+        storeMetrics.writesCommitted(batch.size());
+
+        if (records >= compactAfterRecords && records > 2 * writes.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * Fails the creates of stores that already exist and returns the writes left to commit.
+     */
+    private List<PendingWrite> withoutConflicts(List<PendingWrite> batch) {
+        Set<String> batchIds = new HashSet<>();
+        List<PendingWrite> accepted = new ArrayList<>(batch.size());
+        for (PendingWrite write : batch) {
+            String id = write.store.getId();
+            if (write.ifAbsent && (batchIds.contains(id) || writes.containsKey(id) || existingStores.test(id))) {
+                write.future.completeExceptionally(
+                        new StoreConflictException("A store with id " + id + " already exists"));
+            } else {
+                batchIds.add(id);
+                accepted.add(write);
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Cuts off whatever part of a failed batch reached the file, so that stores whose writers were told they failed
+     * are not replayed on the next start.
+     */
+    private void discardFrom(long end) {
+        try {
+            channel.truncate(end);
+            channel.force(false);
+        } catch (IOException e) {
+            LOGGER.error("Could not discard a failed write from {}", path, e);
+        }
+    }
+
+    private void compact() {
+        Path compacted = path.resolveSibling(path.getFileName() + ".compacting");
+        try {
+            List<String> lines = new ArrayList<>(writes.size());
+            for (Store store : writes.values()) {
+                lines.add(storeConverter.convertStoreToString(store));
+            }
+            Files.write(compacted, lines, StandardCharsets.UTF_8);
+            try (FileChannel compactedChannel = FileChannel.open(compacted, StandardOpenOption.WRITE)) {
+                compactedChannel.force(true);
+            }
+            channel.close();
+            Files.move(compacted, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            LOGGER.info("Compacted {} records into {} in {}", records, lines.size(), path);
+            records = lines.size();
+        } catch (IOException e) {
+            LOGGER.warn("Could not compact {}, will try again later", path, e);
+        } finally {
+            if (!channel.isOpen()) {
+                try {
+                    channel = openForAppend();
+                } catch (IOException e) {
+                    LOGGER.error("Could not reopen {}, writes will fail", path, e);
+                }
+            }
+        }
+    }
+
+    private FileChannel openForAppend() throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static class PendingWrite {
+        private final Store store;
+        private final boolean ifAbsent;
+        private final CompletableFuture<Store> future = new CompletableFuture<>();
+
+        PendingWrite(Store store, boolean ifAbsent) {
+            this.store = store;
+            this.ifAbsent = ifAbsent;
+        }
+    }
+}
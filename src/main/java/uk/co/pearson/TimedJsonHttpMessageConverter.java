@@ -0,0 +1,31 @@
+package uk.co.pearson;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * The usual Jackson converter, timing every response body it writes as the serialize stage of {@link StoreMetrics}.
+ * Spring Boot uses it in place of its own Jackson converter because it is a bean of the same type.
+ */
+public class TimedJsonHttpMessageConverter extends MappingJackson2HttpMessageConverter {
+
+    private final StoreMetrics storeMetrics;
+
+    public TimedJsonHttpMessageConverter(ObjectMapper objectMapper, StoreMetrics storeMetrics) {
+        super(objectMapper);
+        this.storeMetrics = storeMetrics;
+    }
+
+    @Override
+    protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+            throws IOException, HttpMessageNotWritableException {
+        long start = System.nanoTime();
+        super.writeInternal(object, type, outputMessage);
+        storeMetrics.recordSince(StoreMetrics.Stage.SERIALIZE, start);
+    }
+}
@@ -0,0 +1,85 @@
+package uk.co.pearson;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerTest {
+
+    AtomicLong now = new AtomicLong();
+    CircuitBreaker circuitBreaker = new CircuitBreaker("The source", 2, 10000, now::get);
+
+    @Test
+    public void staysClosedUntilEnoughFailuresInARow()
+    {
+        circuitBreaker.acquire();
+        circuitBreaker.failed();
+        circuitBreaker.acquire();
+        circuitBreaker.succeeded();
+        circuitBreaker.acquire();
+        circuitBreaker.failed();
+
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(1, circuitBreaker.getFailures());
+    }
+
+    @Test
+    public void refusesCallsWhileOpen()
+    {
+        circuitBreaker.failed();
+        circuitBreaker.failed();
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+
+        try {
+            circuitBreaker.acquire();
+            fail("Should throw ServiceUnavailableException");
+        } catch (ServiceUnavailableException e) {
+            assertEquals(10, e.getRetryAfterSeconds());
+        }
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    public void letsOneCallTryAgainOnceOpenForLongEnough()
+    {
+        circuitBreaker.failed();
+        circuitBreaker.failed();
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+        circuitBreaker.acquire();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        try {
+            circuitBreaker.acquire();
+            fail("Should throw ServiceUnavailableException");
+        } catch (ServiceUnavailableException e) {
+            //Expected exception
+        }
+
+        circuitBreaker.succeeded();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        circuitBreaker.acquire();
+    }
+
+    @Test
+    public void opensAgainWhenTheTryFails()
+    {
+        circuitBreaker.failed();
+        circuitBreaker.failed();
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+        circuitBreaker.acquire();
+        circuitBreaker.failed();
+
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        try {
+            circuitBreaker.acquire();
+            fail("Should throw ServiceUnavailableException");
+        } catch (ServiceUnavailableException e) {
+            assertEquals(10, e.getRetryAfterSeconds());
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package uk.co.pearson;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConcurrencyLimiterTest {
+
+    ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void stopTimer()
+    {
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void queuesRequestsBeyondTheLimitUntilAPlaceIsFree() throws Exception
+    {
+        ConcurrencyLimiter limiter = limiter(1, 1, 10000);
+        ConcurrencyLimiter.Permit first = limiter.acquire().get();
+        CompletableFuture<ConcurrencyLimiter.Permit> second = limiter.acquire();
+
+        assertFalse(second.isDone());
+        assertTrue(limiter.isSaturated());
+        assertEquals(1, limiter.getQueued());
+
+        first.release(false);
+
+        assertTrue(second.isDone());
+        assertEquals(1, limiter.getInFlight());
+        assertEquals(0, limiter.getQueued());
+    }
+
+    @Test
+    public void refusesRequestsWhenTheQueueIsFull() throws Exception
+    {
+        ConcurrencyLimiter limiter = limiter(1, 1, 10000);
+        limiter.acquire().get();
+        limiter.acquire();
+
+        assertRefused(limiter.acquire());
+        assertEquals(1, limiter.getRejected());
+    }
+
+    @Test
+    public void refusesQueuedRequestsOnceTheirTimeIsUp() throws Exception
+    {
+        ConcurrencyLimiter limiter = limiter(1, 1, 10);
+        ConcurrencyLimiter.Permit first = limiter.acquire().get();
+        CompletableFuture<ConcurrencyLimiter.Permit> second = limiter.acquire();
+
+        assertRefused(second);
+        assertEquals(0, limiter.getQueued());
+        first.release(false);
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void lowersTheLimitWhenRequestsFail() throws Exception
+    {
+        ConcurrencyLimiter limiter = limiter(10, 0, 10000);
+        ConcurrencyLimiter.Permit permit = limiter.acquire().get();
+
+        permit.release(true);
+
+        assertEquals(9, limiter.getLimit());
+    }
+
+    @Test
+    public void raisesTheLimitWhileItIsUsed() throws Exception
+    {
+        ConcurrencyLimiter limiter = limiter(2, 0, 10000);
+        for (int i = 0; i < 20; i++) {
+            ConcurrencyLimiter.Permit first = limiter.acquire().get();
+            ConcurrencyLimiter.Permit second = limiter.acquire().get();
+            first.release(false);
+            second.release(false);
+        }
+
+        assertTrue(limiter.getLimit() > 2);
+    }
+
+    @Test
+    public void countsEveryPermitOnce() throws Exception
+    {
+        ConcurrencyLimiter limiter = limiter(2, 0, 10000);
+        ConcurrencyLimiter.Permit permit = limiter.acquire().get();
+
+        permit.release(false);
+        permit.release(false);
+
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    private ConcurrencyLimiter limiter(int limit, int queueCapacity, long queueTimeoutMillis)
+    {
+        return new ConcurrencyLimiter("test", limit, 1, 100, 2.0, queueCapacity, queueTimeoutMillis, 1, timer);
+    }
+
+    private static void assertRefused(CompletableFuture<?> future) throws InterruptedException
+    {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Should throw ServiceUnavailableException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ServiceUnavailableException);
+        } catch (TimeoutException e) {
+            fail("Was neither admitted nor refused");
+        }
+    }
+}
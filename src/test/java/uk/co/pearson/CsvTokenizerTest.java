@@ -0,0 +1,77 @@
+package uk.co.pearson;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class CsvTokenizerTest {
+
+    private static final int LINE_NUMBER = 7;
+
+    CsvTokenizer csvTokenizer = new CsvTokenizer();
+
+    @Test
+    public void splitsOnCommas()
+    {
+        assertEquals(Arrays.asList("1234", "WC33RE", "London"), csvTokenizer.tokenize("1234,WC33RE,London", LINE_NUMBER));
+    }
+
+    @Test
+    public void keepsEmptyFields()
+    {
+        assertEquals(Arrays.asList("1234", "", "London", ""), csvTokenizer.tokenize("1234,,London,", LINE_NUMBER));
+    }
+
+    @Test
+    public void returnsOneEmptyFieldForEmptyLine()
+    {
+        assertEquals(Collections.singletonList(""), csvTokenizer.tokenize("", LINE_NUMBER));
+    }
+
+    @Test
+    public void removesQuotesAndKeepsCommasInsideThem()
+    {
+        assertEquals(Arrays.asList("1234", "Unit 1, Test street", "London"),
+                csvTokenizer.tokenize("1234,\"Unit 1, Test street\",London", LINE_NUMBER));
+    }
+
+    @Test
+    public void unescapesDoubledQuotes()
+    {
+        assertEquals(Arrays.asList("The \"Old\" Mill", "London"),
+                csvTokenizer.tokenize("\"The \"\"Old\"\" Mill\",London", LINE_NUMBER));
+    }
+
+    @Test
+    public void acceptsQuotedLastField()
+    {
+        assertEquals(Arrays.asList("1234", "London"), csvTokenizer.tokenize("1234,\"London\"", LINE_NUMBER));
+    }
+
+    @Test
+    public void keepsQuoteInTheMiddleOfUnquotedField()
+    {
+        assertEquals(Arrays.asList("12\" Street", "London"), csvTokenizer.tokenize("12\" Street,London", LINE_NUMBER));
+    }
+
+    @Test
+    public void reportsLineNumberWhenQuoteIsNeverClosed()
+    {
+        try {
+            csvTokenizer.tokenize("1234,\"Test street,London", LINE_NUMBER);
+            fail("Should throw MalformedRowException");
+        } catch (MalformedRowException e) {
+            assertEquals(LINE_NUMBER, e.getLineNumber());
+        }
+    }
+
+    @Test(expected = MalformedRowException.class)
+    public void rejectsTextAfterClosingQuote()
+    {
+        csvTokenizer.tokenize("1234,\"Test\" street,London", LINE_NUMBER);
+    }
+}
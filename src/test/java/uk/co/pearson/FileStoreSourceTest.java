@@ -0,0 +1,54 @@
+package uk.co.pearson;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class FileStoreSourceTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void skipsTheFileWhileItIsUnchanged() throws IOException
+    {
+        File file = temporaryFolder.newFile("stores.csv");
+        Files.write(file.toPath(), "id\n1234\n".getBytes(StandardCharsets.UTF_8));
+        FileStoreSource storeSource = new FileStoreSource(file.toPath());
+
+        try (StoreDownload download = storeSource.open()) {
+            assertEquals('i', download.getStream().read());
+            download.commit();
+        }
+        assertNull(storeSource.open());
+
+        Files.write(file.toPath(), "id\n5678\n".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(file.lastModified() + 2000));
+        try (StoreDownload download = storeSource.open()) {
+            assertNotNull(download);
+        }
+        assertEquals(1, storeSource.getBytesRead());
+    }
+
+    @Test
+    public void readsFileFromUrlOrPath() throws IOException
+    {
+        File file = temporaryFolder.newFile("stores.csv");
+
+        StoreSource fromUrl = StoreSourceConfiguration.createStoreSource(file.toURI().toString(), 1, 1, 1, 1);
+        StoreSource fromPath = StoreSourceConfiguration.createStoreSource(file.getPath(), 1, 1, 1, 1);
+
+        assertEquals(file.getPath(), fromUrl.toString());
+        assertEquals(file.getPath(), fromPath.toString());
+    }
+}
@@ -0,0 +1,113 @@
+package uk.co.pearson;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class FilterIndexTest {
+
+    private final List<Store> stores = Arrays.asList(
+            new Store("10", "WC3 3RE", "London", "First street", "01/02/2010", null),
+            new Store("9", "EH1 1AA", "Edinburgh", "Second street", "01/02/2012", null),
+            new Store("x1", "WC1A 1AA", "london", "Third street", "03/02/2011", null),
+            new Store("2", "WC33RD", "Leeds", "Fourth street", "not a date", null),
+            new Store("7", null, null, "Fifth street", "05/06/2015", null));
+
+    private final StoreTable table = StoreTable.of(stores);
+    private final SortIndex sortIndex = new SortIndex(table);
+    private final FilterIndex filterIndex = new FilterIndex(table, sortIndex);
+
+    @Test
+    public void findsCityIgnoringCaseInFileOrder()
+    {
+        StoreFilter filter = new StoreFilter();
+        filter.setCity("LONDON");
+
+        assertEquals(ids("10", "x1"), idsOf(filter, SortSpec.UNSORTED));
+    }
+
+    @Test
+    public void findsCitiesByPrefix()
+    {
+        StoreFilter filter = new StoreFilter();
+        filter.setCityPrefix("l");
+
+        assertEquals(ids("10", "x1", "2"), idsOf(filter, SortSpec.UNSORTED));
+    }
+
+    @Test
+    public void findsPostCodesByOutwardCodePrefix()
+    {
+        StoreFilter filter = new StoreFilter();
+        filter.setPostCodePrefix("wc3");
+
+        assertEquals(ids("10", "2"), idsOf(filter, SortSpec.UNSORTED));
+    }
+
+    @Test
+    public void findsOpenDatesStrictlyBetweenBoundsAndSkipsUnknownDates()
+    {
+        StoreFilter filter = new StoreFilter();
+        filter.setOpenedAfter("01/02/2010");
+        filter.setOpenedBefore("05/06/2015");
+
+        assertEquals(ids("9", "x1"), idsOf(filter, SortSpec.parse("opendate")));
+    }
+
+    @Test
+    public void turnsDaysOpenIntoOpenDates()
+    {
+        StoreFilter filter = new StoreFilter();
+        filter.setMinDaysOpen(0);
+        filter.setMaxDaysOpen(OpenDates.today() - OpenDates.parseEpochDay("03/02/2011"));
+
+        assertEquals(ids("7", "9", "x1"), idsOf(filter, SortSpec.parse("dayssinceopen")));
+    }
+
+    @Test
+    public void intersectsFiltersAndSortsTheResult()
+    {
+        StoreFilter filter = new StoreFilter();
+        filter.setCityPrefix("L");
+        filter.setPostCodePrefix("WC");
+        filter.setOpenedAfter("01/01/2000");
+
+        assertEquals(ids("x1", "10"), idsOf(filter, SortSpec.parse("-id")));
+    }
+
+    @Test
+    public void findsNothingWhenAFilterMatchesNothing()
+    {
+        StoreFilter filter = new StoreFilter();
+        filter.setCity("London");
+        filter.setPostCodePrefix("ZZ");
+
+        assertEquals(ids(), idsOf(filter, SortSpec.UNSORTED));
+    }
+
+    @Test(expected = InvalidRequestException.class)
+    public void rejectsDatesInAnotherFormat()
+    {
+        StoreFilter filter = new StoreFilter();
+        filter.setOpenedBefore("2015-06-05");
+        filter.validate();
+    }
+
+    private List<String> idsOf(StoreFilter filter, SortSpec sortSpec)
+    {
+        List<String> ids = new ArrayList<>();
+        for (int row : filterIndex.select(filter, sortSpec)) {
+            ids.add(stores.get(row).getId());
+        }
+        return ids;
+    }
+
+    private List<String> ids(String... ids)
+    {
+        return Arrays.asList(ids);
+    }
+}
@@ -0,0 +1,162 @@
+package uk.co.pearson;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpStoreSourceTest {
+
+    private static final String FILE = "id,postCode,city,address,openDate\n1234,WC33RE,London,Test street,11/11/2011\n";
+    private static final String ENTITY_TAG = "\"v1\"";
+
+    private final List<String> ifNoneMatch = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+    private volatile int failureStatus = 503;
+    private HttpServer server;
+    private HttpStoreSource storeSource;
+
+    @Before
+    public void startServer() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/stores.csv", this::serve);
+        server.start();
+        storeSource = new HttpStoreSource("http://127.0.0.1:" + server.getAddress().getPort() + "/stores.csv",
+                1000, 1000, 3, 1);
+    }
+
+    @After
+    public void stopServer() throws IOException
+    {
+        storeSource.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void downloadsAndUncompressesTheFile() throws IOException
+    {
+        try (StoreDownload download = storeSource.open()) {
+            assertEquals(FILE, read(download.getStream()));
+        }
+        assertTrue(storeSource.getBytesRead() > 0);
+        assertTrue(storeSource.getBytesRead() < FILE.length() + 40);
+    }
+
+    @Test
+    public void asksForChangesOnlyOnceADownloadIsCommitted() throws IOException
+    {
+        try (StoreDownload download = storeSource.open()) {
+            read(download.getStream());
+        }
+        try (StoreDownload download = storeSource.open()) {
+            read(download.getStream());
+            download.commit();
+        }
+
+        assertNull(storeSource.open());
+        assertEquals(Collections.singletonList(ENTITY_TAG), ifNoneMatch);
+    }
+
+    @Test
+    public void triesAgainWhenTheServerFails() throws IOException
+    {
+        failuresLeft.set(2);
+
+        try (StoreDownload download = storeSource.open()) {
+            assertEquals(FILE, read(download.getStream()));
+        }
+        assertEquals(0, failuresLeft.get());
+    }
+
+    @Test
+    public void givesUpAfterTheLastAttempt()
+    {
+        failuresLeft.set(3);
+
+        try {
+            storeSource.open();
+            fail("Should throw IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("503"));
+        }
+    }
+
+    @Test
+    public void doesNotTryAgainWhenTheFileIsMissing()
+    {
+        failureStatus = 404;
+        failuresLeft.set(1);
+
+        try {
+            storeSource.open();
+            fail("Should throw IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("404"));
+        }
+        assertEquals(0, failuresLeft.get());
+    }
+
+    private void serve(HttpExchange exchange) throws IOException
+    {
+        try {
+            if (failuresLeft.getAndUpdate(left -> Math.max(0, left - 1)) > 0) {
+                exchange.sendResponseHeaders(failureStatus, -1);
+                return;
+            }
+            String entityTag = exchange.getRequestHeaders().getFirst("If-None-Match");
+            if (entityTag != null) {
+                ifNoneMatch.add(entityTag);
+            }
+            if (ENTITY_TAG.equals(entityTag)) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            byte[] body = FILE.getBytes(StandardCharsets.UTF_8);
+            if ("gzip".equals(exchange.getRequestHeaders().getFirst("Accept-Encoding"))) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                    gzip.write(body);
+                }
+                body = compressed.toByteArray();
+                exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            }
+            exchange.getResponseHeaders().add("ETag", ENTITY_TAG);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String read(InputStream stream) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int read; (read = stream.read(buffer)) >= 0; ) {
+            bytes.write(buffer, 0, read);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
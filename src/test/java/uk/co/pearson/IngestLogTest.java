@@ -0,0 +1,66 @@
+package uk.co.pearson;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IngestLogTest {
+
+    private final List<String> logged = new CopyOnWriteArrayList<>();
+    private final IngestLog ingestLog = new IngestLog(logged::add);
+
+    @After
+    public void stopLog()
+    {
+        ingestLog.stop();
+    }
+
+    @Test
+    public void logsTheFirstSummaryStraightAwayAndFoldsTheLoadsThatFollowIt() throws InterruptedException
+    {
+        ingestLog.intervalSeconds = 1;
+
+        ingestLog.log(report(1));
+        awaitLogged(1);
+        ingestLog.log(report(2));
+        ingestLog.log(report(3));
+        awaitLogged(2);
+
+        assertTrue(logged.get(0), logged.get(0).startsWith("Store file version 1 from test: 1 of 5 lines dropped, "
+                + "quarantined wrong-field-count 1, invalid-open-date 1"));
+        assertTrue(logged.get(1), logged.get(1).startsWith("Store file version 3 "));
+        assertTrue(logged.get(1), logged.get(1).contains("(1 earlier loads not logged)"));
+    }
+
+    @Test
+    public void logsNothingForAFileWithoutProblems() throws InterruptedException
+    {
+        ingestLog.log(new IngestReport(1, 0, "test", 5, 5, new Quarantine(2)));
+        TimeUnit.MILLISECONDS.sleep(100);
+
+        assertTrue(logged.isEmpty());
+    }
+
+    private static IngestReport report(long version)
+    {
+        Quarantine quarantine = new Quarantine(2);
+        quarantine.add(RejectReason.WRONG_FIELD_COUNT, 3, "not a store", "The line has 1 fields instead of 5");
+        quarantine.add(RejectReason.INVALID_OPEN_DATE, 4, "1,A,B,C,soon", "The open date soon is not of the format dd/MM/yyyy");
+        return new IngestReport(version, 0, "test", 5, 4, quarantine);
+    }
+
+    private void awaitLogged(int count) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (logged.size() < count && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertEquals(count, logged.size());
+    }
+}
@@ -0,0 +1,56 @@
+package uk.co.pearson;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    LatencyHistogram latencyHistogram = new LatencyHistogram();
+
+    @Test
+    public void reportsZeroWhenNothingRecorded()
+    {
+        assertEquals(0, latencyHistogram.getCount());
+        assertEquals(0, latencyHistogram.getPercentileNanos(99));
+    }
+
+    @Test
+    public void reportsExactValuesBelowSixteenNanoseconds()
+    {
+        for (int i = 1; i <= 10; i++) {
+            latencyHistogram.record(i);
+        }
+        assertEquals(5, latencyHistogram.getPercentileNanos(50));
+        assertEquals(10, latencyHistogram.getPercentileNanos(99));
+    }
+
+    @Test
+    public void reportsPercentilesWithinBucketPrecision()
+    {
+        for (int i = 1; i <= 1000; i++) {
+            latencyHistogram.record(i * 1000L);
+        }
+        assertWithinPrecision(500000, latencyHistogram.getPercentileNanos(50));
+        assertWithinPrecision(990000, latencyHistogram.getPercentileNanos(99));
+        assertEquals(1000000, latencyHistogram.getMaxNanos());
+        assertEquals(1000, latencyHistogram.getCount());
+        assertEquals(500500, latencyHistogram.getMeanNanos());
+    }
+
+    @Test
+    public void putsEveryValueInABucketThatContainsIt()
+    {
+        for (long value = 1; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(value <= LatencyHistogram.upperBoundOf(bucket));
+            assertTrue(value > LatencyHistogram.upperBoundOf(bucket - 1));
+        }
+    }
+
+    private void assertWithinPrecision(long expected, long actual)
+    {
+        assertTrue("expected about " + expected + " but was " + actual, actual >= expected && actual <= expected * 1.07);
+    }
+}
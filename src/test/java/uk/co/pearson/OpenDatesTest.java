@@ -0,0 +1,86 @@
+package uk.co.pearson;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class OpenDatesTest {
+
+    @Test
+    public void parsesDateToEpochDay()
+    {
+        assertEquals(LocalDate.of(2011, 11, 11).toEpochDay(), OpenDates.parseEpochDay("11/11/2011"));
+        assertEquals(0, OpenDates.parseEpochDay("01/01/1970"));
+    }
+
+    @Test
+    public void acceptsSingleDigitDayAndMonth()
+    {
+        assertEquals(LocalDate.of(2016, 2, 3).toEpochDay(), OpenDates.parseEpochDay("3/2/2016"));
+    }
+
+    @Test
+    public void handlesLeapYears()
+    {
+        assertEquals(LocalDate.of(2000, 2, 29).toEpochDay(), OpenDates.parseEpochDay("29/02/2000"));
+        assertEquals(OpenDates.UNKNOWN, OpenDates.parseEpochDay("29/02/2001"));
+    }
+
+    @Test
+    public void returnsUnknownForInvalidDates()
+    {
+        assertEquals(OpenDates.UNKNOWN, OpenDates.parseEpochDay(null));
+        assertEquals(OpenDates.UNKNOWN, OpenDates.parseEpochDay(""));
+        assertEquals(OpenDates.UNKNOWN, OpenDates.parseEpochDay("London"));
+        assertEquals(OpenDates.UNKNOWN, OpenDates.parseEpochDay("32/01/2011"));
+        assertEquals(OpenDates.UNKNOWN, OpenDates.parseEpochDay("11/13/2011"));
+        assertEquals(OpenDates.UNKNOWN, OpenDates.parseEpochDay("11/11/11"));
+        assertEquals(OpenDates.UNKNOWN, OpenDates.parseEpochDay("1a/11/2011"));
+    }
+
+    @Test
+    public void parsesDateFromBytes()
+    {
+        ByteBuffer bytes = ByteBuffer.wrap("x,3/2/2016,11/13/2011".getBytes(StandardCharsets.US_ASCII));
+
+        assertEquals(LocalDate.of(2016, 2, 3).toEpochDay(), OpenDates.parseEpochDay(bytes, 2, 10));
+        assertEquals(OpenDates.UNKNOWN, OpenDates.parseEpochDay(bytes, 11, 21));
+        assertEquals(OpenDates.UNKNOWN, OpenDates.parseEpochDay(bytes, 0, 10));
+        assertEquals(OpenDates.UNKNOWN, OpenDates.parseEpochDay(bytes, 2, 2));
+    }
+
+    @Test
+    public void findsYearAndMonthOfEpochDay()
+    {
+        for (LocalDate date = LocalDate.of(1899, 12, 1); date.getYear() < 2101; date = date.plusDays(1)) {
+            assertEquals(date.toString(), date.getYear() * 12 + date.getMonthValue() - 1,
+                    OpenDates.toMonthIndex((int) date.toEpochDay()));
+        }
+        assertEquals(OpenDates.UNKNOWN, OpenDates.toMonthIndex(OpenDates.UNKNOWN));
+    }
+
+    @Test
+    public void calculatesDaysSinceOpening()
+    {
+        assertEquals("3", OpenDates.daysSince(100, 103));
+        assertNull(OpenDates.daysSince(OpenDates.UNKNOWN, 103));
+    }
+
+    @Test
+    public void formatsEpochDayAsDayMonthYear()
+    {
+        assertEquals("03/02/2016", OpenDates.format((int) LocalDate.of(2016, 2, 3).toEpochDay()));
+        assertNull(OpenDates.format(OpenDates.UNKNOWN));
+    }
+
+    @Test
+    public void returnsTodayAsEpochDay()
+    {
+        assertEquals(LocalDate.now().toEpochDay(), OpenDates.today(), 1);
+    }
+}
@@ -0,0 +1,54 @@
+package uk.co.pearson;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QuarantineTest {
+
+    private final Quarantine quarantine = new Quarantine(2);
+
+    @Test
+    public void countsEveryLineButKeepsOnlyAFewOfEachReason()
+    {
+        for (int line = 10; line > 0; line--) {
+            quarantine.add(RejectReason.WRONG_FIELD_COUNT, line, "line " + line, "The line has 1 fields instead of 5");
+        }
+        quarantine.add(RejectReason.EMPTY_LINE, 20, "", "Cannot convert an empty or null string");
+
+        List<Quarantine.QuarantinedLine> samples = quarantine.getSamples();
+        assertEquals(10, quarantine.getCount(RejectReason.WRONG_FIELD_COUNT));
+        assertEquals(3, samples.size());
+        assertEquals(9, samples.get(0).getLineNumber());
+        assertEquals(10, samples.get(1).getLineNumber());
+        assertEquals("empty-line", samples.get(2).getReason());
+    }
+
+    @Test
+    public void doesNotCountLinesKeptWithAnInvalidOpenDateAsDropped()
+    {
+        quarantine.add(RejectReason.INVALID_OPEN_DATE, 2, "1,A,B,C,soon", "The open date soon is not of the format dd/MM/yyyy");
+        quarantine.add(RejectReason.MALFORMED_QUOTES, 3, "1,\"A", "quoted field starting at column 3 is never closed");
+
+        assertEquals(1, quarantine.getDropped());
+        assertFalse(quarantine.isEmpty());
+        assertTrue(new Quarantine(2).isEmpty());
+    }
+
+    @Test
+    public void cutsLongLines()
+    {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            line.append("long,");
+        }
+
+        quarantine.add(RejectReason.WRONG_FIELD_COUNT, 2, line.toString(), "The line has 101 fields instead of 5");
+
+        assertEquals(Quarantine.MAX_LINE_LENGTH, quarantine.getSamples().get(0).getLine().length());
+    }
+}
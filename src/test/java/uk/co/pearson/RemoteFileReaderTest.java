@@ -6,6 +6,7 @@ import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import java.io.*;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
@@ -94,6 +95,22 @@ public class RemoteFileReaderTest {
         assertEquals(createSecondLine(), stores.get(1));
     }
 
+    @Test
+    public void countsBytesReadThroughTheRawStream() throws Exception {
+        when(remoteFileReader.getInputStream()).thenReturn(createStream());
+
+        byte[] buffer = new byte[1024];
+        int total = 0;
+        try (InputStream stream = remoteFileReader.openStream()) {
+            for (int read = stream.read(buffer); read >= 0; read = stream.read(buffer)) {
+                total += read;
+            }
+        }
+
+        assertEquals(total, remoteFileReader.getBytesRead());
+        assertEquals((createHeader() + "\n" + createFirstLine() + "\n" + createSecondLine()).length(), total);
+    }
+
     private InputStream createStream()
     {
         String content = createHeader() + "\n" + createFirstLine() + "\n" + createSecondLine();
@@ -106,6 +123,18 @@ public class RemoteFileReaderTest {
         return new ByteArrayInputStream(content.getBytes());
     }
 
+    @Test
+    public void downloadsFromTheConfiguredUrl() throws IOException {
+        File file = File.createTempFile("stores", ".csv");
+        file.deleteOnExit();
+        try (Writer writer = new FileWriter(file)) {
+            writer.write(createHeader() + "\n" + createFirstLine() + "\n" + createSecondLine());
+        }
+        remoteFileReader.setUrl(file.toURI().toString());
+
+        assertEquals(Arrays.asList(createFirstLine(), createSecondLine()), remoteFileReader.readAll());
+    }
+
     private String createHeader()
     {
         return "Header!!";
@@ -0,0 +1,79 @@
+package uk.co.pearson;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SearchIndexTest {
+
+    private final List<Store> stores = Arrays.asList(
+            new Store("1", "WC3 3RE", "London", "Unit 1, 12 High Street", "01/02/2010", null),
+            new Store("2", "N5 1AA", "London", "Highbury Corner", "01/02/2012", null),
+            new Store("3", "LS1 4AB", "Leeds", "St. John's Centre, High St", "03/02/2011", null),
+            new Store("4", "D-40212", "D\u00fcsseldorf", "K\u00f6nigsallee 1", "05/06/2015", null),
+            new Store("5", "M1 1AA", "Manchester", null, "05/06/2015", null),
+            new Store("6", "N6 5AB", "London", "Highgate High Street", "05/06/2015", null));
+
+    private final SearchIndex searchIndex = new SearchIndex(StoreTable.of(stores));
+
+    @Test
+    public void splitsTextIntoLowerCaseWordsWithoutAccentsOrApostrophes()
+    {
+        assertEquals(Arrays.asList("st", "johns", "centre", "konigsallee", "12a"),
+                SearchIndex.tokens("St. John's Centre, K\u00f6nigsallee 12a"));
+    }
+
+    @Test
+    public void findsStoresHavingEveryWord()
+    {
+        assertEquals(ids("1", "6"), search("high street", 10));
+        assertEquals(ids("1"), search("12 london high street", 10));
+    }
+
+    @Test
+    public void searchesCitiesToo()
+    {
+        assertEquals(ids("4"), search("dusseldorf", 10));
+        assertEquals(ids("5"), search("MANCHESTER", 10));
+    }
+
+    @Test
+    public void putsWholeWordsBeforeLongerWordsStartingWithTheLastOne()
+    {
+        assertEquals(ids("1", "3", "6", "2"), search("high", 10));
+        assertEquals(ids("1", "2", "6"), search("london hig", 10));
+        assertEquals(ids("6"), search("london high highg", 10));
+    }
+
+    @Test
+    public void stopsAtTheLimit()
+    {
+        assertEquals(ids("1", "3"), search("high", 2));
+    }
+
+    @Test
+    public void findsNothingWhenAWordIsMissing()
+    {
+        assertEquals(ids(), search("high road", 10));
+        assertEquals(ids(), search("nowhere high", 10));
+        assertEquals(ids(), search(" , ", 10));
+    }
+
+    private List<String> search(String query, int limit)
+    {
+        List<String> ids = new ArrayList<>();
+        for (int row : searchIndex.search(query, limit)) {
+            ids.add(stores.get(row).getId());
+        }
+        return ids;
+    }
+
+    private List<String> ids(String... ids)
+    {
+        return Arrays.asList(ids);
+    }
+}
@@ -0,0 +1,109 @@
+package uk.co.pearson;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SortIndexTest {
+
+    private final List<Store> stores = Arrays.asList(
+            new Store("10", "B1", "London", "First street", "01/02/2010", null),
+            new Store("9", "A1", "Aberdeen", "Second street", "01/02/2012", null),
+            new Store("x1", "C1", "London", "Third street", "03/02/2011", null),
+            new Store("2", "D1", "Leeds", "Fourth street", "not a date", null));
+
+    SortIndex sortIndex = new SortIndex(StoreTable.of(stores));
+
+    @Test
+    public void keepsFileOrderWhenUnsorted()
+    {
+        assertArrayEquals(new int[]{0, 1, 2, 3}, sortIndex.order(SortSpec.UNSORTED));
+    }
+
+    @Test
+    public void sortsCityAscendingAndKeepsFileOrderForEqualCities()
+    {
+        assertEquals(ids("9", "2", "10", "x1"), idsIn(SortSpec.parse("city")));
+    }
+
+    @Test
+    public void sortsOpenDateNewestFirstByDefaultWithUnknownDatesLast()
+    {
+        assertEquals(ids("9", "x1", "10", "2"), idsIn(SortSpec.parse("opendate")));
+        assertEquals(ids("2", "10", "x1", "9"), idsIn(SortSpec.parse("opendate:asc")));
+    }
+
+    @Test
+    public void sortsNumericIdsByValue()
+    {
+        assertEquals(ids("2", "9", "10", "x1"), idsIn(SortSpec.parse("id")));
+        assertEquals(ids("x1", "10", "9", "2"), idsIn(SortSpec.parse("-id")));
+        assertEquals(ids("x1", "10", "9", "2"), idsIn(SortSpec.parse("id:desc")));
+    }
+
+    @Test
+    public void sortsDaysSinceOpenWithUnknownDatesLast()
+    {
+        assertEquals(ids("9", "x1", "10", "2"), idsIn(SortSpec.parse("daysSinceOpen")));
+    }
+
+    @Test
+    public void sortsByMoreThanOneField()
+    {
+        assertEquals(ids("9", "2", "x1", "10"), idsIn(SortSpec.parse("city,-opendate")));
+        assertEquals(ids("9", "2", "10", "x1"), idsIn(SortSpec.parse("city,opendate:asc")));
+    }
+
+    @Test
+    public void sortsSomeOfTheRowsInTheSameOrderAsAllOfThem()
+    {
+        assertArrayEquals(new int[]{1, 3, 0}, sortIndex.order(SortSpec.parse("city,-opendate"), new int[]{0, 3, 1}));
+        assertArrayEquals(new int[]{0, 2}, sortIndex.order(SortSpec.UNSORTED, new int[]{2, 0}));
+    }
+
+    @Test
+    public void reusesCompositeOrders()
+    {
+        assertSame(sortIndex.order(SortSpec.parse("city,-opendate")), sortIndex.order(SortSpec.parse("CITY, -OpenDate")));
+    }
+
+    @Test
+    public void ignoresUnknownFields()
+    {
+        assertTrue(SortSpec.parse("colour").isUnsorted());
+        assertEquals("city:asc", SortSpec.parse("colour,city").toString());
+    }
+
+    @Test(expected = InvalidRequestException.class)
+    public void refusesPlusPrefix()
+    {
+        SortSpec.parse("city,+opendate");
+    }
+
+    @Test(expected = InvalidRequestException.class)
+    public void refusesLeadingSpaceLeftByDecodingPlus()
+    {
+        SortSpec.parse("city, opendate");
+    }
+
+    private List<String> idsIn(SortSpec sortSpec)
+    {
+        List<String> ids = new ArrayList<>();
+        for (int row : sortIndex.order(sortSpec)) {
+            ids.add(stores.get(row).getId());
+        }
+        return ids;
+    }
+
+    private List<String> ids(String... ids)
+    {
+        return Arrays.asList(ids);
+    }
+}
@@ -0,0 +1,119 @@
+package uk.co.pearson;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+public class StoreBufferParserTest {
+
+    private static final String HEADER = "id,postCode,city,address,openDate";
+
+    private final ForkJoinPool pool = new ForkJoinPool(2);
+    private final StoreBufferParser storeBufferParser = new StoreBufferParser();
+
+    @After
+    public void shutDownPool()
+    {
+        pool.shutdown();
+    }
+
+    @Test
+    public void parsesTheSameStoresAsTheStreamParser() throws IOException
+    {
+        String file = HEADER + "\r\n"
+                + "1234,WC3 3RE,D\u00fcsseldorf,\"Unit 1, The Mill\",11/11/2011\r\n"
+                + "x-9,B1,London,,3/2/2016\n"
+                + "007,LS1 4\u00c4\u20ac,K\u00f6ln,Stra\u00dfe 2 \ud83c\udfea,01/01/2001\n"
+                + "5678,M1 1AA,Leeds,\"Say \"\"cheese\"\"\",29/02/2000\n"
+                + "not a store\n"
+                + "\n"
+                + "9012,EH1 1AA,Edinburgh,Castle,not a date\n"
+                + "3456,\"G1\"x,Glasgow,Street,01/01/2001\n"
+                + "7890,\"SW1 1AA\",\"London\",\"\",31/12/1999";
+
+        StoreFileParser.ParsedStores parsed = parse(file.getBytes(StandardCharsets.UTF_8));
+
+        List<Store> expected = parseAsStream(file.getBytes(StandardCharsets.UTF_8)).getStores();
+        assertEquals(expected, parsed.getStores());
+        assertEquals(9, parsed.getLineCount());
+        assertEquals(6, parsed.getRowCount());
+        assertSameHashes(expected, (StoreTable) parsed.getStores());
+    }
+
+    @Test
+    public void decodesBytesThatAreNotWellFormedUtf8LikeTheStreamParser() throws IOException
+    {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        file.write((HEADER + "\n1234,WC3 3RE,London,Caf").getBytes(StandardCharsets.UTF_8));
+        file.write(new byte[]{(byte) 0xc3, '(', (byte) 0xed, (byte) 0xa0, (byte) 0x80});
+        file.write(",11/11/2011\n5678,B1,Leeds,Short,01/01/2001\n".getBytes(StandardCharsets.UTF_8));
+
+        StoreFileParser.ParsedStores parsed = parse(file.toByteArray());
+
+        List<Store> expected = parseAsStream(file.toByteArray()).getStores();
+        assertEquals(expected, parsed.getStores());
+        assertSameHashes(expected, (StoreTable) parsed.getStores());
+    }
+
+    @Test
+    public void keepsTheFirstRowOfAnIdButCountsEveryRow()
+    {
+        StoreFileParser.ParsedStores parsed = parse((HEADER + "\n1234,WC3 3RE,London,Street,11/11/2011\n"
+                + "1234,B1,Leeds,Short,01/01/2001\n5678,B1,Leeds,Short,01/01/2001\n").getBytes(StandardCharsets.UTF_8));
+
+        StoreTable table = (StoreTable) parsed.getStores();
+        assertEquals(2, table.size());
+        assertEquals("London", table.getCity(table.findRow("1234")));
+        assertEquals(3, parsed.getRowCount());
+        assertEquals(Collections.singleton("1234"), table.getDuplicateIds());
+    }
+
+    @Test
+    public void parsesFromThePositionToTheLimitOfTheBuffer()
+    {
+        byte[] file = ("junk" + HEADER + "\n1234,WC3 3RE,London,Street,11/11/2011\nmore junk")
+                .getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.wrap(file);
+        buffer.position(4).limit(file.length - "\nmore junk".length());
+
+        StoreFileParser.ParsedStores parsed = storeBufferParser.parse(buffer);
+
+        assertEquals(1, parsed.getStores().size());
+        assertEquals("11/11/2011", parsed.getStores().get(0).getOpenDate());
+        assertEquals(4, buffer.position());
+    }
+
+    @Test
+    public void returnsNoStoresForAFileWithOnlyAHeader()
+    {
+        assertEquals(0, parse(HEADER.getBytes(StandardCharsets.UTF_8)).getStores().size());
+        assertEquals(0, parse(new byte[0]).getLineCount());
+    }
+
+    private StoreFileParser.ParsedStores parse(byte[] file)
+    {
+        return storeBufferParser.parse(ByteBuffer.wrap(file));
+    }
+
+    private StoreFileParser.ParsedStores parseAsStream(byte[] file) throws IOException
+    {
+        return new StoreFileParser(pool, StoreFileParser.DEFAULT_CHUNK_BYTES).parse(new ByteArrayInputStream(file));
+    }
+
+    private static void assertSameHashes(List<Store> expected, StoreTable table)
+    {
+        for (int row = 0; row < expected.size(); row++) {
+            assertEquals(StoreDiff.hash(expected.get(row)), table.getRowHash(row));
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package uk.co.pearson;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StoreChangeFeedTest {
+
+    private static final Store FIRST_STORE = new Store("1234", "WC33RE", "London", "Test street", "11/11/2011", null);
+    private static final Store FIRST_STORE_MOVED = new Store("1234", "WC33RE", "London", "Moved street", "11/11/2011", null);
+    private static final Store SECOND_STORE = new Store("5678", "WC33RD", "Manchester", "Another Test street", "11/11/2016", null);
+    private static final Store THIRD_STORE = new Store("9012", "EH11AA", "Edinburgh", "Third Test street", "11/11/2013", null);
+
+    private final StoreChangeFeed storeChangeFeed = new StoreChangeFeed();
+
+    @After
+    public void stop()
+    {
+        storeChangeFeed.stop();
+    }
+
+    @Test
+    public void returnsNoChangesSinceTheLatestVersion()
+    {
+        storeChangeFeed.reset(3);
+
+        StoreChanges changes = storeChangeFeed.since(3);
+
+        assertEquals(3, changes.getSince());
+        assertEquals(3, changes.getVersion());
+        assertEquals(0, changes.size());
+    }
+
+    @Test
+    public void returnsThePublishedChangeSet()
+    {
+        storeChangeFeed.reset(1);
+        StoreChanges published = changes(1, 2, list(THIRD_STORE), list(), list());
+        storeChangeFeed.publish(published);
+
+        assertSame(published, storeChangeFeed.since(1));
+        assertEquals(2, storeChangeFeed.getLatestVersion());
+    }
+
+    @Test
+    public void mergesChangeSetsFromTheVersionAsked()
+    {
+        storeChangeFeed.reset(1);
+        storeChangeFeed.publish(changes(1, 2, list(THIRD_STORE), list(FIRST_STORE_MOVED), list()));
+        storeChangeFeed.publish(changes(2, 3, list(), list(THIRD_STORE), list("5678")));
+        storeChangeFeed.publish(changes(3, 4, list(SECOND_STORE), list(), list("9012")));
+
+        StoreChanges changes = storeChangeFeed.since(1);
+
+        assertEquals(1, changes.getSince());
+        assertEquals(4, changes.getVersion());
+        assertTrue(changes.getInserted().isEmpty());
+        assertEquals(Arrays.asList(FIRST_STORE_MOVED, SECOND_STORE), changes.getUpdated());
+        assertTrue(changes.getDeleted().isEmpty());
+
+        StoreChanges later = storeChangeFeed.since(2);
+        assertEquals(Collections.singletonList(SECOND_STORE), later.getUpdated());
+        assertEquals(Collections.singletonList("9012"), later.getDeleted());
+    }
+
+    @Test
+    public void forgetsTheOldestChangeSetsOverTheLimits()
+    {
+        storeChangeFeed.maxVersions = 2;
+        storeChangeFeed.reset(1);
+        storeChangeFeed.publish(changes(1, 2, list(THIRD_STORE), list(), list()));
+        storeChangeFeed.publish(changes(2, 3, list(), list(FIRST_STORE_MOVED), list()));
+        storeChangeFeed.publish(changes(3, 4, list(), list(), list("9012")));
+
+        assertNull(storeChangeFeed.since(1));
+        assertEquals(4, storeChangeFeed.since(2).getVersion());
+    }
+
+    @Test
+    public void doesNotKeepAChangeSetLargerThanTheLimit()
+    {
+        storeChangeFeed.maxStores = 1;
+        storeChangeFeed.reset(1);
+        storeChangeFeed.publish(changes(1, 2, list(THIRD_STORE, SECOND_STORE), list(), list()));
+
+        assertNull(storeChangeFeed.since(1));
+        assertEquals(0, storeChangeFeed.since(2).size());
+    }
+
+    @Test(expected = InvalidRequestException.class)
+    public void rejectsVersionsNotPublishedYet()
+    {
+        storeChangeFeed.reset(1);
+        storeChangeFeed.since(2);
+    }
+
+    private static StoreChanges changes(long since, long version, List<Store> inserted, List<Store> updated,
+                                        List<String> deleted)
+    {
+        return new StoreChanges(since, version, inserted, updated, deleted);
+    }
+
+    @SafeVarargs
+    private static <T> List<T> list(T... values)
+    {
+        return Arrays.asList(values);
+    }
+}
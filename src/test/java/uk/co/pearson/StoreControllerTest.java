@@ -1,7 +1,10 @@
 package uk.co.pearson;
 
+import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
@@ -9,22 +12,52 @@ import org.mockito.MockitoAnnotations;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.util.StreamUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
-import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @RunWith(SpringRunner.class)
@@ -45,7 +78,22 @@ public class StoreControllerTest {
     private MockMvc mockMvc;
 
     @Mock
-    private RemoteFileReader remoteFileReader;
+    private StoreSnapshotHolder storeSnapshotHolder;
+
+    @Mock
+    private StoreMetrics storeMetrics;
+
+    @Mock
+    private StoreWriteLog storeWriteLog;
+
+    @Mock
+    private StoreChangeFeed storeChangeFeed;
+
+    @Mock
+    private StoreSnapshotFile storeSnapshotFile;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
 
     @InjectMocks
     private StoreController storeController = new StoreController();
@@ -53,18 +101,27 @@ public class StoreControllerTest {
     @Before
     public void init(){
         MockitoAnnotations.initMocks(this);
+        storeController.storeResponseCache = new StoreResponseCache();
+        storeController.storeResponseCache.storeMetrics = storeMetrics;
+        storeController.admissionControl = new AdmissionControl();
+        storeController.admissionControl.start();
         mockMvc = MockMvcBuilders
                 .standaloneSetup(storeController)
                 .build();
     }
 
+    @After
+    public void stopAdmissionControl()
+    {
+        storeController.admissionControl.stop();
+    }
+
     @Test
     public void returnsAllTheStoresInJsonFormat() throws Exception {
-        List<String> firstLine = new ArrayList<>();
-        firstLine.add(createFirstLine());
-        when(remoteFileReader.readAll()).thenReturn(firstLine);
-        mockMvc.perform(get("/stores/all"))
+        givenSnapshot(snapshotOf(createFirstLine()));
+        perform(get("/stores/all"))
                 .andExpect(status().isOk())
+                .andExpect(header().string(StoreController.SNAPSHOT_VERSION_HEADER, "1"))
                 .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE))
                 .andExpect(jsonPath("$[0].id").value(FIRST_LINE_ID))
                 .andExpect(jsonPath("$[0].postCode").value(FIRST_LINE_POSTCODE))
@@ -74,35 +131,29 @@ public class StoreControllerTest {
 
     @Test
     public void returnsNoContentWhenNoStoreAtAllHasBeenFound() throws Exception {
-        List<String> noLine = new ArrayList<>();
-        when(remoteFileReader.readAll()).thenReturn(noLine);
-        mockMvc.perform(get("/stores/all"))
+        givenSnapshot(snapshotOf());
+        perform(get("/stores/all"))
                 .andExpect(status().isNoContent());
     }
 
     @Test
     public void returnsNoContentWhenImpossibleToConvertAllStores() throws Exception {
-        List<String> firstLine = new ArrayList<>();
-        firstLine.add(invalidString());
-        when(remoteFileReader.readAll()).thenReturn(firstLine);
-        mockMvc.perform(get("/stores/all"))
+        givenSnapshot(snapshotOf(invalidString()));
+        perform(get("/stores/all"))
                 .andExpect(status().isNoContent());
     }
 
     @Test
     public void returnsInternalServerErrorWhenIOExceptionOccursForAllStores() throws Exception {
-        when(remoteFileReader.readAll()).thenThrow(IOException.class);
-        mockMvc.perform(get("/stores/all"))
+        givenSnapshotFails(new IOException());
+        perform(get("/stores/all"))
                 .andExpect(status().isInternalServerError());
     }
 
     @Test
     public void returnsAllStoresOrderedByCity() throws Exception {
-        List<String> lines = new ArrayList<>();
-        lines.add(createFirstLine());
-        lines.add(createSecondLine());
-        when(remoteFileReader.readAll()).thenReturn(lines);
-        mockMvc.perform(get("/stores/all?sort=city"))
+        givenSnapshot(snapshotOf(createFirstLine(), createSecondLine()));
+        perform(get("/stores/all?sort=city"))
                 .andExpect(status().isOk())
                 .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE))
                 .andExpect(jsonPath("$[0].city").value(SECOND_LINE_CITY))
@@ -111,21 +162,307 @@ public class StoreControllerTest {
 
     @Test
     public void returnsAllStoresOrderedByOpenDate() throws Exception {
-        List<String> lines = new ArrayList<>();
-        lines.add(createFirstLine());
-        lines.add(createSecondLine());
-        when(remoteFileReader.readAll()).thenReturn(lines);
-        mockMvc.perform(get("/stores/all?sort=opendate"))
+        givenSnapshot(snapshotOf(createFirstLine(), createSecondLine()));
+        perform(get("/stores/all?sort=opendate"))
                 .andExpect(status().isOk())
                 .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE))
                 .andExpect(jsonPath("$[0].openDate").value(createXDaysAgo(1)))
                 .andExpect(jsonPath("$[1].openDate").value(createXDaysAgo(2)));
     }
 
+    @Test
+    public void returnsAllStoresOrderedByMoreThanOneField() throws Exception {
+        givenSnapshot(snapshotOf(createFirstLine(), createSecondLine()));
+        perform(get("/stores/all?sort=postcode,-opendate"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id").value(SECOND_LINE_ID))
+                .andExpect(jsonPath("$[1].id").value(FIRST_LINE_ID));
+    }
+
+    @Test
+    public void returnsAllStoresOrderedByOpenDateAscending() throws Exception {
+        givenSnapshot(snapshotOf(createFirstLine(), createSecondLine()));
+        perform(get("/stores/all?sort=opendate:asc"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].openDate").value(createXDaysAgo(2)))
+                .andExpect(jsonPath("$[1].openDate").value(createXDaysAgo(1)));
+    }
+
+    @Test
+    public void returnsBadRequestForPlusPrefixInSort() throws Exception {
+        givenSnapshot(snapshotOf(createFirstLine(), createSecondLine()));
+        perform(get("/stores/all?sort=+opendate"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value(containsString("opendate:asc")));
+    }
+
+    @Test
+    public void returnsNotModifiedWhenTheClientHasTheStoresAlready() throws Exception {
+        givenSnapshot(snapshotOf(createFirstLine(), createSecondLine()));
+        String entityTag = perform(get("/stores/all?sort=city"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, notNullValue()))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        perform(get("/stores/all?sort=city").header(HttpHeaders.IF_NONE_MATCH, entityTag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, entityTag))
+                .andExpect(content().string(""));
+        perform(get("/stores/all?sort=-city").header(HttpHeaders.IF_NONE_MATCH, entityTag))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void sendsCompressedStoresToClientsAcceptingGzip() throws Exception {
+        givenSnapshot(snapshotOf(createFirstLine()));
+        byte[] body = perform(get("/stores/all").header(HttpHeaders.ACCEPT_ENCODING, "deflate, gzip;q=0.8"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            assertThat(StreamUtils.copyToString(in, StandardCharsets.UTF_8), containsString(FIRST_LINE_ID));
+        }
+    }
+
+    @Test
+    public void doesNotCompressStoresForClientsRefusingGzip() throws Exception {
+        givenSnapshot(snapshotOf(createFirstLine()));
+        perform(get("/stores/all").header(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andExpect(jsonPath("$[0].id").value(FIRST_LINE_ID));
+    }
+
+    @Test
+    public void returnsFirstPageAndCursorOfTheNextOne() throws Exception {
+        givenSnapshot(snapshotOf(createFirstLine(), createSecondLine()));
+        perform(get("/stores/all?sort=city&limit=1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(StoreController.NEXT_CURSOR_HEADER, notNullValue()))
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].city").value(SECOND_LINE_CITY));
+    }
+
+    @Test
+    public void returnsBadRequestForInvalidCursor() throws Exception {
+        givenSnapshot(snapshotOf(createFirstLine(), createSecondLine()));
+        perform(get("/stores/all?limit=1&cursor=notacursor"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").exists());
+    }
+
+    @Test
+    public void returnsBadRequestForLimitOutOfRange() throws Exception {
+        givenSnapshot(snapshotOf(createFirstLine(), createSecondLine()));
+        perform(get("/stores/all?limit=0"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void returnsOnlyStoresOfTheCityAskedFor() throws Exception {
+        givenSnapshot(snapshotOf(createFirstLine(), createSecondLine()));
+        perform(get("/stores/all?city=aberdeen"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].id").value(SECOND_LINE_ID));
+    }
+
+    @Test
+    public void combinesFiltersWithSort() throws Exception {
+        givenSnapshot(snapshotOf(createFirstLine(), createSecondLine()));
+        perform(get("/stores/all?postCodePrefix=wc3&minDaysOpen=1&maxDaysOpen=2&sort=-dayssinceopen"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id").value(SECOND_LINE_ID))
+                .andExpect(jsonPath("$[1].id").value(FIRST_LINE_ID));
+    }
+
+    @Test
+    public void rendersFilteredStoresForEachRequest() throws Exception {
+        givenSnapshot(snapshotOf(createFirstLine(), createSecondLine()));
+        perform(get("/stores/all?city=london"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.ETAG))
+                .andExpect(jsonPath("$[0].id").value(FIRST_LINE_ID));
+    }
+
+    @Test
+    public void returnsEmptyListWhenNoStoreMatchesFilters() throws Exception {
+        givenSnapshot(snapshotOf(createFirstLine(), createSecondLine()));
+        perform(get("/stores/all?cityPrefix=Lon&maxDaysOpen=0"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(0));
+    }
+
+    @Test
+    public void returnsBadRequestForInvalidFilterDate() throws Exception {
+        givenSnapshot(snapshotOf(createFirstLine(), createSecondLine()));
+        perform(get("/stores/all?openedAfter=2011-11-11"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value(containsString("openedAfter")));
+    }
+
+    @Test
+    public void findsStoresByWordsOfTheirAddress() throws Exception {
+        givenSnapshot(snapshotOf(createFirstLine(), createSecondLine()));
+        perform(get("/stores/search?q=another tes"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].id").value(SECOND_LINE_ID));
+    }
+
+    @Test
+    public void returnsBadRequestForSearchWithoutWords() throws Exception {
+        perform(get("/stores/search?q=,"))
+                .andExpect(status().isBadRequest());
+        verify(storeSnapshotHolder, never()).getSnapshotAsync();
+    }
+
+    @Test
+    public void returnsFoundStoresAndMissingIdsOfABatch() throws Exception {
+        givenSnapshot(snapshotOf(createFirstLine(), createSecondLine()));
+        perform(get("/stores/batch?ids=" + SECOND_LINE_ID + ",0000," + FIRST_LINE_ID + "," + SECOND_LINE_ID))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.version").value(1))
+                .andExpect(jsonPath("$.found.length()").value(2))
+                .andExpect(jsonPath("$.found[0].id").value(SECOND_LINE_ID))
+                .andExpect(jsonPath("$.found[1].id").value(FIRST_LINE_ID))
+                .andExpect(jsonPath("$.missing[0]").value("0000"));
+    }
+
+    @Test
+    public void looksUpPostedIds() throws Exception {
+        givenSnapshot(snapshotOf(createFirstLine(), createSecondLine()));
+        perform(post("/stores/batch").contentType(MediaType.APPLICATION_JSON).content("[\"" + FIRST_LINE_ID + "\", \"x\"]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.found[0].city").value(FIRST_LINE_CITY))
+                .andExpect(jsonPath("$.missing[0]").value("x"));
+    }
+
+    @Test
+    public void returnsBadRequestForBatchOverTheLimit() throws Exception {
+        storeController.maxBatchIds = 2;
+        perform(get("/stores/batch?ids=1,2,3"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.error").value(containsString("2")));
+        verify(storeSnapshotHolder, never()).getSnapshotAsync();
+    }
+
+    @Test
+    public void returnsChangesSinceVersion() throws Exception {
+        Store inserted = new StoreConverter().convertAll(Arrays.asList(createSecondLine())).get(0);
+        when(storeChangeFeed.since(1)).thenReturn(new StoreChanges(1, 3, Collections.singletonList(inserted),
+                Collections.emptyList(), Collections.singletonList(FIRST_LINE_ID)));
+        perform(get("/stores/changes?since=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.since").value(1))
+                .andExpect(jsonPath("$.version").value(3))
+                .andExpect(jsonPath("$.inserted[0].id").value(SECOND_LINE_ID))
+                .andExpect(jsonPath("$.updated.length()").value(0))
+                .andExpect(jsonPath("$.deleted[0]").value(FIRST_LINE_ID));
+    }
+
+    @Test
+    public void returnsGoneWhenChangesAreNotKeptAnymore() throws Exception {
+        when(storeChangeFeed.since(1)).thenReturn(null);
+        perform(get("/stores/changes?since=1"))
+                .andExpect(status().isGone());
+    }
+
+    @Test
+    public void streamsAllStoresOrderedByCity() throws Exception {
+        givenSnapshot(snapshotOf(createFirstLine(), createSecondLine()));
+        perform(get("/stores/all?stream=true&sort=city"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].city").value(SECOND_LINE_CITY))
+                .andExpect(jsonPath("$[0].postCode").value(SECOND_LINE_POSTCODE))
+                .andExpect(jsonPath("$[1].id").value(FIRST_LINE_ID))
+                .andExpect(jsonPath("$[1].address").value(FIRST_LINE_ADDRESS));
+    }
+
+    @Test
+    public void returnsNoContentWhenStreamingAndNoStoreAtAllHasBeenFound() throws Exception {
+        givenSnapshot(snapshotOf());
+        perform(get("/stores/all?stream=true"))
+                .andExpect(status().isNoContent());
+    }
+
+    @Test
+    public void returnsAllStoresAsCsvWhenAccepted() throws Exception {
+        givenSnapshot(snapshotOf(createFirstLine(), createSecondLine()));
+        String csv = perform(get("/stores/all?sort=city").accept("text/csv"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(StoreFormat.CSV_VALUE))
+                .andReturn().getResponse().getContentAsString();
+
+        String[] lines = csv.split("\n");
+        assertEquals(StoreCsvWriter.HEADER, lines[0]);
+        assertThat(lines[1], containsString(SECOND_LINE_ID + "," + SECOND_LINE_POSTCODE + "," + SECOND_LINE_CITY));
+        assertThat(lines[2], containsString(FIRST_LINE_ID + "," + FIRST_LINE_POSTCODE + "," + FIRST_LINE_CITY));
+    }
+
+    @Test
+    public void returnsAllStoresAsBinaryRecordsWhenAccepted() throws Exception {
+        givenSnapshot(snapshotOf(createFirstLine(), createSecondLine()));
+        byte[] records = perform(get("/stores/all").accept(StoreFormat.RECORDS_VALUE))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(StoreFormat.RECORDS_VALUE))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        assertEquals(Arrays.asList(FIRST_LINE_ID, SECOND_LINE_ID), new StoreRecordWriter()
+                .readRecords(new ByteArrayInputStream(records)).stream().map(Store::getId).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void exportsTheSnapshotFile() throws Exception {
+        File file = temporaryFolder.newFile(StoreController.EXPORT_FILE_NAME);
+        byte[] bytes = "stored snapshot".getBytes(StandardCharsets.UTF_8);
+        Files.write(file.toPath(), bytes);
+        when(storeSnapshotFile.size()).thenReturn((long) bytes.length);
+        when(storeSnapshotFile.open()).thenReturn(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+
+        byte[] exported = perform(get("/stores/export"))
+                .andExpect(status().isOk())
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, bytes.length))
+                .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, containsString(StoreController.EXPORT_FILE_NAME)))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        assertArrayEquals(bytes, exported);
+    }
+
+    @Test
+    public void returnsNoContentWhenThereIsNoSnapshotFileToExport() throws Exception {
+        when(storeSnapshotFile.size()).thenReturn(-1L);
+        perform(get("/stores/export"))
+                .andExpect(status().isNoContent());
+    }
+
+    @Test
+    public void returnsStatsGroupedByCity() throws Exception {
+        givenSnapshot(snapshotOf(createFirstLine(), createSecondLine()));
+        perform(get("/stores/stats?groupBy=city"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(StoreController.SNAPSHOT_VERSION_HEADER, "1"))
+                .andExpect(jsonPath("$.stores").value(2))
+                .andExpect(jsonPath("$.averageDaysOpen").value(1.5))
+                .andExpect(jsonPath("$.groupBy").value("city"))
+                .andExpect(jsonPath("$.groups[0].key").value(SECOND_LINE_CITY))
+                .andExpect(jsonPath("$.groups[0].stores").value(1))
+                .andExpect(jsonPath("$.groups[1].key").value(FIRST_LINE_CITY))
+                .andExpect(jsonPath("$.groups[1].averageDaysOpen").value(1.0));
+    }
+
+    @Test
+    public void returnsBadRequestWhenGroupingStatsByUnknownField() throws Exception {
+        perform(get("/stores/stats?groupBy=address"))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     public void returnsFoundStoreInJsonFormat() throws Exception {
-        when(remoteFileReader.readOneLineById(FIRST_LINE_ID)).thenReturn(createFirstLine());
-        mockMvc.perform(get("/stores/" + FIRST_LINE_ID))
+        givenSnapshot(snapshotOf(createFirstLine(), createSecondLine()));
+        perform(get("/stores/" + FIRST_LINE_ID))
                 .andExpect(status().isOk())
                 .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE))
                 .andExpect(jsonPath("$['id']").value(FIRST_LINE_ID))
@@ -137,29 +474,254 @@ public class StoreControllerTest {
     @Test
     public void returnsNoContentWhenNoStoreHasBeenFound() throws Exception {
         String idToFind = "3456";
-        when(remoteFileReader.readOneLineById(idToFind)).thenReturn("");
-        mockMvc.perform(get("/stores/" + idToFind))
+        givenSnapshot(snapshotOf(createFirstLine()));
+        perform(get("/stores/" + idToFind))
                 .andExpect(status().isNoContent());
     }
 
     @Test
     public void returnsNoContentWhenImpossibleToConvertStore() throws Exception {
         String idToFind = "3456";
-        List<String> firstLine = new ArrayList<>();
-        firstLine.add(createFirstLine());
-        when(remoteFileReader.readOneLineById(idToFind)).thenReturn(invalidString());
-        mockMvc.perform(get("/stores/" + idToFind))
+        givenSnapshot(snapshotOf(createFirstLine(), invalidString()));
+        perform(get("/stores/" + idToFind))
                 .andExpect(status().isNoContent());
     }
 
     @Test
     public void returnsInternalServerErrorWhenIOExceptionOccurs() throws Exception {
         String idToFind = "3456";
-        List<String> firstLine = new ArrayList<>();
-        firstLine.add(createFirstLine());
-        when(remoteFileReader.readOneLineById(idToFind)).thenThrow(IOException.class);
-        mockMvc.perform(get("/stores/" + idToFind))
+        givenSnapshotFails(new IOException());
+        perform(get("/stores/" + idToFind))
+                .andExpect(status().isInternalServerError());
+    }
+
+    @Test
+    public void addsServerTimingWhenEnabled() throws Exception {
+        storeController.serverTimingEnabled = true;
+        givenSnapshot(snapshotOf(createFirstLine()));
+        perform(get("/stores/all?sort=city"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(StoreController.SERVER_TIMING_HEADER, containsString("sort;dur=")));
+    }
+
+    @Test
+    public void writesServerTimingDurationsInMillisecondsWithThreeDecimals() {
+        assertEquals("0.000", StoreController.appendMillis(new StringBuilder(), 499).toString());
+        assertEquals("0.050", StoreController.appendMillis(new StringBuilder(), 50000).toString());
+        assertEquals("12.346", StoreController.appendMillis(new StringBuilder(), 12345678).toString());
+        assertEquals("1000.000", StoreController.appendMillis(new StringBuilder(), 999999999).toString());
+    }
+
+    @Test
+    public void returnsSnapshotVersionAndAge() throws Exception {
+        givenSnapshot(snapshotOf(createFirstLine(), createSecondLine()));
+        perform(get("/stores/snapshot"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.version").value(1))
+                .andExpect(jsonPath("$.stores").value(2));
+    }
+
+    @Test
+    public void returnsTheIngestReportOfTheLastLoad() throws Exception {
+        givenSnapshot(snapshotOf(createFirstLine()));
+        Quarantine quarantine = new Quarantine(10);
+        quarantine.add(RejectReason.WRONG_FIELD_COUNT, 3, "not a store", "The line has 1 fields instead of 5");
+        when(storeSnapshotHolder.getIngestReport()).thenReturn(new IngestReport(1, 0, "test", 2, 1, quarantine));
+        perform(get("/stores/ingest-report"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.dropped").value(1))
+                .andExpect(jsonPath("$.reasons['wrong-field-count']").value(1))
+                .andExpect(jsonPath("$.reasons['invalid-open-date']").value(0))
+                .andExpect(jsonPath("$.samples[0].lineNumber").value(3))
+                .andExpect(jsonPath("$.samples[0].line").value("not a store"));
+    }
+
+    @Test
+    public void returnsNotFoundWhenNoStoreFileHasBeenLoadedYet() throws Exception {
+        givenSnapshot(snapshotOf(createFirstLine()));
+        perform(get("/stores/ingest-report"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void createsStore() throws Exception {
+        givenSnapshot(snapshotOf(createFirstLine()));
+        when(storeWriteLog.appendIfAbsent(any(Store.class))).then(invocation -> CompletableFuture.completedFuture(invocation.getArgument(0)));
+        perform(post("/stores/create").contentType(MediaType.APPLICATION_JSON).content(storeJson(SECOND_LINE_ID)))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.id").value(SECOND_LINE_ID))
+                .andExpect(jsonPath("$.city").value(SECOND_LINE_CITY))
+                .andExpect(jsonPath("$.daysSinceOpen").value("2"));
+    }
+
+    @Test
+    public void returnsConflictWhenCreatingExistingStore() throws Exception {
+        givenSnapshot(snapshotOf(createFirstLine()));
+        CompletableFuture<Store> conflict = new CompletableFuture<>();
+        conflict.completeExceptionally(new StoreConflictException("exists"));
+        when(storeWriteLog.appendIfAbsent(any(Store.class))).thenReturn(conflict);
+        perform(post("/stores/create").contentType(MediaType.APPLICATION_JSON).content(storeJson(FIRST_LINE_ID)))
+                .andExpect(status().isConflict());
+        verify(storeWriteLog, never()).append(any(Store.class));
+    }
+
+    @Test
+    public void countsOnlyServerFailuresAsCongestion() throws Exception {
+        givenSnapshot(snapshotOf(createFirstLine()));
+        CompletableFuture<Store> conflict = new CompletableFuture<>();
+        conflict.completeExceptionally(new StoreConflictException("exists"));
+        when(storeWriteLog.appendIfAbsent(any(Store.class))).thenReturn(conflict);
+        ConcurrencyLimiter writes = storeController.admissionControl.limiter(AdmissionControl.Endpoint.WRITE);
+        int limit = writes.getLimit();
+
+        perform(post("/stores/create").contentType(MediaType.APPLICATION_JSON).content(storeJson(FIRST_LINE_ID)))
+                .andExpect(status().isConflict());
+        assertEquals(limit, writes.getLimit());
+
+        CompletableFuture<Store> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IOException());
+        when(storeWriteLog.append(any(Store.class))).thenReturn(failed);
+        perform(put("/stores/" + FIRST_LINE_ID).contentType(MediaType.APPLICATION_JSON).content(storeJson(FIRST_LINE_ID)))
                 .andExpect(status().isInternalServerError());
+        assertTrue(writes.getLimit() < limit);
+    }
+
+    @Test
+    public void returnsBadRequestWhenCreatingStoreWithoutValidOpenDate() throws Exception {
+        perform(post("/stores/create").contentType(MediaType.APPLICATION_JSON).content("{\"id\":\"" + SECOND_LINE_ID + "\",\"openDate\":\"yesterday\"}"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void updatesStore() throws Exception {
+        when(storeWriteLog.append(any(Store.class))).then(invocation -> CompletableFuture.completedFuture(invocation.getArgument(0)));
+        perform(put("/stores/" + FIRST_LINE_ID).contentType(MediaType.APPLICATION_JSON).content(storeJson(FIRST_LINE_ID)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(FIRST_LINE_ID))
+                .andExpect(jsonPath("$.city").value(SECOND_LINE_CITY));
+    }
+
+    @Test
+    public void returnsInternalServerErrorWhenStoreCannotBeWritten() throws Exception {
+        CompletableFuture<Store> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IOException());
+        when(storeWriteLog.append(any(Store.class))).thenReturn(failed);
+        perform(put("/stores/" + FIRST_LINE_ID).contentType(MediaType.APPLICATION_JSON).content(storeJson(FIRST_LINE_ID)))
+                .andExpect(status().isInternalServerError());
+    }
+
+    @Test
+    public void returnsServiceUnavailableWhenStoresCannotBeLoadedNow() throws Exception {
+        givenSnapshotFails(new RejectedExecutionException());
+        perform(get("/stores/all"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"));
+    }
+
+    @Test
+    public void returnsServiceUnavailableUntilTheStoreSourceIsTriedAgain() throws Exception {
+        givenSnapshotFails(new ServiceUnavailableException("The store source failed 3 times", 25));
+        perform(get("/stores/" + FIRST_LINE_ID))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "25"));
+    }
+
+    @Test
+    public void refusesRequestsBeyondTheLimitAndTheQueue() throws Exception {
+        givenAdmissionLimit(1, 0);
+        CompletableFuture<StoreSnapshot> loading = new CompletableFuture<>();
+        when(storeSnapshotHolder.getSnapshotAsync()).thenReturn(loading);
+        MvcResult waiting = mockMvc.perform(get("/stores/" + FIRST_LINE_ID))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        perform(get("/stores/" + SECOND_LINE_ID))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"));
+
+        loading.complete(snapshotOf(createFirstLine()));
+        mockMvc.perform(asyncDispatch(waiting))
+                .andExpect(status().isOk());
+        perform(get("/stores/" + FIRST_LINE_ID))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void shedsAllTheStoresFirstWhileLookupsAreSaturated() throws Exception {
+        givenAdmissionLimit(1, 1);
+        CompletableFuture<StoreSnapshot> loading = new CompletableFuture<>();
+        when(storeSnapshotHolder.getSnapshotAsync()).thenReturn(loading);
+        mockMvc.perform(get("/stores/" + FIRST_LINE_ID))
+                .andExpect(request().asyncStarted());
+
+        perform(get("/stores/all"))
+                .andExpect(status().isServiceUnavailable());
+        mockMvc.perform(get("/stores/search").param("q", FIRST_LINE_CITY))
+                .andExpect(request().asyncStarted());
+        assertEquals(0, storeController.admissionControl.limiter(AdmissionControl.Endpoint.SEARCH).getRejected());
+        assertEquals(1, storeController.admissionControl.limiter(AdmissionControl.Endpoint.ALL).getRejected());
+    }
+
+    @Test
+    public void answersWhenStoresHaveBeenLoaded() throws Exception {
+        CompletableFuture<StoreSnapshot> loading = new CompletableFuture<>();
+        when(storeSnapshotHolder.getSnapshotAsync()).thenReturn(loading);
+        MvcResult result = mockMvc.perform(get("/stores/" + FIRST_LINE_ID))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        loading.complete(snapshotOf(createFirstLine()));
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(FIRST_LINE_ID));
+    }
+
+    /**
+     * Performs the request and, for as long as it is handled asynchronously, its dispatches.
+     */
+    private ResultActions perform(RequestBuilder requestBuilder) throws Exception
+    {
+        ResultActions actions = mockMvc.perform(requestBuilder);
+        while (actions.andReturn().getRequest().isAsyncStarted()) {
+            actions = mockMvc.perform(asyncDispatch(actions.andReturn()));
+        }
+        return actions;
+    }
+
+    private void givenAdmissionLimit(int limit, int queueCapacity)
+    {
+        AdmissionControl admissionControl = storeController.admissionControl;
+        admissionControl.stop();
+        admissionControl.initialLimit = limit;
+        admissionControl.minLimit = limit;
+        admissionControl.maxLimit = limit;
+        admissionControl.queueCapacity = queueCapacity;
+        admissionControl.bulkQueueCapacity = queueCapacity;
+        admissionControl.start();
+    }
+
+    private void givenSnapshot(StoreSnapshot snapshot)
+    {
+        when(storeSnapshotHolder.getSnapshotAsync()).thenReturn(CompletableFuture.completedFuture(snapshot));
+    }
+
+    private void givenSnapshotFails(Exception e)
+    {
+        CompletableFuture<StoreSnapshot> failed = new CompletableFuture<>();
+        failed.completeExceptionally(e);
+        when(storeSnapshotHolder.getSnapshotAsync()).thenReturn(failed);
+    }
+
+    private String storeJson(String id)
+    {
+        return "{\"id\":\"" + id + "\",\"postCode\":\"" + SECOND_LINE_POSTCODE + "\",\"city\":\"" + SECOND_LINE_CITY
+                + "\",\"address\":\"" + SECOND_LINE_ADDRESS + "\",\"openDate\":\"" + createXDaysAgo(2) + "\"}";
+    }
+
+    private StoreSnapshot snapshotOf(String... lines)
+    {
+        return new StoreSnapshot(new StoreConverter().convertAll(Arrays.asList(lines)), 1, System.currentTimeMillis());
     }
 
     private String createFirstLine()
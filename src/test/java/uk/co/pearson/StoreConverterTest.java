@@ -26,7 +26,8 @@ public class StoreConverterTest {
 
     private static final String SECOND_ID = "5678";
     private static final String SECOND_POSTCODE = "WC33RD";
-    private static final String SECOND_ADDRESS = "\"Another, Test street\"";
+    private static final String SECOND_ADDRESS = "Another, Test street";
+    private static final String SECOND_QUOTED_ADDRESS = "\"Another, Test street\"";
     private static final String SECOND_CITY = "London";
     private static final String SECOND_OPEN_DATE = "11/11/2011";
 
@@ -90,6 +91,44 @@ public class StoreConverterTest {
         verifyFirstStore(stores.get(0));
     }
 
+    @Test
+    public void removesQuotesAroundCity()
+    {
+        Store store = storeConverter.convertStringToStore(FIRST_ID + "," + FIRST_POSTCODE + ",\"" + FIRST_CITY + "\"," + FIRST_ADDRESS + "," + SECOND_OPEN_DATE);
+        assertEquals(FIRST_CITY, store.getCity());
+    }
+
+    @Test
+    public void returnsNullIfQuoteIsNeverClosed()
+    {
+        assertNull(storeConverter.convertStringToStore(FIRST_ID + "," + FIRST_POSTCODE + "," + FIRST_CITY + ",\"" + FIRST_ADDRESS + "," + SECOND_OPEN_DATE));
+    }
+
+    @Test
+    public void quarantinesEveryLineWithAProblemByReason()
+    {
+        Quarantine quarantine = new Quarantine(10);
+        List<String> strings = new ArrayList<>();
+        strings.add(createFirstLine());
+        strings.add("");
+        strings.add(createFirstLineWithoutOpenDate());
+        strings.add(FIRST_ID + ",\"" + FIRST_POSTCODE + "\"x," + FIRST_CITY + "," + FIRST_ADDRESS + "," + SECOND_OPEN_DATE);
+        strings.add(createFirstLineWithNonDateOpenDate());
+
+        List<Store> stores = storeConverter.convertAll(strings, 2, quarantine);
+
+        assertEquals(2, stores.size());
+        assertEquals(3, quarantine.getDropped());
+        assertEquals(1, quarantine.getCount(RejectReason.EMPTY_LINE));
+        assertEquals(1, quarantine.getCount(RejectReason.WRONG_FIELD_COUNT));
+        assertEquals(1, quarantine.getCount(RejectReason.MALFORMED_QUOTES));
+        assertEquals(1, quarantine.getCount(RejectReason.INVALID_OPEN_DATE));
+        Quarantine.QuarantinedLine wrongFieldCount = quarantine.getSamples().get(1);
+        assertEquals(4, wrongFieldCount.getLineNumber());
+        assertEquals(createFirstLineWithoutOpenDate(), wrongFieldCount.getLine());
+        assertEquals("The line has 4 fields instead of 5", wrongFieldCount.getMessage());
+    }
+
     @Test
     public void calculationSinceOpeningReturnsNullWhenEmptyOpenDate()
     {
@@ -117,7 +156,7 @@ public class StoreConverterTest {
 
     private String createSecondLine()
     {
-        return SECOND_ID + "," + SECOND_POSTCODE + "," + SECOND_CITY + "," + SECOND_ADDRESS + "," + SECOND_OPEN_DATE;
+        return SECOND_ID + "," + SECOND_POSTCODE + "," + SECOND_CITY + "," + SECOND_QUOTED_ADDRESS + "," + SECOND_OPEN_DATE;
     }
 
     private String createFirstLineWithoutOpenDate()
@@ -0,0 +1,44 @@
+package uk.co.pearson;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class StoreCsvWriterTest {
+
+    private final StoreCsvWriter storeCsvWriter = new StoreCsvWriter();
+
+    @Test
+    public void writesHeaderAndOneLinePerStore() throws IOException
+    {
+        String csv = write(new Store("1234", "WC33RE", "London", "Test street", "11/11/2011", "2000"),
+                new Store("5678", "LS1 4AP", "D\u00fcsseldorf", null, null, null));
+
+        assertEquals(StoreCsvWriter.HEADER + "\n"
+                + "1234,WC33RE,London,Test street,11/11/2011,2000\n"
+                + "5678,LS1 4AP,D\u00fcsseldorf,,,\n", csv);
+    }
+
+    @Test
+    public void quotesFieldsTheTokenizerWouldSplit() throws IOException
+    {
+        String csv = write(new Store("1234", "WC33RE", "London", "Unit 1, \"The\" Mill", "11/11/2011", "2000"));
+
+        String line = csv.split("\n")[1];
+        assertEquals("1234,WC33RE,London,\"Unit 1, \"\"The\"\" Mill\",11/11/2011,2000", line);
+        assertEquals(Arrays.asList("1234", "WC33RE", "London", "Unit 1, \"The\" Mill", "11/11/2011", "2000"),
+                new CsvTokenizer().tokenize(line, 2));
+    }
+
+    private String write(Store... stores) throws IOException
+    {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        storeCsvWriter.writeCsv(Arrays.asList(stores), outputStream);
+        return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
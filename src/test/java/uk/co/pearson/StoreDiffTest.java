@@ -0,0 +1,105 @@
+package uk.co.pearson;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StoreDiffTest {
+
+    private static final Store FIRST_STORE = new Store("1234", "WC33RE", "London", "Test street", "11/11/2011", null);
+    private static final Store SECOND_STORE = new Store("5678", "WC33RD", "Manchester", "Another Test street", "11/11/2016", null);
+    private static final Store THIRD_STORE = new Store("9012", "EH11AA", "Edinburgh", "Third Test street", "11/11/2013", null);
+
+    @Test
+    public void findsNothingWhenTheStoresAreTheSame()
+    {
+        StoreSnapshot previous = new StoreSnapshot(Arrays.asList(FIRST_STORE, SECOND_STORE), 1, 0);
+
+        StoreDiff diff = StoreDiff.between(previous, Arrays.asList(
+                new Store("1234", "WC33RE", "London", "Test street", "11/11/2011", "2000"), SECOND_STORE));
+
+        assertTrue(diff.isEmpty());
+    }
+
+    @Test
+    public void findsInsertedUpdatedAndDeletedStores()
+    {
+        StoreSnapshot previous = new StoreSnapshot(Arrays.asList(FIRST_STORE, SECOND_STORE), 1, 0);
+        Store updated = new Store("5678", "WC33RD", "Manchester", "Moved street", "11/11/2016", null);
+
+        StoreDiff diff = StoreDiff.between(previous, Arrays.asList(updated, THIRD_STORE));
+
+        assertEquals(Collections.singletonList(THIRD_STORE), diff.getInserted());
+        assertEquals(Collections.singletonList(updated), diff.getUpdated());
+        assertEquals(Collections.singletonList("1234"), diff.getDeleted());
+        assertEquals(3, diff.size());
+    }
+
+    @Test
+    public void comparesOnlyTheFirstStoreWithAnId()
+    {
+        StoreSnapshot previous = new StoreSnapshot(Arrays.asList(FIRST_STORE, SECOND_STORE), 1, 0);
+        Store duplicate = new Store("1234", "M11AA", "Leeds", "Duplicated street", "01/01/2001", null);
+
+        StoreDiff diff = StoreDiff.between(previous, Arrays.asList(FIRST_STORE, duplicate, SECOND_STORE, THIRD_STORE, THIRD_STORE));
+
+        assertEquals(Collections.singletonList(THIRD_STORE), diff.getInserted());
+        assertTrue(diff.getUpdated().isEmpty());
+        assertTrue(diff.getDeleted().isEmpty());
+    }
+
+    @Test
+    public void upsertsWrittenStoresWithoutDeletingTheOthers()
+    {
+        StoreSnapshot previous = new StoreSnapshot(Arrays.asList(FIRST_STORE, SECOND_STORE), 1, 0);
+        Store updated = new Store("5678", "WC33RD", "Manchester", "Moved street", "11/11/2016", null);
+
+        StoreDiff diff = StoreDiff.upserting(previous, Arrays.asList(THIRD_STORE, SECOND_STORE, FIRST_STORE, updated));
+
+        assertEquals(Collections.singletonList(THIRD_STORE), diff.getInserted());
+        assertEquals(Collections.singletonList(updated), diff.getUpdated());
+        assertTrue(diff.getDeleted().isEmpty());
+    }
+
+    @Test
+    public void laysWrittenStoresOverATable()
+    {
+        StoreTable previous = StoreTable.of(Arrays.asList(FIRST_STORE, SECOND_STORE));
+        Store written = new Store("5678", "WC33RD", "Manchester", "Moved street", "11/11/2016", null);
+        Store created = new Store("3456", "LS14AB", "Leeds", "New street", "01/01/2018", null);
+
+        StoreDiff diff = StoreDiff.between(previous, StoreTable.of(Arrays.asList(SECOND_STORE, THIRD_STORE)),
+                Arrays.asList(created, written, FIRST_STORE));
+
+        assertEquals(Arrays.asList(THIRD_STORE, created), diff.getInserted());
+        assertEquals(Collections.singletonList(written), diff.getUpdated());
+        assertTrue(diff.getDeleted().isEmpty());
+    }
+
+    @Test
+    public void comparesATableByTheHashesItHolds()
+    {
+        StoreSnapshot previous = new StoreSnapshot(Arrays.asList(FIRST_STORE, SECOND_STORE), 1, 0);
+        Store updated = new Store("5678", "WC33RD", "Manchester", "Moved street", "11/11/2016", null);
+
+        StoreDiff diff = StoreDiff.between(previous, StoreTable.of(Arrays.asList(THIRD_STORE, updated, THIRD_STORE)));
+
+        assertEquals(Collections.singletonList(THIRD_STORE), diff.getInserted());
+        assertEquals(Collections.singletonList(updated), diff.getUpdated());
+        assertEquals(Collections.singletonList("1234"), diff.getDeleted());
+    }
+
+    @Test
+    public void hashChangesWhenTextMovesToAnotherField()
+    {
+        assertNotEquals(StoreDiff.hash(new Store("1", "A", "B", "C", "11/11/2011", null)),
+                StoreDiff.hash(new Store("1", "AB", "", "C", "11/11/2011", null)));
+        assertNotEquals(StoreDiff.hash(new Store("1", "A", null, "C", "11/11/2011", null)),
+                StoreDiff.hash(new Store("1", "A", "", "C", "11/11/2011", null)));
+    }
+}
@@ -0,0 +1,97 @@
+package uk.co.pearson;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+public class StoreFileParserTest {
+
+    private static final String HEADER = "id,postCode,city,address,openDate";
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+    private final StoreConverter storeConverter = new StoreConverter();
+
+    @After
+    public void shutDownPool()
+    {
+        pool.shutdown();
+    }
+
+    @Test
+    public void keepsStoresInFileOrderAcrossManySmallChunks() throws IOException
+    {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            lines.add(i + ",WC3 3RE,London,Street " + i + ",11/11/2011");
+        }
+
+        StoreFileParser.ParsedStores parsed = parse(16, HEADER + "\n" + String.join("\n", lines) + "\n");
+
+        assertEquals(storeConverter.convertAll(lines), parsed.getStores());
+        assertEquals(500, parsed.getLineCount());
+    }
+
+    @Test
+    public void readsLinesLongerThanAChunk() throws IOException
+    {
+        StringBuilder address = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            address.append("Long street ");
+        }
+        String line = "1234,WC3 3RE,London," + address + ",11/11/2011";
+
+        StoreFileParser.ParsedStores parsed = parse(16, HEADER + "\n" + line + "\n5678,B1,Leeds,Short,01/01/2001");
+
+        assertEquals(storeConverter.convertAll(Arrays.asList(line, "5678,B1,Leeds,Short,01/01/2001")),
+                parsed.getStores());
+    }
+
+    @Test
+    public void readsWindowsLineEndingsQuotesAndNonAsciiText() throws IOException
+    {
+        String first = "1234,WC3 3RE,D\u00fcsseldorf,\"Unit 1, The Mill\",11/11/2011";
+        String second = "5678,B1,K\u00f6ln,Stra\u00dfe 2,01/01/2001";
+
+        StoreFileParser.ParsedStores parsed = parse(8, HEADER + "\r\n" + first + "\r\n" + second + "\r\n");
+
+        assertEquals(storeConverter.convertAll(Arrays.asList(first, second)), parsed.getStores());
+        assertEquals("Unit 1, The Mill", parsed.getStores().get(0).getAddress());
+    }
+
+    @Test
+    public void skipsRowsThatCannotBeParsedButCountsThem() throws IOException
+    {
+        StoreFileParser.ParsedStores parsed = parse(StoreFileParser.DEFAULT_CHUNK_BYTES,
+                HEADER + "\n1234,WC3 3RE,London,Street,11/11/2011\nnot a store\n\n5678,B1,Leeds,Short,01/01/2001\n");
+
+        assertEquals(2, parsed.getStores().size());
+        assertEquals("5678", parsed.getStores().get(1).getId());
+        assertEquals(4, parsed.getLineCount());
+        assertEquals(1, parsed.getQuarantine().getCount(RejectReason.WRONG_FIELD_COUNT));
+        assertEquals(1, parsed.getQuarantine().getCount(RejectReason.EMPTY_LINE));
+        assertEquals(3, parsed.getQuarantine().getSamples().get(0).getLineNumber());
+    }
+
+    @Test
+    public void returnsNoStoresForAFileWithOnlyAHeader() throws IOException
+    {
+        assertEquals(0, parse(16, HEADER).getStores().size());
+        assertEquals(0, parse(16, "").getLineCount());
+    }
+
+    private StoreFileParser.ParsedStores parse(int chunkBytes, String file) throws IOException
+    {
+        InputStream stream = new ByteArrayInputStream(file.getBytes(StandardCharsets.UTF_8));
+        return new StoreFileParser(pool, chunkBytes).parse(stream);
+    }
+}
@@ -0,0 +1,58 @@
+package uk.co.pearson;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class StoreRecordWriterTest {
+
+    private final StoreRecordWriter storeRecordWriter = new StoreRecordWriter();
+
+    @Test
+    public void readsBackWrittenStores() throws IOException
+    {
+        List<Store> stores = Arrays.asList(
+                new Store("1234", "WC33RE", "London", "Unit 1, \"The\" Mill", "11/11/2011", "2000"),
+                new Store("5678", "LS1 4AP", "D\u00fcsseldorf", "", null, null));
+
+        List<Store> read = storeRecordWriter.readRecords(new ByteArrayInputStream(write(stores)));
+
+        assertEquals(stores, read);
+        assertEquals("", read.get(1).getAddress());
+        assertNull(read.get(1).getOpenDate());
+    }
+
+    @Test
+    public void writesLongFieldsWithMultiByteLengths() throws IOException
+    {
+        char[] address = new char[300];
+        Arrays.fill(address, 'a');
+        Store store = new Store("1234", "WC33RE", "London", new String(address), "11/11/2011", "2000");
+
+        List<Store> read = storeRecordWriter.readRecords(new ByteArrayInputStream(write(Arrays.asList(store))));
+
+        assertEquals(300, read.get(0).getAddress().length());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsRecordsCutShort() throws IOException
+    {
+        byte[] bytes = write(Arrays.asList(new Store("1234", "WC33RE", "London", "Test street", "11/11/2011", null)));
+
+        storeRecordWriter.readRecords(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 3)));
+    }
+
+    private byte[] write(List<Store> stores) throws IOException
+    {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        storeRecordWriter.writeRecords(stores, outputStream);
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,134 @@
+package uk.co.pearson;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StoreResponseCacheTest {
+
+    private static final Store FIRST_STORE = new Store("1234", "WC33RE", "London", "Test street", "11/11/2011", null);
+    private static final Store SECOND_STORE = new Store("5678", "WC33RD", "Aberdeen", "Another Test street", "11/11/2016", null);
+
+    private final StoreResponseCache storeResponseCache = new StoreResponseCache();
+
+    @Before
+    public void init()
+    {
+        storeResponseCache.storeMetrics = new StoreMetrics();
+    }
+
+    @Test
+    public void rendersEachOrderOncePerSnapshot()
+    {
+        StoreSnapshot snapshot = snapshot(1);
+
+        StoreResponseCache.RenderedStores unsorted = storeResponseCache.get(snapshot, SortSpec.UNSORTED);
+        StoreResponseCache.RenderedStores byCity = storeResponseCache.get(snapshot, SortSpec.parse("city"));
+
+        assertSame(unsorted, storeResponseCache.get(snapshot, SortSpec.UNSORTED));
+        assertSame(byCity, storeResponseCache.get(snapshot, SortSpec.parse("city:asc")));
+        assertTrue(json(unsorted).indexOf("1234") < json(unsorted).indexOf("5678"));
+        assertTrue(json(byCity).indexOf("5678") < json(byCity).indexOf("1234"));
+        assertEquals(2, storeResponseCache.storeMetrics.latency(StoreMetrics.Stage.SERIALIZE).getCount());
+    }
+
+    @Test
+    public void rendersTheSameJsonAsTheStoreWriter() throws IOException
+    {
+        StoreSnapshot snapshot = snapshot(1);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new StoreJsonWriter().writeArray(snapshot.getStores(), expected);
+
+        StoreResponseCache.RenderedStores rendered = storeResponseCache.get(snapshot, SortSpec.UNSORTED);
+
+        assertArrayEquals(expected.toByteArray(), rendered.getJson());
+        assertArrayEquals(expected.toByteArray(), gunzip(rendered.getGzip()));
+    }
+
+    @Test
+    public void tagsBodiesBySnapshotOrderAndEncoding()
+    {
+        StoreResponseCache.RenderedStores rendered = storeResponseCache.get(snapshot(1), SortSpec.UNSORTED);
+
+        assertTrue(rendered.getEntityTag().startsWith("\"") && rendered.getEntityTag().endsWith("\""));
+        assertEquals(rendered.getEntityTag(), storeResponseCache.entityTag(snapshot(1), SortSpec.UNSORTED, false));
+        assertEquals(rendered.getGzipEntityTag(), storeResponseCache.entityTag(snapshot(1), SortSpec.UNSORTED, true));
+        assertNotEquals(rendered.getEntityTag(), rendered.getGzipEntityTag());
+        assertNotEquals(rendered.getEntityTag(), storeResponseCache.entityTag(snapshot(2), SortSpec.UNSORTED, false));
+        assertNotEquals(rendered.getEntityTag(), storeResponseCache.entityTag(snapshot(1), SortSpec.parse("city"), false));
+    }
+
+    @Test
+    public void dropsTheBodiesOfTheOlderSnapshot()
+    {
+        StoreResponseCache.RenderedStores first = storeResponseCache.get(snapshot(1), SortSpec.UNSORTED);
+        long firstBytes = storeResponseCache.getCachedBytes();
+
+        StoreResponseCache.RenderedStores second = storeResponseCache.get(snapshot(2), SortSpec.UNSORTED);
+
+        assertNotSame(first, second);
+        assertEquals(firstBytes, storeResponseCache.getCachedBytes());
+        assertSame(second, storeResponseCache.get(snapshot(2), SortSpec.UNSORTED));
+    }
+
+    @Test
+    public void rendersAnOlderSnapshotWithoutKeepingIt()
+    {
+        StoreResponseCache.RenderedStores newer = storeResponseCache.get(snapshot(2), SortSpec.UNSORTED);
+
+        StoreResponseCache.RenderedStores older = storeResponseCache.get(snapshot(1), SortSpec.UNSORTED);
+
+        assertNotEquals(newer.getEntityTag(), older.getEntityTag());
+        assertNotSame(older, storeResponseCache.get(snapshot(1), SortSpec.UNSORTED));
+        assertSame(newer, storeResponseCache.get(snapshot(2), SortSpec.UNSORTED));
+    }
+
+    @Test
+    public void doesNotKeepBodiesOverTheLimit()
+    {
+        storeResponseCache.maxBytes = 1;
+        StoreSnapshot snapshot = snapshot(1);
+
+        StoreResponseCache.RenderedStores rendered = storeResponseCache.get(snapshot, SortSpec.UNSORTED);
+
+        assertNotSame(rendered, storeResponseCache.get(snapshot, SortSpec.UNSORTED));
+        assertEquals(0, storeResponseCache.getCachedBytes());
+    }
+
+    private static StoreSnapshot snapshot(long version)
+    {
+        return new StoreSnapshot(Arrays.asList(FIRST_STORE, SECOND_STORE), version, 0);
+    }
+
+    private static String json(StoreResponseCache.RenderedStores rendered)
+    {
+        return new String(rendered.getJson(), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gunzip(byte[] gzip) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,88 @@
+package uk.co.pearson;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class StoreSnapshotFileTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final StoreConverter storeConverter = new StoreConverter();
+    private final StoreSnapshotFile storeSnapshotFile = new StoreSnapshotFile();
+    private File file;
+
+    @Before
+    public void setFile() {
+        file = new File(temporaryFolder.getRoot(), "store-snapshot.bin");
+        storeSnapshotFile.file = file.getPath();
+    }
+
+    @Test
+    public void readsBackWrittenStores() throws IOException {
+        List<Store> stores = Arrays.asList(
+                storeConverter.createStore("1234", "WC33RE", "London", "Unit 1, \"The\" Mill", "11/11/2011"),
+                storeConverter.createStore("5678", "LS1 4AP", "D\u00fcsseldorf", "", "not a date"));
+
+        storeSnapshotFile.write(stores, 42L);
+        StoreSnapshotFile.SavedStores saved = storeSnapshotFile.read();
+
+        assertEquals(42L, saved.getLoadedAt());
+        assertEquals(2, saved.getStores().size());
+        for (int i = 0; i < stores.size(); i++) {
+            Store expected = stores.get(i);
+            Store actual = saved.getStores().get(i);
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.getPostCode(), actual.getPostCode());
+            assertEquals(expected.getCity(), actual.getCity());
+            assertEquals(expected.getAddress(), actual.getAddress());
+            assertEquals(expected.getOpenDate(), actual.getOpenDate());
+            assertEquals(expected.getDaysSinceOpen(), actual.getDaysSinceOpen());
+        }
+    }
+
+    @Test
+    public void returnsNullWhenThereIsNoFile() throws IOException {
+        assertNull(storeSnapshotFile.read());
+        assertNull(storeSnapshotFile.open());
+        assertEquals(-1, storeSnapshotFile.size());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsCorruptFile() throws IOException {
+        storeSnapshotFile.write(Arrays.asList(storeConverter.createStore("1234", "WC33RE", "London", "Test street", "11/11/2011")), 42L);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(file.toPath(), bytes);
+
+        storeSnapshotFile.read();
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsFileWithAnotherFormatVersion() throws IOException {
+        storeSnapshotFile.write(Arrays.asList(storeConverter.createStore("1234", "WC33RE", "London", "Test street", "11/11/2011")), 42L);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        bytes[7] = StoreSnapshotFile.FORMAT_VERSION + 1;
+        Files.write(file.toPath(), bytes);
+
+        storeSnapshotFile.read();
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsFileThatIsNotAStoreSnapshot() throws IOException {
+        Files.write(file.toPath(), "1234,WC33RE,London,Test street,11/11/2011\n".getBytes("UTF-8"));
+
+        storeSnapshotFile.read();
+    }
+}
@@ -0,0 +1,399 @@
+package uk.co.pearson;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StoreSnapshotHolderTest {
+
+    private static final String FIRST_LINE = "1234,WC33RE,London,Test street,11/11/2011";
+    private static final String SECOND_LINE = "5678,WC33RD,Manchester,Another Test street,11/11/2016";
+
+    @Mock
+    StoreSource storeSource;
+
+    @Mock
+    StoreMetrics storeMetrics;
+
+    @Mock
+    StoreWriteLog storeWriteLog;
+
+    @Mock
+    StoreSnapshotFile storeSnapshotFile;
+
+    @Mock
+    StoreChangeFeed storeChangeFeed;
+
+    @Mock
+    IngestLog ingestLog;
+
+    @InjectMocks
+    StoreSnapshotHolder storeSnapshotHolder = new StoreSnapshotHolder();
+
+    @Test
+    public void loadsSnapshotOnFirstAccess() throws IOException {
+        when(storeSource.open()).thenReturn(storeFile(FIRST_LINE, SECOND_LINE));
+
+        StoreSnapshot snapshot = storeSnapshotHolder.getSnapshot();
+
+        assertEquals(1, snapshot.getVersion());
+        assertEquals(2, snapshot.getStores().size());
+    }
+
+    @Test
+    public void doesNotDownloadAgainOnceLoaded() throws IOException {
+        when(storeSource.open()).thenReturn(storeFile(FIRST_LINE));
+
+        StoreSnapshot first = storeSnapshotHolder.getSnapshot();
+        StoreSnapshot second = storeSnapshotHolder.getSnapshot();
+
+        assertSame(first, second);
+        verify(storeSource, times(1)).open();
+    }
+
+    @Test
+    public void refreshPublishesNewVersion() throws IOException {
+        when(storeSource.open())
+                .thenReturn(storeFile(FIRST_LINE))
+                .thenReturn(storeFile(FIRST_LINE, SECOND_LINE));
+
+        storeSnapshotHolder.refresh();
+        storeSnapshotHolder.refresh();
+
+        StoreSnapshot snapshot = storeSnapshotHolder.getSnapshot();
+        assertEquals(2, snapshot.getVersion());
+        assertEquals(2, snapshot.getStores().size());
+    }
+
+    @Test
+    public void keepsVersionWhenDownloadedStoresHaveNotChanged() throws IOException {
+        when(storeSource.open())
+                .thenReturn(storeFile(FIRST_LINE, SECOND_LINE))
+                .thenReturn(storeFile(FIRST_LINE, SECOND_LINE));
+
+        StoreSnapshot first = storeSnapshotHolder.refresh();
+        StoreSnapshot second = storeSnapshotHolder.refresh();
+
+        assertEquals(1, second.getVersion());
+        assertSame(first.getSortIndex(), second.getSortIndex());
+        verify(storeChangeFeed).reset(1);
+        verify(storeChangeFeed, never()).publish(any(StoreChanges.class));
+    }
+
+    @Test
+    public void publishesStoresInsertedUpdatedAndDeleted() throws IOException {
+        String updatedLine = "1234,WC33RE,London,New street,11/11/2011";
+        String insertedLine = "9999,WC33RF,Leeds,Third street,11/11/2017";
+        when(storeSource.open())
+                .thenReturn(storeFile(FIRST_LINE, SECOND_LINE))
+                .thenReturn(storeFile(updatedLine, insertedLine));
+        ArgumentCaptor<StoreChanges> published = ArgumentCaptor.forClass(StoreChanges.class);
+
+        storeSnapshotHolder.refresh();
+        storeSnapshotHolder.refresh();
+
+        verify(storeChangeFeed).publish(published.capture());
+        StoreChanges changes = published.getValue();
+        assertEquals(1, changes.getSince());
+        assertEquals(2, changes.getVersion());
+        assertEquals("9999", changes.getInserted().get(0).getId());
+        assertEquals("New street", changes.getUpdated().get(0).getAddress());
+        assertEquals(Collections.singletonList("5678"), changes.getDeleted());
+        verify(storeMetrics).changesPublished(3);
+    }
+
+    @Test
+    public void keepsSnapshotWithoutParsingWhenStoreFileIsNotModified() throws IOException {
+        when(storeSource.open())
+                .thenReturn(storeFile(FIRST_LINE, SECOND_LINE))
+                .thenReturn(null);
+
+        StoreSnapshot first = storeSnapshotHolder.refresh();
+        StoreSnapshot second = storeSnapshotHolder.refresh();
+
+        assertEquals(1, second.getVersion());
+        assertSame(first.getSortIndex(), second.getSortIndex());
+        assertEquals(first.getLoadedAt(), second.getLoadedAt());
+        assertTrue(second.getCheckedAt() >= first.getCheckedAt());
+        assertSame(second, storeSnapshotHolder.getSnapshot());
+        verify(storeMetrics).refreshNotModified();
+        verify(storeMetrics, times(1)).rowsParsed(2, 0);
+        verify(storeSnapshotFile, times(1)).write(anyList(), anyLong());
+    }
+
+    @Test
+    public void commitsDownloadOnlyOnceItsStoresArePublished() throws IOException {
+        AtomicBoolean committed = new AtomicBoolean();
+        when(storeSource.open()).thenReturn(storeFile(() -> committed.set(true), FIRST_LINE));
+        when(storeWriteLog.getWrites()).thenThrow(new IllegalStateException("write log closed"));
+
+        try {
+            storeSnapshotHolder.refresh();
+            fail("Should throw IllegalStateException");
+        } catch (IllegalStateException e) {
+            //Expected exception
+        }
+
+        assertFalse(committed.get());
+    }
+
+    @Test
+    public void stopsCallingTheSourceAfterFailingInARow() throws IOException {
+        storeSnapshotHolder.sourceCircuitBreaker = new CircuitBreaker("The store source", 2, 60000);
+        when(storeSource.open()).thenThrow(new IOException("timed out"));
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                storeSnapshotHolder.refresh();
+                fail("Should throw IOException");
+            } catch (IOException e) {
+                //Expected exception
+            }
+        }
+        try {
+            storeSnapshotHolder.refresh();
+            fail("Should throw ServiceUnavailableException");
+        } catch (ServiceUnavailableException e) {
+            //Expected exception
+        }
+
+        verify(storeSource, times(2)).open();
+    }
+
+    @Test
+    public void keepsLastGoodSnapshotWhenRefreshFails() throws IOException {
+        when(storeSource.open())
+                .thenReturn(storeFile(FIRST_LINE))
+                .thenThrow(IOException.class);
+
+        StoreSnapshot good = storeSnapshotHolder.refresh();
+        try {
+            storeSnapshotHolder.refresh();
+            fail("Should throw IOException");
+        } catch (IOException e) {
+            //Expected exception
+        }
+
+        assertSame(good, storeSnapshotHolder.getSnapshot());
+    }
+
+    @Test
+    public void laysWrittenStoresOverDownloadedStoresThenAppliesThem() throws IOException {
+        StoreConverter storeConverter = new StoreConverter();
+        Store updated = storeConverter.createStore("1234", "WC33RE", "London", "New street", "11/11/2011");
+        Store created = storeConverter.createStore("9999", "WC33RF", "Leeds", "Third street", "11/11/2017");
+        when(storeSource.open()).thenReturn(storeFile(FIRST_LINE, SECOND_LINE));
+        when(storeWriteLog.getWrites()).thenReturn(Collections.singletonMap(updated.getId(), updated));
+
+        storeSnapshotHolder.refresh();
+        storeSnapshotHolder.applyWrites(Collections.singletonList(created));
+
+        StoreSnapshot pending = storeSnapshotHolder.getSnapshot();
+        assertEquals(1, pending.getVersion());
+        assertEquals(created, pending.findById("9999"));
+        assertEquals(2, pending.getStores().size());
+
+        storeSnapshotHolder.publishWrites();
+
+        StoreSnapshot snapshot = storeSnapshotHolder.getSnapshot();
+        assertEquals(2, snapshot.getVersion());
+        assertEquals(3, snapshot.getStores().size());
+        assertEquals(updated, snapshot.findById("1234"));
+        assertEquals(created, snapshot.getStores().get(2));
+    }
+
+    @Test
+    public void servesSavedStoresUntilFirstDownload() throws IOException {
+        StoreConverter storeConverter = new StoreConverter();
+        Store saved = storeConverter.createStore("1234", "WC33RE", "London", "Test street", "11/11/2011");
+        when(storeSnapshotFile.read()).thenReturn(new StoreSnapshotFile.SavedStores(Collections.singletonList(saved), 42L));
+
+        storeSnapshotHolder.restore();
+
+        StoreSnapshot snapshot = storeSnapshotHolder.getSnapshot();
+        assertEquals(42L, snapshot.getLoadedAt());
+        assertEquals(saved, snapshot.findById("1234"));
+        verify(storeSource, never()).open();
+    }
+
+    @Test
+    public void ignoresSavedStoresThatCannotBeRead() throws IOException {
+        when(storeSnapshotFile.read()).thenThrow(new IOException("corrupt"));
+        when(storeSource.open()).thenReturn(storeFile(FIRST_LINE));
+
+        storeSnapshotHolder.restore();
+
+        assertEquals(1, storeSnapshotHolder.getSnapshot().getStores().size());
+        verify(storeSource).open();
+    }
+
+    @Test
+    public void savesEveryDownloadEvenWhenSavingFails() throws IOException {
+        when(storeSource.open()).thenReturn(storeFile(FIRST_LINE));
+        doThrow(new IOException("disk full")).when(storeSnapshotFile).write(anyList(), anyLong());
+
+        StoreSnapshot snapshot = storeSnapshotHolder.refresh();
+
+        verify(storeSnapshotFile).write(anyList(), eq(snapshot.getLoadedAt()));
+        assertSame(snapshot, storeSnapshotHolder.getSnapshot());
+    }
+
+    @Test
+    public void sharesOneDownloadBetweenEveryoneWaiting() throws Exception {
+        CountDownLatch downloading = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        when(storeSource.open()).thenAnswer(invocation -> {
+            downloading.countDown();
+            finish.await();
+            return storeFile(FIRST_LINE);
+        });
+
+        CompletableFuture<StoreSnapshot> first = storeSnapshotHolder.getSnapshotAsync();
+        downloading.await();
+        CompletableFuture<StoreSnapshot> second = storeSnapshotHolder.getSnapshotAsync();
+        finish.countDown();
+
+        assertSame(first.get(), second.get());
+        assertSame(first.get(), storeSnapshotHolder.getSnapshot());
+        verify(storeSource, times(1)).open();
+    }
+
+    @Test
+    public void callsBackThoseWaitingOffTheDownloadThread() throws Exception {
+        CountDownLatch finish = new CountDownLatch(1);
+        when(storeSource.open()).thenAnswer(invocation -> {
+            finish.await();
+            return storeFile(FIRST_LINE);
+        });
+
+        CompletableFuture<String> calledBackOn = storeSnapshotHolder.getSnapshotAsync()
+                .thenApply(snapshot -> Thread.currentThread().getName());
+        finish.countDown();
+
+        assertTrue(calledBackOn.get().startsWith("store-snapshot-callbacks"));
+    }
+
+    @Test(expected = IOException.class)
+    public void passesExceptionWhenNothingHasBeenLoadedYet() throws IOException {
+        when(storeSource.open()).thenThrow(IOException.class);
+        storeSnapshotHolder.getSnapshot();
+    }
+
+    @Test
+    public void countsRowsThatCannotBeParsed() throws IOException {
+        when(storeSource.open()).thenReturn(storeFile(FIRST_LINE, "not a store", SECOND_LINE));
+
+        StoreSnapshot snapshot = storeSnapshotHolder.refresh();
+
+        assertEquals(2, snapshot.getStores().size());
+        verify(storeMetrics).rowsParsed(2, 1);
+    }
+
+    @Test
+    public void keepsTheIngestReportOfTheLastLoad() throws IOException {
+        when(storeSource.open()).thenReturn(storeFile(FIRST_LINE, "not a store", SECOND_LINE));
+
+        StoreSnapshot snapshot = storeSnapshotHolder.refresh();
+
+        IngestReport report = storeSnapshotHolder.getIngestReport();
+        assertEquals(snapshot.getVersion(), report.getVersion());
+        assertEquals(3, report.getLines());
+        assertEquals(2, report.getParsed());
+        assertEquals(1, report.getDropped());
+        assertEquals(Long.valueOf(1), report.getReasons().get("wrong-field-count"));
+        assertEquals(3, report.getSamples().get(0).getLineNumber());
+        verify(ingestLog).log(report);
+    }
+
+    @Test
+    public void parsesALocalFileInPlace() throws IOException {
+        Path file = Files.createTempFile("stores", ".csv");
+        try {
+            String text = "id,postCode,city,address,openDate\n" + FIRST_LINE + "\n" + FIRST_LINE + "\nnot a store\n";
+            Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+            when(storeSource.open()).thenReturn(new StoreDownload(Files.newInputStream(file), () -> {
+            }, file));
+
+            StoreSnapshot snapshot = storeSnapshotHolder.refresh();
+
+            assertTrue(snapshot.getStores() instanceof StoreTable);
+            assertEquals(1, snapshot.getStores().size());
+            assertEquals(Collections.singleton("1234"), snapshot.getDuplicateIds());
+            verify(storeMetrics).rowsParsed(2, 1);
+            verify(storeMetrics).bytesDownloaded(text.length());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void appliesWrittenStoresToTheTableOfALocalFile() throws IOException {
+        StoreConverter storeConverter = new StoreConverter();
+        Store updated = storeConverter.createStore("1234", "WC33RE", "London", "New street", "11/11/2011");
+        Store created = storeConverter.createStore("9999", "WC33RF", "Leeds", "Third street", "11/11/2017");
+        Map<String, Store> writes = new LinkedHashMap<>();
+        writes.put(created.getId(), created);
+        writes.put(updated.getId(), updated);
+        when(storeWriteLog.getWrites()).thenReturn(writes);
+        Path file = Files.createTempFile("stores", ".csv");
+        try {
+            String text = "id,postCode,city,address,openDate\n" + FIRST_LINE + "\n" + SECOND_LINE + "\n";
+            Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+            when(storeSource.open()).thenAnswer(invocation -> new StoreDownload(Files.newInputStream(file), () -> {
+            }, file));
+
+            StoreSnapshot first = storeSnapshotHolder.refresh();
+            StoreSnapshot second = storeSnapshotHolder.refresh();
+
+            assertTrue(first.getStores() instanceof StoreTable);
+            assertEquals(Arrays.asList(updated, storeConverter.createStore("5678", "WC33RD", "Manchester",
+                    "Another Test street", "11/11/2016"), created), first.getStores());
+            assertEquals(first.getVersion(), second.getVersion());
+            assertSame(first.getSortIndex(), second.getSortIndex());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static StoreDownload storeFile(String... lines) {
+        return storeFile(() -> {
+        }, lines);
+    }
+
+    private static StoreDownload storeFile(Runnable commit, String... lines) {
+        String file = "id,postCode,city,address,openDate\n" + String.join("\n", lines) + "\n";
+        return new StoreDownload(new ByteArrayInputStream(file.getBytes(StandardCharsets.UTF_8)), commit);
+    }
+}
@@ -0,0 +1,206 @@
+package uk.co.pearson;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StoreSnapshotTest {
+
+    private static final Store FIRST_STORE = new Store("1234", "WC33RE", "London", "Test street", "11/11/2011", null);
+    private static final Store SECOND_STORE = new Store("5678", "WC33RD", "Manchester", "Another Test street", "11/11/2016", null);
+    private static final Store THIRD_STORE = new Store("9012", "EH11AA", "Edinburgh", "Third Test street", "11/11/2013", null);
+    private static final Store FIRST_STORE_AGAIN = new Store("1234", "M11AA", "Leeds", "Duplicated street", "01/01/2001", null);
+
+    @Test
+    public void findsStoreById()
+    {
+        StoreSnapshot snapshot = new StoreSnapshot(Arrays.asList(FIRST_STORE, SECOND_STORE), 1, 0);
+
+        assertEquals(FIRST_STORE, snapshot.findById("1234"));
+        assertEquals(SECOND_STORE, snapshot.findById("5678"));
+    }
+
+    @Test
+    public void returnsNullWhenIdIsUnknown()
+    {
+        StoreSnapshot snapshot = new StoreSnapshot(Collections.singletonList(FIRST_STORE), 1, 0);
+
+        assertNull(snapshot.findById("5678"));
+    }
+
+    @Test
+    public void keepsFirstRowAndReportsDuplicatedIds()
+    {
+        StoreSnapshot snapshot = new StoreSnapshot(Arrays.asList(FIRST_STORE, SECOND_STORE, FIRST_STORE_AGAIN), 1, 0);
+
+        assertEquals(FIRST_STORE, snapshot.findById("1234"));
+        assertEquals(Arrays.asList(FIRST_STORE, SECOND_STORE), snapshot.getStores());
+        assertEquals(Collections.singleton("1234"), snapshot.getDuplicateIds());
+    }
+
+    @Test
+    public void reportsNoDuplicatesForUniqueIds()
+    {
+        StoreSnapshot snapshot = new StoreSnapshot(Arrays.asList(FIRST_STORE, SECOND_STORE), 1, 0);
+
+        assertTrue(snapshot.getDuplicateIds().isEmpty());
+    }
+
+    @Test
+    public void pagesThroughSortedStores()
+    {
+        StoreSnapshot snapshot = new StoreSnapshot(Arrays.asList(FIRST_STORE, SECOND_STORE, THIRD_STORE), 1, 0);
+        SortSpec byCity = SortSpec.parse("city");
+
+        StorePage firstPage = snapshot.getPage(byCity, 2, null);
+        assertEquals(Arrays.asList(THIRD_STORE, FIRST_STORE), firstPage.getStores());
+        assertNotNull(firstPage.getNextCursor());
+
+        StorePage secondPage = snapshot.getPage(byCity, 2, PageCursor.decode(firstPage.getNextCursor().encode(), byCity));
+        assertEquals(Collections.singletonList(SECOND_STORE), secondPage.getStores());
+        assertNull(secondPage.getNextCursor());
+    }
+
+    @Test
+    public void continuesFromTheSameKeyAfterRefresh()
+    {
+        SortSpec byCity = SortSpec.parse("city");
+        StoreSnapshot before = new StoreSnapshot(Arrays.asList(FIRST_STORE, SECOND_STORE, THIRD_STORE), 1, 0);
+        PageCursor cursor = before.getPage(byCity, 2, null).getNextCursor();
+
+        StoreSnapshot after = new StoreSnapshot(Arrays.asList(SECOND_STORE, THIRD_STORE), 2, 0);
+        StorePage nextPage = after.getPage(byCity, 2, PageCursor.decode(cursor.encode(), byCity));
+
+        assertEquals(Collections.singletonList(SECOND_STORE), nextPage.getStores());
+    }
+
+    @Test(expected = InvalidRequestException.class)
+    public void rejectsCursorOfAnotherSort()
+    {
+        StoreSnapshot snapshot = new StoreSnapshot(Arrays.asList(FIRST_STORE, SECOND_STORE, THIRD_STORE), 1, 0);
+        PageCursor cursor = snapshot.getPage(SortSpec.parse("city"), 1, null).getNextCursor();
+
+        PageCursor.decode(cursor.encode(), SortSpec.parse("opendate"));
+    }
+
+    @Test
+    public void findsPendingWritesByIdOnly()
+    {
+        StoreSnapshot snapshot = new StoreSnapshot(Arrays.asList(FIRST_STORE, SECOND_STORE), 1, 0);
+        Store written = new Store("1234", "WC33RE", "London", "Moved street", "11/11/2011", null);
+
+        StoreSnapshot pending = snapshot.withPendingWrites(Collections.singletonMap("1234", written));
+
+        assertEquals(written, pending.findById("1234"));
+        assertEquals(SECOND_STORE, pending.findById("5678"));
+        assertEquals(Arrays.asList(FIRST_STORE, SECOND_STORE), pending.getStores());
+        assertEquals(1, pending.getVersion());
+        assertEquals(FIRST_STORE, snapshot.findById("1234"));
+    }
+
+    @Test
+    public void keepsTheLastCheckOfTheSourceUntilTheNextLoad()
+    {
+        StoreSnapshot loaded = new StoreSnapshot(Arrays.asList(FIRST_STORE, SECOND_STORE), 1, 100);
+        Store written = new Store("1234", "WC33RE", "London", "Moved street", "11/11/2011", null);
+
+        StoreSnapshot checked = loaded.withCheckedAt(200);
+        StoreSnapshot withWrites = checked.withChanges(StoreDiff.upserting(checked, Collections.singletonList(written)),
+                Collections.emptySet(), 2, checked.getLoadedAt());
+        StoreSnapshot reloaded = withWrites.withLoadedAt(300);
+
+        assertEquals(100, loaded.getCheckedAt());
+        assertEquals(100, checked.getLoadedAt());
+        assertEquals(200, checked.getCheckedAt());
+        assertEquals(200, withWrites.getCheckedAt());
+        assertEquals(300, reloaded.getCheckedAt());
+    }
+
+    @Test
+    public void appliesChangesToAnotherVersion()
+    {
+        StoreSnapshot before = new StoreSnapshot(Arrays.asList(FIRST_STORE, SECOND_STORE, THIRD_STORE), 1, 0);
+        Store movedStore = new Store("5678", "EH12AB", "Aberdeen", "Moved street", "11/11/2016", null);
+        Store newStore = new Store("3456", "LS14AB", "Leeds", "New street", "01/01/2018", null);
+        StoreDiff diff = new StoreDiff(Collections.singletonList(newStore), Collections.singletonList(movedStore),
+                Collections.singletonList("1234"));
+
+        StoreSnapshot after = before.withChanges(diff, Collections.emptySet(), 2, 5);
+
+        assertEquals(Arrays.asList(movedStore, THIRD_STORE, newStore), after.getStores());
+        assertEquals(2, after.getVersion());
+        assertEquals(5, after.getLoadedAt());
+        assertNull(after.findById("1234"));
+        assertEquals(Arrays.asList(movedStore, THIRD_STORE, newStore), after.getStores(SortSpec.parse("city")));
+        assertEquals(Collections.singletonList(movedStore), after.search("moved", 10));
+        assertEquals(Collections.singletonList(THIRD_STORE), after.search("test", 10));
+        assertEquals(Arrays.asList(FIRST_STORE, SECOND_STORE, THIRD_STORE), before.getStores());
+    }
+
+    @Test
+    public void appliedChangesGiveTheIndexesOfANewSnapshot()
+    {
+        Random random = new Random(42);
+        List<Store> stores = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            stores.add(randomStore(random, i));
+        }
+        StoreSnapshot applied = new StoreSnapshot(stores, 1, 0);
+        for (int version = 2; version < 12; version++) {
+            List<Store> inserted = new ArrayList<>();
+            List<Store> updated = new ArrayList<>();
+            List<String> deleted = new ArrayList<>();
+            for (Store store : applied.getStores()) {
+                int change = random.nextInt(20);
+                if (change == 0) {
+                    deleted.add(store.getId());
+                } else if (change == 1) {
+                    updated.add(randomStore(random, Integer.parseInt(store.getId().replace("S", ""))));
+                }
+            }
+            for (int i = 0; i < 10; i++) {
+                inserted.add(randomStore(random, 1000 * version + i));
+            }
+
+            applied = applied.withChanges(new StoreDiff(inserted, updated, deleted), Collections.emptySet(), version, 0);
+            StoreSnapshot built = new StoreSnapshot(new ArrayList<>(applied.getStores()), version, 0);
+
+            for (SortField field : SortField.values()) {
+                for (boolean descending : new boolean[]{false, true}) {
+                    SortSpec spec = SortSpec.of(field, descending);
+                    assertArrayEquals(built.getSortIndex().order(spec), applied.getSortIndex().order(spec));
+                    for (int row = 0; row < built.getStores().size(); row++) {
+                        assertEquals(built.getSortIndex().rank(field, row), applied.getSortIndex().rank(field, row));
+                    }
+                }
+            }
+            SortSpec composite = SortSpec.parse("city,-opendate");
+            assertEquals(built.getStores(composite), applied.getStores(composite));
+            for (String query : new String[]{"street", "s", "lon", "high 1", "b"}) {
+                assertEquals(built.search(query, 50), applied.search(query, 50));
+            }
+        }
+    }
+
+    private static Store randomStore(Random random, int number)
+    {
+        String[] cities = {"London", "Leeds", "Bath", null, "Derby"};
+        String[] streets = {"High Street", "Station Road", "St. John's Way", "Church Lane"};
+        String id = number % 7 == 0 ? "S" + number : Integer.toString(number);
+        String postCode = random.nextInt(10) == 0 ? null : "AB" + random.nextInt(20) + " " + random.nextInt(10) + "CD";
+        String address = random.nextInt(10) == 0 ? null : random.nextInt(99) + " " + streets[random.nextInt(streets.length)];
+        String openDate = random.nextInt(10) == 0 ? "unknown"
+                : String.format("%02d/%02d/%04d", 1 + random.nextInt(28), 1 + random.nextInt(12), 2000 + random.nextInt(10));
+        return new Store(id, postCode, cities[random.nextInt(cities.length)], address, openDate, null);
+    }
+}
@@ -0,0 +1,104 @@
+package uk.co.pearson;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class StoreStatsTest {
+
+    private static final int TODAY = (int) LocalDate.of(2017, 1, 1).toEpochDay();
+
+    private final StoreStats stats = new StoreStats(StoreTable.of(Arrays.asList(
+            new Store("1", "WC33RE", "London", "Test street", "11/11/2011", null),
+            new Store("2", "E1 6AN", "London", "Second street", "21/11/2011", null),
+            new Store("3", "M11AA", "Manchester", "Third street", "01/02/2016", null),
+            new Store("4", "wc1 2ab", "London", "Fourth street", "not a date", null),
+            new Store("5", null, null, "Fifth street", "31/12/2016", null))));
+
+    @Test
+    public void countsAllTheStores()
+    {
+        StoreStatsReport report = stats.report(3, null, TODAY);
+
+        assertEquals(3, report.getVersion());
+        assertEquals(5, report.getStores());
+        assertEquals(averageDaysOpen("11/11/2011", "21/11/2011", "01/02/2016", "31/12/2016"), report.getAverageDaysOpen());
+        assertNull(report.getGroupBy());
+        assertNull(report.getGroups());
+    }
+
+    @Test
+    public void groupsByCity()
+    {
+        List<StoreStatsReport.Group> groups = stats.report(3, StatsGroup.CITY, TODAY).getGroups();
+
+        assertEquals(Arrays.asList(null, "London", "Manchester"), keys(groups));
+        assertEquals(Arrays.asList(1, 3, 1), stores(groups));
+        assertEquals(averageDaysOpen("11/11/2011", "21/11/2011"), groups.get(1).getAverageDaysOpen());
+    }
+
+    @Test
+    public void groupsByPostCodeArea()
+    {
+        List<StoreStatsReport.Group> groups = stats.report(3, StatsGroup.POSTCODE_AREA, TODAY).getGroups();
+
+        assertEquals(Arrays.asList(null, "E", "M", "WC"), keys(groups));
+        assertEquals(Arrays.asList(1, 1, 1, 2), stores(groups));
+    }
+
+    @Test
+    public void groupsByOpenYearAndMonth()
+    {
+        List<StoreStatsReport.Group> years = stats.report(3, StatsGroup.OPEN_YEAR, TODAY).getGroups();
+        List<StoreStatsReport.Group> months = stats.report(3, StatsGroup.OPEN_MONTH, TODAY).getGroups();
+
+        assertEquals(Arrays.asList(null, "2011", "2016"), keys(years));
+        assertEquals(Arrays.asList(1, 2, 2), stores(years));
+        assertNull(years.get(0).getAverageDaysOpen());
+        assertEquals(Arrays.asList(null, "2011-11", "2016-02", "2016-12"), keys(months));
+        assertEquals(Arrays.asList(1, 2, 1, 1), stores(months));
+        assertEquals(Double.valueOf(1), months.get(3).getAverageDaysOpen());
+    }
+
+    @Test
+    public void averagesDaysOpenFromTheDayAsked()
+    {
+        assertEquals(Double.valueOf(1), stats.report(3, StatsGroup.OPEN_MONTH, TODAY).getGroups().get(3).getAverageDaysOpen());
+        assertEquals(Double.valueOf(31), stats.report(3, StatsGroup.OPEN_MONTH, TODAY + 30).getGroups().get(3).getAverageDaysOpen());
+    }
+
+    @Test
+    public void countsNothingWithoutStores()
+    {
+        StoreStats empty = new StoreStats(StoreTable.of(Collections.emptyList()));
+
+        assertEquals(0, empty.report(1, null, TODAY).getStores());
+        assertNull(empty.report(1, null, TODAY).getAverageDaysOpen());
+        assertEquals(0, empty.report(1, StatsGroup.OPEN_YEAR, TODAY).getGroups().size());
+    }
+
+    private static Double averageDaysOpen(String... dates)
+    {
+        double days = 0;
+        for (String date : dates) {
+            days += TODAY - OpenDates.parseEpochDay(date);
+        }
+        return Math.round(days / dates.length * 10) / 10.0;
+    }
+
+    private static List<String> keys(List<StoreStatsReport.Group> groups)
+    {
+        return Arrays.asList(groups.stream().map(StoreStatsReport.Group::getKey).toArray(String[]::new));
+    }
+
+    private static List<Integer> stores(List<StoreStatsReport.Group> groups)
+    {
+        return Arrays.asList(groups.stream().map(StoreStatsReport.Group::getStores).toArray(Integer[]::new));
+    }
+}
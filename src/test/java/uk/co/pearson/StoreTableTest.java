@@ -0,0 +1,98 @@
+package uk.co.pearson;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StoreTableTest {
+
+    private final List<Store> stores = Arrays.asList(
+            new Store("1234", "WC3 3RE", "London", "Unit 1, \"The\" Mill", "11/11/2011", null),
+            new Store("x-9", "B1", "London", "", "3/2/2016", null),
+            new Store("007", "LS1 4\u00c4\u20ac", "D\u00fcsseldorf", "K\u00f6nigsallee 1", "not a date", null),
+            new Store("5678", null, null, null, null, null));
+
+    private final StoreTable table = StoreTable.of(stores);
+
+    @Test
+    public void givesBackEveryStoreAsItWasAdded()
+    {
+        assertEquals(stores, table);
+    }
+
+    @Test
+    public void findsRowsById()
+    {
+        assertEquals(0, table.findRow("1234"));
+        assertEquals(1, table.findRow("x-9"));
+        assertEquals(2, table.findRow("007"));
+        assertEquals(3, table.findRow("5678"));
+        assertEquals(-1, table.findRow("7"));
+        assertEquals(-1, table.findRow("01234"));
+        assertEquals(-1, table.findRow(null));
+    }
+
+    @Test
+    public void refusesSecondStoreWithSameId()
+    {
+        StoreTable.Builder builder = new StoreTable.Builder(1);
+
+        assertTrue(builder.add(stores.get(0)));
+        assertFalse(builder.add(new Store("1234", "M1 1AA", "Leeds", "Other street", "01/01/2001", null)));
+
+        StoreTable built = builder.build();
+        assertEquals(1, built.size());
+        assertEquals("London", built.getCity(0));
+        assertEquals(Collections.singleton("1234"), built.getDuplicateIds());
+        assertEquals(StoreDiff.hash(stores.get(0)), built.getRowHash(0));
+    }
+
+    @Test
+    public void findsRowsByTheIdOfARowOfAnotherTable()
+    {
+        StoreTable other = StoreTable.of(Arrays.asList(stores.get(3), stores.get(1), stores.get(2),
+                new Store("99", "B1", "Leeds", "", "01/01/2001", null)));
+
+        assertEquals(3, table.findRow(other, 0));
+        assertEquals(1, table.findRow(other, 1));
+        assertEquals(2, table.findRow(other, 2));
+        assertEquals(-1, table.findRow(other, 3));
+    }
+
+    @Test
+    public void keepsFindingStoresAfterGrowing()
+    {
+        StoreTable.Builder builder = new StoreTable.Builder(1);
+        for (int i = 0; i < 1000; i++) {
+            builder.add(new Store(i % 2 == 0 ? String.valueOf(i) : "id" + i, "WC3 3RE", "London", "Street " + i, "11/11/2011", null));
+        }
+        StoreTable built = builder.build();
+
+        for (int i = 0; i < 1000; i++) {
+            int row = built.findRow(i % 2 == 0 ? String.valueOf(i) : "id" + i);
+            assertEquals(i, row);
+            assertEquals("Street " + i, built.getAddress(row));
+        }
+    }
+
+    @Test
+    public void worksOutDaysSinceOpenWhenStoreIsRead()
+    {
+        LocalDate openDate = LocalDate.now().minusDays(10);
+        Store store = new Store("1", "WC3 3RE", "London", "Test street",
+                String.format("%02d/%02d/%d", openDate.getDayOfMonth(), openDate.getMonthValue(), openDate.getYear()), "1");
+
+        StoreTable built = StoreTable.of(Arrays.asList(store));
+
+        assertEquals("10", built.get(0).getDaysSinceOpen());
+        assertNull(table.get(2).getDaysSinceOpen());
+    }
+}
@@ -0,0 +1,199 @@
+package uk.co.pearson;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StoreWriteLogTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final StoreConverter storeConverter = new StoreConverter();
+    private File logFile;
+    private StoreWriteLog storeWriteLog;
+
+    @Before
+    public void openLog() throws Exception {
+        logFile = new File(temporaryFolder.getRoot(), "store-writes.log");
+        storeWriteLog = createLog(1000);
+    }
+
+    @After
+    public void closeLog() throws Exception {
+        storeWriteLog.close();
+    }
+
+    @Test
+    public void writesStoreAndReplaysItAfterRestart() throws Exception {
+        Store written = storeWriteLog.append(store("1234", "Unit 1, \"The\" Mill")).get();
+        storeWriteLog.close();
+
+        storeWriteLog = createLog(1000);
+
+        Store replayed = storeWriteLog.getWrites().get("1234");
+        assertEquals(written.getAddress(), replayed.getAddress());
+        assertEquals(written.getOpenDate(), replayed.getOpenDate());
+    }
+
+    @Test
+    public void keepsLatestVersionOfEveryStore() throws Exception {
+        storeWriteLog.append(store("1234", "First address")).get();
+        storeWriteLog.append(store("5678", "Other address")).get();
+        storeWriteLog.append(store("1234", "Second address")).get();
+
+        assertEquals(2, storeWriteLog.getWrites().size());
+        assertEquals("Second address", storeWriteLog.getWrites().get("1234").getAddress());
+    }
+
+    @Test
+    public void updatesTheWritesInPlace() throws Exception {
+        Map<String, Store> writes = storeWriteLog.getWrites();
+
+        storeWriteLog.append(store("1234", "First address")).get();
+        storeWriteLog.append(store("1234", "Second address")).get();
+
+        assertEquals(1, writes.size());
+        assertEquals("Second address", writes.get("1234").getAddress());
+    }
+
+    @Test
+    public void passesEveryCommittedStoreToTheListenerBeforeAcknowledging() throws Exception {
+        List<Store> committed = new CopyOnWriteArrayList<>();
+        storeWriteLog.setCommitListener(committed::addAll);
+        List<CompletableFuture<Store>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(storeWriteLog.append(store(String.valueOf(i), "Address " + i)));
+        }
+        for (CompletableFuture<Store> future : futures) {
+            Store store = future.get();
+            assertTrue(committed.contains(store));
+        }
+        assertEquals(50, committed.size());
+    }
+
+    @Test
+    public void createsOnlyOneOfConcurrentCreatesWithTheSameId() throws Exception {
+        List<CompletableFuture<Store>> futures = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<CompletableFuture<Store>>> submitted = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                String address = "Address " + i;
+                submitted.add(clients.submit(() ->
+                {
+                    start.await();
+                    return storeWriteLog.appendIfAbsent(store("1234", address));
+                }));
+            }
+            start.countDown();
+            for (Future<CompletableFuture<Store>> future : submitted) {
+                futures.add(future.get());
+            }
+        } finally {
+            clients.shutdown();
+        }
+
+        int created = 0;
+        for (CompletableFuture<Store> future : futures) {
+            try {
+                future.get();
+                created++;
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof StoreConflictException);
+            }
+        }
+        assertEquals(1, created);
+        assertEquals(1, Files.readAllLines(logFile.toPath(), StandardCharsets.UTF_8).size());
+    }
+
+    @Test
+    public void refusesToCreateStoreThatExistsElsewhere() throws Exception {
+        storeWriteLog.setExistingStores("1234"::equals);
+
+        try {
+            storeWriteLog.appendIfAbsent(store("1234", "Test street")).get();
+            fail("Expected a conflict");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof StoreConflictException);
+        }
+        assertEquals("Test street", storeWriteLog.appendIfAbsent(store("5678", "Test street")).get().getAddress());
+        assertEquals(1, storeWriteLog.getWrites().size());
+    }
+
+    @Test
+    public void compactsLogToOneLinePerStore() throws Exception {
+        storeWriteLog.close();
+        storeWriteLog = createLog(10);
+        for (int i = 0; i < 10; i++) {
+            storeWriteLog.append(store(String.valueOf(i % 2), "Address " + i)).get();
+        }
+        // the log is compacted after the tenth write is acknowledged, so wait for the next one to know it is done
+        storeWriteLog.append(store("2", "Address 10")).get();
+
+        List<String> lines = Files.readAllLines(logFile.toPath(), StandardCharsets.UTF_8);
+        assertEquals(3, lines.size());
+        assertEquals("Address 9", storeWriteLog.getWrites().get("1").getAddress());
+    }
+
+    @Test
+    public void dropsIncompleteLastRecordBeforeAppending() throws Exception {
+        storeWriteLog.append(store("1234", "Complete address")).get();
+        storeWriteLog.close();
+        String torn = storeConverter.convertStoreToString(store("5678", "Torn address"));
+        Files.write(logFile.toPath(), torn.substring(0, torn.length() / 2).getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        storeWriteLog = createLog(1000);
+        assertEquals(1, storeWriteLog.getWrites().size());
+        storeWriteLog.append(store("9012", "Appended address")).get();
+        storeWriteLog.close();
+
+        storeWriteLog = createLog(1000);
+        assertEquals(2, storeWriteLog.getWrites().size());
+        assertEquals("Complete address", storeWriteLog.getWrites().get("1234").getAddress());
+        assertEquals("Appended address", storeWriteLog.getWrites().get("9012").getAddress());
+        assertEquals(2, Files.readAllLines(logFile.toPath(), StandardCharsets.UTF_8).size());
+    }
+
+    @Test(expected = Exception.class)
+    public void failsWritesAfterClose() throws Exception {
+        storeWriteLog.close();
+        storeWriteLog.append(store("1234", "Test street")).get();
+    }
+
+    private StoreWriteLog createLog(int compactAfterRecords) throws Exception {
+        StoreWriteLog log = new StoreWriteLog();
+        log.file = logFile.getPath();
+        log.compactAfterRecords = compactAfterRecords;
+        log.storeMetrics = new StoreMetrics();
+        log.open();
+        return log;
+    }
+
+    private Store store(String id, String address) {
+        return storeConverter.createStore(id, "WC33RE", "London", address, "11/11/2011");
+    }
+}